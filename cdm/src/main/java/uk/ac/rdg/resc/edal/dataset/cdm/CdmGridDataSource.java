@@ -28,15 +28,19 @@
 
 package uk.ac.rdg.resc.edal.dataset.cdm;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ucar.ma2.Array;
 import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.NetcdfDataset.Enhance;
 import ucar.nc2.dataset.VariableDS;
 import ucar.nc2.dt.GridDataset;
@@ -44,6 +48,7 @@ import ucar.nc2.dt.GridDatatype;
 import uk.ac.rdg.resc.edal.dataset.GridDataSource;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
 
 /**
  * Implementation of {@link GridDataSource} using the Unidata Common Data Model
@@ -60,39 +65,174 @@ final class CdmGridDataSource implements GridDataSource {
     private Map<String, RangesList> rangeListCache = new HashMap<>();
 
     /*
-     * This is used to synchronize the actual reading. This is necessary because
-     * we have the following model:
+     * When a NetcdfDataset is shared between CdmGridDataSource instances (the
+     * CdmGridDatasetFactory caches a single NetcdfDataset per location),
+     * concurrent reads from it cause the array indices to be set incorrectly,
+     * and we get an ArrayIndexOutOfBoundsException. In that case reads are
+     * guarded by a lock which is specific to the location, so that reads from
+     * different files can still proceed concurrently.
      * 
-     * There is a single NetcdfDataset object per dataset, which gets cached,
-     * and closed when the cache becomes full. This is because the overhead of
-     * creating a NetcdfDataset is high.
-     * 
-     * Each time CdmGridDataset.openGridDataSource() is called, a *new*
-     * CdmGridDataSource is created. We can't keep the individual
-     * CdmGridDataSource objects in memory because it's not predictable as to
-     * when the underlying NetcdfDataset will be closed. The overhead of
-     * creating a new CdmGridDataSource is very low compared to the creation of
-     * a NetcdfDataset.
-     * 
-     * When read() is called on separate instances of CdmGridDataSource which
-     * refer to the same location, something happens which causes the array
-     * indices to be set incorrectly, and we get an
-     * ArrayIndexOutOfBoundsException. We can't synchronize on a non-static
-     * object, because these are all separate instances.
+     * If this CdmGridDataSource has exclusive access to its NetcdfDataset
+     * (e.g. it has been checked out of a NetcdfDatasetPool) no lock is needed.
+     */
+    private final ReentrantLock readLock;
+    /*
+     * Used to release the NetcdfDataset (back to the cache or pool it came
+     * from) when this CdmGridDataSource is closed
+     */
+    private Closeable releaser;
+    /*
+     * Cache of decoded chunks of data, shared between all CdmGridDataSources.
+     * May be null, in which case every read goes to the underlying dataset.
+     */
+    private final SourceChunkCache chunkCache;
+    private final String location;
+
+    /*
+     * Statistics on read contention, across all locations
+     */
+    private static final AtomicLong numReads = new AtomicLong(0L);
+    private static final AtomicLong numContendedReads = new AtomicLong(0L);
+    private static final AtomicLong totalWaitNanos = new AtomicLong(0L);
+
+    /**
+     * Creates a {@link CdmGridDataSource}
      * 
-     * This could also have been solved by removing NetcdfDataset caching. I
-     * think that this would have a bigger effect on the speed, although that
-     * may depend on the use case.
+     * @param gridDataset
+     *            The {@link GridDataset} to read from
+     * @param readLock
+     *            The lock which must be held whilst reading from the
+     *            underlying {@link NetcdfDataset}, or <code>null</code> if
+     *            this {@link CdmGridDataSource} has exclusive access to it
+     * @param releaser
+     *            Called when this {@link CdmGridDataSource} is closed, to
+     *            release the underlying {@link NetcdfDataset}. May be
+     *            <code>null</code>
      */
-    private static Object syncObj = new Object();
+    public CdmGridDataSource(GridDataset gridDataset, ReentrantLock readLock, Closeable releaser) {
+        this(gridDataset, readLock, releaser, null, null);
+    }
 
-    public CdmGridDataSource(GridDataset gridDataset) {
+    /**
+     * Creates a {@link CdmGridDataSource} which caches the data it reads
+     * 
+     * @param gridDataset
+     *            The {@link GridDataset} to read from
+     * @param readLock
+     *            The lock which must be held whilst reading from the
+     *            underlying {@link NetcdfDataset}, or <code>null</code> if
+     *            this {@link CdmGridDataSource} has exclusive access to it
+     * @param releaser
+     *            Called when this {@link CdmGridDataSource} is closed, to
+     *            release the underlying {@link NetcdfDataset}. May be
+     *            <code>null</code>
+     * @param chunkCache
+     *            The {@link SourceChunkCache} to store map data in. May be
+     *            <code>null</code>
+     * @param location
+     *            The location of the dataset, used to identify its data in
+     *            the {@link SourceChunkCache}
+     */
+    public CdmGridDataSource(GridDataset gridDataset, ReentrantLock readLock,
+            Closeable releaser, SourceChunkCache chunkCache, String location) {
         this.gridDataset = gridDataset;
+        this.readLock = readLock;
+        this.releaser = releaser;
+        this.chunkCache = chunkCache;
+        this.location = location;
     }
 
     @Override
     public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
             int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+        if (chunkCache != null && tmin == tmax && zmin == zmax && chunkCache.isEnabled()) {
+            FloatArray4D cached = readFromChunks(variableId, tmin, zmin, ymin, ymax, xmin, xmax);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return readFromDataset(variableId, tmin, tmax, zmin, zmax, ymin, ymax, xmin, xmax);
+    }
+
+    /**
+     * Reads a horizontal slice of data by assembling it from chunks in the
+     * {@link SourceChunkCache}. Missing chunks are read from the dataset and
+     * added to the cache, unless only a single point has been requested.
+     * Single point reads (e.g. for the pixel-by-pixel strategy or
+     * GetFeatureInfo) are only satisfied from the cache if all of the data
+     * they need is already present, since reading an entire chunk for each
+     * point would be very slow.
+     * 
+     * @return The data, or <code>null</code> if it should be read directly
+     *         from the dataset instead
+     */
+    private FloatArray4D readFromChunks(String variableId, int t, int z, int ymin, int ymax,
+            int xmin, int xmax) throws IOException, DataReadingException {
+        GridDatatype gridDatatype = gridDataset.findGridDatatype(variableId);
+        if (gridDatatype == null || gridDatatype.getXDimension() == null
+                || gridDatatype.getYDimension() == null) {
+            return null;
+        }
+        int xSize = gridDatatype.getXDimension().getLength();
+        int ySize = gridDatatype.getYDimension().getLength();
+        if (xmin < 0 || ymin < 0 || xmax >= xSize || ymax >= ySize || xmin > xmax || ymin > ymax) {
+            /*
+             * Let the underlying dataset deal with invalid ranges
+             */
+            return null;
+        }
+        boolean populate = ymin != ymax || xmin != xmax;
+        long generation = chunkCache.getGeneration(location);
+
+        int width = xmax - xmin + 1;
+        FloatArray4D ret = new FloatArray4D(1, 1, ymax - ymin + 1, width);
+        float[] retData = ret.getFloats();
+        for (int chunkY = ymin / SourceChunkCache.CHUNK_SIZE; chunkY <= ymax
+                / SourceChunkCache.CHUNK_SIZE; chunkY++) {
+            int chunkYStart = chunkY * SourceChunkCache.CHUNK_SIZE;
+            int chunkYEnd = Math.min(chunkYStart + SourceChunkCache.CHUNK_SIZE, ySize) - 1;
+            for (int chunkX = xmin / SourceChunkCache.CHUNK_SIZE; chunkX <= xmax
+                    / SourceChunkCache.CHUNK_SIZE; chunkX++) {
+                int chunkXStart = chunkX * SourceChunkCache.CHUNK_SIZE;
+                int chunkXEnd = Math.min(chunkXStart + SourceChunkCache.CHUNK_SIZE, xSize) - 1;
+
+                SourceChunkCache.ChunkKey key = new SourceChunkCache.ChunkKey(location,
+                        variableId, t, z, chunkY, chunkX);
+                FloatArray4D chunk = chunkCache.get(key);
+                if (chunk == null) {
+                    if (!populate) {
+                        return null;
+                    }
+                    chunk = readFromDataset(variableId, t, t, z, z, chunkYStart, chunkYEnd,
+                            chunkXStart, chunkXEnd);
+                    chunkCache.put(key, chunk, generation);
+                }
+
+                /*
+                 * Copy the overlapping rows of the chunk into the result
+                 */
+                float[] chunkData = chunk.getFloats();
+                int chunkWidth = chunkXEnd - chunkXStart + 1;
+                int x0 = Math.max(xmin, chunkXStart);
+                int x1 = Math.min(xmax, chunkXEnd);
+                int y0 = Math.max(ymin, chunkYStart);
+                int y1 = Math.min(ymax, chunkYEnd);
+                for (int y = y0; y <= y1; y++) {
+                    System.arraycopy(chunkData, (y - chunkYStart) * chunkWidth
+                            + (x0 - chunkXStart), retData, (y - ymin) * width + (x0 - xmin),
+                            x1 - x0 + 1);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads data directly from the underlying dataset
+     */
+    private FloatArray4D readFromDataset(String variableId, int tmin, int tmax, int zmin,
+            int zmax, int ymin, int ymax, int xmin, int xmax) throws IOException,
+            DataReadingException {
         /*
          * Get hold of the variable from which we want to read data
          */
@@ -127,23 +267,27 @@ final class CdmGridDataSource implements GridDataSource {
         final Array arr;
         Variable origVar = var.getOriginalVariable();
 
-        try {
+        if (readLock != null) {
             /*
-             * See definition of syncObj for explanation of synchronization
+             * See definition of readLock for explanation of locking
              */
+            if (!readLock.tryLock()) {
+                long start = System.nanoTime();
+                readLock.lock();
+                recordWait(System.nanoTime() - start);
+            }
+        }
+        numReads.incrementAndGet();
+        try {
             if (origVar == null) {
-                synchronized (syncObj) {
-                    /* We read from the enhanced variable */
-                    arr = var.read(rangesList.getRanges());
-                }
+                /* We read from the enhanced variable */
+                arr = var.read(rangesList.getRanges());
             } else {
-                synchronized (syncObj) {
-                    /*
-                     * We read from the original variable to avoid enhancing
-                     * data values that we won't use
-                     */
-                    arr = origVar.read(rangesList.getRanges());
-                }
+                /*
+                 * We read from the original variable to avoid enhancing data
+                 * values that we won't use
+                 */
+                arr = origVar.read(rangesList.getRanges());
             }
         } catch (InvalidRangeException ire) {
             throw new DataReadingException("Cannot read data - invalid range specified", ire);
@@ -154,6 +298,10 @@ final class CdmGridDataSource implements GridDataSource {
 //            System.out.println(ymin+" -> "+tmax);
             System.out.println(this + " caused out of bounds");
             throw e;
+        } finally {
+            if (readLock != null) {
+                readLock.unlock();
+            }
         }
 
         /*
@@ -174,145 +322,174 @@ final class CdmGridDataSource implements GridDataSource {
         }
 
         /*
-         * Returns a 4D array that wraps the Array
+         * Copy the values into a float-backed 4D array. Doing this in a single
+         * pass means that values do not need to be boxed when they are used
+         * by the DataReadingStrategy
          */
-        int[] shape = new int[] { (tmax - tmin + 1), (zmax - zmin + 1), (ymax - ymin + 1),
-                (xmax - xmin + 1) };
-        WrappedArray wrappedArray = new WrappedArray(var, arr, needsEnhance, shape, rangesList);
-        return wrappedArray;
+        FloatArray4D ret = new FloatArray4D((tmax - tmin + 1), (zmax - zmin + 1),
+                (ymax - ymin + 1), (xmax - xmin + 1));
+        copyValues(var, arr, needsEnhance, rangesList, ret);
+        return ret;
     }
 
     @Override
     public void close() throws IOException {
         /*
-         * We do not close this DataSource. The CdmGridDatasetFactory keeps a
-         * cache of NetcdfDataset objects and will close them when the cache
-         * becomes full.
+         * We do not close the underlying NetcdfDataset. The
+         * CdmGridDatasetFactory keeps a cache of NetcdfDataset objects and will
+         * close them when they are evicted from the cache.
          * 
          * This is a big speed improvement when the same dataset is accessed
          * multiple times in quick succession
+         * 
+         * Instead we release it, so that the cache knows it is no longer in
+         * use. This may be called more than once, so we make sure only to do
+         * so once.
          */
+        Closeable toRelease;
+        synchronized (this) {
+            toRelease = releaser;
+            releaser = null;
+        }
+        if (toRelease != null) {
+            toRelease.close();
+        }
     }
 
-    private static final class WrappedArray extends Array4D<Number> {
-        private VariableDS var;
-        private Array arr;
-        private boolean needsEnhance;
-        private final int[] shape;
-        private final int xAxisIndex;
-        private final int yAxisIndex;
-        private final int zAxisIndex;
-        private final int tAxisIndex;
+    /**
+     * Records the time a read spent waiting for access to a location
+     * 
+     * @param nanos
+     *            The time spent waiting, in nanoseconds
+     */
+    static void recordWait(long nanos) {
+        numContendedReads.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+    }
 
-        public WrappedArray(VariableDS var, Array arr, boolean needsEnhance, int[] shape,
-                RangesList rangesList) {
-            super(shape[0], shape[1], shape[2], shape[3]);
-            this.var = var;
-            this.arr = arr;
-            this.needsEnhance = needsEnhance;
-            this.shape = shape;
+    /**
+     * @return The total number of reads performed by all
+     *         {@link CdmGridDataSource}s
+     */
+    static long getNumReads() {
+        return numReads.get();
+    }
 
-            xAxisIndex = rangesList.getXAxisIndex();
-            yAxisIndex = rangesList.getYAxisIndex();
-            zAxisIndex = rangesList.getZAxisIndex();
-            tAxisIndex = rangesList.getTAxisIndex();
-        }
+    /**
+     * @return The number of reads (or checkouts of pooled datasets) which had
+     *         to wait for another thread to finish with a location
+     */
+    static long getNumContendedReads() {
+        return numContendedReads.get();
+    }
 
-        @Override
-        public int[] getShape() {
-            return shape;
-        }
+    /**
+     * @return The total time, in milliseconds, which has been spent waiting
+     *         for access to locations
+     */
+    static long getTotalWaitMillis() {
+        return totalWaitNanos.get() / 1000000L;
+    }
 
-        @Override
-        public Number get(int... coords) {
-            /*
-             * The convention is that the x coordinate varies fastest
-             */
-            int x = coords[3];
-            int y = coords[2];
-            int z = coords[1];
-            int t = coords[0];
+    /**
+     * Copies values from a CDM {@link Array} into a {@link FloatArray4D},
+     * enhancing them if necessary and replacing missing values with
+     * {@link Float#NaN}
+     * 
+     * @param var
+     *            The {@link VariableDS} which the data was read from
+     * @param arr
+     *            The {@link Array} of data which was read
+     * @param needsEnhance
+     *            Whether the values in the {@link Array} need enhancing
+     * @param rangesList
+     *            The {@link RangesList} used for reading, which defines the
+     *            order of the axes in the {@link Array}
+     * @param target
+     *            The {@link FloatArray4D} to copy values into. The x
+     *            coordinate varies fastest.
+     */
+    private static void copyValues(VariableDS var, Array arr, boolean needsEnhance,
+            RangesList rangesList, FloatArray4D target) {
+        int xAxisIndex = rangesList.getXAxisIndex();
+        int yAxisIndex = rangesList.getYAxisIndex();
+        int zAxisIndex = rangesList.getZAxisIndex();
+        int tAxisIndex = rangesList.getTAxisIndex();
 
-            /*
-             * Create a new index
-             */
-            Index index = arr.getIndex();
-            /*
-             * Set the index values
-             */
+        /*
+         * A single Index is reused for every value
+         */
+        Index index = arr.getIndex();
+        for (int t = 0; t < target.getTSize(); t++) {
             if (tAxisIndex >= 0)
                 index.setDim(tAxisIndex, t);
-            if (zAxisIndex >= 0)
-                index.setDim(zAxisIndex, z);
-            if (yAxisIndex >= 0)
-                index.setDim(yAxisIndex, y);
-            if (xAxisIndex >= 0)
-                index.setDim(xAxisIndex, x);
+            for (int z = 0; z < target.getZSize(); z++) {
+                if (zAxisIndex >= 0)
+                    index.setDim(zAxisIndex, z);
+                for (int y = 0; y < target.getYSize(); y++) {
+                    if (yAxisIndex >= 0)
+                        index.setDim(yAxisIndex, y);
+                    for (int x = 0; x < target.getXSize(); x++) {
+                        if (xAxisIndex >= 0)
+                            index.setDim(xAxisIndex, x);
 
-            double val = arr.getFloat(index);
-            if (needsEnhance) {
-                val = var.convertScaleOffsetMissing(val);
-            }
-            if (isMissing(val)) {
-                /*
-                 * In NcML aggregations, there is a double/float overflow issue
-                 * which means that isMissing can return true in cases where it
-                 * should be false.
-                 */
-                return null;
-            } else {
-                return (float) val;
+                        double val = arr.getFloat(index);
+                        if (needsEnhance) {
+                            val = var.convertScaleOffsetMissing(val);
+                        }
+                        /*
+                         * In NcML aggregations, there is a double/float
+                         * overflow issue which means that isMissing can
+                         * return true in cases where it should be false.
+                         */
+                        if (!isMissing(var, val)) {
+                            target.setFloat((float) val, t, z, y, x);
+                        }
+                    }
+                }
             }
         }
+    }
 
-        @Override
-        public void set(Number val, int... coords) {
-            throw new UnsupportedOperationException("Modification not supported.");
-        }
-
-        @Override
-        public long size() {
-            return shape[0] * shape[1] * shape[2] * shape[3];
+    /**
+     * Performs the same checks as {@link VariableDS#isMissing(double)}, but
+     * allows a tolerance of 1e-7 on the maximum and minimum values. This is
+     * because when using aggregations we have no underlying original variable.
+     * In these cases, the valid min/max get automatically enhanced as doubles,
+     * but the value gets enhanced as its underlying data type. If this is a
+     * float, then rounding errors can occur.
+     * 
+     * e.g. the valid max may be 1.0f, but 0.9999999776482582. The valid max is
+     * represented in the double form, but the value is represented in the
+     * floating point form is 1.0, which is greater than the valid max, even if
+     * in the underlying data they are equal.
+     * 
+     * @param var
+     *            The {@link VariableDS} which the value was read from
+     * @param val
+     *            The value to check
+     * @return Whether or not this should be considered missing data
+     */
+    private static boolean isMissing(VariableDS var, double val) {
+        if (Double.isNaN(val)) {
+            return true;
         }
-
-        /**
-         * Performs the same checks as {@link VariableDS#isMissing(double)}, but
-         * allows a tolerance of 1e-7 on the maximum and minimum values. This is
-         * because when using aggregations we have no underlying original
-         * variable. In these cases, the valid min/max get automatically
-         * enhanced as doubles, but the value gets enhanced as its underlying
-         * data type. If this is a float, then rounding errors can occur.
-         * 
-         * e.g. the valid max may be 1.0f, but 0.9999999776482582. The valid max
-         * is represented in the double form, but the value is represented in
-         * the floating point form is 1.0, which is greater than the valid max,
-         * even if in the underlying data they are equal.
-         * 
-         * @param val
-         *            The value to check
-         * @return Whether or not this should be considered missing data
-         */
-        private boolean isMissing(double val) {
-            if (Double.isNaN(val)) {
-                return true;
-            }
-            if (var.hasMissingValue() && var.isMissingValue(val)) {
-                return true;
-            } else if (var.hasFillValue() && var.isFillValue(val)) {
-                return true;
-            } else if (var.hasInvalidData()) {
-                if (var.getValidMax() != -Double.MAX_VALUE) {
-                    if (val > var.getValidMax() && (val - var.getValidMax()) > 1e-7) {
-                        return true;
-                    }
+        if (var.hasMissingValue() && var.isMissingValue(val)) {
+            return true;
+        } else if (var.hasFillValue() && var.isFillValue(val)) {
+            return true;
+        } else if (var.hasInvalidData()) {
+            if (var.getValidMax() != -Double.MAX_VALUE) {
+                if (val > var.getValidMax() && (val - var.getValidMax()) > 1e-7) {
+                    return true;
                 }
-                if (var.getValidMin() != Double.MAX_VALUE) {
-                    if (val < var.getValidMin() && (var.getValidMin() - val) > 1e-7) {
-                        return true;
-                    }
+            }
+            if (var.getValidMin() != Double.MAX_VALUE) {
+                if (val < var.getValidMin() && (var.getValidMin() - val) > 1e-7) {
+                    return true;
                 }
             }
-            return false;
         }
+        return false;
     }
 }
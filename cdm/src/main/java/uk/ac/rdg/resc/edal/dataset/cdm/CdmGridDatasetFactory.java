@@ -28,25 +28,24 @@
 
 package uk.ac.rdg.resc.edal.dataset.cdm;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ucar.ma2.DataType;
 import ucar.nc2.Attribute;
-import ucar.nc2.Dimension;
-import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.dataset.VariableDS;
@@ -59,14 +58,17 @@ import uk.ac.rdg.resc.edal.dataset.Dataset;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
 import uk.ac.rdg.resc.edal.dataset.GridDataSource;
 import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.dataset.cdm.GridMetadataStore.DatasetMetadata;
 import uk.ac.rdg.resc.edal.dataset.plugins.MeanSDPlugin;
 import uk.ac.rdg.resc.edal.dataset.plugins.VectorPlugin;
+import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
 import uk.ac.rdg.resc.edal.grid.TimeAxis;
 import uk.ac.rdg.resc.edal.grid.VerticalAxis;
 import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
 import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
 
 /**
@@ -76,8 +78,10 @@ import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
  * Although multiple instances of this {@link DatasetFactory} can be created,
  * all share a common cache of NetcdfDataset objects to speed up operations
  * where the same dataset is accessed multiple times. To avoid excess file
- * handles being open, this is a LRU cache which closes the datasets when they
- * expire.
+ * handles being open, this cache is bounded by the number of datasets and the
+ * number of open files, and closes datasets when they are evicted. Its limits
+ * can be set with
+ * {@link CdmGridDatasetFactory#setDatasetCacheLimits(int, int, int)}.
  * 
  * @author Guy Griffiths
  * @author Jon
@@ -85,46 +89,123 @@ import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
 public final class CdmGridDatasetFactory extends DatasetFactory {
     private static final Logger log = LoggerFactory.getLogger(CdmGridDatasetFactory.class);
 
-    private static final int DATASET_CACHE_SIZE = 10;
+    /*
+     * Default limits for the cache of NetcdfDatasets
+     */
+    private static final int DEFAULT_CACHE_MAX_DATASETS = 10;
+    private static final int DEFAULT_CACHE_MAX_OPEN_FILES = 500;
+    private static final int DEFAULT_CACHE_IDLE_MINUTES = 30;
+
+    private static final long DEFAULT_CHUNK_CACHE_BYTES = 64L * 1024L * 1024L;
 
-    private static Map<String, String> ncmlStringCache = new HashMap<>();
+    /*
+     * The aggregations of local files which have been opened, keyed on
+     * location
+     */
+    private static ConcurrentHashMap<String, GlobAggregation> aggregations = new ConcurrentHashMap<>();
     /**
-     * A LRU cache of {@link NetcdfDataset}s.
+     * A cache of {@link NetcdfDataset}s, which closes the datasets when they
+     * are evicted.
      */
-    private static Map<String, NetcdfDataset> datasetCache = new LinkedHashMap<String, NetcdfDataset>(
-            DATASET_CACHE_SIZE + 1, 1.0f, true) {
-        private static final long serialVersionUID = 1L;
-
-        protected boolean removeEldestEntry(Map.Entry<String, NetcdfDataset> eldest) {
-            /*
-             * If we are going to remove the eldest entry, we also want to call
-             * the close method on it before allowing LinkedHashMap to do the
-             * actual removal
-             */
-            if (super.size() > DATASET_CACHE_SIZE) {
-                try {
-                    CdmUtils.closeDataset(eldest.getValue());
-                } catch (IOException e) {
+    private static NetcdfDatasetCache datasetCache = new NetcdfDatasetCache(
+            new NetcdfDatasetCache.DatasetOpener() {
+                @Override
+                public NetcdfDataset open(String location) throws IOException, EdalException {
                     /*
-                     * If we can't close it, do not remove it...
+                     * The dataset is being (re)opened, possibly because its
+                     * files have changed, so any data we have cached from it
+                     * may be out of date
                      */
-                    return false;
+                    chunkCache.invalidate(location);
+                    return openUncachedDataset(location);
                 }
-                return true;
-            }
-            return false;
-        };
+            }, DEFAULT_CACHE_MAX_DATASETS, DEFAULT_CACHE_MAX_OPEN_FILES,
+            DEFAULT_CACHE_IDLE_MINUTES);
+    /**
+     * A cache of chunks of data which have been read from the datasets
+     */
+    private static SourceChunkCache chunkCache = new SourceChunkCache(DEFAULT_CHUNK_CACHE_BYTES);
+    /*
+     * Stores the metadata of datasets on disk. null if this is disabled
+     */
+    private static volatile GridMetadataStore metadataStore = null;
 
-    };
+    /*
+     * Locks used to serialise reads from shared NetcdfDatasets, and pools of
+     * independent NetcdfDatasets for datasets which allow concurrent reads.
+     * Both are keyed on location.
+     */
+    private static ConcurrentHashMap<String, ReentrantLock> readLocks = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<String, NetcdfDatasetPool> datasetPools = new ConcurrentHashMap<>();
 
     @Override
     public GriddedDataset createDataset(String id, String location) throws IOException,
             EdalException {
-        NetcdfDataset nc = null;
+        return createDataset(id, location, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * If <code>maxConcurrentReads</code> is greater than 1, the returned
+     * dataset will read from a pool of up to that many independent
+     * {@link NetcdfDataset}s. Otherwise it will share a cached
+     * {@link NetcdfDataset} and reads on the same location will be serialised.
+     */
+    @Override
+    public GriddedDataset createDataset(String id, String location, int maxConcurrentReads)
+            throws IOException, EdalException {
+        /*
+         * If we have seen this dataset before, we may not need to open it
+         */
+        GridMetadataStore store = metadataStore;
+        if (store != null) {
+            DatasetMetadata metadata = store.read(location);
+            if (metadata != null) {
+                return createDataset(id, location, maxConcurrentReads, metadata);
+            }
+        }
+
         /*
-         * Open the dataset, using the cache for NcML aggregations
+         * Open the dataset, using the cache
          */
-        nc = openAndAggregateDataset(location);
+        DatasetMetadata metadata;
+        NetcdfDatasetCache.Handle handle = datasetCache.acquire(location);
+        try {
+            metadata = readMetadata(handle.getDataset());
+        } finally {
+            handle.close();
+        }
+        if (store != null) {
+            store.write(location, metadata);
+        }
+        return createDataset(id, location, maxConcurrentReads, metadata);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This removes the dataset from the cache of open {@link NetcdfDataset}s,
+     * along with any data which have been cached from it.
+     */
+    @Override
+    public void dataChanged(String location) {
+        invalidateCachedDataset(location);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This closes any cached {@link NetcdfDataset}s for the location, and
+     * discards the record of the files in it if it is an aggregation.
+     */
+    @Override
+    public void datasetRemoved(String location) {
+        invalidateCachedDataset(location);
+        aggregations.remove(location);
+    }
+
+    private DatasetMetadata readMetadata(NetcdfDataset nc) throws IOException, EdalException {
 
         /*-
          * We may in future be able to use forecast model run collection aggregations for
@@ -135,7 +216,7 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
          * Formatter formatter = new Formatter(sb, Locale.UK);
          * Fmrc f = Fmrc.open(location, formatter);
          * 
-         * in openAndAggregateDataset.  It will need to build up an NcML document which
+         * in openUncachedDataset.  It will need to build up an NcML document which
          * does this.  It should look something like:
          * 
          *  <netcdf xmlns="http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2" enhance="true">
@@ -246,7 +327,7 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
                 }
 
                 Parameter parameter = new Parameter(varId, name, variable.getDescription(),
-                        variable.getUnitsString(), standardName);
+                        variable.getUnitsString(), standardName, getDeclaredValueRange(variable));
                 GridVariableMetadata metadata = new GridVariableMetadata(parameter, hDomain,
                         zDomain, tDomain, true);
                 vars.add(metadata);
@@ -320,17 +401,18 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
             }
         }
 
-        CdmGridDataset cdmGridDataset = new CdmGridDataset(id, location, vars,
-                CdmUtils.getOptimumDataReadingStrategy(nc));
+        List<String[]> vectors = new ArrayList<String[]>();
         for (Entry<String, String[]> componentData : xyComponentPairs.entrySet()) {
             String commonName = componentData.getKey();
             String[] comps = componentData.getValue();
             if (comps[0] != null && comps[1] != null) {
-                cdmGridDataset.addVariablePlugin(new VectorPlugin(comps[0], comps[1], commonName,
-                        xyNameToTrueEN.get(commonName)));
+                vectors.add(new String[] { comps[0], comps[1], commonName,
+                        xyNameToTrueEN.get(commonName).toString() });
             }
         }
 
+        List<String[]> meanSDs = new ArrayList<String[]>();
+
         for (String statsCollectionId : varId2AncillaryVars.keySet()) {
             String[] ids = varId2AncillaryVars.get(statsCollectionId);
             String meanId = null;
@@ -348,41 +430,85 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
                 }
             }
             if (meanId != null && stddevId != null) {
-                MeanSDPlugin meanSDPlugin = new MeanSDPlugin(meanId, stddevId,
-                        parentVarId2Title.get(statsCollectionId));
-                cdmGridDataset.addVariablePlugin(meanSDPlugin);
+                meanSDs.add(new String[] { meanId, stddevId,
+                        parentVarId2Title.get(statsCollectionId) });
             }
         }
 
+        return new DatasetMetadata(vars, CdmUtils.getOptimumDataReadingStrategy(nc), vectors,
+                meanSDs);
+    }
+
+    private GriddedDataset createDataset(String id, String location, int maxConcurrentReads,
+            DatasetMetadata metadata) throws EdalException {
+        CdmGridDataset cdmGridDataset = new CdmGridDataset(id, location, metadata.vars,
+                metadata.dataReadingStrategy, maxConcurrentReads);
+        for (String[] vector : metadata.vectors) {
+            cdmGridDataset.addVariablePlugin(new VectorPlugin(vector[0], vector[1], vector[2],
+                    Boolean.parseBoolean(vector[3])));
+        }
+        for (String[] meanSD : metadata.meanSDs) {
+            cdmGridDataset.addVariablePlugin(new MeanSDPlugin(meanSD[0], meanSD[1], meanSD[2]));
+        }
         return cdmGridDataset;
     }
 
     private final class CdmGridDataset extends GriddedDataset {
         private final String location;
         private final DataReadingStrategy dataReadingStrategy;
+        private final int maxConcurrentReads;
 
         public CdmGridDataset(String id, String location, Collection<GridVariableMetadata> vars,
-                DataReadingStrategy dataReadingStrategy) {
+                DataReadingStrategy dataReadingStrategy, int maxConcurrentReads) {
             super(id, vars);
             this.location = location;
             this.dataReadingStrategy = dataReadingStrategy;
+            this.maxConcurrentReads = maxConcurrentReads;
         }
 
         @Override
         protected GridDataSource openGridDataSource() throws IOException {
-            NetcdfDataset nc;
+            if (maxConcurrentReads > 1) {
+                /*
+                 * Get the pool each time, since it is replaced when the
+                 * dataset changes
+                 */
+                final NetcdfDatasetPool pool = getDatasetPool(location, maxConcurrentReads);
+                final NetcdfDataset nc = pool.checkOut();
+                Closeable releaser = new Closeable() {
+                    @Override
+                    public void close() {
+                        pool.checkIn(nc);
+                    }
+                };
+                try {
+                    return new CdmGridDataSource(CdmUtils.getGridDataset(nc), null, releaser,
+                            chunkCache, location);
+                } catch (IOException | RuntimeException e) {
+                    releaser.close();
+                    throw e;
+                }
+            }
+            NetcdfDatasetCache.Handle handle;
             try {
-                nc = openAndAggregateDataset(location);
+                handle = datasetCache.acquire(location);
             } catch (EdalException e) {
                 throw new IOException("Problem aggregating datasets", e);
             }
-            synchronized (this) {
-                /*
-                 * If the getGridDataset method runs concurrently on the same
-                 * object, we can get a ConcurrentModificationException, so we
-                 * synchronise this action to avoid the issue.
-                 */
-                return new CdmGridDataSource(CdmUtils.getGridDataset(nc));
+            try {
+                synchronized (this) {
+                    /*
+                     * If the getGridDataset method runs concurrently on the
+                     * same object, we can get a
+                     * ConcurrentModificationException, so we synchronise this
+                     * action to avoid the issue.
+                     */
+                    return new CdmGridDataSource(CdmUtils.getGridDataset(handle.getDataset()),
+                            getReadLock(location), handle, chunkCache, location);
+                }
+            } catch (IOException | RuntimeException e) {
+                handle.close();
+                throw e;
             }
         }
 
@@ -390,36 +516,280 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
         protected DataReadingStrategy getDataReadingStrategy() {
             return dataReadingStrategy;
         }
+
+        @Override
+        public String getDataVersion() {
+            /*
+             * Remote datasets have no files, and we cannot tell when they
+             * change
+             */
+            List<File> files = NetcdfDatasetCache.getFiles(location);
+            if (files.isEmpty()) {
+                return null;
+            }
+            return files.size() + ":" + NetcdfDatasetCache.getLastModified(files);
+        }
+    }
+
+    /**
+     * Gets the lock which guards reads from the shared {@link NetcdfDataset} at
+     * a location
+     */
+    private static ReentrantLock getReadLock(String location) {
+        ReentrantLock lock = readLocks.get(location);
+        if (lock == null) {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = readLocks.putIfAbsent(location, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Gets the {@link NetcdfDatasetPool} for a location, creating it if
+     * necessary. If an existing pool has a different size it is replaced and
+     * retired.
+     */
+    private static NetcdfDatasetPool getDatasetPool(String location, int size) {
+        NetcdfDatasetPool pool = datasetPools.get(location);
+        if (pool != null && pool.getSize() == size) {
+            return pool;
+        }
+        return createDatasetPool(location, size);
+    }
+
+    private static synchronized NetcdfDatasetPool createDatasetPool(final String location,
+            int size) {
+        NetcdfDatasetPool pool = datasetPools.get(location);
+        if (pool == null || pool.getSize() != size) {
+            if (pool != null) {
+                pool.retire();
+            }
+            pool = new NetcdfDatasetPool(size, new NetcdfDatasetPool.HandleOpener() {
+                @Override
+                public NetcdfDataset open() throws IOException {
+                    try {
+                        return openUncachedDataset(location);
+                    } catch (EdalException e) {
+                        throw new IOException("Problem aggregating datasets", e);
+                    }
+                }
+            });
+            datasetPools.put(location, pool);
+        }
+        return pool;
     }
 
     /**
-     * Opens the NetCDF dataset at the given location, using the dataset cache
-     * if {@code location} represents an NcML aggregation. We cannot use the
-     * cache for OPeNDAP or single NetCDF files because the underlying data may
-     * have changed and the NetcdfDataset cache may cache a dataset forever. In
-     * the case of NcML we rely on the fact that server administrators ought to
-     * have set a "recheckEvery" parameter for NcML aggregations that may change
-     * with time. It is desirable to use the dataset cache for NcML aggregations
-     * because they can be time-consuming to assemble and we don't want to do
-     * this every time a map is drawn.
+     * Sets the limits on the cache of open {@link NetcdfDataset}s which is
+     * shared by all {@link CdmGridDatasetFactory}s. Datasets will be evicted
+     * (and closed once no longer in use) if necessary.
+     * 
+     * @param maxDatasets
+     *            The maximum number of datasets to keep open
+     * @param maxOpenFiles
+     *            The maximum number of files which the cached datasets may
+     *            hold open. Aggregations count as one file per member.
+     * @param idleTimeoutMinutes
+     *            The time after which unused datasets will be closed. Zero or
+     *            less means that datasets will only be closed when the cache
+     *            is full.
+     */
+    public static void setDatasetCacheLimits(int maxDatasets, int maxOpenFiles,
+            int idleTimeoutMinutes) {
+        datasetCache.setLimits(maxDatasets, maxOpenFiles, idleTimeoutMinutes);
+    }
+
+    /**
+     * Removes the dataset at the given location from the cache of open
+     * {@link NetcdfDataset}s, and retires any pool of {@link NetcdfDataset}s
+     * for it, so that it will be reopened when it is next accessed
      * 
      * @param location
-     *            The location of the data: a local NetCDF file, an NcML
-     *            aggregation file or an OPeNDAP location, {@literal i.e.}
-     *            anything that can be passed to
-     *            NetcdfDataset.openDataset(location).
+     *            The location of the dataset
+     */
+    public static void invalidateCachedDataset(String location) {
+        datasetCache.invalidate(location);
+        /*
+         * Retire any pool of datasets, so that a new one is opened on the next
+         * read
+         */
+        NetcdfDatasetPool pool;
+        synchronized (CdmGridDatasetFactory.class) {
+            pool = datasetPools.remove(location);
+        }
+        if (pool != null) {
+            pool.retire();
+        }
+        chunkCache.invalidate(location);
+    }
+
+    /**
+     * Sets whether the metadata of datasets which are single local files is
+     * stored in the "metadata" subdirectory of the working directory (see
+     * {@link DatasetFactory#setWorkingDirectory(File)}). Creating a dataset
+     * whose file has not changed since its metadata was stored does not
+     * require opening the file and analysing its coordinate systems.
      * 
-     * @return a {@link NetcdfDataset} object for accessing the data at the
-     *         given location.
+     * @param enabled
+     *            <code>true</code> to store dataset metadata. This has no
+     *            effect if no working directory has been set.
+     */
+    public static void setMetadataStoreEnabled(boolean enabled) {
+        if (enabled && workingDir != null) {
+            metadataStore = new GridMetadataStore(new File(workingDir, "metadata"));
+        } else {
+            metadataStore = null;
+        }
+    }
+
+    /**
+     * Sets the maximum amount of data which will be held in the cache of
+     * source data chunks shared by all {@link CdmGridDatasetFactory}s.
      * 
+     * @param maxBytes
+     *            The maximum size of the cached data, in bytes. Zero disables
+     *            the cache.
+     */
+    public static void setChunkCacheSize(long maxBytes) {
+        chunkCache.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * @return The number of chunks of source data currently cached
+     */
+    public static int getNumCachedChunks() {
+        return chunkCache.getNumChunks();
+    }
+
+    /**
+     * @return The size of the source data currently cached, in bytes
+     */
+    public static long getChunkCacheBytes() {
+        return chunkCache.getBytes();
+    }
+
+    /**
+     * @return The number of times a chunk of source data was found in the
+     *         cache
+     */
+    public static long getChunkCacheHits() {
+        return chunkCache.getHits();
+    }
+
+    /**
+     * @return The number of times a chunk of source data was not found in the
+     *         cache
+     */
+    public static long getChunkCacheMisses() {
+        return chunkCache.getMisses();
+    }
+
+    /**
+     * @return The number of chunks which have been evicted from the cache to
+     *         make space for others
+     */
+    public static long getChunkCacheEvictions() {
+        return chunkCache.getEvictions();
+    }
+
+    /**
+     * @return The number of {@link NetcdfDataset}s currently held in the cache
+     */
+    public static int getNumCachedDatasets() {
+        return datasetCache.getNumDatasets();
+    }
+
+    /**
+     * @return An estimate of the number of files held open by the cached
+     *         {@link NetcdfDataset}s
+     */
+    public static int getNumCachedOpenFiles() {
+        return datasetCache.getNumOpenFiles();
+    }
+
+    /**
+     * @return The number of times a requested dataset was already open
+     */
+    public static long getDatasetCacheHits() {
+        return datasetCache.getHits();
+    }
+
+    /**
+     * @return The number of times a requested dataset had to be opened
+     */
+    public static long getDatasetCacheMisses() {
+        return datasetCache.getMisses();
+    }
+
+    /**
+     * @return The number of datasets which have been evicted from the cache
+     *         because it was full or they were unused
+     */
+    public static long getDatasetCacheEvictions() {
+        return datasetCache.getEvictions();
+    }
+
+    /**
+     * @return The number of datasets which have been removed from the cache
+     *         because their underlying files changed
+     */
+    public static long getDatasetCacheInvalidations() {
+        return datasetCache.getInvalidations();
+    }
+
+    /**
+     * @return The mean time, in milliseconds, taken to open a dataset which
+     *         was not in the cache
+     */
+    public static double getMeanDatasetOpenMillis() {
+        return datasetCache.getMeanOpenMillis();
+    }
+
+    /**
+     * @return The total number of data reads performed on gridded NetCDF
+     *         datasets
+     */
+    public static long getNumReads() {
+        return CdmGridDataSource.getNumReads();
+    }
+
+    /**
+     * @return The number of data reads which had to wait for another read on
+     *         the same location to finish. Comparing this with
+     *         {@link CdmGridDatasetFactory#getNumReads()} shows how much
+     *         contention there is for the underlying files.
+     */
+    public static long getNumContendedReads() {
+        return CdmGridDataSource.getNumContendedReads();
+    }
+
+    /**
+     * @return The total time, in milliseconds, which data reads have spent
+     *         waiting for other reads on the same location to finish
+     */
+    public static long getTotalReadWaitMillis() {
+        return CdmGridDataSource.getTotalWaitMillis();
+    }
+
+    /**
+     * Opens the NetCDF dataset at the given location, without using the cache
+     * of {@link NetcdfDataset}s. This will always return a new
+     * {@link NetcdfDataset} which is not shared with any other object (with the
+     * possible exception of NcML aggregations - see
+     * {@link CdmUtils#openDataset(String)})
+     * 
+     * @param location
+     *            The location of the data
+     * @return A new {@link NetcdfDataset} object for accessing the data at the
+     *         given location.
      * @throws IOException
      *             if there was an error reading from the data source.
      */
-    private static NetcdfDataset openAndAggregateDataset(String location) throws IOException,
+    private static NetcdfDataset openUncachedDataset(String location) throws IOException,
             EdalException {
-        if (datasetCache.containsKey(location)) {
-            return datasetCache.get(location);
-        }
         NetcdfDataset nc;
         if (location.startsWith("dods://") || location.startsWith("http://")) {
             /*
@@ -450,122 +820,98 @@ public final class CdmGridDatasetFactory extends DatasetFactory {
                  * NcML and use the NetCDF aggregation libs to parse this into
                  * an aggregated dataset.
                  * 
-                 * If we have already generated the ncML on a previous call,
-                 * just use that.
+                 * The GlobAggregation for this location remembers the files
+                 * from previous calls, so only new or modified files need to
+                 * be read.
                  */
-                String ncmlString;
-                if (ncmlStringCache.containsKey(location)) {
-                    ncmlString = ncmlStringCache.get(location);
-                } else {
-                    /*
-                     * Find the name of the time dimension
-                     */
-                    NetcdfDataset first = openAndAggregateDataset(files.get(0).getAbsolutePath());
-                    String timeDimName = null;
-                    for (Variable var : first.getVariables()) {
-                        if (var.isCoordinateVariable()) {
-                            for (Attribute attr : var.getAttributes()) {
-                                if (attr.getFullName().equalsIgnoreCase("units")
-                                        && attr.getStringValue().contains(" since ")) {
-                                    /*
-                                     * This is the time dimension. Since this is
-                                     * a co-ordinate variable, there is only 1
-                                     * dimension
-                                     */
-                                    Dimension timeDimension = var.getDimension(0);
-                                    timeDimName = timeDimension.getFullName();
-                                }
-                            }
-                        }
-                    }
-                    if (timeDimName == null) {
-                        throw new EdalException(
-                                "Cannot join multiple files without time dimensions");
-                    }
-                    /*
-                     * We can't assume that the glob expression will have
-                     * returned the files in time order.
-                     * 
-                     * We could assume that alphabetical == time ordered (and
-                     * for properly named files it will - but let's not rely on
-                     * our users having sensible naming conventions...
-                     * 
-                     * Sort the list using a comparator which opens the file and
-                     * gets the first value of the time dimension
-                     */
-                    final String aggDimName = timeDimName;
-                    Collections.sort(files, new Comparator<File>() {
-                        @Override
-                        public int compare(File ncFile1, File ncFile2) {
-                            NetcdfFile nc1 = null;
-                            NetcdfFile nc2 = null;
-                            try {
-                                nc1 = NetcdfFile.open(ncFile1.getAbsolutePath());
-                                nc2 = NetcdfFile.open(ncFile2.getAbsolutePath());
-                                Variable timeVar1 = nc1.findVariable(aggDimName);
-                                Variable timeVar2 = nc2.findVariable(aggDimName);
-                                long time1 = timeVar1.read().getLong(0);
-                                long time2 = timeVar2.read().getLong(0);
-                                return Long.compare(time1, time2);
-                            } catch (Exception e) {
-                                /*
-                                 * There was a problem reading the data. Sort
-                                 * alphanumerically by filename and hope for the
-                                 * best...
-                                 * 
-                                 * This catches all exceptions because however
-                                 * it fails this is still our best option.
-                                 * 
-                                 * If the error is a genuine problem, it'll show
-                                 * up as soon as we try and aggregate.
-                                 */
-                                return ncFile1.getAbsolutePath().compareTo(
-                                        ncFile2.getAbsolutePath());
-                            } finally {
-                                if (nc1 != null) {
-                                    try {
-                                        nc1.close();
-                                    } catch (IOException e) {
-                                        log.error("Problem closing netcdf file", e);
-                                    }
-                                }
-                                if (nc2 != null) {
-                                    try {
-                                        nc2.close();
-                                    } catch (IOException e) {
-                                        log.error("Problem closing netcdf file", e);
-                                    }
-                                }
-                            }
-                        }
-                    });
-
-                    /*
-                     * Now create the NcML string and use it to create an
-                     * aggregated dataset
-                     */
-                    StringBuffer ncmlStringBuffer = new StringBuffer();
-                    ncmlStringBuffer
-                            .append("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">");
-                    ncmlStringBuffer.append("<aggregation dimName=\"" + timeDimName
-                            + "\" type=\"joinExisting\">");
-                    for (File file : files) {
-                        ncmlStringBuffer.append("<netcdf location=\"" + file.getAbsolutePath()
-                                + "\"/>");
+                GlobAggregation aggregation = aggregations.get(location);
+                if (aggregation == null) {
+                    GlobAggregation newAggregation = new GlobAggregation(location);
+                    aggregation = aggregations.putIfAbsent(location, newAggregation);
+                    if (aggregation == null) {
+                        aggregation = newAggregation;
                     }
-                    ncmlStringBuffer.append("</aggregation>");
-                    ncmlStringBuffer.append("</netcdf>");
-
-                    ncmlString = ncmlStringBuffer.toString();
-                    ncmlStringCache.put(location, ncmlString);
                 }
+                String ncmlString = aggregation.getNcml(files);
                 nc = NcMLReader.readNcML(new StringReader(ncmlString), null);
             }
         }
-        datasetCache.put(location, nc);
         return nc;
     }
 
+    /**
+     * Returns the range of values of a variable, as declared by its CF
+     * attributes. This will be, in order of preference:
+     * 
+     * The actual_range attribute
+     * 
+     * The valid_range attribute
+     * 
+     * The valid_min and valid_max attributes
+     * 
+     * Valid ranges which have the same type as the packed data are in packed
+     * units, so have the scale_factor and add_offset attributes (if any)
+     * applied to them. Otherwise they are already in unpacked units. Ranges
+     * which are not finite (e.g. the limits of the data type) are ignored.
+     * 
+     * @return The declared range, or <code>null</code> if none is declared
+     */
+    private static Extent<Float> getDeclaredValueRange(Variable var) {
+        double min;
+        double max;
+        Attribute actualRange = var.findAttributeIgnoreCase("actual_range");
+        Attribute validRange = var.findAttributeIgnoreCase("valid_range");
+        Attribute validMin = var.findAttributeIgnoreCase("valid_min");
+        Attribute validMax = var.findAttributeIgnoreCase("valid_max");
+        if (isNumeric(actualRange, 2)) {
+            min = actualRange.getNumericValue(0).doubleValue();
+            max = actualRange.getNumericValue(1).doubleValue();
+        } else {
+            Attribute rangeAttribute;
+            if (isNumeric(validRange, 2)) {
+                min = validRange.getNumericValue(0).doubleValue();
+                max = validRange.getNumericValue(1).doubleValue();
+                rangeAttribute = validRange;
+            } else if (isNumeric(validMin, 1) && isNumeric(validMax, 1)) {
+                min = validMin.getNumericValue().doubleValue();
+                max = validMax.getNumericValue().doubleValue();
+                rangeAttribute = validMin;
+            } else {
+                return null;
+            }
+            /*
+             * Enhanced variables report the unpacked type, so we need the
+             * original one
+             */
+            DataType packedType = var instanceof VariableDS ? ((VariableDS) var)
+                    .getOriginalDataType() : var.getDataType();
+            if (rangeAttribute.getDataType() == packedType) {
+                Attribute scaleFactor = var.findAttributeIgnoreCase("scale_factor");
+                Attribute addOffset = var.findAttributeIgnoreCase("add_offset");
+                double scale = isNumeric(scaleFactor, 1) ? scaleFactor.getNumericValue()
+                        .doubleValue() : 1.0;
+                double offset = isNumeric(addOffset, 1) ? addOffset.getNumericValue()
+                        .doubleValue() : 0.0;
+                min = min * scale + offset;
+                max = max * scale + offset;
+            }
+        }
+        if (min > max) {
+            double temp = min;
+            min = max;
+            max = temp;
+        }
+        if (Float.isInfinite((float) min) || Float.isInfinite((float) max) || Double.isNaN(min)
+                || Double.isNaN(max) || min == max) {
+            return null;
+        }
+        return Extents.newExtent((float) min, (float) max);
+    }
+
+    private static boolean isNumeric(Attribute attribute, int length) {
+        return attribute != null && !attribute.isString() && attribute.getLength() >= length;
+    }
+
     /**
      * Returns the phenomenon that the given variable represents.
      * 
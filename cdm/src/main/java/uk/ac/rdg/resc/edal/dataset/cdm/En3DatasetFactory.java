@@ -28,21 +28,29 @@
 
 package uk.ac.rdg.resc.edal.dataset.cdm;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
 import org.joda.time.DateTime;
@@ -182,6 +190,56 @@ public final class En3DatasetFactory extends DatasetFactory {
             .appendMinuteOfHour(1).appendLiteral(":").appendSecondOfMinute(1).appendLiteral(" utc")
             .toFormatter().withZoneUTC().withChronology(ISOChronology.getInstanceUTC());
 
+    /*
+     * The maximum number of files which are read in parallel when indexing a
+     * dataset
+     */
+    private static final int INDEXING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * The variables which are present in every EN3 profile
+     */
+    private static final Set<String> PROFILE_VARIABLES = CollectionUtils.setOf(
+            POT_TEMP_PARAMETER.getVariableId(), PSAL_PARAMETER.getVariableId());
+
+    /*
+     * The positions of all of the indexable profiles in a single EN3 file,
+     * along with the modification time and size of the file when they were
+     * read. These are stored between indexings so that when files are added
+     * to (or changed in) a dataset only those files need to be read again.
+     */
+    static final class FileProfiles implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long lastModified;
+        private final long length;
+        private final int[] profileNumbers;
+        private final double[] lons;
+        private final double[] lats;
+        private final double[] minZs;
+        private final double[] maxZs;
+        private final long[] times;
+
+        public FileProfiles(long lastModified, long length, int[] profileNumbers, double[] lons,
+                double[] lats, double[] minZs, double[] maxZs, long[] times) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.profileNumbers = profileNumbers;
+            this.lons = lons;
+            this.lats = lats;
+            this.minZs = minZs;
+            this.maxZs = maxZs;
+            this.times = times;
+        }
+
+        public int size() {
+            return profileNumbers.length;
+        }
+
+        public boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
     /* This is because we deserialise a HashMap which is a generic. */
     @SuppressWarnings("unchecked")
     @Override
@@ -207,6 +265,15 @@ public final class En3DatasetFactory extends DatasetFactory {
          * Expand the glob expression and then loop over each individual file
          */
         List<File> files = CdmUtils.expandGlobExpression(location);
+        /*
+         * Identify each file by its path, modification time and size, so that
+         * changing any file invalidates an existing index
+         */
+        List<String> fileSignatures = new ArrayList<>();
+        for (File file : files) {
+            fileSignatures.add(file.getAbsolutePath() + "@" + file.lastModified() + "@"
+                    + file.length());
+        }
 
         /*
          * Check to see if we have indexed this set of files in the past. If so,
@@ -224,19 +291,20 @@ public final class En3DatasetFactory extends DatasetFactory {
              * 
              * This file contains simple serialisations of (in order):
              * 
-             * The list of files used in the index.
+             * The signatures of the files used in the index.
              * The horizontal domain
              * The vertical domain
              * The time domain
+             * The map of file IDs to files
              * The spatial indexer
              */
             try {
                 fileIn = new FileInputStream(spatialIndexFile);
-                in = new ObjectInputStream(fileIn);
-                List<File> existingFilesList = (List<File>) in.readObject();
-                if (files.equals(existingFilesList)) {
+                in = new ObjectInputStream(new BufferedInputStream(fileIn));
+                List<String> existingFileSignatures = (List<String>) in.readObject();
+                if (fileSignatures.equals(existingFileSignatures)) {
                     /*
-                     * The current list of files is the same as the one used in
+                     * The current set of files is the same as the one used in
                      * the previous indexing.
                      */
                     readExistingSpatialIndex = true;
@@ -283,20 +351,20 @@ public final class En3DatasetFactory extends DatasetFactory {
                 readExistingSpatialIndex = false;
             }
         }
+        if (in != null) {
+            in.close();
+        }
+        if (fileIn != null) {
+            fileIn.close();
+        }
 
         if (!readExistingSpatialIndex) {
             /*
-             * We don't want to keep reading from the file, because it either
+             * We don't want to use the existing index, because it either
              * doesn't exist, or it doesn't match the file set we are now
              * reading (e.g. a new file has been added, or this ID was last used
              * for a different EN3 dataset)
              */
-            if (in != null) {
-                in.close();
-            }
-            if (fileIn != null) {
-                fileIn.close();
-            }
             if (spatialIndexFile.exists()) {
                 /*
                  * We have a spatial index file but it doesn't match the files
@@ -306,8 +374,15 @@ public final class En3DatasetFactory extends DatasetFactory {
             }
 
             /*
-             * Now loop through all files, read the profile domains and IDs and
-             * create the spatial index.
+             * Read the profile positions of any files which weren't in the
+             * previous indexing or which have changed since
+             */
+            Map<File, FileProfiles> fileProfiles = readAllFileProfiles(files, new File(
+                    workingDir, id + ".files.ser"));
+
+            /*
+             * Now loop through all files, and create the spatial index from
+             * their profile positions.
              */
             indexer = new PRTreeFeatureIndexer();
             List<PRTreeFeatureIndexer.FeatureBounds> featureBounds = new ArrayList<>();
@@ -334,118 +409,32 @@ public final class En3DatasetFactory extends DatasetFactory {
 
             for (File file : files) {
                 id2File.put(fileId, file);
-                NetcdfDataset nc = CdmUtils.openDataset(file.getAbsolutePath());
-
-                Dimension nProfiles = nc.findDimension("N_PROF");
-                Dimension nLevels = nc.findDimension("N_LEVELS");
-
-                Variable latitudeVar = nc.findVariable("LATITUDE");
-                Variable longitudeVar = nc.findVariable("LONGITUDE");
-                Variable timeVar = nc.findVariable("JULD");
-                Variable depthVar = nc.findVariable("DEPH_CORRECTED");
+                FileProfiles profiles = fileProfiles.get(file);
 
-                Attribute timeUnits = timeVar.findAttribute("units");
-                String timeUnitsStr = timeUnits.getStringValue();
-                String[] timeUnitsParts = timeUnitsStr.split(" since ");
-
-                if (timeUnitsParts.length != 2) {
-                    log.error("Expected time units of the form xxxs since yyyy-dd-mm hh:mm:ss utc");
-                    continue;
-                }
-
-                /*
-                 * Find the length of a unit, in seconds (we don't use
-                 * milliseconds because the DateTime.plusMillis takes an integer
-                 * argument and there is a very good chance of integer overflow
-                 * for recent values)
-                 */
-                int unitLength = TimeUtils.getUnitLengthSeconds(timeUnitsParts[0]);
-                DateTime refTime = EN3_DATE_TIME_FORMATTER.parseDateTime(timeUnitsParts[1]);
-
-                Array latValues = latitudeVar.read();
-                Array lonValues = longitudeVar.read();
-                Array timeValues = timeVar.read();
-                Array depthValues = depthVar.read();
-
-                /*
-                 * Loop over all profiles
-                 */
-                for (int profileNum = 0; profileNum < nProfiles.getLength(); profileNum++) {
-                    /*
-                     * Get the horizontal position of the current profile
-                     */
-                    double lat = latValues.getDouble(profileNum);
-                    double lon = lonValues.getDouble(profileNum);
+                for (int i = 0; i < profiles.size(); i++) {
+                    double lat = profiles.lats[i];
+                    double lon = profiles.lons[i];
                     /*
                      * All positions are in WGS84
                      */
                     HorizontalPosition horizontalPosition = new HorizontalPosition(lon, lat,
                             DefaultGeographicCRS.WGS84);
-                    /*
-                     * Find the time of the current profile measurement
-                     */
-                    double seconds = (timeValues.getDouble(profileNum) * unitLength);
-                    DateTime time = refTime.plusSeconds((int) seconds);
+                    DateTime time = new DateTime(profiles.times[i], ISOChronology.getInstanceUTC());
                     Extent<DateTime> tExtent = Extents.newExtent(time, time);
-
-                    /*
-                     * Find the vertical extent of the current profile
-                     */
-                    List<Double> depths = new ArrayList<>();
-                    for (int j = 0; j < nLevels.getLength(); j++) {
-                        double depth = depthValues.getDouble(profileNum * nLevels.getLength() + j);
-                        if (!Double.isNaN(depth) && depth != 99999.0) {
-                            depths.add(depth);
-                        } else {
-                            break;
-                        }
-                    }
-
-                    if (depths.size() == 0) {
-                        /*
-                         * We have the situation where all values of depth
-                         * returned NaN
-                         * 
-                         * This profile cannot be indexed
-                         */
-                        continue;
-                    }
-                    boolean nonMonotonic = false;
-                    for (int k = 0; k < depths.size() - 1; k++) {
-                        double depth = depths.get(k);
-                        double nextDepth = depths.get(k + 1);
-                        if (nextDepth <= depth) {
-                            /*
-                             * We have a non-monotonic value. This usually
-                             * follows a very large value in the middle of a
-                             * normally increasing depth axis.
-                             */
-                            nonMonotonic = true;
-                            break;
-                        }
-                    }
-                    if (nonMonotonic) {
-                        /*
-                         * Ignore profiles with non-monotonic axes
-                         */
-                        continue;
-                    }
-
-                    Extent<Double> zExtent = Extents.newExtent(Collections.min(depths),
-                            Collections.max(depths));
+                    Extent<Double> zExtent = Extents.newExtent(profiles.minZs[i],
+                            profiles.maxZs[i]);
 
                     /*
                      * Create a unique ID
                      */
-                    String profileId = fileId + ":" + profileNum;
+                    String profileId = fileId + ":" + profiles.profileNumbers[i];
 
                     /*
                      * Store the bounds of this feature to load into the spatial
                      * indexer
                      */
                     featureBounds.add(new FeatureBounds(profileId, horizontalPosition, zExtent,
-                            tExtent, CollectionUtils.setOf(POT_TEMP_PARAMETER.getVariableId(),
-                                    PSAL_PARAMETER.getVariableId())));
+                            tExtent, PROFILE_VARIABLES));
 
                     /*
                      * Update entire dataset extents
@@ -467,13 +456,7 @@ public final class En3DatasetFactory extends DatasetFactory {
                     }
                 }
 
-                CdmUtils.closeDataset(nc);
-
-                log.debug("Read " + nProfiles.getLength() + " profiles from file: "
-                        + file.getAbsolutePath());
-                log.debug("Allocated memory " + (Runtime.getRuntime().totalMemory() / 1_000_000L)
-                        + "/" + (Runtime.getRuntime().maxMemory() / 1_000_000L));
-                totalProfiles += nProfiles.getLength();
+                totalProfiles += profiles.size();
                 fileId++;
             }
             log.debug("Read " + totalProfiles + " features.  Starting indexing...");
@@ -495,19 +478,11 @@ public final class En3DatasetFactory extends DatasetFactory {
                     + (Runtime.getRuntime().maxMemory() / 1_000_000L));
 
             /*
-             * Now serialise the file list, domains, and indexer to file
+             * Now serialise the file signatures, domains, and indexer to file
              */
             try {
-                FileOutputStream fileOut = new FileOutputStream(spatialIndexFile);
-                ObjectOutputStream out = new ObjectOutputStream(fileOut);
-                out.writeObject(files);
-                out.writeObject(hDomain);
-                out.writeObject(zDomain);
-                out.writeObject(tDomain);
-                out.writeObject(id2File);
-                out.writeObject(indexer);
-                out.close();
-                fileOut.close();
+                serialise(spatialIndexFile, fileSignatures, hDomain, zDomain, tDomain, id2File,
+                        indexer);
                 log.debug("Serialised spatial index to file");
             } catch (IOException e) {
                 log.warn("Unable to serialise spatial index to file", e);
@@ -542,6 +517,251 @@ public final class En3DatasetFactory extends DatasetFactory {
                 tDomain.getExtent(), id2File);
     }
 
+    /**
+     * Gets the profile positions of all of the given files. Those stored by a
+     * previous indexing are used for any files which have not changed since,
+     * and the remaining files are read in parallel. The positions of all of the
+     * files are then stored for the next indexing.
+     * 
+     * @param files
+     *            The files to get profile positions for
+     * @param profilesFile
+     *            The file in which profile positions are stored between
+     *            indexings
+     * @return A {@link Map} of each file to its profile positions
+     */
+    @SuppressWarnings("unchecked")
+    static Map<File, FileProfiles> readAllFileProfiles(List<File> files,
+            File profilesFile) throws IOException {
+        Map<File, FileProfiles> storedProfiles = new HashMap<>();
+        if (profilesFile.exists()) {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(profilesFile)))) {
+                storedProfiles = (HashMap<File, FileProfiles>) in.readObject();
+            } catch (ClassNotFoundException | IOException | ClassCastException e) {
+                /*
+                 * We will just read all of the files again
+                 */
+                log.warn("Problem reading stored EN3 profile positions", e);
+            }
+        }
+
+        HashMap<File, FileProfiles> profiles = new HashMap<>();
+        List<File> filesToRead = new ArrayList<>();
+        for (File file : files) {
+            FileProfiles stored = storedProfiles.get(file);
+            if (stored != null && stored.isCurrent(file)) {
+                profiles.put(file, stored);
+            } else {
+                filesToRead.add(file);
+            }
+        }
+        log.debug("Using stored profile positions for " + profiles.size() + " files, reading "
+                + filesToRead.size() + " files");
+
+        if (!filesToRead.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(INDEXING_THREADS,
+                    filesToRead.size()));
+            try {
+                List<Future<FileProfiles>> readTasks = new ArrayList<>();
+                for (final File file : filesToRead) {
+                    readTasks.add(executor.submit(new Callable<FileProfiles>() {
+                        @Override
+                        public FileProfiles call() throws IOException {
+                            return readFileProfiles(file);
+                        }
+                    }));
+                }
+                for (int i = 0; i < filesToRead.size(); i++) {
+                    profiles.put(filesToRead.get(i), readTasks.get(i).get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted whilst reading EN3 profile positions", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Problem reading EN3 profile positions", cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        if (!filesToRead.isEmpty() || storedProfiles.size() != profiles.size()) {
+            /*
+             * Store the positions of the current files only, so that those of
+             * files removed from the dataset don't accumulate
+             */
+            try {
+                serialise(profilesFile, profiles);
+            } catch (IOException e) {
+                log.warn("Unable to store EN3 profile positions", e);
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Serialises objects to a file. They are written to a temporary file which
+     * then replaces the file, so that a partially-written file is never read
+     * if writing fails or the server is stopped.
+     * 
+     * @param file
+     *            The file to write to
+     * @param objects
+     *            The objects to write, in order
+     */
+    private static void serialise(File file, Object... objects) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)))) {
+                for (Object object : objects) {
+                    out.writeObject(object);
+                }
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            }
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the positions of all of the indexable profiles in a single EN3
+     * file. Profiles without any valid depths, or with non-monotonic depths,
+     * are not indexed.
+     * 
+     * @param file
+     *            The EN3 file to read
+     * @return The {@link FileProfiles} of the file
+     */
+    private static FileProfiles readFileProfiles(File file) throws IOException {
+        /*
+         * Record these before reading, so that if the file changes whilst we
+         * are reading it, it will be read again next time
+         */
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        NetcdfDataset nc = CdmUtils.openDataset(file.getAbsolutePath());
+        try {
+            Dimension nProfiles = nc.findDimension("N_PROF");
+            Dimension nLevels = nc.findDimension("N_LEVELS");
+
+            Variable latitudeVar = nc.findVariable("LATITUDE");
+            Variable longitudeVar = nc.findVariable("LONGITUDE");
+            Variable timeVar = nc.findVariable("JULD");
+            Variable depthVar = nc.findVariable("DEPH_CORRECTED");
+
+            Attribute timeUnits = timeVar.findAttribute("units");
+            String timeUnitsStr = timeUnits.getStringValue();
+            String[] timeUnitsParts = timeUnitsStr.split(" since ");
+
+            if (timeUnitsParts.length != 2) {
+                log.error("Expected time units of the form xxxs since yyyy-dd-mm hh:mm:ss utc");
+                return new FileProfiles(lastModified, length, new int[0], new double[0],
+                        new double[0], new double[0], new double[0], new long[0]);
+            }
+
+            /*
+             * Find the length of a unit, in seconds (we don't use milliseconds
+             * because the DateTime.plusMillis takes an integer argument and
+             * there is a very good chance of integer overflow for recent
+             * values)
+             */
+            int unitLength = TimeUtils.getUnitLengthSeconds(timeUnitsParts[0]);
+            DateTime refTime = EN3_DATE_TIME_FORMATTER.parseDateTime(timeUnitsParts[1]);
+
+            Array latValues = latitudeVar.read();
+            Array lonValues = longitudeVar.read();
+            Array timeValues = timeVar.read();
+            Array depthValues = depthVar.read();
+
+            int nProfs = nProfiles.getLength();
+            int nLevs = nLevels.getLength();
+            int[] profileNumbers = new int[nProfs];
+            double[] lons = new double[nProfs];
+            double[] lats = new double[nProfs];
+            double[] minZs = new double[nProfs];
+            double[] maxZs = new double[nProfs];
+            long[] times = new long[nProfs];
+            int nIndexed = 0;
+
+            /*
+             * Loop over all profiles
+             */
+            profiles: for (int profileNum = 0; profileNum < nProfs; profileNum++) {
+                /*
+                 * Find the vertical extent of the current profile. Depths must
+                 * increase monotonically until the first missing value
+                 */
+                int nDepths = 0;
+                double minDepth = Double.NaN;
+                double lastDepth = Double.NaN;
+                for (int j = 0; j < nLevs; j++) {
+                    double depth = depthValues.getDouble(profileNum * nLevs + j);
+                    if (Double.isNaN(depth) || depth == 99999.0) {
+                        break;
+                    }
+                    if (nDepths > 0 && depth <= lastDepth) {
+                        /*
+                         * We have a non-monotonic value. This usually follows
+                         * a very large value in the middle of a normally
+                         * increasing depth axis. Ignore profiles with
+                         * non-monotonic axes
+                         */
+                        continue profiles;
+                    }
+                    if (nDepths == 0) {
+                        minDepth = depth;
+                    }
+                    lastDepth = depth;
+                    nDepths++;
+                }
+
+                if (nDepths == 0) {
+                    /*
+                     * We have the situation where all values of depth returned
+                     * NaN
+                     * 
+                     * This profile cannot be indexed
+                     */
+                    continue;
+                }
+
+                /*
+                 * Find the time of the current profile measurement
+                 */
+                double seconds = (timeValues.getDouble(profileNum) * unitLength);
+                DateTime time = refTime.plusSeconds((int) seconds);
+
+                profileNumbers[nIndexed] = profileNum;
+                lons[nIndexed] = lonValues.getDouble(profileNum);
+                lats[nIndexed] = latValues.getDouble(profileNum);
+                minZs[nIndexed] = minDepth;
+                maxZs[nIndexed] = lastDepth;
+                times[nIndexed] = time.getMillis();
+                nIndexed++;
+            }
+
+            log.debug("Read " + nProfs + " profiles from file: " + file.getAbsolutePath());
+            return new FileProfiles(lastModified, length, Arrays.copyOf(profileNumbers, nIndexed),
+                    Arrays.copyOf(lons, nIndexed), Arrays.copyOf(lats, nIndexed), Arrays.copyOf(
+                            minZs, nIndexed), Arrays.copyOf(maxZs, nIndexed), Arrays.copyOf(
+                            times, nIndexed));
+        } finally {
+            CdmUtils.closeDataset(nc);
+        }
+    }
+
     private final class En3Dataset extends AbstractPointDataset<ProfileFeature> {
         private En3DatabaseReader reader = new En3DatabaseReader(this);
         private BoundingBox bbox;
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.ma2.Array;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+
+/**
+ * Generates the NcML which joins the files matching a glob expression along
+ * their time dimension.
+ * 
+ * The time coordinates of each member file are remembered, along with its
+ * modification time and size. When the NcML is regenerated (e.g. because
+ * files have been added to the aggregation) only files which are new or have
+ * changed need to be opened, so the cost of a refresh is proportional to the
+ * number of files which have changed rather than the size of the aggregation.
+ * 
+ * The NcML includes the number of time coordinates in each file, and (where
+ * all files share the same time units) their values, so that the NetCDF
+ * libraries do not need to open every file to build the aggregated time axis.
+ */
+final class GlobAggregation {
+    private static final Logger log = LoggerFactory.getLogger(GlobAggregation.class);
+
+    private final String location;
+    private String timeDimName = null;
+    /* Maps the absolute path of each member file to its details */
+    private Map<String, Member> members = new HashMap<>();
+
+    /**
+     * A single file in the aggregation
+     */
+    private static final class Member {
+        private final String path;
+        private final long lastModified;
+        private final long length;
+        /* The time coordinates, or null if they couldn't be read */
+        private final double[] times;
+        private final String timeUnits;
+
+        private Member(String path, long lastModified, long length, double[] times,
+                String timeUnits) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.times = times;
+            this.timeUnits = timeUnits;
+        }
+
+        private boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+
+    GlobAggregation(String location) {
+        this.location = location;
+    }
+
+    /**
+     * Generates the NcML for aggregating the given files, reading only those
+     * which have been added or modified since the previous call.
+     * 
+     * @param files
+     *            The files which currently match the glob expression
+     * @return An NcML string which aggregates the files in time order
+     * @throws EdalException
+     *             If the files do not have a time dimension to join along
+     * @throws IOException
+     *             If the first file cannot be read
+     */
+    synchronized String getNcml(List<File> files) throws EdalException, IOException {
+        if (timeDimName == null) {
+            timeDimName = findTimeDimension(files.get(0));
+            if (timeDimName == null) {
+                throw new EdalException("Cannot join multiple files without time dimensions");
+            }
+        }
+
+        Map<String, Member> newMembers = new HashMap<>();
+        int numRead = 0;
+        for (File file : files) {
+            String path = file.getAbsolutePath();
+            Member member = members.get(path);
+            if (member == null || !member.isCurrent(file)) {
+                member = readMember(file);
+                numRead++;
+            }
+            newMembers.put(path, member);
+        }
+        int numRemoved = 0;
+        for (String path : members.keySet()) {
+            if (!newMembers.containsKey(path)) {
+                numRemoved++;
+            }
+        }
+        if (numRead > 0 || numRemoved > 0) {
+            log.debug("Aggregation at " + location + ": " + numRead
+                    + " files new or modified, " + numRemoved + " files removed");
+        }
+        members = newMembers;
+
+        /*
+         * We can't assume that the glob expression will have returned the
+         * files in time order.
+         * 
+         * We could assume that alphabetical == time ordered (and for properly
+         * named files it will - but let's not rely on our users having
+         * sensible naming conventions...
+         * 
+         * Sort the files on their first time value. Files whose times could
+         * not be read are sorted alphanumerically by filename after those
+         * which could, and we hope for the best. If the error is a genuine
+         * problem, it'll show up as soon as we try and aggregate.
+         */
+        List<Member> sorted = new ArrayList<>(members.values());
+        Collections.sort(sorted, new Comparator<Member>() {
+            @Override
+            public int compare(Member m1, Member m2) {
+                boolean hasTimes1 = m1.times != null && m1.times.length > 0;
+                boolean hasTimes2 = m2.times != null && m2.times.length > 0;
+                if (hasTimes1 && hasTimes2 && m1.times[0] != m2.times[0]) {
+                    return Double.compare(m1.times[0], m2.times[0]);
+                } else if (hasTimes1 != hasTimes2) {
+                    return hasTimes1 ? -1 : 1;
+                }
+                return m1.path.compareTo(m2.path);
+            }
+        });
+
+        /*
+         * The coordinate values can only be given if they are all in the same
+         * units, since they will be interpreted in the units of the aggregated
+         * time variable
+         */
+        boolean includeCoordValues = true;
+        String units = sorted.get(0).timeUnits;
+        for (Member member : sorted) {
+            if (member.times == null || member.timeUnits == null
+                    || !member.timeUnits.equals(units)) {
+                includeCoordValues = false;
+                break;
+            }
+        }
+
+        /*
+         * Now create the NcML string
+         */
+        StringBuilder ncml = new StringBuilder();
+        ncml.append("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/netcdf/ncml-2.2\">");
+        ncml.append("<aggregation dimName=\"" + timeDimName + "\" type=\"joinExisting\">");
+        for (Member member : sorted) {
+            ncml.append("<netcdf location=\"" + member.path + "\"");
+            if (member.times != null) {
+                ncml.append(" ncoords=\"" + member.times.length + "\"");
+                if (includeCoordValues) {
+                    ncml.append(" coordValue=\"");
+                    for (int i = 0; i < member.times.length; i++) {
+                        if (i > 0) {
+                            ncml.append(" ");
+                        }
+                        ncml.append(formatCoordValue(member.times[i]));
+                    }
+                    ncml.append("\"");
+                }
+            }
+            ncml.append("/>");
+        }
+        ncml.append("</aggregation>");
+        ncml.append("</netcdf>");
+        return ncml.toString();
+    }
+
+    /**
+     * Finds the name of the time dimension of a file
+     */
+    private static String findTimeDimension(File file) throws IOException {
+        NetcdfFile nc = NetcdfFile.open(file.getAbsolutePath());
+        try {
+            for (Variable var : nc.getVariables()) {
+                if (var.isCoordinateVariable()) {
+                    for (Attribute attr : var.getAttributes()) {
+                        if (attr.getFullName().equalsIgnoreCase("units")
+                                && attr.getStringValue().contains(" since ")) {
+                            /*
+                             * This is the time dimension. Since this is a
+                             * co-ordinate variable, there is only 1 dimension
+                             */
+                            return var.getDimension(0).getFullName();
+                        }
+                    }
+                }
+            }
+            return null;
+        } finally {
+            nc.close();
+        }
+    }
+
+    /**
+     * Reads the time coordinates of a file. Any problems are logged, and
+     * result in a {@link Member} with no time coordinates
+     */
+    private Member readMember(File file) {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        NetcdfFile nc = null;
+        try {
+            nc = NetcdfFile.open(path);
+            Variable timeVar = nc.findVariable(timeDimName);
+            Array timeValues = timeVar.read();
+            double[] times = new double[(int) timeValues.getSize()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = timeValues.getDouble(i);
+            }
+            Attribute unitsAttr = timeVar.findAttributeIgnoreCase("units");
+            return new Member(path, lastModified, length, times, unitsAttr == null ? null
+                    : unitsAttr.getStringValue().trim());
+        } catch (Exception e) {
+            /*
+             * This catches all exceptions because however it fails we can
+             * still add the file to the aggregation by name
+             */
+            log.warn("Problem reading time values from " + path, e);
+            return new Member(path, lastModified, length, null, null);
+        } finally {
+            if (nc != null) {
+                try {
+                    nc.close();
+                } catch (IOException e) {
+                    log.error("Problem closing netcdf file", e);
+                }
+            }
+        }
+    }
+
+    private static String formatCoordValue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,535 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.joda.time.Chronology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGridImpl;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularAxisImpl;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
+import uk.ac.rdg.resc.edal.grid.VerticalAxis;
+import uk.ac.rdg.resc.edal.grid.VerticalAxisImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.position.VerticalCrs;
+import uk.ac.rdg.resc.edal.position.VerticalCrsImpl;
+import uk.ac.rdg.resc.edal.util.Extents;
+import uk.ac.rdg.resc.edal.util.GISUtils;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * Stores the metadata of gridded datasets on disk, so that datasets which have
+ * been seen before can be created without opening their files and analysing
+ * their coordinate systems.
+ * 
+ * Only single local data files are stored, and stored metadata is only used if
+ * the file has not changed since it was stored. NcML files are not stored,
+ * since they may aggregate other files which can change without the NcML
+ * file itself changing. Datasets whose grids cannot be
+ * stored (e.g. projected or curvilinear grids) are always analysed in full.
+ */
+class GridMetadataStore {
+    private static final Logger log = LoggerFactory.getLogger(GridMetadataStore.class);
+
+    private static final int MAGIC = 0x45444d44;
+    private static final int VERSION = 1;
+
+    private static final byte REGULAR_GRID = 0;
+    private static final byte RECTILINEAR_GRID = 1;
+    private static final byte REGULAR_AXIS = 0;
+    private static final byte IRREGULAR_AXIS = 1;
+
+    /*
+     * The CF calendars which can be stored
+     */
+    private static final String[] CALENDARS = new String[] { "standard", "proleptic_gregorian",
+            "julian", "noleap", "all_leap", "360_day" };
+
+    private final File dir;
+
+    /**
+     * The metadata needed to create a gridded dataset without opening it
+     */
+    static class DatasetMetadata {
+        final List<GridVariableMetadata> vars;
+        final DataReadingStrategy dataReadingStrategy;
+        /* x-component ID, y-component ID, common name, "true" if eastward/northward */
+        final List<String[]> vectors;
+        /* mean ID, standard deviation ID, title */
+        final List<String[]> meanSDs;
+
+        DatasetMetadata(List<GridVariableMetadata> vars,
+                DataReadingStrategy dataReadingStrategy, List<String[]> vectors,
+                List<String[]> meanSDs) {
+            this.vars = vars;
+            this.dataReadingStrategy = dataReadingStrategy;
+            this.vectors = vectors;
+            this.meanSDs = meanSDs;
+        }
+    }
+
+    /**
+     * @param dir
+     *            The directory in which to store metadata. This will be
+     *            created if necessary.
+     */
+    GridMetadataStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return Whether metadata can be stored for the given file. This is the
+     *         case for existing files which are not NcML.
+     */
+    private static boolean canStore(File file) {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && !name.endsWith(".ncml") && !name.endsWith(".xml");
+    }
+
+    /**
+     * Reads the stored metadata for a location
+     * 
+     * @param location
+     *            The location of the dataset
+     * @return The stored metadata, or <code>null</code> if none is stored, or
+     *         if the dataset has changed since it was stored
+     */
+    DatasetMetadata read(String location) {
+        File file = new File(location);
+        File metadataFile = getMetadataFile(location);
+        if (!canStore(file) || !metadataFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(metadataFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !location.equals(in.readUTF()) || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()) {
+                return null;
+            }
+            DataReadingStrategy strategy = DataReadingStrategy.valueOf(in.readUTF());
+
+            List<HorizontalGrid> hGrids = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                hGrids.add(readHorizontalGrid(in));
+            }
+            List<VerticalAxis> zAxes = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                zAxes.add(readVerticalAxis(in));
+            }
+            List<TimeAxis> tAxes = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                tAxes.add(readTimeAxis(in));
+            }
+
+            List<GridVariableMetadata> vars = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                Parameter parameter = readParameter(in);
+                int hIndex = in.readInt();
+                int zIndex = in.readInt();
+                int tIndex = in.readInt();
+                vars.add(new GridVariableMetadata(parameter, hGrids.get(hIndex),
+                        zIndex < 0 ? null : zAxes.get(zIndex), tIndex < 0 ? null : tAxes
+                                .get(tIndex), true));
+            }
+            return new DatasetMetadata(vars, strategy, readStringArrays(in, 4),
+                    readStringArrays(in, 3));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Problem reading stored metadata for " + location
+                    + ".  The dataset will be analysed in full", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the metadata for a location, if the location is a single local
+     * data file and all of its domains can be stored
+     * 
+     * @param location
+     *            The location of the dataset
+     * @param metadata
+     *            The metadata to store
+     */
+    void write(String location, DatasetMetadata metadata) {
+        File file = new File(location);
+        if (!canStore(file)) {
+            return;
+        }
+        /*
+         * Domains are normally shared between variables, so we store each one
+         * once
+         */
+        Map<HorizontalGrid, Integer> hGrids = new IdentityHashMap<>();
+        Map<VerticalAxis, Integer> zAxes = new IdentityHashMap<>();
+        Map<TimeAxis, Integer> tAxes = new IdentityHashMap<>();
+        for (GridVariableMetadata var : metadata.vars) {
+            if (!canStore(var.getHorizontalDomain()) || !canStore(var.getVerticalDomain())
+                    || !canStore(var.getTemporalDomain())) {
+                return;
+            }
+            index(hGrids, var.getHorizontalDomain());
+            index(zAxes, var.getVerticalDomain());
+            index(tAxes, var.getTemporalDomain());
+        }
+
+        File metadataFile = getMetadataFile(location);
+        File tmpFile = new File(metadataFile.getPath() + ".tmp");
+        dir.mkdirs();
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(location);
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+                out.writeUTF(metadata.dataReadingStrategy.name());
+
+                out.writeInt(hGrids.size());
+                for (HorizontalGrid hGrid : inIndexOrder(hGrids)) {
+                    writeHorizontalGrid(out, hGrid);
+                }
+                out.writeInt(zAxes.size());
+                for (VerticalAxis zAxis : inIndexOrder(zAxes)) {
+                    writeVerticalAxis(out, zAxis);
+                }
+                out.writeInt(tAxes.size());
+                for (TimeAxis tAxis : inIndexOrder(tAxes)) {
+                    writeTimeAxis(out, (TimeAxisImpl) tAxis);
+                }
+
+                out.writeInt(metadata.vars.size());
+                for (GridVariableMetadata var : metadata.vars) {
+                    writeParameter(out, var.getParameter());
+                    out.writeInt(hGrids.get(var.getHorizontalDomain()));
+                    out.writeInt(var.getVerticalDomain() == null ? -1 : zAxes.get(var
+                            .getVerticalDomain()));
+                    out.writeInt(var.getTemporalDomain() == null ? -1 : tAxes.get(var
+                            .getTemporalDomain()));
+                }
+                writeStringArrays(out, metadata.vectors);
+                writeStringArrays(out, metadata.meanSDs);
+            }
+            /*
+             * Write to a temporary file first, so that a partially-written
+             * file is never read
+             */
+            if (!tmpFile.renameTo(metadataFile)) {
+                metadataFile.delete();
+                if (!tmpFile.renameTo(metadataFile)) {
+                    throw new IOException("Could not rename " + tmpFile + " to " + metadataFile);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Problem storing metadata for " + location, e);
+            tmpFile.delete();
+        }
+    }
+
+    private File getMetadataFile(String location) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            /*
+             * All Java implementations are required to support SHA-1
+             */
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(location.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return new File(dir, hex.toString() + ".meta");
+    }
+
+    private static boolean canStore(HorizontalGrid hGrid) {
+        if (!GISUtils.isWgs84LonLat(hGrid.getCoordinateReferenceSystem())) {
+            return false;
+        }
+        if (hGrid instanceof RegularGridImpl) {
+            RegularGridImpl grid = (RegularGridImpl) hGrid;
+            return grid.getXAxis() instanceof RegularAxisImpl
+                    && grid.getYAxis() instanceof RegularAxisImpl;
+        } else if (hGrid instanceof RectilinearGridImpl) {
+            RectilinearGridImpl grid = (RectilinearGridImpl) hGrid;
+            return canStore(grid.getXAxis()) && canStore(grid.getYAxis());
+        }
+        return false;
+    }
+
+    private static boolean canStore(ReferenceableAxis<Double> axis) {
+        return axis instanceof RegularAxisImpl || axis instanceof ReferenceableAxisImpl;
+    }
+
+    private static boolean canStore(VerticalAxis zAxis) {
+        return zAxis == null || zAxis instanceof VerticalAxisImpl;
+    }
+
+    private static boolean canStore(TimeAxis tAxis) {
+        return tAxis == null
+                || (tAxis instanceof TimeAxisImpl && getCalendar(((TimeAxisImpl) tAxis)
+                        .getChronology()) != null);
+    }
+
+    private static <T> void index(Map<T, Integer> indices, T domain) {
+        if (domain != null && !indices.containsKey(domain)) {
+            indices.put(domain, indices.size());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> inIndexOrder(Map<T, Integer> indices) {
+        Object[] ordered = new Object[indices.size()];
+        for (Map.Entry<T, Integer> entry : indices.entrySet()) {
+            ordered[entry.getValue()] = entry.getKey();
+        }
+        List<T> ret = new ArrayList<>();
+        for (Object domain : ordered) {
+            ret.add((T) domain);
+        }
+        return ret;
+    }
+
+    private static String getCalendar(Chronology chronology) {
+        for (String calendar : CALENDARS) {
+            if (chronology.equals(CdmUtils.getChronologyForString(calendar))) {
+                return calendar;
+            }
+        }
+        return null;
+    }
+
+    private static void writeHorizontalGrid(DataOutputStream out, HorizontalGrid hGrid)
+            throws IOException {
+        if (hGrid instanceof RegularGridImpl) {
+            out.writeByte(REGULAR_GRID);
+            writeAxis(out, ((RegularGridImpl) hGrid).getXAxis());
+            writeAxis(out, ((RegularGridImpl) hGrid).getYAxis());
+        } else {
+            out.writeByte(RECTILINEAR_GRID);
+            writeAxis(out, ((RectilinearGridImpl) hGrid).getXAxis());
+            writeAxis(out, ((RectilinearGridImpl) hGrid).getYAxis());
+        }
+    }
+
+    private static HorizontalGrid readHorizontalGrid(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        ReferenceableAxis<Double> xAxis = readAxis(in);
+        ReferenceableAxis<Double> yAxis = readAxis(in);
+        if (type == REGULAR_GRID) {
+            return new RegularGridImpl((RegularAxisImpl) xAxis, (RegularAxisImpl) yAxis,
+                    DefaultGeographicCRS.WGS84);
+        } else {
+            return new RectilinearGridImpl(xAxis, yAxis, DefaultGeographicCRS.WGS84);
+        }
+    }
+
+    private static void writeAxis(DataOutputStream out, ReferenceableAxis<Double> axis)
+            throws IOException {
+        if (axis instanceof RegularAxisImpl) {
+            RegularAxisImpl regularAxis = (RegularAxisImpl) axis;
+            out.writeByte(REGULAR_AXIS);
+            out.writeUTF(regularAxis.getName());
+            out.writeDouble(regularAxis.getCoordinateValue(0));
+            out.writeDouble(regularAxis.getCoordinateSpacing());
+            out.writeInt(regularAxis.size());
+            out.writeBoolean(regularAxis.isLongitude());
+        } else {
+            ReferenceableAxisImpl irregularAxis = (ReferenceableAxisImpl) axis;
+            out.writeByte(IRREGULAR_AXIS);
+            out.writeUTF(irregularAxis.getName());
+            writeValues(out, irregularAxis);
+            out.writeBoolean(irregularAxis.isLongitude());
+        }
+    }
+
+    private static ReferenceableAxis<Double> readAxis(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String name = in.readUTF();
+        if (type == REGULAR_AXIS) {
+            double firstValue = in.readDouble();
+            double spacing = in.readDouble();
+            int size = in.readInt();
+            return new RegularAxisImpl(name, firstValue, spacing, size, in.readBoolean());
+        } else {
+            double[] values = readValues(in);
+            return new ReferenceableAxisImpl(name, values, in.readBoolean());
+        }
+    }
+
+    private static void writeVerticalAxis(DataOutputStream out, VerticalAxis zAxis)
+            throws IOException {
+        out.writeUTF(zAxis.getName());
+        writeValues(out, (VerticalAxisImpl) zAxis);
+        VerticalCrs vCrs = zAxis.getVerticalCrs();
+        writeString(out, vCrs.getUnits());
+        out.writeBoolean(vCrs.isPressure());
+        out.writeBoolean(vCrs.isDimensionless());
+        out.writeBoolean(vCrs.isPositiveUpwards());
+    }
+
+    private static VerticalAxis readVerticalAxis(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        double[] values = readValues(in);
+        String units = readString(in);
+        boolean pressure = in.readBoolean();
+        boolean dimensionless = in.readBoolean();
+        boolean positiveUpwards = in.readBoolean();
+        return new VerticalAxisImpl(name, values, new VerticalCrsImpl(units, pressure,
+                dimensionless, positiveUpwards));
+    }
+
+    private static void writeTimeAxis(DataOutputStream out, TimeAxisImpl tAxis)
+            throws IOException {
+        out.writeUTF(tAxis.getName());
+        out.writeUTF(getCalendar(tAxis.getChronology()));
+        out.writeInt(tAxis.size());
+        for (int i = 0; i < tAxis.size(); i++) {
+            out.writeLong(tAxis.getCoordinateMillis(i));
+        }
+    }
+
+    private static TimeAxis readTimeAxis(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        Chronology chronology = CdmUtils.getChronologyForString(in.readUTF());
+        long[] millis = new long[in.readInt()];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = in.readLong();
+        }
+        return new TimeAxisImpl(name, millis, chronology);
+    }
+
+    private static void writeParameter(DataOutputStream out, Parameter parameter)
+            throws IOException {
+        out.writeUTF(parameter.getVariableId());
+        writeString(out, parameter.getTitle());
+        writeString(out, parameter.getDescription());
+        writeString(out, parameter.getUnits());
+        writeString(out, parameter.getStandardName());
+        Extent<Float> valueRange = parameter.getValueRange();
+        boolean hasRange = valueRange != null && valueRange.getLow() != null
+                && valueRange.getHigh() != null;
+        out.writeBoolean(hasRange);
+        if (hasRange) {
+            out.writeFloat(valueRange.getLow());
+            out.writeFloat(valueRange.getHigh());
+        }
+    }
+
+    private static Parameter readParameter(DataInputStream in) throws IOException {
+        String varId = in.readUTF();
+        String title = readString(in);
+        String description = readString(in);
+        String units = readString(in);
+        String standardName = readString(in);
+        Extent<Float> valueRange = null;
+        if (in.readBoolean()) {
+            float low = in.readFloat();
+            valueRange = Extents.newExtent(low, in.readFloat());
+        }
+        return new Parameter(varId, title, description, units, standardName, valueRange);
+    }
+
+    private static void writeValues(DataOutputStream out, ReferenceableAxisImpl axis)
+            throws IOException {
+        out.writeInt(axis.size());
+        for (int i = 0; i < axis.size(); i++) {
+            out.writeDouble(axis.getCoordinateValue(i));
+        }
+    }
+
+    private static double[] readValues(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static void writeStringArrays(DataOutputStream out, List<String[]> arrays)
+            throws IOException {
+        out.writeInt(arrays.size());
+        for (String[] array : arrays) {
+            for (String string : array) {
+                writeString(out, string);
+            }
+        }
+    }
+
+    private static List<String[]> readStringArrays(DataInputStream in, int length)
+            throws IOException {
+        List<String[]> arrays = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String[] array = new String[length];
+            for (int j = 0; j < length; j++) {
+                array[j] = readString(in);
+            }
+            arrays.add(array);
+        }
+        return arrays;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
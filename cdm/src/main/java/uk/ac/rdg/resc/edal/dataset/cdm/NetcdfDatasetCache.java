@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * A thread-safe cache of {@link NetcdfDataset}s, keyed on location. Opening
+ * (and in particular aggregating) a {@link NetcdfDataset} is expensive, so
+ * datasets are kept open between requests.
+ * 
+ * The cache is bounded both by the number of datasets and by an estimate of
+ * the number of open files which they hold. When either limit is exceeded the
+ * least-recently used datasets are evicted. Datasets which have not been used
+ * for longer than the idle timeout are also evicted, as are datasets whose
+ * underlying files have been modified since they were opened.
+ * 
+ * Datasets are obtained with {@link NetcdfDatasetCache#acquire(String)}, which
+ * returns a {@link Handle}. Evicted datasets are only closed once all of their
+ * {@link Handle}s have been closed. Each location is opened by one thread at a
+ * time, and other locations can be acquired whilst it is being opened.
+ */
+final class NetcdfDatasetCache {
+    private static final Logger log = LoggerFactory.getLogger(NetcdfDatasetCache.class);
+
+    /*
+     * How often (in ms) we check the modification times of the files
+     * underlying a dataset
+     */
+    private static final long MODIFICATION_CHECK_INTERVAL = 5000L;
+
+    /**
+     * Opens {@link NetcdfDataset}s when they are not present in the cache
+     */
+    interface DatasetOpener {
+        public NetcdfDataset open(String location) throws IOException, EdalException;
+    }
+
+    /**
+     * A reference to a {@link NetcdfDataset} which is in use. This must be
+     * closed when it is no longer required. Closing a {@link Handle} more
+     * than once has no effect.
+     */
+    final class Handle implements Closeable {
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return The {@link NetcdfDataset} which this {@link Handle} refers
+         *         to
+         */
+        public NetcdfDataset getDataset() {
+            return entry.nc;
+        }
+
+        @Override
+        public void close() {
+            synchronized (NetcdfDatasetCache.this) {
+                if (!closed) {
+                    closed = true;
+                    entry.refCount--;
+                    if (entry.evicted && entry.refCount == 0) {
+                        closeEntry(entry);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String location;
+        private final NetcdfDataset nc;
+        private final List<File> files;
+        private final long lastModified;
+        private long lastAccessed;
+        private long lastChecked;
+        private int refCount = 0;
+        private boolean evicted = false;
+
+        private Entry(String location, NetcdfDataset nc, List<File> files, long lastModified) {
+            this.location = location;
+            this.nc = nc;
+            this.files = files;
+            this.lastModified = lastModified;
+            lastAccessed = System.currentTimeMillis();
+            lastChecked = lastAccessed;
+        }
+
+        private int getNumFiles() {
+            return Math.max(1, files.size());
+        }
+    }
+
+    private final DatasetOpener opener;
+    /*
+     * Access-ordered, so that iteration starts with the least-recently used
+     * entry
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /*
+     * Datasets which are currently being opened
+     */
+    private final ConcurrentHashMap<String, FutureTask<Entry>> opening = new ConcurrentHashMap<>();
+
+    private int maxDatasets;
+    private int maxOpenFiles;
+    private long idleTimeout;
+    private int numOpenFiles = 0;
+
+    private long hits = 0L;
+    private long misses = 0L;
+    private long evictions = 0L;
+    private long invalidations = 0L;
+    private long totalOpenNanos = 0L;
+
+    /**
+     * @param opener
+     *            The {@link DatasetOpener} used to open datasets which are not
+     *            in the cache
+     * @param maxDatasets
+     *            The maximum number of datasets to hold open
+     * @param maxOpenFiles
+     *            The maximum number of files which the cached datasets may
+     *            hold open
+     * @param idleTimeoutMinutes
+     *            The time after which unused datasets are closed. Zero or less
+     *            means that datasets are only removed when the cache is full
+     */
+    NetcdfDatasetCache(DatasetOpener opener, int maxDatasets, int maxOpenFiles,
+            int idleTimeoutMinutes) {
+        this.opener = opener;
+        setLimits(maxDatasets, maxOpenFiles, idleTimeoutMinutes);
+    }
+
+    /**
+     * Sets the limits of this cache, evicting datasets if necessary. See
+     * {@link NetcdfDatasetCache#NetcdfDatasetCache(DatasetOpener, int, int, int)}
+     * for details of the parameters.
+     */
+    synchronized void setLimits(int maxDatasets, int maxOpenFiles, int idleTimeoutMinutes) {
+        this.maxDatasets = Math.max(1, maxDatasets);
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+        this.idleTimeout = idleTimeoutMinutes * 60000L;
+        evictExpired();
+        evictToLimits();
+    }
+
+    /**
+     * Gets a {@link Handle} on the {@link NetcdfDataset} at the given location,
+     * opening it if it is not already cached, or if the underlying files have
+     * changed.
+     * 
+     * @param location
+     *            The location of the dataset
+     * @return A {@link Handle} which must be closed once the dataset is no
+     *         longer needed
+     */
+    Handle acquire(final String location) throws IOException, EdalException {
+        while (true) {
+            Entry cached;
+            synchronized (this) {
+                evictExpired();
+                cached = entries.get(location);
+                if (cached != null && !isCheckDue(cached)) {
+                    hits++;
+                    return newHandle(cached);
+                }
+            }
+
+            if (cached != null) {
+                /*
+                 * Check whether the files have changed without holding the
+                 * lock, since expanding a glob expression over a large
+                 * directory can take a long time. Other threads keep using the
+                 * cached dataset in the meantime.
+                 */
+                boolean modified = isModified(cached);
+                synchronized (this) {
+                    if (!modified && !cached.evicted) {
+                        hits++;
+                        return newHandle(cached);
+                    }
+                    if (modified && entries.get(location) == cached) {
+                        invalidations++;
+                        log.debug("Files underlying " + location
+                                + " have changed.  Reopening dataset");
+                        removeEntry(cached);
+                    }
+                }
+            }
+
+            /*
+             * Only one thread opens a given location at once. Others wait for
+             * it to finish rather than opening the same dataset themselves.
+             * The dataset is opened without holding the lock, since this can
+             * take a long time for aggregations or remote datasets.
+             */
+            FutureTask<Entry> open = new FutureTask<>(new Callable<Entry>() {
+                @Override
+                public Entry call() throws IOException, EdalException {
+                    return open(location);
+                }
+            });
+            FutureTask<Entry> inProgress = opening.putIfAbsent(location, open);
+            if (inProgress == null) {
+                try {
+                    open.run();
+                } finally {
+                    opening.remove(location, open);
+                }
+                inProgress = open;
+            }
+            Entry entry = getOpenedEntry(inProgress);
+
+            synchronized (this) {
+                if (!entry.evicted) {
+                    return newHandle(entry);
+                }
+                /*
+                 * The dataset was evicted before we could use it. This is
+                 * very unlikely, but we can just try again.
+                 */
+            }
+        }
+    }
+
+    /*
+     * Opens the dataset at a location and adds it to the cache
+     */
+    private Entry open(String location) throws IOException, EdalException {
+        List<File> files = getFiles(location);
+        long lastModified = getLastModified(files);
+        long start = System.nanoTime();
+        NetcdfDataset nc = opener.open(location);
+        long openTime = System.nanoTime() - start;
+
+        synchronized (this) {
+            misses++;
+            totalOpenNanos += openTime;
+            Entry entry = entries.get(location);
+            if (entry != null && entry.lastModified >= lastModified) {
+                /*
+                 * Another thread opened the same dataset just before we did.
+                 * Use that one instead.
+                 */
+                CdmUtils.closeDataset(nc);
+                return entry;
+            }
+            if (entry != null) {
+                removeEntry(entry);
+            }
+            entry = new Entry(location, nc, files, lastModified);
+            entries.put(location, entry);
+            numOpenFiles += entry.getNumFiles();
+            evictToLimits();
+            return entry;
+        }
+    }
+
+    private static Entry getOpenedEntry(FutureTask<Entry> open) throws IOException,
+            EdalException {
+        try {
+            return open.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst waiting for a dataset to open", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new EdalException("Problem opening dataset", cause);
+        }
+    }
+
+    /**
+     * Removes the dataset at the given location from the cache. It will be
+     * closed once it is no longer in use.
+     * 
+     * @param location
+     *            The location of the dataset to remove
+     */
+    synchronized void invalidate(String location) {
+        Entry entry = entries.get(location);
+        if (entry != null) {
+            invalidations++;
+            removeEntry(entry);
+        }
+    }
+
+    private Handle newHandle(Entry entry) {
+        entry.refCount++;
+        entry.lastAccessed = System.currentTimeMillis();
+        return new Handle(entry);
+    }
+
+    /*
+     * Whether the files underlying a cached dataset are due to be checked for
+     * modifications. If so, the entry is marked as checked, so that only the
+     * calling thread will check them.
+     */
+    private boolean isCheckDue(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (entry.files.isEmpty() || now - entry.lastChecked < MODIFICATION_CHECK_INTERVAL) {
+            return false;
+        }
+        entry.lastChecked = now;
+        return true;
+    }
+
+    private static boolean isModified(Entry entry) {
+        /*
+         * Files may have been added to (or removed from) a glob expression as
+         * well as modified
+         */
+        List<File> files = getFiles(entry.location);
+        return files.size() != entry.files.size() || getLastModified(files) != entry.lastModified;
+    }
+
+    private void evictExpired() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        List<Entry> expired = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.lastAccessed < cutoff && entry.refCount == 0) {
+                expired.add(entry);
+            }
+        }
+        for (Entry entry : expired) {
+            evictions++;
+            removeEntry(entry);
+        }
+    }
+
+    private void evictToLimits() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxDatasets || numOpenFiles > maxOpenFiles)
+                && entries.size() > 1 && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            evictions++;
+            numOpenFiles -= entry.getNumFiles();
+            entry.evicted = true;
+            if (entry.refCount == 0) {
+                closeEntry(entry);
+            }
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        entries.remove(entry.location);
+        numOpenFiles -= entry.getNumFiles();
+        entry.evicted = true;
+        if (entry.refCount == 0) {
+            closeEntry(entry);
+        }
+    }
+
+    private static void closeEntry(Entry entry) {
+        try {
+            CdmUtils.closeDataset(entry.nc);
+        } catch (IOException e) {
+            log.error("Problem closing dataset at " + entry.location, e);
+        }
+    }
+
+    /**
+     * @return The local files which make up the given location, or an empty
+     *         list for remote datasets
+     */
+    static List<File> getFiles(String location) {
+        if (location.startsWith("dods://") || location.startsWith("http://")) {
+            return Collections.emptyList();
+        }
+        try {
+            return CdmUtils.expandGlobExpression(location);
+        } catch (RuntimeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    static long getLastModified(List<File> files) {
+        long lastModified = 0L;
+        for (File file : files) {
+            lastModified = Math.max(lastModified, file.lastModified());
+        }
+        return lastModified;
+    }
+
+    synchronized int getNumDatasets() {
+        return entries.size();
+    }
+
+    synchronized int getNumOpenFiles() {
+        return numOpenFiles;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return The mean time taken to open a dataset on a cache miss, in
+     *         milliseconds
+     */
+    synchronized double getMeanOpenMillis() {
+        return misses == 0 ? 0.0 : totalOpenNanos / (misses * 1e6);
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+/**
+ * A pool of independent {@link NetcdfDataset} handles for a single location.
+ * Each handle is checked out by one {@link CdmGridDataSource} at a time, so
+ * that reads on the same location can proceed concurrently without sharing
+ * the state of an underlying file.
+ * 
+ * Handles are opened lazily, up to the size of the pool. If all handles are in
+ * use, {@link NetcdfDatasetPool#checkOut()} blocks until one is returned.
+ */
+final class NetcdfDatasetPool {
+    private static final Logger log = LoggerFactory.getLogger(NetcdfDatasetPool.class);
+
+    /**
+     * Opens new {@link NetcdfDataset} handles for the pool
+     */
+    interface HandleOpener {
+        public NetcdfDataset open() throws IOException;
+    }
+
+    private final int size;
+    private final HandleOpener opener;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<NetcdfDataset> idleHandles = new ConcurrentLinkedQueue<>();
+    private volatile boolean retired = false;
+
+    /**
+     * @param size
+     *            The maximum number of handles which may be open at once
+     * @param opener
+     *            The {@link HandleOpener} used to open new handles
+     */
+    NetcdfDatasetPool(int size, HandleOpener opener) {
+        this.size = size;
+        this.opener = opener;
+        permits = new Semaphore(size, true);
+    }
+
+    /**
+     * @return The maximum number of handles in this pool
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Checks out a handle for exclusive use, opening a new one if no idle
+     * handles are available. This must be matched by a call to
+     * {@link NetcdfDatasetPool#checkIn(NetcdfDataset)}.
+     * 
+     * @return A {@link NetcdfDataset} which is not in use by any other thread
+     * @throws IOException
+     *             If a new handle needed to be opened and this failed
+     */
+    NetcdfDataset checkOut() throws IOException {
+        if (!permits.tryAcquire()) {
+            long start = System.nanoTime();
+            permits.acquireUninterruptibly();
+            CdmGridDataSource.recordWait(System.nanoTime() - start);
+        }
+        NetcdfDataset nc = idleHandles.poll();
+        if (nc == null) {
+            try {
+                nc = opener.open();
+            } catch (IOException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        return nc;
+    }
+
+    /**
+     * Returns a handle to the pool once it is no longer being used
+     * 
+     * @param nc
+     *            The {@link NetcdfDataset} previously obtained from
+     *            {@link NetcdfDatasetPool#checkOut()}
+     */
+    void checkIn(NetcdfDataset nc) {
+        idleHandles.offer(nc);
+        if (retired) {
+            /*
+             * Checked in after the pool was retired. Checking this after
+             * offering the handle means it is closed either here or by
+             * retire().
+             */
+            closeIdleHandles();
+        }
+        permits.release();
+    }
+
+    /**
+     * Retires this pool, once it has been replaced (e.g. because the dataset
+     * has changed). All idle handles are closed, and handles which are
+     * currently checked out are closed as they are checked in.
+     */
+    void retire() {
+        retired = true;
+        closeIdleHandles();
+    }
+
+    private void closeIdleHandles() {
+        NetcdfDataset nc;
+        while ((nc = idleHandles.poll()) != null) {
+            try {
+                CdmUtils.closeDataset(nc);
+            } catch (IOException e) {
+                log.error("Problem closing pooled dataset", e);
+            }
+        }
+    }
+}
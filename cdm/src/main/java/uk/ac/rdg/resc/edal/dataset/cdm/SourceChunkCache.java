@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.ac.rdg.resc.edal.dataset.GridDataSource;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * A cache of decoded source data, used beneath
+ * {@link GridDataSource#read(String, int, int, int, int, int, int, int, int)}.
+ * 
+ * The horizontal grid of each variable is divided into fixed-size chunks of
+ * {@link #CHUNK_SIZE} x {@link #CHUNK_SIZE} points. Each chunk is cached
+ * separately for each time and depth, so that maps of different areas and
+ * sizes which overlap the same part of the source grid (e.g. when panning and
+ * zooming, or with different tile sizes) can reuse data which has already
+ * been read and decompressed.
+ * 
+ * The cache holds at most a fixed number of bytes of data, evicting the least
+ * recently used chunks when it is full.
+ * 
+ * Each location has a generation which is incremented when it is invalidated.
+ * Readers capture the generation before reading from the dataset, and chunks
+ * read from a superseded generation are not added to the cache.
+ */
+final class SourceChunkCache {
+    /**
+     * The size of the chunks in the x and y directions
+     */
+    static final int CHUNK_SIZE = 256;
+
+    private final LinkedHashMap<ChunkKey, FloatArray4D> chunks = new LinkedHashMap<>(16, 0.75f,
+            true);
+    private final Map<String, Long> generations = new HashMap<>();
+    private long maxBytes;
+    private long bytes = 0L;
+
+    private long hits = 0L;
+    private long misses = 0L;
+    private long evictions = 0L;
+
+    /**
+     * @param maxBytes
+     *            The maximum size of the data held in the cache. Zero or less
+     *            disables the cache.
+     */
+    SourceChunkCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Whether this cache will store any data
+     */
+    synchronized boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Sets the maximum size of the data held in the cache, evicting chunks if
+     * necessary
+     * 
+     * @param maxBytes
+     *            The maximum size in bytes. Zero or less disables the cache.
+     */
+    synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictToLimit();
+    }
+
+    /**
+     * Gets a chunk from the cache
+     * 
+     * @return The chunk, as a {@link FloatArray4D} with single time and depth
+     *         values, or <code>null</code> if it is not cached
+     */
+    synchronized FloatArray4D get(ChunkKey key) {
+        FloatArray4D chunk = chunks.get(key);
+        if (chunk == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return chunk;
+    }
+
+    /**
+     * @param location
+     *            The location of the dataset
+     * @return The current generation of the given location. This should be
+     *         captured before reading data which is to be passed to
+     *         {@link #put(ChunkKey, FloatArray4D, long)}
+     */
+    synchronized long getGeneration(String location) {
+        Long generation = generations.get(location);
+        return generation == null ? 0L : generation;
+    }
+
+    /**
+     * Adds a chunk to the cache. The chunk must not be modified after this has
+     * been called.
+     * 
+     * @param generation
+     *            The generation of the chunk's location when the chunk was
+     *            read. If the location has been invalidated since then, the
+     *            chunk is discarded.
+     */
+    synchronized void put(ChunkKey key, FloatArray4D chunk, long generation) {
+        long size = sizeOf(chunk);
+        if (size > maxBytes || generation != getGeneration(key.location)) {
+            return;
+        }
+        FloatArray4D previous = chunks.put(key, chunk);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        evictToLimit();
+    }
+
+    /**
+     * Removes all chunks read from the given location, and prevents any reads
+     * which are currently in progress from adding to the cache
+     */
+    synchronized void invalidate(String location) {
+        generations.put(location, getGeneration(location) + 1L);
+        Iterator<Map.Entry<ChunkKey, FloatArray4D>> iterator = chunks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ChunkKey, FloatArray4D> entry = iterator.next();
+            if (entry.getKey().location.equals(location)) {
+                bytes -= sizeOf(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evictToLimit() {
+        Iterator<FloatArray4D> iterator = chunks.values().iterator();
+        while (bytes > Math.max(0L, maxBytes) && iterator.hasNext()) {
+            bytes -= sizeOf(iterator.next());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static long sizeOf(FloatArray4D chunk) {
+        return 4L * chunk.getFloats().length;
+    }
+
+    synchronized int getNumChunks() {
+        return chunks.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Identifies a single chunk of source data
+     */
+    static final class ChunkKey {
+        private final String location;
+        private final String variableId;
+        private final int t;
+        private final int z;
+        private final int chunkY;
+        private final int chunkX;
+
+        /**
+         * @param location
+         *            The location of the dataset
+         * @param variableId
+         *            The ID of the variable
+         * @param t
+         *            The time index in the underlying data
+         * @param z
+         *            The z index in the underlying data
+         * @param chunkY
+         *            The index of the chunk in the y direction
+         * @param chunkX
+         *            The index of the chunk in the x direction
+         */
+        ChunkKey(String location, String variableId, int t, int z, int chunkY, int chunkX) {
+            this.location = location;
+            this.variableId = variableId;
+            this.t = t;
+            this.z = z;
+            this.chunkY = chunkY;
+            this.chunkX = chunkX;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + location.hashCode();
+            result = prime * result + variableId.hashCode();
+            result = prime * result + t;
+            result = prime * result + z;
+            result = prime * result + chunkY;
+            result = prime * result + chunkX;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof ChunkKey))
+                return false;
+            ChunkKey other = (ChunkKey) obj;
+            return t == other.t && z == other.z && chunkY == other.chunkY
+                    && chunkX == other.chunkX && location.equals(other.location)
+                    && variableId.equals(other.variableId);
+        }
+    }
+}
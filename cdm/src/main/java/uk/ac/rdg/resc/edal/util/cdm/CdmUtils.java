@@ -32,13 +32,11 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.apache.oro.io.GlobFilenameFilter;
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
 import org.joda.time.Chronology;
-import org.joda.time.DateTime;
 import org.joda.time.chrono.GregorianChronology;
 import org.joda.time.chrono.ISOChronology;
 import org.joda.time.chrono.JulianChronology;
@@ -77,7 +75,6 @@ import uk.ac.rdg.resc.edal.grid.cdm.CdmTransformedGrid;
 import uk.ac.rdg.resc.edal.position.VerticalCrs;
 import uk.ac.rdg.resc.edal.position.VerticalCrsImpl;
 import uk.ac.rdg.resc.edal.util.Array2D;
-import uk.ac.rdg.resc.edal.util.CollectionUtils;
 import uk.ac.rdg.resc.edal.util.chronologies.AllLeapChronology;
 import uk.ac.rdg.resc.edal.util.chronologies.NoLeapChronology;
 import uk.ac.rdg.resc.edal.util.chronologies.ThreeSixtyDayChronology;
@@ -246,17 +243,12 @@ public final class CdmUtils {
         boolean isPositive = coordSys.isZPositive();
         boolean isPressure = false;
         String units = "";
-        List<Double> values = Collections.emptyList();
+        double[] values;
 
         if (zAxis != null) {
             isPressure = zAxis.getAxisType() == AxisType.Pressure;
             units = zAxis.getUnitsString();
-
-            List<Double> zValues = new ArrayList<Double>();
-            for (double zVal : zAxis.getCoordValues()) {
-                zValues.add(zVal);
-            }
-            values = Collections.unmodifiableList(zValues);
+            values = zAxis.getCoordValues();
         } else {
             return null;
         }
@@ -289,17 +281,24 @@ public final class CdmUtils {
             throw new IllegalArgumentException("The calendar system " + cal.getStringValue()
                     + " cannot be handled");
         }
-        List<DateTime> timesteps = new ArrayList<DateTime>();
-        for (CalendarDate date : timeAxis.getCalendarDates()) {
-            timesteps.add(new DateTime(date.getMillis(), chron));
+        List<CalendarDate> dates = timeAxis.getCalendarDates();
+        long[] timesteps = new long[dates.size()];
+        for (int i = 0; i < timesteps.length; i++) {
+            timesteps[i] = dates.get(i).getMillis();
         }
-        return new TimeAxisImpl("time", timesteps);
+        return new TimeAxisImpl("time", timesteps, chron);
     }
 
-    /*
-     * Gets a Chronology from its CF string representation
+    /**
+     * Gets a {@link Chronology} from its CF string representation
+     * 
+     * @param chronologyString
+     *            The value of a CF "calendar" attribute. <code>null</code> is
+     *            treated as the standard calendar
+     * @return The corresponding {@link Chronology}, or <code>null</code> if
+     *         the calendar is not supported
      */
-    private static Chronology getChronologyForString(String chronologyString) {
+    public static Chronology getChronologyForString(String chronologyString) {
         if (chronologyString == null || "gregorian".equalsIgnoreCase(chronologyString)
                 || "standard".equalsIgnoreCase(chronologyString)) {
             return ISOChronology.getInstanceUTC();
@@ -355,9 +354,7 @@ public final class CdmUtils {
             return new RegularAxisImpl(name, axis.getStart(), axis.getIncrement(),
                     (int) axis.getSize(), isLongitude);
         } else {
-            double[] primVals = axis.getCoordValues();
-            List<Double> valsList = CollectionUtils.listFromDoubleArray(primVals);
-            return new ReferenceableAxisImpl(name, valsList, isLongitude);
+            return new ReferenceableAxisImpl(name, axis.getCoordValues(), isLongitude);
         }
     }
 
@@ -1,9 +1,13 @@
 package uk.ac.rdg.resc.edal.dataset.cdm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,14 +19,16 @@ import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
 
 public class CdmGridDataSourceTest {
     private CdmGridDataSource datasource;
+    private String location;
     private static final double delta = 1e-5;
 
     @Before
     public void setUp() throws Exception {
         URL url = this.getClass().getResource("/rectilinear_test_data.nc");
-        String location = url.getPath();
+        location = url.getPath();
         NetcdfDataset nc = CdmUtils.openDataset(location);
-        datasource = new CdmGridDataSource(CdmUtils.getGridDataset(nc));
+        datasource = new CdmGridDataSource(CdmUtils.getGridDataset(nc), new ReentrantLock(),
+                null);
     }
 
     @Test
@@ -68,4 +74,48 @@ public class CdmGridDataSourceTest {
         datasource.close();
     }
 
+    @Test
+    public void pooledReadTest() throws IOException, DataReadingException {
+        final NetcdfDatasetPool pool = new NetcdfDatasetPool(2, new NetcdfDatasetPool.HandleOpener() {
+            @Override
+            public NetcdfDataset open() throws IOException {
+                return CdmUtils.openDataset(location);
+            }
+        });
+        final NetcdfDataset nc1 = pool.checkOut();
+        final NetcdfDataset nc2 = pool.checkOut();
+        assertNotSame(nc1, nc2);
+        CdmGridDataSource ds1 = new CdmGridDataSource(CdmUtils.getGridDataset(nc1), null,
+                new Closeable() {
+                    @Override
+                    public void close() {
+                        pool.checkIn(nc1);
+                    }
+                });
+        CdmGridDataSource ds2 = new CdmGridDataSource(CdmUtils.getGridDataset(nc2), null,
+                new Closeable() {
+                    @Override
+                    public void close() {
+                        pool.checkIn(nc2);
+                    }
+                });
+
+        Array4D<Number> lon1 = ds1.read("vLon", 0, 0, 0, 0, 0, 0, 0, 35);
+        Array4D<Number> lon2 = ds2.read("vLon", 0, 0, 0, 0, 0, 0, 0, 35);
+        for (int m = 0; m < 35; m++) {
+            assertEquals(100.0f * m / 35, lon1.get(0, 0, 0, m).floatValue(), delta);
+            assertEquals(lon1.get(0, 0, 0, m), lon2.get(0, 0, 0, m));
+        }
+
+        /*
+         * Closing twice should only return the dataset to the pool once
+         */
+        ds1.close();
+        ds1.close();
+        ds2.close();
+        NetcdfDataset reused = pool.checkOut();
+        assertTrue(reused == nc1 || reused == nc2);
+        pool.checkIn(reused);
+        pool.retire();
+    }
 }
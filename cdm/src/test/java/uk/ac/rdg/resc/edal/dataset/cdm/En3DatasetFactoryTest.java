@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+public class En3DatasetFactoryTest {
+    private static final int N_LEVELS = 3;
+
+    private File dir;
+    private File profilesFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("edal-en3", "");
+        dir.delete();
+        dir.mkdirs();
+        profilesFile = new File(dir, "en3.files.ser");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreRead() throws IOException {
+        File a = writeFile("a.nc", 2, 2);
+        File b = writeFile("b.nc", 3, 3);
+        List<File> files = Arrays.asList(a, b);
+        Map<File, En3DatasetFactory.FileProfiles> profiles = En3DatasetFactory
+                .readAllFileProfiles(files, profilesFile);
+        assertEquals(2, profiles.get(a).size());
+        assertEquals(3, profiles.get(b).size());
+        assertTrue(profilesFile.exists());
+        assertFalse(new File(profilesFile.getPath() + ".tmp").exists());
+
+        /*
+         * Overwrite a file with unreadable data of the same size, keeping the
+         * modification time the same. It should not be read again, so its
+         * stored profiles will be used
+         */
+        long lastModified = a.lastModified();
+        long length = a.length();
+        try (FileOutputStream out = new FileOutputStream(a)) {
+            out.write(new byte[(int) length]);
+        }
+        a.setLastModified(lastModified);
+
+        /*
+         * Change the other file so that only one of its profiles can be
+         * indexed. It should be read again.
+         */
+        lastModified = b.lastModified();
+        writeFile("b.nc", 3, 1);
+        b.setLastModified(lastModified - 10000L);
+
+        profiles = En3DatasetFactory.readAllFileProfiles(files, profilesFile);
+        assertEquals(2, profiles.get(a).size());
+        assertEquals(1, profiles.get(b).size());
+
+        /*
+         * Removed files are not stored
+         */
+        profiles = En3DatasetFactory.readAllFileProfiles(new ArrayList<>(Arrays.asList(b)),
+                profilesFile);
+        assertEquals(1, profiles.size());
+        assertEquals(1, profiles.get(b).size());
+    }
+
+    /**
+     * Writes a file in the EN3 format
+     * 
+     * @param name
+     *            The name of the file
+     * @param nProfiles
+     *            The number of profiles in the file
+     * @param nValid
+     *            The number of profiles which have valid depths, and so can be
+     *            indexed
+     */
+    private File writeFile(String name, int nProfiles, int nValid) throws IOException {
+        File file = new File(dir, name);
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                file.getAbsolutePath());
+        Dimension profDim = writer.addDimension(null, "N_PROF", nProfiles);
+        Dimension levelDim = writer.addDimension(null, "N_LEVELS", N_LEVELS);
+        Variable latVar = writer.addVariable(null, "LATITUDE", DataType.DOUBLE,
+                profDim.getShortName());
+        Variable lonVar = writer.addVariable(null, "LONGITUDE", DataType.DOUBLE,
+                profDim.getShortName());
+        Variable timeVar = writer.addVariable(null, "JULD", DataType.DOUBLE,
+                profDim.getShortName());
+        timeVar.addAttribute(new Attribute("units", "days since 1950-01-01 00:00:00 utc"));
+        Variable depthVar = writer.addVariable(null, "DEPH_CORRECTED", DataType.FLOAT,
+                profDim.getShortName() + " " + levelDim.getShortName());
+        writer.create();
+        try {
+            double[] lats = new double[nProfiles];
+            double[] lons = new double[nProfiles];
+            double[] times = new double[nProfiles];
+            float[] depths = new float[nProfiles * N_LEVELS];
+            for (int i = 0; i < nProfiles; i++) {
+                lats[i] = i;
+                lons[i] = 2 * i;
+                times[i] = 20000 + i;
+                for (int j = 0; j < N_LEVELS; j++) {
+                    depths[i * N_LEVELS + j] = i < nValid ? 10 * (j + 1) : Float.NaN;
+                }
+            }
+            int[] shape = new int[] { nProfiles };
+            writer.write(latVar, Array.factory(DataType.DOUBLE, shape, lats));
+            writer.write(lonVar, Array.factory(DataType.DOUBLE, shape, lons));
+            writer.write(timeVar, Array.factory(DataType.DOUBLE, shape, times));
+            writer.write(depthVar, Array.factory(DataType.FLOAT,
+                    new int[] { nProfiles, N_LEVELS }, depths));
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
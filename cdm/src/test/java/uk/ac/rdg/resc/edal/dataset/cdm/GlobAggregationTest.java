@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+
+public class GlobAggregationTest {
+    private File dir;
+    private GlobAggregation aggregation;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("edal-agg", "");
+        dir.delete();
+        dir.mkdirs();
+        aggregation = new GlobAggregation(dir.getAbsolutePath() + "/*.nc");
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testFilesSortedByTime() throws IOException, EdalException {
+        /*
+         * Alphabetical order is not time order
+         */
+        File a = writeFile("a.nc", 20, 21);
+        File b = writeFile("b.nc", 0, 1, 2);
+        File c = writeFile("c.nc", 10);
+        String ncml = aggregation.getNcml(Arrays.asList(a, b, c));
+        assertTrue(ncml.contains("dimName=\"time\""));
+        assertOrder(ncml, b, c, a);
+        assertTrue(ncml.contains("location=\"" + b.getAbsolutePath()
+                + "\" ncoords=\"3\" coordValue=\"0 1 2\""));
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreRead() throws IOException, EdalException {
+        File a = writeFile("a.nc", 0);
+        File b = writeFile("b.nc", 10);
+        List<File> files = new ArrayList<>(Arrays.asList(a, b));
+        aggregation.getNcml(files);
+
+        /*
+         * Overwrite a file with unreadable data of the same size, keeping the
+         * modification time the same. It should not be read again, so its
+         * times will still be known
+         */
+        long lastModified = b.lastModified();
+        long length = b.length();
+        try (FileOutputStream out = new FileOutputStream(b)) {
+            out.write(new byte[(int) length]);
+        }
+        b.setLastModified(lastModified);
+
+        File c = writeFile("c.nc", 5);
+        files.add(c);
+        String ncml = aggregation.getNcml(files);
+        assertOrder(ncml, a, c, b);
+        assertTrue(ncml.contains("location=\"" + b.getAbsolutePath()
+                + "\" ncoords=\"1\" coordValue=\"10\""));
+
+        /*
+         * Removed files should be removed from the aggregation
+         */
+        files.remove(a);
+        ncml = aggregation.getNcml(files);
+        assertFalse(ncml.contains(a.getAbsolutePath()));
+        assertOrder(ncml, c, b);
+    }
+
+    private static void assertOrder(String ncml, File... files) {
+        int lastIndex = -1;
+        for (File file : files) {
+            int index = ncml.indexOf(file.getAbsolutePath());
+            assertTrue(index > lastIndex);
+            lastIndex = index;
+        }
+    }
+
+    private File writeFile(String name, int... times) throws IOException {
+        File file = new File(dir, name);
+        NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                file.getAbsolutePath());
+        Dimension time = writer.addUnlimitedDimension("time");
+        Variable timeVar = writer.addVariable(null, "time", DataType.INT, time.getShortName());
+        timeVar.addAttribute(new Attribute("units", "hours since 2000-01-01 00:00:00"));
+        writer.create();
+        try {
+            writer.write(timeVar, Array.factory(DataType.INT, new int[] { times.length }, times));
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+
+/**
+ * Tests that datasets recreated from metadata stored by a
+ * {@link GridMetadataStore} match those created by analysing the file itself,
+ * and that the stored metadata is ignored once the file has changed.
+ */
+public class GridMetadataStoreTest {
+    private File workingDir;
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        workingDir = Files.createTempDirectory("edal-metadata").toFile();
+        file = new File(workingDir, "test.nc");
+        Files.copy(Paths.get(this.getClass().getResource("/test.nc").toURI()), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        DatasetFactory.setWorkingDirectory(workingDir);
+        CdmGridDatasetFactory.setMetadataStoreEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        CdmGridDatasetFactory.setMetadataStoreEnabled(false);
+        DatasetFactory.setWorkingDirectory(null);
+        delete(workingDir);
+    }
+
+    @Test
+    public void testRecreateFromStore() throws IOException, EdalException {
+        CdmGridDatasetFactory datasetFactory = new CdmGridDatasetFactory();
+        Dataset analysed = datasetFactory.createDataset("analysed", file.getPath());
+
+        GridMetadataStore store = new GridMetadataStore(new File(workingDir, "metadata"));
+        assertNotNull(store.read(file.getPath()));
+
+        Dataset stored = datasetFactory.createDataset("stored", file.getPath());
+        assertEquals(analysed.getVariableIds(), stored.getVariableIds());
+        for (String varId : analysed.getVariableIds()) {
+            VariableMetadata expected = analysed.getVariableMetadata(varId);
+            VariableMetadata actual = stored.getVariableMetadata(varId);
+            assertEquals(expected.getParameter(), actual.getParameter());
+            assertEquals(expected.getHorizontalDomain(), actual.getHorizontalDomain());
+            assertEquals(expected.getVerticalDomain(), actual.getVerticalDomain());
+            assertEquals(expected.getTemporalDomain(), actual.getTemporalDomain());
+            assertEquals(expected.isScalar(), actual.isScalar());
+        }
+    }
+
+    @Test
+    public void testChangedFileIgnored() throws IOException, EdalException {
+        new CdmGridDatasetFactory().createDataset("testdataset", file.getPath());
+
+        GridMetadataStore store = new GridMetadataStore(new File(workingDir, "metadata"));
+        assertNotNull(store.read(file.getPath()));
+        assertNull(store.read(new File(workingDir, "other.nc").getPath()));
+
+        assertTrue(file.setLastModified(file.lastModified() + 60000L));
+        assertNull(store.read(file.getPath()));
+    }
+
+    @Test
+    public void testNcmlNotStored() throws IOException, EdalException {
+        new CdmGridDatasetFactory().createDataset("testdataset", file.getPath());
+        GridMetadataStore store = new GridMetadataStore(new File(workingDir, "metadata"));
+        GridMetadataStore.DatasetMetadata metadata = store.read(file.getPath());
+        assertNotNull(metadata);
+
+        /*
+         * The files aggregated by NcML may change without the NcML changing
+         */
+        File ncml = new File(workingDir, "test.ncml");
+        Files.write(ncml.toPath(), ("<netcdf xmlns=\"http://www.unidata.ucar.edu/namespaces/"
+                + "netcdf/ncml-2.2\" location=\"" + file.getAbsolutePath() + "\"/>")
+                .getBytes("UTF-8"));
+        store.write(ncml.getPath(), metadata);
+        assertNull(store.read(ncml.getPath()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+public class NetcdfDatasetCacheTest {
+    private NetcdfDatasetCache cache;
+    private String location;
+    private int numOpened;
+
+    @Before
+    public void setUp() {
+        URL url = this.getClass().getResource("/test.nc");
+        location = url.getPath();
+        numOpened = 0;
+        cache = new NetcdfDatasetCache(new NetcdfDatasetCache.DatasetOpener() {
+            @Override
+            public NetcdfDataset open(String location) throws IOException, EdalException {
+                numOpened++;
+                return CdmUtils.openDataset(location);
+            }
+        }, 1, 10, 0);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws IOException, EdalException {
+        NetcdfDatasetCache.Handle handle1 = cache.acquire(location);
+        NetcdfDatasetCache.Handle handle2 = cache.acquire(location);
+        assertSame(handle1.getDataset(), handle2.getDataset());
+        assertEquals(1, numOpened);
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+        assertEquals(1, cache.getNumDatasets());
+        assertEquals(1, cache.getNumOpenFiles());
+        handle1.close();
+        handle2.close();
+        /* Closing twice should have no effect */
+        handle2.close();
+    }
+
+    @Test
+    public void testEviction() throws IOException, EdalException {
+        NetcdfDatasetCache.Handle handle = cache.acquire(location);
+        /*
+         * The same file under a different location string counts as a separate
+         * dataset, so this will exceed the limit of 1 dataset
+         */
+        NetcdfDatasetCache.Handle other = cache.acquire(location.replace(
+                "/test.nc", "/./test.nc"));
+        assertEquals(1L, cache.getEvictions());
+        assertEquals(1, cache.getNumDatasets());
+        /* The evicted dataset is still usable until its handle is closed */
+        assertNotNull(handle.getDataset().getVariables());
+        handle.close();
+        other.close();
+
+        cache.acquire(location).close();
+        assertEquals(3, numOpened);
+    }
+
+    @Test
+    public void testConcurrentOpens() throws Exception {
+        final String other = location.replace("/test.nc", "/./test.nc");
+        final AtomicInteger opens = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final NetcdfDatasetCache slowCache = new NetcdfDatasetCache(
+                new NetcdfDatasetCache.DatasetOpener() {
+                    @Override
+                    public NetcdfDataset open(String toOpen) throws IOException, EdalException {
+                        if (toOpen.equals(location)) {
+                            opens.incrementAndGet();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        return CdmUtils.openDataset(toOpen);
+                    }
+                }, 10, 10, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<NetcdfDataset>> acquires = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            acquires.add(executor.submit(new Callable<NetcdfDataset>() {
+                @Override
+                public NetcdfDataset call() throws Exception {
+                    NetcdfDatasetCache.Handle handle = slowCache.acquire(location);
+                    handle.close();
+                    return handle.getDataset();
+                }
+            }));
+        }
+        /*
+         * Whilst that location is being opened, others can still be acquired
+         */
+        slowCache.acquire(other).close();
+        release.countDown();
+        for (Future<NetcdfDataset> acquire : acquires) {
+            assertSame(acquires.get(0).get(), acquire.get());
+        }
+        executor.shutdown();
+        assertEquals(1, opens.get());
+        assertEquals(2L, slowCache.getMisses());
+    }
+
+    @Test
+    public void testInvalidate() throws IOException, EdalException {
+        cache.acquire(location).close();
+        cache.invalidate(location);
+        assertEquals(0, cache.getNumDatasets());
+        assertEquals(1L, cache.getInvalidations());
+        cache.acquire(location).close();
+        assertEquals(2, numOpened);
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Tests that handles checked out of a {@link NetcdfDatasetPool} are reused,
+ * and closed once the pool has been retired.
+ */
+public class NetcdfDatasetPoolTest {
+    private List<NetcdfDataset> closed;
+    private NetcdfDatasetPool pool;
+
+    @Before
+    public void setUp() {
+        closed = new ArrayList<>();
+        pool = new NetcdfDatasetPool(2, new NetcdfDatasetPool.HandleOpener() {
+            @Override
+            public NetcdfDataset open() throws IOException {
+                return new NetcdfDataset() {
+                    @Override
+                    public synchronized void close() throws IOException {
+                        closed.add(this);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        NetcdfDataset nc1 = pool.checkOut();
+        NetcdfDataset nc2 = pool.checkOut();
+        assertNotSame(nc1, nc2);
+        pool.checkIn(nc1);
+        assertSame(nc1, pool.checkOut());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testRetire() throws IOException {
+        NetcdfDataset idle = pool.checkOut();
+        NetcdfDataset inUse = pool.checkOut();
+        pool.checkIn(idle);
+
+        pool.retire();
+        assertEquals(1, closed.size());
+        assertSame(idle, closed.get(0));
+
+        /*
+         * Handles in use when the pool is retired are closed when returned
+         */
+        pool.checkIn(inUse);
+        assertEquals(2, closed.size());
+        assertSame(inUse, closed.get(1));
+    }
+}
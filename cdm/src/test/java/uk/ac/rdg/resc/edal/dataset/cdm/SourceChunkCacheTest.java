@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset.cdm;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dt.GridDataset;
+import ucar.nc2.dt.GridDatatype;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+import uk.ac.rdg.resc.edal.util.cdm.CdmUtils;
+
+public class SourceChunkCacheTest {
+    private NetcdfDataset nc;
+    private GridDataset gridDataset;
+    private String location;
+    private String varId;
+    private int xSize;
+    private int ySize;
+
+    @Before
+    public void setUp() throws Exception {
+        URL url = this.getClass().getResource("/test.nc");
+        location = url.getPath();
+        nc = CdmUtils.openDataset(location);
+        gridDataset = CdmUtils.getGridDataset(nc);
+        GridDatatype grid = gridDataset.getGrids().get(0);
+        varId = grid.getName();
+        xSize = grid.getXDimension().getLength();
+        ySize = grid.getYDimension().getLength();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CdmUtils.closeDataset(nc);
+    }
+
+    @Test
+    public void testCachedReadsMatchUncachedReads() throws Exception {
+        SourceChunkCache cache = new SourceChunkCache(64L * 1024L * 1024L);
+        CdmGridDataSource cached = new CdmGridDataSource(gridDataset, null, null, cache,
+                location);
+        CdmGridDataSource uncached = new CdmGridDataSource(gridDataset, null, null);
+
+        int[][] regions = new int[][] { { 0, ySize - 1, 0, xSize - 1 },
+                { ySize / 4, ySize / 2, xSize / 3, xSize - 1 }, { 0, 0, 0, xSize - 1 },
+                { ySize - 1, ySize - 1, xSize / 2, xSize / 2 } };
+        for (int[] region : regions) {
+            Array4D<Number> expected = uncached.read(varId, 0, 0, 0, 0, region[0], region[1],
+                    region[2], region[3]);
+            Array4D<Number> actual = cached.read(varId, 0, 0, 0, 0, region[0], region[1],
+                    region[2], region[3]);
+            assertEquals(expected.getYSize(), actual.getYSize());
+            assertEquals(expected.getXSize(), actual.getXSize());
+            for (int j = 0; j < expected.getYSize(); j++) {
+                for (int i = 0; i < expected.getXSize(); i++) {
+                    assertEquals(expected.get(0, 0, j, i), actual.get(0, 0, j, i));
+                }
+            }
+        }
+        /*
+         * The first read populates the cache, and all subsequent reads are
+         * within the same chunks
+         */
+        int numChunks = cache.getNumChunks();
+        assertTrue(numChunks > 0);
+        assertEquals(numChunks, cache.getMisses());
+        assertTrue(cache.getHits() >= 3);
+    }
+
+    @Test
+    public void testSinglePointReadDoesNotPopulate() throws Exception {
+        SourceChunkCache cache = new SourceChunkCache(64L * 1024L * 1024L);
+        CdmGridDataSource cached = new CdmGridDataSource(gridDataset, null, null, cache,
+                location);
+        cached.read(varId, 0, 0, 0, 0, 0, 0, 0, 0);
+        assertEquals(0, cache.getNumChunks());
+    }
+
+    @Test
+    public void testEvictionAndInvalidation() throws Exception {
+        /*
+         * Only big enough for a single chunk
+         */
+        long chunkBytes = 4L * Math.min(ySize, SourceChunkCache.CHUNK_SIZE)
+                * Math.min(xSize, SourceChunkCache.CHUNK_SIZE);
+        SourceChunkCache cache = new SourceChunkCache(chunkBytes);
+        CdmGridDataSource cached = new CdmGridDataSource(gridDataset, null, null, cache,
+                location);
+        cached.read(varId, 0, 0, 0, 0, 0, 1, 0, 1);
+        assertEquals(1, cache.getNumChunks());
+        assertEquals(chunkBytes, cache.getBytes());
+
+        cache.invalidate(location);
+        assertEquals(0, cache.getNumChunks());
+        assertEquals(0, cache.getBytes());
+
+        cache.setMaxBytes(0);
+        cached.read(varId, 0, 0, 0, 0, 0, 1, 0, 1);
+        assertEquals(0, cache.getNumChunks());
+    }
+
+    @Test
+    public void testStaleChunksAreDiscarded() throws Exception {
+        SourceChunkCache cache = new SourceChunkCache(64L * 1024L * 1024L);
+        CdmGridDataSource uncached = new CdmGridDataSource(gridDataset, null, null);
+        FloatArray4D chunk = (FloatArray4D) uncached.read(varId, 0, 0, 0, 0, 0, 0, 0, 1);
+        SourceChunkCache.ChunkKey key = new SourceChunkCache.ChunkKey(location, varId, 0, 0, 0,
+                0);
+
+        /*
+         * A read which started before the location was invalidated
+         */
+        long generation = cache.getGeneration(location);
+        cache.invalidate(location);
+        cache.put(key, chunk, generation);
+        assertEquals(0, cache.getNumChunks());
+
+        cache.put(key, chunk, cache.getGeneration(location));
+        assertEquals(1, cache.getNumChunks());
+    }
+}
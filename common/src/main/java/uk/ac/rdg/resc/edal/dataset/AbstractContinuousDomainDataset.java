@@ -46,6 +46,8 @@ import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.geometry.BoundingBoxImpl;
 import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.CollectionUtils;
 import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
@@ -204,6 +206,54 @@ public abstract class AbstractContinuousDomainDataset extends AbstractDataset {
         return features;
     }
 
+    /**
+     * Finds the range of values of a variable from a sample of the features
+     * in this dataset. Features are chosen evenly from all of those which
+     * contain the variable, so that only a bounded number of features need to
+     * be read.
+     * 
+     * @param varId
+     *            The ID of the variable to find the range of
+     * @param maxFeatures
+     *            The maximum number of features to read
+     * @return The range of the non-missing values of the sampled features, or
+     *         <code>null</code> if there were none
+     * @throws DataReadingException
+     *             If there is a problem reading the features
+     */
+    public Extent<Float> readSampledValueRange(String varId, int maxFeatures)
+            throws DataReadingException {
+        Set<String> varIds = CollectionUtils.setOf(varId);
+        List<String> featureIds = new ArrayList<>(featureIndexer.findFeatureIds(
+                getDatasetBoundingBox(), getDatasetVerticalExtent(), getDatasetTimeExtent(),
+                varIds));
+        if (featureIds.size() > maxFeatures) {
+            List<String> sampledIds = new ArrayList<>(maxFeatures);
+            for (int i = 0; i < maxFeatures; i++) {
+                sampledIds.add(featureIds.get((int) ((long) i * featureIds.size() / maxFeatures)));
+            }
+            featureIds = sampledIds;
+        }
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (DiscreteFeature<?, ?> feature : getFeatureReader().readFeatures(featureIds, varIds)) {
+            Array<Number> values = feature.getValues(varId);
+            if (values != null) {
+                for (Number value : values) {
+                    if (value != null && !Double.isNaN(value.doubleValue())) {
+                        min = Math.min(value.floatValue(), min);
+                        max = Math.max(value.floatValue(), max);
+                    }
+                }
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        return Extents.newExtent(min, max);
+    }
+
     /**
      * @return The {@link BoundingBox} of the entire dataset
      */
@@ -36,9 +36,9 @@ import org.h2.store.DataReader;
 import uk.ac.rdg.resc.edal.dataset.DomainMapper.DomainMapperEntry;
 import uk.ac.rdg.resc.edal.dataset.DomainMapper.Scanline;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
-import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.Array4D;
-import uk.ac.rdg.resc.edal.util.ValuesArray2D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
 
 /**
  * <p>
@@ -124,9 +124,9 @@ public enum DataReadingStrategy {
      */
     SCANLINE {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
+        public FloatArray2D readMapData(GridDataSource dataSource, String varId, int tIndex,
                 int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
+            FloatArray2D ret = new FloatArray2D(domainMapper.getTargetYSize(),
                     domainMapper.getTargetXSize());
 
             Iterator<Scanline<int[]>> it = domainMapper.scanlineIterator();
@@ -142,10 +142,10 @@ public enum DataReadingStrategy {
                         imin, imax);
 
                 for (DomainMapperEntry<int[]> dme : entries) {
+                    float value = getFloat(data, 0, dme.getSourceGridIIndex() - imin);
                     List<int[]> targetGridPoints = dme.getTargetIndices();
                     for (int[] targetPoint : targetGridPoints) {
-                        ret.set(data.get(0, 0, 0, dme.getSourceGridIIndex() - imin), new int[] {
-                                targetPoint[1], targetPoint[0] });
+                        ret.setFloat(value, targetPoint[1], targetPoint[0]);
                     }
                 }
             }
@@ -160,12 +160,11 @@ public enum DataReadingStrategy {
      */
     BOUNDING_BOX {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
+        public FloatArray2D readMapData(GridDataSource dataSource, String varId, int tIndex,
                 int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
-                    domainMapper.getTargetXSize());
             if (domainMapper.isEmpty()) {
-                return ret;
+                return new FloatArray2D(domainMapper.getTargetYSize(),
+                        domainMapper.getTargetXSize());
             }
             int imin = domainMapper.getMinIIndex();
             int imax = domainMapper.getMaxIIndex();
@@ -173,16 +172,7 @@ public enum DataReadingStrategy {
             int jmax = domainMapper.getMaxJIndex();
             Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, jmin,
                     jmax, imin, imax);
-            for (DomainMapperEntry<int[]> pme : domainMapper) {
-                List<int[]> targetGridPoints = pme.getTargetIndices();
-                Number value = data.get(0, 0, pme.getSourceGridJIndex() - jmin,
-                        pme.getSourceGridIIndex() - imin);
-                for (int[] targetPoint : targetGridPoints) {
-                    ret.set(value, new int[] { targetPoint[1],
-                            targetPoint[0] });
-                }
-            }
-            return ret;
+            return mapBoundingBoxData(data, jmin, imin, domainMapper);
         }
     },
 
@@ -192,24 +182,87 @@ public enum DataReadingStrategy {
      */
     PIXEL_BY_PIXEL {
         @Override
-        public Array2D<Number> readMapData(GridDataSource dataSource, String varId, int tIndex,
+        public FloatArray2D readMapData(GridDataSource dataSource, String varId, int tIndex,
                 int zIndex, Domain2DMapper domainMapper) throws IOException, DataReadingException {
-            Array2D<Number> ret = new ValuesArray2D(domainMapper.getTargetYSize(),
+            FloatArray2D ret = new FloatArray2D(domainMapper.getTargetYSize(),
                     domainMapper.getTargetXSize());
             for (DomainMapperEntry<int[]> pme : domainMapper) {
                 Array4D<Number> data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex,
                         pme.getSourceGridJIndex(), pme.getSourceGridJIndex(),
                         pme.getSourceGridIIndex(), pme.getSourceGridIIndex());
+                float value = getFloat(data, 0, 0);
                 List<int[]> targetGridPoints = pme.getTargetIndices();
                 for (int[] targetPoint : targetGridPoints) {
-                    ret.set(data.get(0, 0, 0, 0), new int[] { targetPoint[1], targetPoint[0] });
+                    ret.setFloat(value, targetPoint[1], targetPoint[0]);
                 }
             }
             return ret;
         }
     };
 
-    abstract public Array2D<Number> readMapData(GridDataSource dataSource, String varId,
+    /**
+     * Reads data from a {@link GridDataSource} onto the target grid of a
+     * {@link Domain2DMapper}
+     * 
+     * @param dataSource
+     *            The {@link GridDataSource} to read from
+     * @param varId
+     *            The ID of the variable to read
+     * @param tIndex
+     *            The time index in the underlying data
+     * @param zIndex
+     *            The z index in the underlying data
+     * @param domainMapper
+     *            The {@link Domain2DMapper} mapping source to target indices
+     * @return A {@link FloatArray2D} of the target size, with missing data
+     *         represented as {@link Float#NaN}
+     */
+    abstract public FloatArray2D readMapData(GridDataSource dataSource, String varId,
             int tIndex, int zIndex, Domain2DMapper domainMapper) throws IOException,
             DataReadingException;
+
+    /**
+     * Maps data which has already been read from a bounding box of the source
+     * grid onto the target grid of a {@link Domain2DMapper}. The bounding box
+     * must contain all of the source indices used by the {@link Domain2DMapper}
+     * 
+     * @param data
+     *            The data, as returned by {@link GridDataSource#read} for a
+     *            single time and depth
+     * @param jmin
+     *            The source y index of the first row of data
+     * @param imin
+     *            The source x index of the first column of data
+     * @param domainMapper
+     *            The {@link Domain2DMapper} mapping source to target indices
+     * @return A {@link FloatArray2D} of the target size, with missing data
+     *         represented as {@link Float#NaN}
+     */
+    static FloatArray2D mapBoundingBoxData(Array4D<Number> data, int jmin, int imin,
+            Domain2DMapper domainMapper) {
+        FloatArray2D ret = new FloatArray2D(domainMapper.getTargetYSize(),
+                domainMapper.getTargetXSize());
+        for (DomainMapperEntry<int[]> pme : domainMapper) {
+            List<int[]> targetGridPoints = pme.getTargetIndices();
+            float value = getFloat(data, pme.getSourceGridJIndex() - jmin,
+                    pme.getSourceGridIIndex() - imin);
+            for (int[] targetPoint : targetGridPoints) {
+                ret.setFloat(value, targetPoint[1], targetPoint[0]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets a single value from a (single time and depth) {@link Array4D} as
+     * returned by {@link GridDataSource#read}, avoiding boxing when the source
+     * is a {@link FloatArray4D}
+     */
+    private static float getFloat(Array4D<Number> data, int y, int x) {
+        if (data instanceof FloatArray4D) {
+            return ((FloatArray4D) data).getFloat(0, 0, y, x);
+        }
+        Number value = data.get(0, 0, y, x);
+        return value == null ? Float.NaN : value.floatValue();
+    }
 }
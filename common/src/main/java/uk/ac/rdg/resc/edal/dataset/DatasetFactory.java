@@ -34,6 +34,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.grid.LookUpTableGrid;
 
 /**
  * A factory for {@link Dataset} objects. The intention is that one factory
@@ -67,11 +68,14 @@ public abstract class DatasetFactory {
      * @param workingDir
      *            A default working directory which {@link DatasetFactory}
      *            subclasses can use to store data (e.g. to write spatial
-     *            indices to disk)
+     *            indices to disk). Look-up tables for curvilinear grids are
+     *            also stored in the "lut" subdirectory of this.
      * 
      */
     public static void setWorkingDirectory(File workingDir) {
         DatasetFactory.workingDir = workingDir;
+        LookUpTableGrid.setCacheDirectory(workingDir == null ? null
+                : new File(workingDir, "lut"));
     }
 
     /**
@@ -127,4 +131,57 @@ public abstract class DatasetFactory {
      */
     public abstract Dataset createDataset(String id, String location) throws IOException,
             EdalException;
+
+    /**
+     * Returns a Dataset object representing the data at the given location,
+     * allowing a number of reads from the same underlying data to take place
+     * concurrently.
+     * 
+     * Subclasses which read from sources that cannot safely be read
+     * concurrently should override this method if they can support concurrent
+     * reads (e.g. by opening multiple independent handles on the source). By
+     * default the number of concurrent reads is ignored.
+     * 
+     * @param id
+     *            The ID to assign to this dataset
+     * @param location
+     *            The location of the source data: this may be a file, database
+     *            connection string or a remote server address.
+     * @param maxConcurrentReads
+     *            The maximum number of reads which may take place on the same
+     *            location at once. A value of 1 or less means that reads will
+     *            be serialised.
+     * @throws EdalException
+     *             If there is a problem creating the dataset
+     */
+    public Dataset createDataset(String id, String location, int maxConcurrentReads)
+            throws IOException, EdalException {
+        return createDataset(id, location);
+    }
+
+    /**
+     * Notifies this factory that the data at the given location have changed
+     * (e.g. a file has been added or rewritten). Subclasses which cache any
+     * information about the data at a location should override this method to
+     * discard it. By default this does nothing.
+     * 
+     * @param location
+     *            The location of the source data, as passed to
+     *            {@link DatasetFactory#createDataset(String, String)}
+     */
+    public void dataChanged(String location) {
+    }
+
+    /**
+     * Notifies this factory that a dataset at the given location has been
+     * removed, and will not be read again. Subclasses which keep any
+     * information about the data at a location should override this method to
+     * discard it. By default this does nothing.
+     * 
+     * @param location
+     *            The location of the source data, as passed to
+     *            {@link DatasetFactory#createDataset(String, String)}
+     */
+    public void datasetRemoved(String location) {
+    }
 }
@@ -28,7 +28,9 @@
 
 package uk.ac.rdg.resc.edal.dataset;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -39,14 +41,16 @@ import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.PersistenceConfiguration;
 import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
-import uk.ac.rdg.resc.edal.grid.GridCell2D;
+
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
 import uk.ac.rdg.resc.edal.grid.RectilinearGrid;
 import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
-import uk.ac.rdg.resc.edal.position.HorizontalPosition;
-import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.Array4D;
 import uk.ac.rdg.resc.edal.util.GISUtils;
-import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
+import uk.ac.rdg.resc.edal.util.ValuesArray2D;
 
 /**
  * This is an implementation of a {@link DomainMapper} which maps 2D indices
@@ -103,6 +107,32 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         return targetYSize;
     }
 
+    /**
+     * Maps values which are already held in memory on the source grid onto
+     * the target grid. The values are copied as they are, so their type is
+     * retained.
+     * 
+     * @param sourceValues
+     *            An {@link Array4D} of values on the source grid
+     * @param tIndex
+     *            The time index of the values to map
+     * @param zIndex
+     *            The z index of the values to map
+     * @return An {@link Array2D} of values on the target grid. Points which do
+     *         not map to the source grid will be <code>null</code>
+     */
+    public Array2D<Number> mapValues(Array4D<Number> sourceValues, int tIndex, int zIndex) {
+        Array2D<Number> ret = new ValuesArray2D(targetYSize, targetXSize);
+        for (DomainMapperEntry<int[]> dme : this) {
+            Number value = sourceValues.get(tIndex, zIndex, dme.getSourceGridJIndex(),
+                    dme.getSourceGridIIndex());
+            for (int[] targetPoint : dme.getTargetIndices()) {
+                ret.set(value, targetPoint[1], targetPoint[0]);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Initialises a {@link Domain2DMapper} from a source and a target grid.
      * 
@@ -145,6 +175,36 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         return ret;
     }
 
+    /**
+     * Initialises a {@link Domain2DMapper} for an arbitrary set of points on a
+     * source grid, such as those along a transect. The target grid is a single
+     * row with one column per point, so the x-index of each target point is
+     * its index in the supplied arrays. Unlike those created by
+     * {@link #forGrid(HorizontalGrid, HorizontalGrid)}, these are not cached.
+     * 
+     * @param sourceGrid
+     *            A {@link HorizontalGrid} representing the domain of the source
+     *            data
+     * @param iIndices
+     *            The x-indices of the points in the source grid. Negative
+     *            values represent points which are outside the source grid
+     * @param jIndices
+     *            The y-indices of the points in the source grid
+     * @return A {@link Domain2DMapper} performing the mapping
+     */
+    public static Domain2DMapper forPoints(HorizontalGrid sourceGrid, int[] iIndices,
+            int[] jIndices) {
+        if (iIndices.length != jIndices.length) {
+            throw new IllegalArgumentException("Must supply the same number of x and y indices");
+        }
+        Domain2DMapper mapper = new Domain2DMapper(sourceGrid, iIndices.length, 1);
+        for (int i = 0; i < iIndices.length; i++) {
+            mapper.put(iIndices[i], jIndices[i], i);
+        }
+        mapper.sortIndices();
+        return mapper;
+    }
+
     /*-
      * Initialise the Domain2DMapper for 2 grids which:
      * 
@@ -173,7 +233,7 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         List<Double> targetGridLons = targetGridXAxis.getCoordinateValues();
         for (int i = 0; i < targetGridLons.size(); i++) {
             double targetX = targetGridLons.get(i);
-            xIndices[i] = sourceGridXAxis.findIndexOf(targetX);
+            xIndices[i] = GISUtils.findIndexOf(sourceGridXAxis, targetX);
         }
 
         /*
@@ -181,7 +241,7 @@ public class Domain2DMapper extends DomainMapper<int[]> {
          */
         for (int j = 0; j < targetGridYAxis.size(); j++) {
             double targetY = targetGridYAxis.getCoordinateValue(j);
-            int yIndex = sourceGridYAxis.findIndexOf(targetY);
+            int yIndex = GISUtils.findIndexOf(sourceGridYAxis, targetY);
             if (yIndex >= 0) {
                 for (int i = 0; i < xIndices.length; i++) {
                     mapper.put(xIndices[i], yIndex, mapper.convertCoordsToIndex(i, j));
@@ -201,19 +261,21 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         Domain2DMapper mapper = new Domain2DMapper(sourceGrid, targetGrid.getXSize(),
                 targetGrid.getYSize());
         /*
-         * Find the nearest grid coordinates to all the points in the domain
+         * Find the nearest grid coordinates to all the points in the domain.
+         * The centres of the target grid cells are transformed to the CRS of
+         * the source grid in bulk, with blocks of rows handled in parallel.
          */
-        Array<GridCell2D> targetDomainObjects = targetGrid.getDomainObjects();
-        for (int j = 0; j < targetGrid.getYSize(); j++) {
-            for (int i = 0; i < targetGrid.getXSize(); i++) {
-                targetGrid.getDomainObjects().get(j, i).getCentre();
-                HorizontalPosition transformedPosition = GISUtils.transformPosition(
-                        targetDomainObjects.get(j, i).getCentre(),
-                        sourceGrid.getCoordinateReferenceSystem());
-                GridCoordinates2D indices = sourceGrid.findIndexOf(transformedPosition);
-                if (indices != null) {
-                    mapper.put(indices.getX(), indices.getY(), mapper.convertCoordsToIndex(i, j));
-                }
+        int xSize = targetGrid.getXSize();
+        double[] centres = GISUtils.getGridCentres(targetGrid);
+        int[] indices = new int[centres.length];
+        forkJoinPool.invoke(new FindIndicesTask(sourceGrid, centres,
+                targetGrid.getCoordinateReferenceSystem(), indices, xSize, 0, targetGrid
+                        .getYSize()));
+        for (int index = 0; index < indices.length; index += 2) {
+            if (indices[index] >= 0) {
+                int i = (index / 2) % xSize;
+                int j = (index / 2) / xSize;
+                mapper.put(indices[index], indices[index + 1], mapper.convertCoordsToIndex(i, j));
             }
         }
 
@@ -221,6 +283,55 @@ public class Domain2DMapper extends DomainMapper<int[]> {
         return mapper;
     }
 
+    /**
+     * Finds the source grid indices for a block of rows of the target grid,
+     * splitting large blocks into parallel tasks
+     */
+    private static final class FindIndicesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        /*
+         * The number of points below which a block is not split further
+         */
+        private static final int MIN_POINTS_PER_TASK = 16384;
+
+        private final HorizontalGrid sourceGrid;
+        private final double[] centres;
+        private final CoordinateReferenceSystem targetCrs;
+        private final int[] indices;
+        private final int xSize;
+        private final int fromRow;
+        private final int toRow;
+
+        private FindIndicesTask(HorizontalGrid sourceGrid, double[] centres,
+                CoordinateReferenceSystem targetCrs, int[] indices, int xSize, int fromRow,
+                int toRow) {
+            this.sourceGrid = sourceGrid;
+            this.centres = centres;
+            this.targetCrs = targetCrs;
+            this.indices = indices;
+            this.xSize = xSize;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected void compute() {
+            int nRows = toRow - fromRow;
+            if (nRows > 1 && (long) nRows * xSize > MIN_POINTS_PER_TASK) {
+                int midRow = (fromRow + toRow) >>> 1;
+                invokeAll(new FindIndicesTask(sourceGrid, centres, targetCrs, indices, xSize,
+                        fromRow, midRow), new FindIndicesTask(sourceGrid, centres, targetCrs,
+                        indices, xSize, midRow, toRow));
+                return;
+            }
+            int from = 2 * fromRow * xSize;
+            int to = 2 * toRow * xSize;
+            int[] blockIndices = GISUtils.findIndicesOf(sourceGrid,
+                    Arrays.copyOfRange(centres, from, to), targetCrs);
+            System.arraycopy(blockIndices, 0, indices, from, to - from);
+        }
+    }
+
     /*
      * Cache management
      */
@@ -30,9 +30,12 @@ package uk.ac.rdg.resc.edal.dataset;
 
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,8 +121,20 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
         public List<DomainMapperEntry<P>> getPixelMapEntries();
     }
 
+    /*
+     * Used to construct and sort mappings in parallel
+     */
+    protected static final ForkJoinPool forkJoinPool = new ForkJoinPool();
+
+    /*
+     * Arrays smaller than this are sorted in a single task
+     */
+    private static final int SEQUENTIAL_SORT_THRESHOLD = 1 << 16;
+
     private final int sourceGridISize;
 
+    private final long maxSourceGridIndex;
+
     private final int targetDomainSize;
 
     /*
@@ -158,7 +173,7 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
          * Choose storage for the mappings appropriate to the sizes of the
          * domains
          */
-        long maxSourceGridIndex = sourceGrid.size() - 1;
+        maxSourceGridIndex = sourceGrid.size() - 1;
         sourceGridIndices = chooseRArray(maxSourceGridIndex, chunkSize);
         log.debug("Source grid indices (max: {}) stored in a {}", maxSourceGridIndex,
                 sourceGridIndices.getClass());
@@ -195,8 +210,12 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
     /**
      * Sorts the arrays of source and target indices so that the arrays are in
      * order of increasing source grid index, then increasing target grid index.
-     * Uses an in-place quicksort algorithm adapted from
-     * http://www.vogella.de/articles/JavaAlgorithmsQuicksort/article.html.
+     * 
+     * Each pair of indices is packed into a single long, and these are sorted
+     * in parallel. If the indices are too large to be packed, an in-place
+     * quicksort algorithm adapted from
+     * http://www.vogella.de/articles/JavaAlgorithmsQuicksort/article.html is
+     * used instead.
      */
     protected void sortIndices() {
         int numElements = sourceGridIndices.size();
@@ -205,7 +224,83 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
          */
         if (numElements < 2)
             return;
-        quicksort(0, numElements - 1);
+
+        long targetRange = targetDomainSize;
+        if (maxSourceGridIndex > (Long.MAX_VALUE - targetRange) / targetRange) {
+            quicksort(0, numElements - 1);
+            return;
+        }
+
+        long[] packed = new long[numElements];
+        for (int i = 0; i < numElements; i++) {
+            packed[i] = sourceGridIndices.getLong(i) * targetRange
+                    + targetGridIndices.getLong(i);
+        }
+        if (numElements <= SEQUENTIAL_SORT_THRESHOLD) {
+            Arrays.sort(packed);
+        } else {
+            forkJoinPool.invoke(new SortTask(packed, new long[numElements], 0, numElements));
+        }
+        for (int i = 0; i < numElements; i++) {
+            sourceGridIndices.set(i, packed[i] / targetRange);
+            targetGridIndices.set(i, packed[i] % targetRange);
+        }
+    }
+
+    /**
+     * A parallel merge sort of an array of longs
+     */
+    private static final class SortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long[] array;
+        private final long[] buffer;
+        private final int from;
+        private final int to;
+
+        /**
+         * @param array
+         *            The array to sort
+         * @param buffer
+         *            Working space of the same size as the array
+         * @param from
+         *            The first index to sort (inclusive)
+         * @param to
+         *            The last index to sort (exclusive)
+         */
+        private SortTask(long[] array, long[] buffer, int from, int to) {
+            this.array = array;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_SORT_THRESHOLD) {
+                Arrays.sort(array, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(array, buffer, from, mid), new SortTask(array, buffer, mid,
+                    to));
+
+            /*
+             * Merge the two sorted halves via the buffer
+             */
+            System.arraycopy(array, from, buffer, from, to - from);
+            int i = from;
+            int j = mid;
+            int k = from;
+            while (i < mid && j < to) {
+                array[k++] = buffer[i] <= buffer[j] ? buffer[i++] : buffer[j++];
+            }
+            while (i < mid) {
+                array[k++] = buffer[i++];
+            }
+            while (j < to) {
+                array[k++] = buffer[j++];
+            }
+        }
     }
 
     private void quicksort(final int low, final int high) {
@@ -399,7 +494,7 @@ abstract class DomainMapper<T> implements Iterable<DomainMapper.DomainMapperEntr
      * @return the size of the i-j bounding box that encompasses all data.
      */
     public long getBoundingBoxSize() {
-        return (maxIIndex - minIIndex + 1) * (maxJIndex - minJIndex + 1);
+        return (long) (maxIIndex - minIIndex + 1) * (maxJIndex - minJIndex + 1);
     }
 
     /**
@@ -87,6 +87,7 @@ import uk.ac.rdg.resc.edal.util.Array1D;
 import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.Array4D;
 import uk.ac.rdg.resc.edal.util.Extents;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
@@ -103,6 +104,14 @@ public abstract class GriddedDataset extends AbstractDataset {
     private static final Logger log = LoggerFactory.getLogger(GriddedDataset.class);
     private static final String NO_Z_AXIS_CODE = "NO_Z_AXIS";
     private static final String NO_T_AXIS_CODE = "NO_T_AXIS";
+    /*
+     * The largest bounding box (in source grid points) which will be read to
+     * extract a group of points. Beyond this, points are read in scanlines.
+     */
+    private static final long MAX_POINTS_BOUNDING_BOX_SIZE = 1 << 20;
+
+    private final MapReadCoalescer mapReadCoalescer = new MapReadCoalescer();
+    private final TimeSeriesStore timeSeriesStore = new TimeSeriesStore(this);
 
     public GriddedDataset(String id, Collection<GridVariableMetadata> vars) {
         super(id, vars);
@@ -359,7 +368,13 @@ public abstract class GriddedDataset extends AbstractDataset {
                  */
                 Array2D<Number> data = readHorizontalData(varId, targetGrid, zPos, time, dataSource);
 
-                values.put(varId, data);
+                /*
+                 * Non-derived variables are already read into a FloatArray2D.
+                 * Plugin-derived variables are evaluated lazily, so we
+                 * evaluate them once here rather than every time a value is
+                 * requested
+                 */
+                values.put(varId, FloatArray2D.fromArray(data));
             }
 
             /*
@@ -537,10 +552,11 @@ public abstract class GriddedDataset extends AbstractDataset {
         Domain2DMapper domainMapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
 
         /*
-         * Now use the appropriate DataReadingStrategy to read data
+         * Now use the appropriate DataReadingStrategy to read data. Concurrent
+         * reads of neighbouring areas (e.g. map tiles) may be combined.
          */
-        Array2D<Number> data = getDataReadingStrategy().readMapData(dataSource, varId, tIndex,
-                zIndex, domainMapper);
+        Array2D<Number> data = mapReadCoalescer.readMapData(getDataReadingStrategy(), dataSource,
+                varId, tIndex, zIndex, domainMapper);
         return data;
     }
 
@@ -1740,10 +1756,16 @@ public abstract class GriddedDataset extends AbstractDataset {
                 int tMax = variableTAxis.findIndexOf(tAxis.getExtent().getHigh());
 
                 /*
-                 * Read the data and move it to a 1D Array
+                 * Read the data and move it to a 1D Array. Use the timeseries
+                 * store if it is available, since reading a single point over
+                 * a long time axis directly is slow
                  */
-                Array4D<Number> data4d = dataSource.read(varId, tMin, tMax, zIndex, zIndex, yIndex,
-                        yIndex, xIndex, xIndex);
+                Array4D<Number> data4d = timeSeriesStore.read(metadata, tMin, tMax, zIndex,
+                        yIndex, xIndex);
+                if (data4d == null) {
+                    data4d = dataSource.read(varId, tMin, tMax, zIndex, zIndex, yIndex, yIndex,
+                            xIndex, xIndex);
+                }
                 int tSize = tAxis.size();
                 Array1D<Number> data = new ValuesArray1D(tSize);
 
@@ -2000,23 +2022,237 @@ public abstract class GriddedDataset extends AbstractDataset {
         }
     }
 
+    /**
+     * Reads the values of several variables at a single point. Only the
+     * source grid cell containing the point is read for each variable, so
+     * this is much faster than extracting a map feature when only a single
+     * value is required (e.g. for GetFeatureInfo requests).
+     * 
+     * @param variableIds
+     *            The IDs of the variables to read. These must all be scalar
+     * @param position
+     *            The {@link HorizontalPosition} to read data at
+     * @param zVal
+     *            The elevation to read data at. If <code>null</code>, the
+     *            elevation closest to the surface is used
+     * @param time
+     *            The time to read data at. If <code>null</code>, the time
+     *            closest to the current time is used
+     * @return A {@link Map} of variable ID to the value at the given point.
+     *         Values are <code>null</code> if the position is outside the
+     *         domain of the variable, or the data are missing
+     * @throws DataReadingException
+     *             If there is a problem reading the data
+     * @throws VariableNotFoundException
+     *             If any of the variables are not present in this dataset
+     */
+    public final Map<String, Number> readSinglePoints(Collection<String> variableIds,
+            HorizontalPosition position, Double zVal, DateTime time)
+            throws DataReadingException, VariableNotFoundException {
+        Map<String, Number> values = new LinkedHashMap<>();
+        GridDataSource gridDataSource = null;
+        try {
+            gridDataSource = openGridDataSource();
+            for (String variableId : variableIds) {
+                values.put(variableId,
+                        readPointData(variableId, position, zVal, time, gridDataSource));
+            }
+            return values;
+        } catch (IOException e) {
+            throw new DataReadingException("Problem reading data", e);
+        } finally {
+            if (gridDataSource != null) {
+                try {
+                    gridDataSource.close();
+                } catch (IOException e) {
+                    log.error("Problem closing data source");
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the range of values of a variable from a sample of its source
+     * grid, at the lowest elevation and latest time. Rows of the source grid
+     * spaced evenly through the grid are read in full, since these are
+     * generally stored contiguously. Enough rows are read to give
+     * approximately the requested number of points, subject to a minimum of
+     * 10 rows, so this is much cheaper than reading a map covering the whole
+     * grid.
+     * 
+     * @param varId
+     *            The ID of the variable to find the range of
+     * @param maxPoints
+     *            The approximate maximum number of values to read
+     * @return The range of the non-missing sampled values, or
+     *         <code>null</code> if there were none, or if the variable is
+     *         derived from other variables (in which case it has no source
+     *         grid to sample)
+     * @throws DataReadingException
+     *             If there is a problem reading the data
+     * @throws VariableNotFoundException
+     *             If the variable is not present in this dataset
+     */
+    public final Extent<Float> readSampledValueRange(String varId, int maxPoints)
+            throws DataReadingException, VariableNotFoundException {
+        if (isDerivedVariable(varId) != null) {
+            return null;
+        }
+        /*
+         * This cast is OK, since this is only called for non-derived variables
+         */
+        GridVariableMetadata metadata = (GridVariableMetadata) getVariableMetadata(varId);
+        int xSize = metadata.getHorizontalDomain().getXSize();
+        int ySize = metadata.getHorizontalDomain().getYSize();
+        int numRows = Math.min(ySize, Math.max(10, maxPoints / xSize));
+
+        int zIndex = 0;
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        if (zAxis != null) {
+            zIndex = zAxis.findIndexOf(zAxis.getExtent().getLow());
+        }
+        int tIndex = 0;
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        if (tAxis != null) {
+            tIndex = tAxis.size() - 1;
+        }
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        GridDataSource gridDataSource = null;
+        try {
+            gridDataSource = openGridDataSource();
+            for (int i = 0; i < numRows; i++) {
+                /*
+                 * Spread the rows evenly, with the first and last rows in the
+                 * middle of their portions of the grid
+                 */
+                int y = (int) (((2L * i + 1) * ySize) / (2L * numRows));
+                Array4D<Number> row = gridDataSource.read(varId, tIndex, tIndex, zIndex, zIndex,
+                        y, y, 0, xSize - 1);
+                for (int x = 0; x < xSize; x++) {
+                    Number value = row.get(0, 0, 0, x);
+                    if (value != null && !Double.isNaN(value.doubleValue())) {
+                        min = Math.min(value.floatValue(), min);
+                        max = Math.max(value.floatValue(), max);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DataReadingException("Problem reading data", e);
+        } finally {
+            if (gridDataSource != null) {
+                try {
+                    gridDataSource.close();
+                } catch (IOException e) {
+                    log.error("Problem closing data source");
+                }
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        return Extents.newExtent(min, max);
+    }
+
     private final Array1D<Number> readMultiplePointData(String variableId,
             List<GeoPosition> positions, GridDataSource dataSource) throws DataReadingException,
             VariableNotFoundException {
         Array1D<Number> data = new ValuesArray1D(positions.size());
+        if (isDerivedVariable(variableId) != null) {
+            /*
+             * Derived variables are calculated point by point from their base
+             * variables
+             */
+            for (int i = 0; i < positions.size(); i++) {
+                GeoPosition position = positions.get(i);
+                Number value = readPointData(variableId, position.getHorizontalPosition(),
+                        getZ(position), position.getTime(), dataSource);
+                data.set(value, i);
+            }
+            return data;
+        }
+
+        /*
+         * This cast is OK, since this is only called for non-derived variables
+         */
+        GridVariableMetadata variableMetadata = (GridVariableMetadata) getVariableMetadata(variableId);
+        HorizontalGrid hGrid = variableMetadata.getHorizontalDomain();
+        VerticalAxis verticalDomain = variableMetadata.getVerticalDomain();
+        TimeAxis temporalDomain = variableMetadata.getTemporalDomain();
+
+        /*
+         * Find the indices of all of the positions first, grouping them by the
+         * time and depth indices of the 2D slab of data which they lie in.
+         * Positions outside the horizontal domain keep a null value.
+         */
+        Map<Long, List<Integer>> slabs = new LinkedHashMap<>();
+        int[] xIndices = new int[positions.size()];
+        int[] yIndices = new int[positions.size()];
         for (int i = 0; i < positions.size(); i++) {
             GeoPosition position = positions.get(i);
-            Double z = null;
-            if (position.getVerticalPosition() != null) {
-                z = position.getVerticalPosition().getZ();
+            GridCoordinates2D xy = hGrid.findIndexOf(position.getHorizontalPosition());
+            if (xy == null) {
+                continue;
+            }
+            xIndices[i] = xy.getX();
+            yIndices[i] = xy.getY();
+            int z = getVerticalIndex(getZ(position), verticalDomain, variableId);
+            int t = getTimeIndex(position.getTime(), temporalDomain, variableId);
+            Long slab = ((long) t << 32) | z;
+            List<Integer> slabPoints = slabs.get(slab);
+            if (slabPoints == null) {
+                slabPoints = new ArrayList<>();
+                slabs.put(slab, slabPoints);
+            }
+            slabPoints.add(i);
+        }
+
+        /*
+         * Now read each slab's points with a single data reading operation (or
+         * a single operation per row, for the scanline strategy)
+         */
+        try {
+            for (Entry<Long, List<Integer>> slab : slabs.entrySet()) {
+                int t = (int) (slab.getKey() >>> 32);
+                int z = (int) (slab.getKey() & 0xffffffffL);
+                List<Integer> slabPoints = slab.getValue();
+                int[] iIndices = new int[slabPoints.size()];
+                int[] jIndices = new int[slabPoints.size()];
+                for (int i = 0; i < slabPoints.size(); i++) {
+                    iIndices[i] = xIndices[slabPoints.get(i)];
+                    jIndices[i] = yIndices[slabPoints.get(i)];
+                }
+                Domain2DMapper domainMapper = Domain2DMapper.forPoints(hGrid, iIndices, jIndices);
+
+                DataReadingStrategy strategy = getDataReadingStrategy();
+                if (strategy == DataReadingStrategy.BOUNDING_BOX
+                        && domainMapper.getBoundingBoxSize() > MAX_POINTS_BOUNDING_BOX_SIZE) {
+                    /*
+                     * Points spread far apart (e.g. a long diagonal transect)
+                     * would mean reading most of the slab
+                     */
+                    strategy = DataReadingStrategy.SCANLINE;
+                }
+                FloatArray2D slabData = strategy.readMapData(dataSource, variableId, t, z,
+                        domainMapper);
+                for (int i = 0; i < slabPoints.size(); i++) {
+                    data.set(slabData.get(0, i), slabPoints.get(i));
+                }
             }
-            Number value = readPointData(variableId, position.getHorizontalPosition(), z,
-                    position.getTime(), dataSource);
-            data.set(value, i);
+        } catch (IOException e) {
+            throw new DataReadingException("Problem reading data", e);
         }
         return data;
     }
 
+    private static Double getZ(GeoPosition position) {
+        if (position.getVerticalPosition() != null) {
+            return position.getVerticalPosition().getZ();
+        }
+        return null;
+    }
+
     private Number readPointData(String variableId, HorizontalPosition position, Double zVal,
             DateTime time, GridDataSource gridDataSource) throws DataReadingException,
             VariableNotFoundException {
@@ -2033,9 +2269,14 @@ public abstract class GriddedDataset extends AbstractDataset {
                 /*
                  * Read all of the required base variables. By recursing this
                  * method, we safely cover the cases where derived variables are
-                 * derived from other derived variables
+                 * derived from other derived variables.
+                 * 
+                 * We use the data source which is already open rather than
+                 * opening another one, since a dataset with a limited number of
+                 * data sources could otherwise wait forever for one.
                  */
-                baseValues[i] = readSinglePoint(baseVariables[i], position, zVal, time);
+                baseValues[i] = readPointData(baseVariables[i], position, zVal, time,
+                        gridDataSource);
             }
 
             return plugin.getValue(variableId, position, baseValues);
@@ -2076,5 +2317,19 @@ public abstract class GriddedDataset extends AbstractDataset {
 
     protected abstract GridDataSource openGridDataSource() throws IOException;
 
+    /**
+     * Returns a string which changes whenever the underlying data of this
+     * dataset change (e.g. a modification time of the source files). This is
+     * used to determine whether data derived from this dataset and stored
+     * externally (such as by the {@link TimeSeriesStore}) is still valid.
+     * 
+     * @return The version of the underlying data, or <code>null</code> if it
+     *         cannot be determined. The {@link TimeSeriesStore} does not store
+     *         data for datasets without a version.
+     */
+    public String getDataVersion() {
+        return null;
+    }
+
     protected abstract DataReadingStrategy getDataReadingStrategy();
 }
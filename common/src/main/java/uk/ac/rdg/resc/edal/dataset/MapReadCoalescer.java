@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
+
+/**
+ * Combines concurrent map reads of the same variable, time and depth into a
+ * single read.
+ * 
+ * Web clients generally request map tiles in bursts, with each tile covering
+ * a neighbouring part of the same field. When a map read arrives whilst other
+ * reads of the same variable are in progress, it waits for a short window. Any
+ * other reads of the same variable/time/depth which arrive within that window
+ * join it, and the union of their bounding boxes is read from the
+ * {@link GridDataSource} once. Each read then maps its own values from the
+ * shared data.
+ * 
+ * Reads only join a batch if this would not read much more data than the
+ * members of the batch would read separately, and the total size of the
+ * union is capped. Reads which arrive when no other reads of the variable are
+ * in progress are passed straight to the {@link DataReadingStrategy}, so
+ * isolated requests do not pay the cost of waiting.
+ * 
+ * Only reads using the {@link DataReadingStrategy#BOUNDING_BOX} strategy are
+ * coalesced, since the shared read is of a bounding box. Reads using other
+ * strategies are passed straight to the strategy.
+ * 
+ * Each {@link GriddedDataset} has its own {@link MapReadCoalescer}.
+ */
+public final class MapReadCoalescer {
+    /*
+     * The maximum number of grid points in a coalesced read
+     */
+    private static final long MAX_UNION_SIZE = 4L * 1024L * 1024L;
+    /*
+     * The maximum ratio of the size of the union to the total size of the
+     * bounding boxes of its members
+     */
+    private static final long MAX_WASTE_RATIO = 2L;
+
+    private static volatile long windowMillis = 5L;
+
+    private static final AtomicLong numBatchesOpened = new AtomicLong(0);
+    private static final AtomicLong numBatches = new AtomicLong(0);
+    private static final AtomicLong numCoalescedReads = new AtomicLong(0);
+
+    private final ConcurrentMap<String, Batch> openBatches = new ConcurrentHashMap<>();
+    /*
+     * The number of map reads in progress for each variable
+     */
+    private final ConcurrentMap<String, AtomicInteger> readsInProgress = new ConcurrentHashMap<>();
+
+    MapReadCoalescer() {
+    }
+
+    /**
+     * Sets the time which a read waits for other reads to join it.
+     * 
+     * @param millis
+     *            The time in milliseconds. 0 disables coalescing of reads.
+     */
+    public static void setCoalescingWindow(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The coalescing window cannot be negative");
+        }
+        windowMillis = millis;
+    }
+
+    /**
+     * @return The number of times a read has waited for others to join it,
+     *         whether or not any did
+     */
+    public static long getNumBatchesOpened() {
+        return numBatchesOpened.get();
+    }
+
+    /**
+     * @return The number of shared reads which have been made on behalf of
+     *         more than one map read
+     */
+    public static long getNumBatches() {
+        return numBatches.get();
+    }
+
+    /**
+     * @return The number of map reads which have been satisfied by a shared
+     *         read made by another request
+     */
+    public static long getNumCoalescedReads() {
+        return numCoalescedReads.get();
+    }
+
+    /**
+     * Reads map data, sharing the read with any concurrent reads of the same
+     * variable, time and depth if possible. Arguments are as for
+     * {@link DataReadingStrategy#readMapData(GridDataSource, String, int, int, Domain2DMapper)}
+     * , with the addition of the strategy to use if the read is not shared.
+     */
+    FloatArray2D readMapData(DataReadingStrategy strategy, GridDataSource dataSource,
+            String varId, int tIndex, int zIndex, Domain2DMapper domainMapper)
+            throws IOException, DataReadingException {
+        long window = windowMillis;
+        if (window <= 0 || strategy != DataReadingStrategy.BOUNDING_BOX
+                || domainMapper.isEmpty()) {
+            return strategy.readMapData(dataSource, varId, tIndex, zIndex, domainMapper);
+        }
+
+        AtomicInteger inProgress = getReadsInProgress(varId);
+        int concurrentReads = inProgress.incrementAndGet();
+        try {
+            return readMapData(strategy, dataSource, varId, tIndex, zIndex, domainMapper,
+                    window, concurrentReads > 1);
+        } finally {
+            inProgress.decrementAndGet();
+        }
+    }
+
+    private FloatArray2D readMapData(DataReadingStrategy strategy, GridDataSource dataSource,
+            String varId, int tIndex, int zIndex, Domain2DMapper domainMapper, long window,
+            boolean othersInProgress) throws IOException, DataReadingException {
+        int imin = domainMapper.getMinIIndex();
+        int imax = domainMapper.getMaxIIndex();
+        int jmin = domainMapper.getMinJIndex();
+        int jmax = domainMapper.getMaxJIndex();
+
+        String key = varId + "/" + tIndex + "/" + zIndex;
+
+        Batch batch = openBatches.get(key);
+        if (batch != null && batch.join(imin, imax, jmin, jmax)) {
+            return readFromBatch(batch, strategy, dataSource, varId, tIndex, zIndex,
+                    domainMapper);
+        }
+
+        if (!othersInProgress) {
+            /*
+             * Nobody else is reading this variable, so nobody is likely to
+             * join a batch
+             */
+            return strategy.readMapData(dataSource, varId, tIndex, zIndex, domainMapper);
+        }
+
+        Batch newBatch = new Batch(imin, imax, jmin, jmax);
+        batch = openBatches.putIfAbsent(key, newBatch);
+        if (batch != null) {
+            /*
+             * Another read started a batch at the same time
+             */
+            if (batch.join(imin, imax, jmin, jmax)) {
+                return readFromBatch(batch, strategy, dataSource, varId, tIndex, zIndex,
+                        domainMapper);
+            } else {
+                return strategy.readMapData(dataSource, varId, tIndex, zIndex, domainMapper);
+            }
+        }
+
+        /*
+         * We are the leader of a new batch. Wait for others to join, then read
+         * the union of all of the bounding boxes.
+         */
+        numBatchesOpened.incrementAndGet();
+        try {
+            Thread.sleep(window);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        openBatches.remove(key, newBatch);
+        newBatch.close();
+
+        if (newBatch.numMembers == 1) {
+            /*
+             * Nobody joined - read using the normal strategy
+             */
+            newBatch.complete(null);
+            return strategy.readMapData(dataSource, varId, tIndex, zIndex, domainMapper);
+        }
+
+        Array4D<Number> data = null;
+        try {
+            data = dataSource.read(varId, tIndex, tIndex, zIndex, zIndex, newBatch.jmin,
+                    newBatch.jmax, newBatch.imin, newBatch.imax);
+        } finally {
+            /*
+             * If the read failed, the other members will read their own data
+             */
+            newBatch.complete(data);
+        }
+        numBatches.incrementAndGet();
+        return DataReadingStrategy.mapBoundingBoxData(data, newBatch.jmin, newBatch.imin,
+                domainMapper);
+    }
+
+    private AtomicInteger getReadsInProgress(String varId) {
+        AtomicInteger inProgress = readsInProgress.get(varId);
+        if (inProgress == null) {
+            AtomicInteger newInProgress = new AtomicInteger(0);
+            inProgress = readsInProgress.putIfAbsent(varId, newInProgress);
+            if (inProgress == null) {
+                inProgress = newInProgress;
+            }
+        }
+        return inProgress;
+    }
+
+    private static FloatArray2D readFromBatch(Batch batch, DataReadingStrategy strategy,
+            GridDataSource dataSource, String varId, int tIndex, int zIndex,
+            Domain2DMapper domainMapper) throws IOException, DataReadingException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                batch.done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (batch.data == null) {
+            /*
+             * The shared read failed. Try reading on our own.
+             */
+            return strategy.readMapData(dataSource, varId, tIndex, zIndex, domainMapper);
+        }
+        numCoalescedReads.incrementAndGet();
+        return DataReadingStrategy.mapBoundingBoxData(batch.data, batch.jmin, batch.imin,
+                domainMapper);
+    }
+
+    /**
+     * A set of reads which will be satisfied by a single read of the union of
+     * their bounding boxes
+     */
+    private static final class Batch {
+        private int imin;
+        private int imax;
+        private int jmin;
+        private int jmax;
+        private long memberSize;
+        private int numMembers = 1;
+        private boolean closed = false;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Array4D<Number> data = null;
+
+        private Batch(int imin, int imax, int jmin, int jmax) {
+            this.imin = imin;
+            this.imax = imax;
+            this.jmin = jmin;
+            this.jmax = jmax;
+            this.memberSize = size(imin, imax, jmin, jmax);
+        }
+
+        /**
+         * Adds a bounding box to this batch, if the batch is still open and the
+         * resulting union is not too large
+         * 
+         * @return <code>true</code> if the bounding box was added
+         */
+        private synchronized boolean join(int imin, int imax, int jmin, int jmax) {
+            if (closed) {
+                return false;
+            }
+            int newImin = Math.min(this.imin, imin);
+            int newImax = Math.max(this.imax, imax);
+            int newJmin = Math.min(this.jmin, jmin);
+            int newJmax = Math.max(this.jmax, jmax);
+            long newMemberSize = memberSize + size(imin, imax, jmin, jmax);
+            long unionSize = size(newImin, newImax, newJmin, newJmax);
+            if (unionSize > MAX_UNION_SIZE || unionSize > MAX_WASTE_RATIO * newMemberSize) {
+                return false;
+            }
+            this.imin = newImin;
+            this.imax = newImax;
+            this.jmin = newJmin;
+            this.jmax = newJmax;
+            memberSize = newMemberSize;
+            numMembers++;
+            return true;
+        }
+
+        private synchronized void close() {
+            closed = true;
+        }
+
+        private void complete(Array4D<Number> data) {
+            this.data = data;
+            done.countDown();
+        }
+
+        private static long size(int imin, int imax, int jmin, int jmax) {
+            return (long) (imax - imin + 1) * (long) (jmax - jmin + 1);
+        }
+    }
+}
@@ -30,8 +30,11 @@ package uk.ac.rdg.resc.edal.dataset;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
@@ -41,6 +44,7 @@ import org.khelekore.prtree.MBRConverter;
 import org.khelekore.prtree.PRTree;
 import org.khelekore.prtree.SimpleMBR;
 import org.opengis.metadata.extent.GeographicBoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
@@ -71,16 +75,50 @@ public class PRTreeFeatureIndexer implements FeatureIndexer,
 
     @Override
     public void addFeatures(final List<FeatureBounds> features) {
+        /*
+         * Transform to WGS84 if required. Features are grouped by CRS so that
+         * each group can be transformed in one go.
+         */
+        Map<CoordinateReferenceSystem, List<FeatureBounds>> featuresToTransform = new HashMap<>();
+        CoordinateReferenceSystem lastCrs = null;
+        boolean lastCrsIsWgs84 = false;
         for (FeatureBounds feature : features) {
-            featureIds.add(feature.id);
-
+            CoordinateReferenceSystem crs = feature.horizontalPosition
+                    .getCoordinateReferenceSystem();
             /*
-             * Transform to WGS84 if required
+             * Features will generally share a CRS, so avoid checking it every
+             * time
              */
-            if (!GISUtils.isWgs84LonLat(feature.horizontalPosition.getCoordinateReferenceSystem())) {
-                feature.horizontalPosition = GISUtils.transformPosition(feature.horizontalPosition,
-                        DefaultGeographicCRS.WGS84);
+            if (crs != lastCrs || lastCrs == null) {
+                lastCrs = crs;
+                lastCrsIsWgs84 = GISUtils.isWgs84LonLat(crs);
             }
+            if (!lastCrsIsWgs84) {
+                List<FeatureBounds> crsFeatures = featuresToTransform.get(crs);
+                if (crsFeatures == null) {
+                    crsFeatures = new ArrayList<>();
+                    featuresToTransform.put(crs, crsFeatures);
+                }
+                crsFeatures.add(feature);
+            }
+        }
+        for (Entry<CoordinateReferenceSystem, List<FeatureBounds>> entry : featuresToTransform
+                .entrySet()) {
+            List<FeatureBounds> crsFeatures = entry.getValue();
+            double[] coords = new double[2 * crsFeatures.size()];
+            for (int i = 0; i < crsFeatures.size(); i++) {
+                coords[2 * i] = crsFeatures.get(i).horizontalPosition.getX();
+                coords[2 * i + 1] = crsFeatures.get(i).horizontalPosition.getY();
+            }
+            GISUtils.transformCoordinates(coords, entry.getKey(), DefaultGeographicCRS.WGS84);
+            for (int i = 0; i < crsFeatures.size(); i++) {
+                crsFeatures.get(i).horizontalPosition = new HorizontalPosition(coords[2 * i],
+                        coords[2 * i + 1], DefaultGeographicCRS.WGS84);
+            }
+        }
+
+        for (FeatureBounds feature : features) {
+            featureIds.add(feature.id);
 
             /*
              * Now ensure position is in the range (-180:180]
@@ -0,0 +1,460 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.TimeAxis;
+import uk.ac.rdg.resc.edal.grid.VerticalAxis;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * A store of gridded data rearranged so that the values for each grid point
+ * are contiguous in time. This is used to speed up the extraction of
+ * timeseries from datasets with long time axes (e.g. aggregations of many
+ * files), where reading a single point for every time would otherwise require
+ * reading from every file.
+ * 
+ * Each variable is stored in a memory-mapped file in the "timeseries"
+ * subdirectory of the {@link DatasetFactory} working directory. Stores are
+ * built in the background the first time a timeseries is requested, and are
+ * rebuilt if the underlying data change (as indicated by
+ * {@link GriddedDataset#getDataVersion()}) or the size of the grid changes.
+ * Until a store is ready, timeseries are read from the dataset as normal.
+ * 
+ * Stores are written to a temporary file which then replaces the existing
+ * store, so a store which is being read from is never modified.
+ * 
+ * Stores are disabled until {@link #setMaxStoreSize(long)} has been called
+ * with a positive value.
+ */
+public final class TimeSeriesStore {
+    private static final Logger log = LoggerFactory.getLogger(TimeSeriesStore.class);
+
+    /*
+     * Maximum size of a single memory-mapped segment of a store. Must be a
+     * multiple of 4
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+    /*
+     * The maximum amount of data to read from the dataset in one go when
+     * building a store
+     */
+    private static final long MAX_BUILD_READ_BYTES = 64L * 1024L * 1024L;
+    /*
+     * How often to check whether the underlying data have changed
+     */
+    private static volatile long versionCheckInterval = 10000L;
+
+    private static volatile long maxStoreSize = 0L;
+    private static volatile int minTimesteps = 100;
+
+    /*
+     * Stores are built one at a time, at low priority
+     */
+    private static final ExecutorService builder = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "timeseries-store-builder");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final GriddedDataset dataset;
+    private final ConcurrentMap<String, VariableStore> stores = new ConcurrentHashMap<>();
+
+    TimeSeriesStore(GriddedDataset dataset) {
+        this.dataset = dataset;
+    }
+
+    /**
+     * Sets the maximum size of the store for a single variable. Variables
+     * whose stores would be larger than this are always read from the
+     * dataset.
+     * 
+     * @param bytes
+     *            The maximum size in bytes. Zero or less disables timeseries
+     *            stores.
+     */
+    public static void setMaxStoreSize(long bytes) {
+        maxStoreSize = bytes;
+    }
+
+    /**
+     * Sets the minimum length of time axis for which a store will be built.
+     * 
+     * @param timesteps
+     *            The minimum number of time steps
+     */
+    public static void setMinTimesteps(int timesteps) {
+        minTimesteps = timesteps;
+    }
+
+    /**
+     * Sets how often to check whether the underlying data have changed. This
+     * is only intended for use in tests.
+     * 
+     * @param millis
+     *            The interval between checks, in milliseconds
+     */
+    static void setVersionCheckInterval(long millis) {
+        versionCheckInterval = millis;
+    }
+
+    /**
+     * Reads a timeseries at a single grid point from the store, if it is
+     * available. If it is not, a build of the store is started in the
+     * background.
+     * 
+     * @param metadata
+     *            The {@link GridVariableMetadata} of the variable to read
+     * @param tmin
+     *            The minimum time index
+     * @param tmax
+     *            The maximum time index
+     * @param z
+     *            The z index
+     * @param y
+     *            The y index
+     * @param x
+     *            The x index
+     * @return A {@link FloatArray4D} with t varying and all other dimensions
+     *         of size 1, as would be returned by {@link GridDataSource#read},
+     *         or <code>null</code> if the data must be read from the dataset
+     */
+    FloatArray4D read(GridVariableMetadata metadata, int tmin, int tmax, int z, int y, int x) {
+        if (maxStoreSize <= 0 || DatasetFactory.workingDir == null) {
+            return null;
+        }
+        int[] shape = getShape(metadata);
+        if (shape == null || shape[3] < minTimesteps
+                || 4L * shape[0] * shape[1] * shape[2] * shape[3] > maxStoreSize) {
+            return null;
+        }
+
+        String varId = metadata.getId();
+        VariableStore store = stores.get(varId);
+        if (store == null) {
+            stores.putIfAbsent(varId, new VariableStore(getStoreFile(varId)));
+            store = stores.get(varId);
+        }
+
+        String version = store.getCurrentVersion();
+        if (version == null) {
+            return null;
+        }
+        if (store.isReady(version, shape)) {
+            return store.read(tmin, tmax, z, y, x);
+        }
+        store.scheduleBuild(varId, version, shape);
+        return null;
+    }
+
+    /**
+     * @return The size of the store for the variable as [x, y, z, t], or
+     *         <code>null</code> if it cannot be stored
+     */
+    private static int[] getShape(GridVariableMetadata metadata) {
+        HorizontalGrid hGrid = metadata.getHorizontalDomain();
+        TimeAxis tAxis = metadata.getTemporalDomain();
+        VerticalAxis zAxis = metadata.getVerticalDomain();
+        if (hGrid == null || tAxis == null) {
+            return null;
+        }
+        return new int[] { hGrid.getXSize(), hGrid.getYSize(),
+                zAxis == null ? 1 : zAxis.size(), tAxis.size() };
+    }
+
+    private File getStoreFile(String varId) {
+        File dir = new File(new File(DatasetFactory.workingDir, "timeseries"),
+                sanitise(dataset.getId()));
+        return new File(dir, sanitise(varId));
+    }
+
+    private static String sanitise(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * The store for a single variable
+     */
+    private final class VariableStore {
+        private final File dataFile;
+        private final File headerFile;
+
+        private volatile StoreMapping mapping = null;
+        private volatile boolean building = false;
+
+        private volatile String currentVersion = null;
+        private volatile long versionCheckedAt = 0L;
+
+        private VariableStore(File file) {
+            this.dataFile = new File(file.getPath() + ".data");
+            this.headerFile = new File(file.getPath() + ".properties");
+            loadExisting();
+        }
+
+        /**
+         * @return The current version of the underlying data, checked at most
+         *         every {@link TimeSeriesStore#versionCheckInterval} ms
+         */
+        private String getCurrentVersion() {
+            long now = System.currentTimeMillis();
+            if (now - versionCheckedAt >= versionCheckInterval) {
+                currentVersion = dataset.getDataVersion();
+                versionCheckedAt = now;
+            }
+            return currentVersion;
+        }
+
+        private boolean isReady(String version, int[] shape) {
+            StoreMapping current = mapping;
+            return current != null && version.equals(current.version)
+                    && Arrays.equals(shape, current.shape);
+        }
+
+        private FloatArray4D read(int tmin, int tmax, int z, int y, int x) {
+            StoreMapping current = mapping;
+            if (current == null) {
+                return null;
+            }
+            MappedByteBuffer[] segs = current.segments;
+            int[] shape = current.shape;
+            int tSize = shape[3];
+            long base = (((long) y * shape[0] + x) * shape[2] + z) * tSize;
+            FloatArray4D ret = new FloatArray4D(tmax - tmin + 1, 1, 1, 1);
+            float[] values = ret.getFloats();
+            for (int t = tmin; t <= tmax; t++) {
+                long offset = 4L * (base + t);
+                values[t - tmin] = segs[(int) (offset / SEGMENT_SIZE)]
+                        .getFloat((int) (offset % SEGMENT_SIZE));
+            }
+            return ret;
+        }
+
+        private synchronized void scheduleBuild(final String varId, final String version,
+                final int[] shape) {
+            if (building) {
+                return;
+            }
+            building = true;
+            builder.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        build(varId, version, shape);
+                    } catch (Exception e) {
+                        log.error("Problem building timeseries store for " + varId + " in "
+                                + dataset.getId(), e);
+                    } finally {
+                        building = false;
+                    }
+                }
+            });
+        }
+
+        private void build(String varId, String version, int[] shape) throws IOException,
+                DataReadingException {
+            long start = System.currentTimeMillis();
+            int xSize = shape[0];
+            int ySize = shape[1];
+            int zSize = shape[2];
+            int tSize = shape[3];
+            long size = 4L * xSize * ySize * zSize * tSize;
+            int tBlock = (int) Math.max(1L,
+                    Math.min(tSize, MAX_BUILD_READ_BYTES / (4L * xSize * ySize)));
+
+            /*
+             * Write to a temporary file, so that the existing store can still
+             * be read from until the new one is complete
+             */
+            dataFile.getParentFile().mkdirs();
+            File tmpFile = new File(dataFile.getPath() + ".tmp");
+            tmpFile.delete();
+
+            boolean written = false;
+            GridDataSource dataSource = dataset.openGridDataSource();
+            try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+                file.setLength(size);
+                MappedByteBuffer[] segs = map(file.getChannel(), MapMode.READ_WRITE, size);
+                for (int z = 0; z < zSize; z++) {
+                    for (int t0 = 0; t0 < tSize; t0 += tBlock) {
+                        int t1 = Math.min(t0 + tBlock, tSize) - 1;
+                        Array4D<Number> data = dataSource.read(varId, t0, t1, z, z, 0,
+                                ySize - 1, 0, xSize - 1);
+                        for (int y = 0; y < ySize; y++) {
+                            for (int x = 0; x < xSize; x++) {
+                                long base = (((long) y * xSize + x) * zSize + z) * tSize;
+                                for (int t = t0; t <= t1; t++) {
+                                    long offset = 4L * (base + t);
+                                    segs[(int) (offset / SEGMENT_SIZE)].putFloat(
+                                            (int) (offset % SEGMENT_SIZE),
+                                            getFloat(data, t - t0, y, x));
+                                }
+                            }
+                        }
+                    }
+                }
+                for (MappedByteBuffer seg : segs) {
+                    seg.force();
+                }
+                written = true;
+            } finally {
+                dataSource.close();
+                if (!written) {
+                    tmpFile.delete();
+                }
+            }
+
+            /*
+             * Replace the existing store. Any existing mappings of it remain
+             * valid, and are replaced by the call to open(). The header is
+             * removed first, so that a store whose header does not match its
+             * data is never loaded.
+             */
+            headerFile.delete();
+            if (!tmpFile.renameTo(dataFile)) {
+                tmpFile.delete();
+                throw new IOException("Could not rename " + tmpFile + " to " + dataFile);
+            }
+            Properties header = new Properties();
+            header.setProperty("version", version);
+            header.setProperty("shape", shape[0] + "," + shape[1] + "," + shape[2] + ","
+                    + shape[3]);
+            File tmpHeaderFile = new File(headerFile.getPath() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpHeaderFile)) {
+                header.store(out, "Timeseries store for " + varId);
+            }
+            if (!tmpHeaderFile.renameTo(headerFile)) {
+                tmpHeaderFile.delete();
+                throw new IOException("Could not rename " + tmpHeaderFile + " to "
+                        + headerFile);
+            }
+            open(version, shape);
+            log.info("Built timeseries store for " + varId + " in " + dataset.getId() + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        /**
+         * Opens a store which was written previously, if there is one
+         */
+        private void loadExisting() {
+            if (!headerFile.exists() || !dataFile.exists()) {
+                return;
+            }
+            Properties header = new Properties();
+            try (InputStream in = new FileInputStream(headerFile)) {
+                header.load(in);
+                String[] shapeStrs = header.getProperty("shape").split(",");
+                int[] shape = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    shape[i] = Integer.parseInt(shapeStrs[i]);
+                }
+                open(header.getProperty("version"), shape);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not open existing timeseries store " + dataFile, e);
+            }
+        }
+
+        private void open(String version, int[] shape) throws IOException {
+            long size = 4L * shape[0] * shape[1] * shape[2] * shape[3];
+            if (dataFile.length() != size) {
+                return;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(dataFile, "r")) {
+                /*
+                 * The mappings remain valid after the file has been closed
+                 */
+                mapping = new StoreMapping(map(file.getChannel(), MapMode.READ_ONLY, size),
+                        version, shape);
+            }
+        }
+    }
+
+    /**
+     * A read-only mapping of a complete store, with the version and shape of
+     * the data it contains
+     */
+    private static final class StoreMapping {
+        private final MappedByteBuffer[] segments;
+        private final String version;
+        private final int[] shape;
+
+        private StoreMapping(MappedByteBuffer[] segments, String version, int[] shape) {
+            this.segments = segments;
+            this.version = version;
+            this.shape = shape;
+        }
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, MapMode mode, long size)
+            throws IOException {
+        int numSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            long position = i * SEGMENT_SIZE;
+            segments[i] = channel.map(mode, position, Math.min(SEGMENT_SIZE, size - position));
+        }
+        return segments;
+    }
+
+    private static float getFloat(Array4D<Number> data, int t, int y, int x) {
+        if (data instanceof FloatArray4D) {
+            return ((FloatArray4D) data).getFloat(t, 0, y, x);
+        }
+        Number value = data.get(t, 0, y, x);
+        return value == null ? Float.NaN : value.floatValue();
+    }
+}
@@ -65,6 +65,9 @@ import java.util.Set;
 import uk.ac.rdg.resc.edal.domain.DiscreteDomain;
 import uk.ac.rdg.resc.edal.metadata.Parameter;
 import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.ByteSized;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
 
 /**
  * A partial implementation of a {@link Feature} containing common functionality
@@ -78,7 +81,16 @@ import uk.ac.rdg.resc.edal.util.Array;
  *            
  * @author Guy
  */
-public abstract class AbstractDiscreteFeature<P, DO> implements DiscreteFeature<P, DO> {
+public abstract class AbstractDiscreteFeature<P, DO> implements DiscreteFeature<P, DO>,
+        ByteSized {
+    /*
+     * Estimated sizes used by getSizeInBytes(). The fixed overhead covers the
+     * feature itself, its IDs, parameters and properties.
+     */
+    private static final long FEATURE_OVERHEAD_BYTES = 1024L;
+    private static final long FLOAT_VALUE_BYTES = 4L;
+    private static final long BOXED_VALUE_BYTES = 24L;
+    private static final long DOMAIN_OBJECT_BYTES = 32L;
 
     private final String id;
     private final String name;
@@ -157,4 +169,41 @@ public abstract class AbstractDiscreteFeature<P, DO> implements DiscreteFeature<
     public Properties getFeatureProperties() {
         return properties;
     }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The estimate is based on the number and storage type of the values in
+     * this feature, and the number of objects in its domain.
+     */
+    @Override
+    public long getSizeInBytes() {
+        long size = FEATURE_OVERHEAD_BYTES;
+        long domainObjects = 0L;
+        for (Array<Number> valuesArray : values.values()) {
+            if (valuesArray instanceof FloatArray2D || valuesArray instanceof FloatArray4D) {
+                size += valuesArray.size() * FLOAT_VALUE_BYTES;
+            } else {
+                size += valuesArray.size() * BOXED_VALUE_BYTES;
+            }
+            /*
+             * All values arrays have the same shape as the domain
+             */
+            domainObjects = valuesArray.size();
+        }
+        return size + getDomainSizeInBytes(domainObjects);
+    }
+
+    /**
+     * Estimates the memory occupied by the domain of this feature. Subclasses
+     * whose domains are computed rather than stored should override this.
+     * 
+     * @param domainObjects
+     *            The number of objects in the domain, or 0 if this feature
+     *            has no values
+     * @return The estimated size of the domain, in bytes
+     */
+    protected long getDomainSizeInBytes(long domainObjects) {
+        return domainObjects * DOMAIN_OBJECT_BYTES;
+    }
 }
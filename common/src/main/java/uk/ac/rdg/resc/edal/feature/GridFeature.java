@@ -28,16 +28,13 @@
 
 package uk.ac.rdg.resc.edal.feature;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 import org.joda.time.DateTime;
 
-import uk.ac.rdg.resc.edal.dataset.DataReadingStrategy;
 import uk.ac.rdg.resc.edal.dataset.Domain2DMapper;
-import uk.ac.rdg.resc.edal.dataset.GridDataSource;
 import uk.ac.rdg.resc.edal.domain.GridDomain;
 import uk.ac.rdg.resc.edal.domain.MapDomain;
 import uk.ac.rdg.resc.edal.domain.MapDomainImpl;
@@ -73,6 +70,18 @@ public class GridFeature extends AbstractDiscreteFeature<GeoPosition, GridCell4D
         return (GridDomain) super.getDomain();
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * {@link GridDomain}s calculate their cells from their axes rather than
+     * storing them, so they are small compared with the values of the
+     * feature.
+     */
+    @Override
+    protected long getDomainSizeInBytes(long domainObjects) {
+        return 1024L;
+    }
+
     /**
      * Extracts a {@link MapFeature} from this {@link GridFeature}
      * 
@@ -130,37 +139,13 @@ public class GridFeature extends AbstractDiscreteFeature<GeoPosition, GridCell4D
 
             parameters.put(varId, getParameter(varId));
 
-            final Array4D<Number> fullValues = getValues(varId);
-            DataReadingStrategy dataReadingStrategy = DataReadingStrategy.PIXEL_BY_PIXEL;
-            GridDataSource dataSource = new GridDataSource() {
-                @Override
-                public Array4D<Number> read(String variableId, final int tmin, int tmax,
-                        final int zmin, int zmax, final int ymin, int ymax, final int xmin, int xmax) {
-                    return new Array4D<Number>(tmax - tmin + 1, zmax - zmin + 1, ymax - ymin + 1,
-                            xmax - xmin + 1) {
-                        @Override
-                        public Number get(int... coords) {
-                            return fullValues.get(coords[0] + tmin, coords[1] + zmin, coords[2]
-                                    + ymin, coords[3] + xmin);
-                        }
-
-                        @Override
-                        public void set(Number value, int... coords) {
-                        }
-                    };
-                }
-
-                @Override
-                public void close() throws IOException {
-                }
-            };
-            Array2D<Number> readMapData;
-            try {
-                readMapData = dataReadingStrategy.readMapData(dataSource, varId, tIndex, zIndex,
-                        mapper);
-            } catch (IOException e) {
-                throw new DataReadingException("Problem reading data", e);
-            }
+            /*
+             * The values in this feature are already held in memory, so we
+             * map them directly onto the target grid. This retains the type
+             * of the values, rather than converting them to floats as a
+             * DataReadingStrategy would.
+             */
+            Array2D<Number> readMapData = mapper.mapValues(getValues(varId), tIndex, zIndex);
             values.put(varId, readMapData);
         }
 
@@ -65,6 +65,7 @@ import uk.ac.rdg.resc.edal.grid.GridCell2D;
 import uk.ac.rdg.resc.edal.metadata.Parameter;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
 
 /**
  * An implementation of a {@link Feature} whose domain is a
@@ -90,6 +91,36 @@ public class MapFeature extends AbstractDiscreteFeature<HorizontalPosition, Grid
         return (Array2D<Number>) super.getValues(paramId);
     }
 
+    /**
+     * Gets the values of a parameter as a {@link FloatArray2D}. This allows
+     * code which processes every value (e.g. plotting) to do so without boxing
+     * each value.
+     * 
+     * @param paramId
+     *            The ID of the parameter to get values for
+     * @return A {@link FloatArray2D} containing the values, or
+     *         <code>null</code> if this feature has no such parameter
+     */
+    public FloatArray2D getFloatValues(String paramId) {
+        Array2D<Number> values = getValues(paramId);
+        if (values == null) {
+            return null;
+        }
+        return FloatArray2D.fromArray(values);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * {@link MapDomain}s calculate their cells from their axes rather than
+     * storing them, so they are small compared with the values of the
+     * feature.
+     */
+    @Override
+    protected long getDomainSizeInBytes(long domainObjects) {
+        return 1024L;
+    }
+
     @Override
     public MapDomain getDomain() {
         return (MapDomain) super.getDomain();
@@ -27,12 +27,18 @@
  *******************************************************************************/
 package uk.ac.rdg.resc.edal.grid;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.util.Array2D;
@@ -56,16 +62,36 @@ import uk.ac.rdg.resc.edal.util.LookUpTable;
  * @author Jon Blower
  */
 public final class LookUpTableGrid extends AbstractCurvilinearGrid {
+    private static final Logger log = LoggerFactory.getLogger(LookUpTableGrid.class);
+
+    private static int maxCacheSize = 20;
+
     /**
      * In-memory cache of LookUpTableGrid objects to save expensive
-     * re-generation of same object
+     * re-generation of same object. This holds at most {@link #maxCacheSize}
+     * grids, evicting the least-recently used.
      * 
      * @todo The CurvilinearGrid objects can be very big. Really we only need to
      *       key on the arrays of lon and lat: all other quantities can be
      *       calculated from these. This means that we could make other large
      *       objects available for garbage collection.
      */
-    private static final Map<CurvilinearCoords, LookUpTableGrid> CACHE = new HashMap<CurvilinearCoords, LookUpTableGrid>();
+    private static final Map<CurvilinearCoords, LookUpTableGrid> CACHE = new LinkedHashMap<CurvilinearCoords, LookUpTableGrid>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<CurvilinearCoords, LookUpTableGrid> eldest) {
+            return size() > maxCacheSize;
+        }
+    };
+
+    /**
+     * Directory in which look-up tables are stored, so that they do not need
+     * to be regenerated each time they are used. If <code>null</code>, they
+     * are not stored.
+     */
+    private static File cacheDir = null;
 
     private final LookUpTable lut;
 
@@ -75,17 +101,11 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
     public static LookUpTableGrid generate(Array2D<Number> lonVals, Array2D<Number> latVals) {
         CurvilinearCoords curvCoords = new CurvilinearCoords(lonVals, latVals);
 
-        /*
-         * We calculate the required resolution of the look-up tables. We want
-         * this to be around 3 times the resolution of the grid.
-         */
-        double minLutResolution = Math.sqrt(curvCoords.getMeanCellArea()) / 3.0;
-
         synchronized (CACHE) {
             LookUpTableGrid lutGrid = CACHE.get(curvCoords);
             if (lutGrid == null) {
                 /* Create a look-up table for this coord sys */
-                LookUpTable lut = new LookUpTable(curvCoords, minLutResolution);
+                LookUpTable lut = getLookUpTable(curvCoords);
                 /* Create the LookUpTableGrid */
                 lutGrid = new LookUpTableGrid(curvCoords, lut);
                 /* Now put this in the cache */
@@ -95,6 +115,83 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
         }
     }
 
+    /*
+     * Reads the look-up table for the given coordinates from the cache
+     * directory, or generates it (and writes it to the cache directory) if it
+     * is not there
+     */
+    private static LookUpTable getLookUpTable(CurvilinearCoords curvCoords) {
+        File lutFile = null;
+        if (cacheDir != null) {
+            lutFile = new File(cacheDir, curvCoords.getDigest() + ".lut");
+            if (lutFile.exists()) {
+                try {
+                    return LookUpTable.readFrom(lutFile);
+                } catch (IOException e) {
+                    log.warn("Problem reading look-up table from " + lutFile
+                            + ".  It will be regenerated", e);
+                }
+            }
+        }
+
+        /*
+         * We calculate the required resolution of the look-up tables. We want
+         * this to be around 3 times the resolution of the grid.
+         */
+        double minLutResolution = Math.sqrt(curvCoords.getMeanCellArea()) / 3.0;
+        LookUpTable lut = new LookUpTable(curvCoords, minLutResolution);
+
+        if (lutFile != null) {
+            /*
+             * Write to a temporary file first, so that a partially-written
+             * file is never read
+             */
+            File tmpFile = new File(lutFile.getPath() + ".tmp");
+            try {
+                cacheDir.mkdirs();
+                lut.writeTo(tmpFile);
+                if (!tmpFile.renameTo(lutFile)) {
+                    throw new IOException("Could not rename " + tmpFile + " to " + lutFile);
+                }
+            } catch (IOException e) {
+                log.warn("Problem writing look-up table to " + lutFile, e);
+                tmpFile.delete();
+            }
+        }
+        return lut;
+    }
+
+    /**
+     * Sets the directory in which look-up tables are stored. Stored tables
+     * are memory-mapped when they are used, rather than being regenerated.
+     * 
+     * @param dir
+     *            The directory to use, or <code>null</code> to disable storing
+     *            look-up tables
+     */
+    public static void setCacheDirectory(File dir) {
+        synchronized (CACHE) {
+            cacheDir = dir;
+        }
+    }
+
+    /**
+     * Sets the maximum number of {@link LookUpTableGrid}s to keep in memory
+     * 
+     * @param size
+     *            The maximum number of grids
+     */
+    public static void setMaxCacheSize(int size) {
+        synchronized (CACHE) {
+            maxCacheSize = size;
+            Iterator<CurvilinearCoords> it = CACHE.keySet().iterator();
+            while (CACHE.size() > maxCacheSize && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
     public static void clearCache() {
         synchronized (CACHE) {
             CACHE.clear();
@@ -112,8 +209,27 @@ public final class LookUpTableGrid extends AbstractCurvilinearGrid {
         if(!GISUtils.isWgs84LonLat(position.getCoordinateReferenceSystem())) {
             position = GISUtils.transformPosition(position, DefaultGeographicCRS.WGS84);
         }
-        double x = position.getX();
-        double y = position.getY();
+        return findIndexOf(position.getX(), position.getY());
+    }
+
+    /**
+     * Finds the grid cell containing a WGS84 position. Equivalent to
+     * {@link #findIndexOf(HorizontalPosition)}, but avoids creating a
+     * {@link HorizontalPosition} when many positions are looked up in bulk
+     * (e.g. after transforming them with
+     * {@link GISUtils#transformCoordinates}).
+     * 
+     * @param x
+     *            The longitude
+     * @param y
+     *            The latitude
+     * @return The {@link GridCoordinates2D} of the cell, or <code>null</code>
+     *         if the position is not within the grid
+     */
+    public GridCoordinates2D findIndexOf(double x, double y) {
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            return null;
+        }
         /*
          * Find the "first guess" at the containing cell according to the
          * look-up table
@@ -25,21 +25,37 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
  * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  ******************************************************************************/
-
 package uk.ac.rdg.resc.edal.grid;
 
+import java.util.Arrays;
 import java.util.List;
 
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.util.Extents;
 import uk.ac.rdg.resc.edal.util.GISUtils;
 
 /**
  * Immutable implementation of a {@link ReferenceableAxis}, whose values are not
  * necessarily regularly spaced along the axis.
  * 
+ * The axis values are held as primitive doubles, and can be searched without
+ * boxing using {@link #findIndexOf(double)}.
+ * 
  * @author Guy
  * @author Jon
  */
-public class ReferenceableAxisImpl extends AbstractIrregularAxis<Double> {
+public class ReferenceableAxisImpl extends AbstractReferenceableAxis<Double> {
+
+    /**
+     * The axis values, always in ascending numerical order to simplify
+     * searching
+     */
+    private final double[] axisValues;
+
+    /**
+     * True if axis values in the above array have been reversed
+     */
+    protected final boolean reversed;
 
     private final boolean isLongitude;
 
@@ -62,44 +78,214 @@ public class ReferenceableAxisImpl extends AbstractIrregularAxis<Double> {
      *             order, or if the array of axis values is empty
      */
     public ReferenceableAxisImpl(String name, List<Double> axisValues, boolean isLongitude) {
-        super(name, axisValues);
+        this(name, toArray(axisValues), isLongitude);
+    }
+
+    /**
+     * Creates a ReferenceableAxis from the given array of axis values. The axis
+     * values are copied to internal data structures, therefore subsequent
+     * modifications to the array of axis values have no effect on this object.
+     * 
+     * @param name
+     *            The name of the axis
+     * @param axisValues
+     *            Array of axis values; must ascend or descend monotonically
+     * @param isLongitude
+     *            True if this is a longitude axis in degrees (hence values of 0
+     *            and 360 are equivalent).
+     * @throws NullPointerException
+     *             if {@code axisValues} is null
+     * @throws IllegalArgumentException
+     *             if the axis values are not in strictly ascending numerical
+     *             order, or if the array of axis values is empty
+     */
+    public ReferenceableAxisImpl(String name, double[] axisValues, boolean isLongitude) {
+        super(name);
+        if (axisValues.length == 0) {
+            throw new IllegalArgumentException("Zero-length array");
+        }
+        this.axisValues = new double[axisValues.length];
+        reversed = axisValues.length > 1 && axisValues[1] < axisValues[0];
+        if (reversed) {
+            /*
+             * Reverse the coordinates so that they are in increasing order
+             */
+            for (int i = 0; i < axisValues.length; i++) {
+                this.axisValues[i] = axisValues[axisValues.length - 1 - i];
+            }
+        } else {
+            System.arraycopy(axisValues, 0, this.axisValues, 0, axisValues.length);
+        }
+        checkAscending();
         this.isLongitude = isLongitude;
     }
 
+    /**
+     * @return <code>true</code> if this is a longitude axis in degrees (hence
+     *         values of 0 and 360 are equivalent)
+     */
+    public boolean isLongitude() {
+        return isLongitude;
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] ret = new double[values.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = values.get(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Checks that the axis values ascend or descend monotonically, throwing an
+     * IllegalArgumentException if not.
+     */
+    private void checkAscending() {
+        for (int i = 1; i < axisValues.length; i++) {
+            /*
+             * Written this way round so that NaNs are rejected
+             */
+            if (!(axisValues[i] > axisValues[i - 1])) {
+                throw new IllegalArgumentException(
+                        "Coordinate values must increase or decrease monotonically");
+            }
+        }
+    }
+
+    /*
+     * If the array has been reversed, we need to reverse the index
+     */
+    private int maybeReverseIndex(int index) {
+        if (reversed) {
+            return axisValues.length - 1 - index;
+        } else {
+            return index;
+        }
+    }
+
+    @Override
+    public Double getCoordinateValue(int index) {
+        return axisValues[maybeReverseIndex(index)];
+    }
+
     @Override
     public int findIndexOf(Double position) {
-        if (position == null || Double.isNaN(position))
+        if (position == null)
+            return -1;
+        return findIndexOf(position.doubleValue());
+    }
+
+    /**
+     * Finds the index along this axis that corresponds with the given position
+     * without boxing. Equivalent to {@link #findIndexOf(Double)}.
+     * 
+     * @param position
+     *            The position to find
+     * @return the index of the given coordinate value, or -1 if not found.
+     */
+    public int findIndexOf(double position) {
+        if (Double.isNaN(position))
             return -1;
         if (isLongitude) {
-            position = GISUtils.getNextEquivalentLongitude(this.getMinimumValue(), position);
+            position = GISUtils.getNextEquivalentLongitude(getMinimumDouble(), position);
+        }
+        int index = Arrays.binarySearch(axisValues, position);
+        if (index >= 0) {
+            return maybeReverseIndex(index);
+        } else {
+            int insertionPoint = -(index + 1);
+            int last = axisValues.length - 1;
+            if (insertionPoint == 0) {
+                if (position >= getLowerBound(0)) {
+                    return maybeReverseIndex(0);
+                } else {
+                    return -1;
+                }
+            }
+            if (insertionPoint == axisValues.length) {
+                if (position <= getUpperBound(last)) {
+                    return maybeReverseIndex(last);
+                } else {
+                    return -1;
+                }
+            }
+            if (Math.abs(axisValues[insertionPoint] - position) < Math
+                    .abs(axisValues[insertionPoint - 1] - position)) {
+                return maybeReverseIndex(insertionPoint);
+            } else {
+                return maybeReverseIndex(insertionPoint - 1);
+            }
+        }
+    }
+
+    /*
+     * The minimum value of the axis. Equivalent to getMinimumValue(), without
+     * boxing
+     */
+    private double getMinimumDouble() {
+        return axisValues[0];
+    }
+
+    /*
+     * The lower bound of the cell at the given index into the (sorted) array
+     * of axis values
+     */
+    private double getLowerBound(int index) {
+        if (axisValues.length == 1) {
+            return axisValues[0];
+        } else if (index == 0) {
+            return axisValues[0] - 0.5 * (axisValues[1] - axisValues[0]);
+        } else {
+            return 0.5 * (axisValues[index] + axisValues[index - 1]);
+        }
+    }
+
+    /*
+     * The upper bound of the cell at the given index into the (sorted) array
+     * of axis values
+     */
+    private double getUpperBound(int index) {
+        int last = axisValues.length - 1;
+        if (axisValues.length == 1) {
+            return axisValues[0];
+        } else if (index == last) {
+            return axisValues[last] + 0.5 * (axisValues[last] - axisValues[last - 1]);
+        } else {
+            return 0.5 * (axisValues[index + 1] + axisValues[index]);
         }
-        return super.findIndexOf(position);
     }
 
     @Override
-    protected Double extendFirstValue(Double firstVal, Double nextVal) {
-        return firstVal - 0.5 * (nextVal - firstVal);
+    public int size() {
+        return axisValues.length;
     }
 
     @Override
-    protected Double extendLastValue(Double lastVal, Double secondLastVal) {
-        return lastVal + 0.5 * (lastVal - secondLastVal);
+    public boolean isAscending() {
+        return !reversed;
     }
 
     @Override
-    protected double difference(Double pos1, Double pos2) {
-        return pos1 - pos2;
+    public Extent<Double> getCoordinateBounds(int index) {
+        return Extents.newExtent(getLowerBound(index), getUpperBound(index));
     }
 
     @Override
-    protected Double getMidpoint(Double pos1, Double pos2) {
-        return 0.5 * (pos1 + pos2);
+    protected Double extendFirstValue(Double firstVal, Double nextVal) {
+        return firstVal - 0.5 * (nextVal - firstVal);
+    }
+
+    @Override
+    protected Double extendLastValue(Double lastVal, Double secondLastVal) {
+        return lastVal + 0.5 * (lastVal - secondLastVal);
     }
 
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = super.hashCode();
+        result = prime * result + Arrays.hashCode(axisValues);
+        result = prime * result + (reversed ? 1231 : 1237);
         result = prime * result + (isLongitude ? 1231 : 1237);
         return result;
     }
@@ -113,6 +299,10 @@ public class ReferenceableAxisImpl extends AbstractIrregularAxis<Double> {
         if (getClass() != obj.getClass())
             return false;
         ReferenceableAxisImpl other = (ReferenceableAxisImpl) obj;
+        if (!Arrays.equals(axisValues, other.axisValues))
+            return false;
+        if (reversed != other.reversed)
+            return false;
         if (isLongitude != other.isLongitude)
             return false;
         return true;
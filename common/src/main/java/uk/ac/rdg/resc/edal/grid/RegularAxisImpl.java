@@ -94,6 +94,13 @@ public final class RegularAxisImpl extends AbstractReferenceableAxis<Double> imp
         return spacing > 0.0;
     }
 
+    /**
+     * @return <code>true</code> if this is a longitude axis in degrees
+     */
+    public boolean isLongitude() {
+        return isLongitude;
+    }
+
     @Override
     public String toString() {
         return String.format("Regular axis: %s, %f, %f, %d", getName(), firstValue, spacing, size);
@@ -25,9 +25,9 @@
  * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
  * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  ******************************************************************************/
-
 package uk.ac.rdg.resc.edal.grid;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.Chronology;
@@ -37,26 +37,160 @@ import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.util.Extents;
 
 /**
- * An implementation of a {@link TimeAxis}
+ * An implementation of a {@link TimeAxis}. The times are held as milliseconds
+ * since the epoch, and can be searched without creating {@link DateTime}s
+ * using {@link #findIndexOf(long)}.
  * 
  * @author Guy
  * @author Jon
  * 
  */
-public final class TimeAxisImpl extends AbstractIrregularAxis<DateTime> implements TimeAxis {
+public final class TimeAxisImpl extends AbstractReferenceableAxis<DateTime> implements TimeAxis {
+
+    /**
+     * The axis values in milliseconds since the epoch, always in ascending
+     * order to simplify searching
+     */
+    private final long[] axisValues;
+
+    /**
+     * True if axis values in the above array have been reversed
+     */
+    private final boolean reversed;
 
     private Chronology chronology;
 
     public TimeAxisImpl(String name, List<DateTime> axisValues) {
-        super(name, axisValues);
-        chronology = axisValues.get(0).getChronology();
+        this(name, toMillis(axisValues), axisValues.isEmpty() ? null : axisValues.get(0)
+                .getChronology());
+    }
+
+    /**
+     * Creates a {@link TimeAxisImpl} from times in milliseconds since the
+     * epoch.
+     * 
+     * @param name
+     *            The name of the axis
+     * @param axisValues
+     *            The times, in milliseconds since 1970-01-01T00:00:00Z. Must
+     *            ascend or descend monotonically
+     * @param chronology
+     *            The {@link Chronology} of the times
+     */
+    public TimeAxisImpl(String name, long[] axisValues, Chronology chronology) {
+        super(name);
+        if (axisValues.length == 0) {
+            throw new IllegalArgumentException("Zero-length array");
+        }
+        this.axisValues = new long[axisValues.length];
+        reversed = axisValues.length > 1 && axisValues[1] < axisValues[0];
+        if (reversed) {
+            /*
+             * Reverse the coordinates so that they are in increasing order
+             */
+            for (int i = 0; i < axisValues.length; i++) {
+                this.axisValues[i] = axisValues[axisValues.length - 1 - i];
+            }
+        } else {
+            System.arraycopy(axisValues, 0, this.axisValues, 0, axisValues.length);
+        }
+        for (int i = 1; i < this.axisValues.length; i++) {
+            if (this.axisValues[i] <= this.axisValues[i - 1]) {
+                throw new IllegalArgumentException(
+                        "Coordinate values must increase or decrease monotonically");
+            }
+        }
+        this.chronology = chronology;
+    }
+
+    private static long[] toMillis(List<DateTime> times) {
+        long[] ret = new long[times.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = times.get(i).getMillis();
+        }
+        return ret;
+    }
+
+    /*
+     * If the array has been reversed, we need to reverse the index
+     */
+    private int maybeReverseIndex(int index) {
+        if (reversed) {
+            return axisValues.length - 1 - index;
+        } else {
+            return index;
+        }
+    }
+
+    @Override
+    public DateTime getCoordinateValue(int index) {
+        return new DateTime(axisValues[maybeReverseIndex(index)], chronology);
+    }
+
+    /**
+     * Gets the coordinate value at the given index without creating a
+     * {@link DateTime}
+     * 
+     * @param index
+     *            The index of the required position on the axis
+     * @return The time in milliseconds since 1970-01-01T00:00:00Z
+     */
+    public long getCoordinateMillis(int index) {
+        return axisValues[maybeReverseIndex(index)];
+    }
+
+    @Override
+    public int findIndexOf(DateTime position) {
+        return findIndexOf(position.getMillis());
+    }
+
+    /**
+     * Finds the index of the time on this axis which is closest to the given
+     * time, without creating {@link DateTime}s. Equivalent to
+     * {@link #findIndexOf(DateTime)}.
+     * 
+     * @param millis
+     *            The time to find, in milliseconds since
+     *            1970-01-01T00:00:00Z
+     * @return the index of the given time, or -1 if it is outside the axis
+     */
+    public int findIndexOf(long millis) {
+        int index = Arrays.binarySearch(axisValues, millis);
+        if (index >= 0) {
+            return maybeReverseIndex(index);
+        } else {
+            int insertionPoint = -(index + 1);
+            /*
+             * The coordinate bounds of a time axis are infinitesimal, so
+             * anything outside the axis values is not found
+             */
+            if (insertionPoint == 0 || insertionPoint == axisValues.length) {
+                return -1;
+            }
+            if (Math.abs((double) (axisValues[insertionPoint] - millis)) < Math
+                    .abs((double) (axisValues[insertionPoint - 1] - millis))) {
+                return maybeReverseIndex(insertionPoint);
+            } else {
+                return maybeReverseIndex(insertionPoint - 1);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return axisValues.length;
+    }
+
+    @Override
+    public boolean isAscending() {
+        return !reversed;
     }
 
     @Override
     public boolean contains(DateTime position) {
         return getCoordinateExtent().contains(position);
     }
-    
+
     @Override
     protected DateTime extendFirstValue(DateTime firstVal, DateTime nextVal) {
         long tVal = (long) (firstVal.getMillis() - 0.5 * (nextVal.getMillis() - firstVal
@@ -69,16 +203,6 @@ public final class TimeAxisImpl extends AbstractIrregularAxis<DateTime> implemen
         return lastVal;
     }
 
-    @Override
-    protected double difference(DateTime pos1, DateTime pos2) {
-        return pos1.getMillis() - pos2.getMillis();
-    }
-
-    @Override
-    protected DateTime getMidpoint(DateTime pos1, DateTime pos2) {
-        return new DateTime((long) (0.5 * (pos1.getMillis() + pos2.getMillis())), chronology);
-    }
-
     @Override
     public Extent<DateTime> getExtent() {
         return Extents.newExtent(getFirstValue(), getLastValue());
@@ -94,16 +218,18 @@ public final class TimeAxisImpl extends AbstractIrregularAxis<DateTime> implemen
         DateTime time = getCoordinateValue(index);
         return Extents.newExtent(time, time);
     }
-    
+
     @Override
     public Extent<DateTime> getCoordinateExtent() {
-        return Extents.newExtent(getCoordinateValue(0), getCoordinateValue(size()-1));
+        return Extents.newExtent(getCoordinateValue(0), getCoordinateValue(size() - 1));
     }
 
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = super.hashCode();
+        result = prime * result + Arrays.hashCode(axisValues);
+        result = prime * result + (reversed ? 1231 : 1237);
         result = prime * result + ((chronology == null) ? 0 : chronology.hashCode());
         return result;
     }
@@ -117,6 +243,10 @@ public final class TimeAxisImpl extends AbstractIrregularAxis<DateTime> implemen
         if (getClass() != obj.getClass())
             return false;
         TimeAxisImpl other = (TimeAxisImpl) obj;
+        if (!Arrays.equals(axisValues, other.axisValues))
+            return false;
+        if (reversed != other.reversed)
+            return false;
         if (chronology == null) {
             if (other.chronology != null)
                 return false;
@@ -124,5 +254,4 @@ public final class TimeAxisImpl extends AbstractIrregularAxis<DateTime> implemen
             return false;
         return true;
     }
-
 }
@@ -43,6 +43,11 @@ public class VerticalAxisImpl extends ReferenceableAxisImpl implements VerticalA
         this.vCrs = vCrs;
     }
 
+    public VerticalAxisImpl(String axisName, double[] values, VerticalCrs vCrs) {
+        super(axisName, values, false);
+        this.vCrs = vCrs;
+    }
+
     @Override
     public VerticalCrs getVerticalCrs() {
         return vCrs;
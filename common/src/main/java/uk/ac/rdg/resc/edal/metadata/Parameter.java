@@ -29,6 +29,7 @@
 package uk.ac.rdg.resc.edal.metadata;
 
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.feature.Feature;
 
 /**
@@ -45,6 +46,7 @@ public class Parameter {
     /* TODO: This will probably end up as something more complex than a string */
     private String units;
     private String standardName;
+    private Extent<Float> valueRange;
 
     /**
      * @param varId
@@ -58,12 +60,32 @@ public class Parameter {
      */
     public Parameter(String varId, String title, String description, String units,
             String standardName) {
+        this(varId, title, description, units, standardName, null);
+    }
+
+    /**
+     * @param varId
+     *            The ID of the variable which this parameter describes
+     * @param title
+     *            A human-readable title for the quantity being measured
+     * @param description
+     *            A human-readable description of the quantity
+     * @param units
+     *            The units of the measured quantity
+     * @param valueRange
+     *            The range of values which the quantity takes, as declared by
+     *            the source of the data, or <code>null</code> if this is not
+     *            known
+     */
+    public Parameter(String varId, String title, String description, String units,
+            String standardName, Extent<Float> valueRange) {
         super();
         this.varId = varId;
         this.title = title;
         this.description = description;
         this.units = units == null ? "" : units;
         this.standardName = standardName;
+        this.valueRange = valueRange;
     }
 
     /**
@@ -106,6 +128,15 @@ public class Parameter {
         return standardName;
     }
 
+    /**
+     * @return The range of values which this parameter takes, as declared by
+     *         the source of the data (e.g. in the metadata of a file), or
+     *         <code>null</code> if no range has been declared
+     */
+    public Extent<Float> getValueRange() {
+        return valueRange;
+    }
+
     @Override
     public String toString() {
         return varId + ": " + title + " (" + description + ")" + " Units: " + units;
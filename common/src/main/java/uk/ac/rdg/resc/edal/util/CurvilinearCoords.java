@@ -30,6 +30,9 @@ package uk.ac.rdg.resc.edal.util;
 
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -261,6 +264,42 @@ public final class CurvilinearCoords {
         return lonLatBbox;
     }
 
+    /**
+     * Calculates a digest of the coordinates of this grid. Unlike
+     * {@link #hashCode()}, this is very unlikely to be shared by different
+     * grids, and so it can be used to identify data derived from the grid
+     * (e.g. a {@link LookUpTable}) which has been stored on disk.
+     * 
+     * @return A hex-encoded SHA-1 digest of the coordinate values
+     */
+    public String getDigest() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            /*
+             * All Java implementations are required to support SHA-1
+             */
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        buffer.putInt(ni).putInt(nj);
+        for (int i = 0; i < longitudes.length; i++) {
+            if (buffer.remaining() < 8) {
+                digest.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putFloat(longitudes[i]).putFloat(latitudes[i]);
+        }
+        digest.update(buffer.array(), 0, buffer.position());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
     @Override
     public int hashCode() {
         int hashCode = 17;
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of an {@link Array2D} which uses a single primitive
+ * <code>float</code> array for storage. Missing values are stored as
+ * {@link Float#NaN}, and are returned as <code>null</code> from
+ * {@link #get(int...)}.
+ * 
+ * Code which needs to process every value (e.g. when plotting) should use
+ * {@link #getFloat(int, int)} or {@link #getFloats()} rather than
+ * {@link #get(int...)}, since these avoid boxing each value into a
+ * {@link Number}.
+ */
+public class FloatArray2D extends Array2D<Number> {
+
+    private final float[] data;
+
+    /**
+     * Creates a new {@link FloatArray2D} with all values initialised to
+     * missing data
+     */
+    public FloatArray2D(int ySize, int xSize) {
+        super(ySize, xSize);
+
+        data = new float[ySize * xSize];
+        Arrays.fill(data, Float.NaN);
+    }
+
+    @Override
+    public Number get(int... coords) {
+        if (coords.length != 2) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 2)");
+        }
+        float value = getFloat(coords[Y_IND], coords[X_IND]);
+        if (Float.isNaN(value)) {
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public void set(Number value, int... coords) {
+        if (coords.length != 2) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 2)");
+        }
+        setFloat(value == null ? Float.NaN : value.floatValue(), coords[Y_IND], coords[X_IND]);
+    }
+
+    /**
+     * Gets a value from the array without boxing it.
+     * 
+     * @param y
+     *            The y-index of the value
+     * @param x
+     *            The x-index of the value
+     * @return The value, or {@link Float#NaN} if it is missing
+     */
+    public float getFloat(int y, int x) {
+        return data[index(y, x)];
+    }
+
+    /**
+     * Sets a value in the array without boxing it.
+     * 
+     * @param value
+     *            The value to set. Use {@link Float#NaN} for missing data
+     * @param y
+     *            The y-index of the value
+     * @param x
+     *            The x-index of the value
+     */
+    public void setFloat(float value, int y, int x) {
+        data[index(y, x)] = value;
+    }
+
+    /**
+     * Returns the underlying storage of this array. Values are stored with the
+     * x-dimension varying fastest, which is the same order as
+     * {@link #iterator()}. The returned array is not a copy, so should not be
+     * modified.
+     * 
+     * @return The values in this array, with {@link Float#NaN} representing
+     *         missing data
+     */
+    public float[] getFloats() {
+        return data;
+    }
+
+    /**
+     * Copies a single row of this array into the supplied array
+     * 
+     * @param y
+     *            The y-index of the row to copy
+     * @param dest
+     *            The array to copy into
+     * @param destPos
+     *            The position in the destination array at which to start
+     *            copying
+     */
+    public void getFloats(int y, float[] dest, int destPos) {
+        if (y < 0 || y >= getYSize()) {
+            throw new ArrayIndexOutOfBoundsException(y);
+        }
+        System.arraycopy(data, y * getXSize(), dest, destPos, getXSize());
+    }
+
+    private int index(int y, int x) {
+        if (x < 0 || x >= getXSize()) {
+            throw new ArrayIndexOutOfBoundsException(x);
+        }
+        return y * getXSize() + x;
+    }
+
+    /**
+     * Returns the values of an arbitrary {@link Array2D} as a
+     * {@link FloatArray2D}. If the supplied {@link Array2D} is already a
+     * {@link FloatArray2D} it is returned unchanged, otherwise its values are
+     * copied into a new {@link FloatArray2D}.
+     * 
+     * @param values
+     *            The {@link Array2D} to convert
+     * @return A {@link FloatArray2D} containing the same values
+     */
+    public static FloatArray2D fromArray(Array2D<Number> values) {
+        if (values instanceof FloatArray2D) {
+            return (FloatArray2D) values;
+        }
+        int xSize = values.getXSize();
+        int ySize = values.getYSize();
+        FloatArray2D ret = new FloatArray2D(ySize, xSize);
+        for (int y = 0; y < ySize; y++) {
+            for (int x = 0; x < xSize; x++) {
+                Number value = values.get(y, x);
+                if (value != null) {
+                    ret.setFloat(value.floatValue(), y, x);
+                }
+            }
+        }
+        return ret;
+    }
+}
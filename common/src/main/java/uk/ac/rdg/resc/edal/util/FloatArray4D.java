@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of an {@link Array4D} which uses a single primitive
+ * <code>float</code> array for storage. Missing values are stored as
+ * {@link Float#NaN}, and are returned as <code>null</code> from
+ * {@link #get(int...)}.
+ * 
+ * Code which needs to process many values should use
+ * {@link #getFloat(int, int, int, int)} or {@link #getFloats()} rather than
+ * {@link #get(int...)}, since these avoid boxing each value into a
+ * {@link Number}.
+ */
+public class FloatArray4D extends Array4D<Number> {
+
+    private final float[] data;
+
+    /**
+     * Creates a new {@link FloatArray4D} with all values initialised to
+     * missing data
+     */
+    public FloatArray4D(int tSize, int zSize, int ySize, int xSize) {
+        super(tSize, zSize, ySize, xSize);
+
+        data = new float[tSize * zSize * ySize * xSize];
+        Arrays.fill(data, Float.NaN);
+    }
+
+    @Override
+    public Number get(int... coords) {
+        if (coords.length != 4) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 4)");
+        }
+        float value = getFloat(coords[T_IND], coords[Z_IND], coords[Y_IND], coords[X_IND]);
+        if (Float.isNaN(value)) {
+            return null;
+        }
+        return value;
+    }
+
+    @Override
+    public void set(Number value, int... coords) {
+        if (coords.length != 4) {
+            throw new IllegalArgumentException("Wrong number of co-ordinates (" + coords.length
+                    + ") for this Array (needs 4)");
+        }
+        setFloat(value == null ? Float.NaN : value.floatValue(), coords[T_IND], coords[Z_IND],
+                coords[Y_IND], coords[X_IND]);
+    }
+
+    /**
+     * Gets a value from the array without boxing it.
+     * 
+     * @return The value, or {@link Float#NaN} if it is missing
+     */
+    public float getFloat(int t, int z, int y, int x) {
+        return data[index(t, z, y, x)];
+    }
+
+    /**
+     * Sets a value in the array without boxing it.
+     * 
+     * @param value
+     *            The value to set. Use {@link Float#NaN} for missing data
+     */
+    public void setFloat(float value, int t, int z, int y, int x) {
+        data[index(t, z, y, x)] = value;
+    }
+
+    /**
+     * Returns the underlying storage of this array. Values are stored with the
+     * x-dimension varying fastest, followed by y, z and t, which is the same
+     * order as {@link #iterator()}. The returned array is not a copy, so
+     * should not be modified.
+     * 
+     * @return The values in this array, with {@link Float#NaN} representing
+     *         missing data
+     */
+    public float[] getFloats() {
+        return data;
+    }
+
+    private int index(int t, int z, int y, int x) {
+        if (x < 0 || x >= getXSize() || y < 0 || y >= getYSize() || z < 0 || z >= getZSize()) {
+            throw new ArrayIndexOutOfBoundsException("Index (" + t + "," + z + "," + y + "," + x
+                    + ") is out of bounds");
+        }
+        return ((t * getZSize() + z) * getYSize() + y) * getXSize() + x;
+    }
+}
@@ -51,6 +51,7 @@ import org.opengis.referencing.ReferenceIdentifier;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.Matrix;
+import org.opengis.referencing.operation.TransformException;
 import org.opengis.util.FactoryException;
 
 import uk.ac.rdg.resc.edal.domain.Extent;
@@ -65,7 +66,13 @@ import uk.ac.rdg.resc.edal.exceptions.InvalidCrsException;
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.geometry.BoundingBoxImpl;
 import uk.ac.rdg.resc.edal.geometry.LineString;
+import uk.ac.rdg.resc.edal.grid.GridCell2D;
 import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.LookUpTableGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGrid;
+import uk.ac.rdg.resc.edal.grid.RectilinearGridImpl;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxis;
+import uk.ac.rdg.resc.edal.grid.ReferenceableAxisImpl;
 import uk.ac.rdg.resc.edal.grid.TimeAxis;
 import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
 import uk.ac.rdg.resc.edal.grid.VerticalAxis;
@@ -236,6 +243,187 @@ public final class GISUtils {
         }
     }
 
+    /**
+     * Transforms a number of coordinates from one
+     * {@link CoordinateReferenceSystem} to another. This is much faster than
+     * calling {@link #transformPosition(HorizontalPosition, CoordinateReferenceSystem)}
+     * for each position, since the transform is only found once and no
+     * objects are created per position.
+     * 
+     * @param coords
+     *            The coordinates to transform, as interleaved x and y values.
+     *            These are transformed in place. Any coordinates which cannot
+     *            be transformed are set to {@link Double#NaN}.
+     * @param sourceCrs
+     *            The {@link CoordinateReferenceSystem} of the coordinates. If
+     *            this is <code>null</code> the coordinates are left unchanged.
+     * @param targetCrs
+     *            The {@link CoordinateReferenceSystem} to transform to
+     */
+    public static void transformCoordinates(double[] coords,
+            CoordinateReferenceSystem sourceCrs, CoordinateReferenceSystem targetCrs) {
+        if (targetCrs == null) {
+            throw new NullPointerException("Target CRS cannot be null");
+        }
+        if (sourceCrs == null) {
+            return;
+        }
+        MathTransform transform;
+        try {
+            transform = CRS.findMathTransform(sourceCrs, targetCrs, true);
+        } catch (FactoryException e) {
+            throw new RuntimeException(e);
+        }
+        if (transform.isIdentity()) {
+            return;
+        }
+        int nPoints = coords.length / 2;
+        double[] transformed = new double[2 * nPoints];
+        try {
+            transform.transform(coords, 0, transformed, 0, nPoints);
+        } catch (TransformException e) {
+            /*
+             * At least one point could not be transformed. Since we don't know
+             * how much of the output was written, start again and transform
+             * each point individually
+             */
+            for (int i = 0; i < nPoints; i++) {
+                try {
+                    transform.transform(coords, 2 * i, transformed, 2 * i, 1);
+                } catch (TransformException pointException) {
+                    transformed[2 * i] = Double.NaN;
+                    transformed[2 * i + 1] = Double.NaN;
+                }
+            }
+        }
+        System.arraycopy(transformed, 0, coords, 0, transformed.length);
+    }
+
+    /**
+     * Finds the grid cells of a {@link HorizontalGrid} which contain a number
+     * of positions. This is equivalent to transforming each position and
+     * calling {@link HorizontalGrid#findIndexOf(HorizontalPosition)}, but
+     * transforms all of the positions at once and avoids creating objects for
+     * common types of grid.
+     * 
+     * @param grid
+     *            The {@link HorizontalGrid} to search
+     * @param coords
+     *            The positions, as interleaved x and y values. This array is
+     *            not modified.
+     * @param crs
+     *            The {@link CoordinateReferenceSystem} of the positions
+     * @return The x and y indices of the containing grid cells, interleaved
+     *         in the same way as <code>coords</code>. Both indices are -1 for
+     *         any position which is not within the grid.
+     */
+    public static int[] findIndicesOf(HorizontalGrid grid, double[] coords,
+            CoordinateReferenceSystem crs) {
+        /*
+         * Look-up table grids are searched in WGS84
+         */
+        CoordinateReferenceSystem gridCrs = grid instanceof LookUpTableGrid
+                ? DefaultGeographicCRS.WGS84 : grid.getCoordinateReferenceSystem();
+        double[] gridCoords = coords.clone();
+        if (gridCrs != null) {
+            transformCoordinates(gridCoords, crs, gridCrs);
+        }
+
+        int[] indices = new int[gridCoords.length];
+        for (int i = 0; i < gridCoords.length; i += 2) {
+            double x = gridCoords[i];
+            double y = gridCoords[i + 1];
+            int xIndex = -1;
+            int yIndex = -1;
+            if (grid instanceof RectilinearGridImpl) {
+                RectilinearGrid rectGrid = (RectilinearGrid) grid;
+                xIndex = findIndexOf(rectGrid.getXAxis(), x);
+                yIndex = findIndexOf(rectGrid.getYAxis(), y);
+                if (xIndex < 0 || yIndex < 0) {
+                    xIndex = -1;
+                    yIndex = -1;
+                }
+            } else {
+                GridCoordinates2D gridCoord;
+                if (grid instanceof LookUpTableGrid) {
+                    gridCoord = ((LookUpTableGrid) grid).findIndexOf(x, y);
+                } else {
+                    gridCoord = grid.findIndexOf(new HorizontalPosition(x, y, gridCrs));
+                }
+                if (gridCoord != null) {
+                    xIndex = gridCoord.getX();
+                    yIndex = gridCoord.getY();
+                }
+            }
+            indices[i] = xIndex;
+            indices[i + 1] = yIndex;
+        }
+        return indices;
+    }
+
+    /**
+     * Finds the index of a position on an axis, avoiding boxing the position
+     * where the axis supports it.
+     * 
+     * @param axis
+     *            The axis to search
+     * @param position
+     *            The position to find
+     * @return The index of the position, or -1 if it is not on the axis
+     */
+    public static int findIndexOf(ReferenceableAxis<Double> axis, double position) {
+        if (axis instanceof ReferenceableAxisImpl) {
+            return ((ReferenceableAxisImpl) axis).findIndexOf(position);
+        }
+        return axis.findIndexOf(position);
+    }
+
+    /**
+     * Gets the centres of all of the cells in a {@link HorizontalGrid}, in the
+     * {@link CoordinateReferenceSystem} of the grid.
+     * 
+     * @param grid
+     *            The {@link HorizontalGrid} to get the centres of
+     * @return The centres as interleaved x and y values, with the x index
+     *         varying fastest. The centre of cell (i,j) is at index
+     *         <code>2 * (j * grid.getXSize() + i)</code>
+     */
+    public static double[] getGridCentres(HorizontalGrid grid) {
+        int xSize = grid.getXSize();
+        int ySize = grid.getYSize();
+        double[] coords = new double[2 * xSize * ySize];
+        if (grid instanceof RectilinearGrid) {
+            /*
+             * Avoid creating a GridCell2D for each cell
+             */
+            ReferenceableAxis<Double> xAxis = ((RectilinearGrid) grid).getXAxis();
+            ReferenceableAxis<Double> yAxis = ((RectilinearGrid) grid).getYAxis();
+            double[] xValues = new double[xSize];
+            for (int i = 0; i < xSize; i++) {
+                xValues[i] = xAxis.getCoordinateValue(i);
+            }
+            int index = 0;
+            for (int j = 0; j < ySize; j++) {
+                double y = yAxis.getCoordinateValue(j);
+                for (int i = 0; i < xSize; i++) {
+                    coords[index++] = xValues[i];
+                    coords[index++] = y;
+                }
+            }
+        } else {
+            Array<GridCell2D> domainObjects = grid.getDomainObjects();
+            int index = 0;
+            for (int j = 0; j < ySize; j++) {
+                for (int i = 0; i < xSize; i++) {
+                    HorizontalPosition centre = domainObjects.get(j, i).getCentre();
+                    coords[index++] = centre.getX();
+                    coords[index++] = centre.getY();
+                }
+            }
+        }
+        return coords;
+    }
+
     /**
      * Transforms the given lat-lon heading to a different
      * {@link CoordinateReferenceSystem}
@@ -671,10 +859,15 @@ public final class GISUtils {
              * Work out how many grid points will be sampled by this transect
              */
             Set<GridCoordinates2D> gridCoords = new HashSet<GridCoordinates2D>();
-            for (HorizontalPosition pos : points) {
-                GridCoordinates2D gridCoord = hGrid.findIndexOf(pos);
-                if (gridCoord != null) {
-                    gridCoords.add(gridCoord);
+            double[] coords = new double[2 * points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                coords[2 * i] = points.get(i).getX();
+                coords[2 * i + 1] = points.get(i).getY();
+            }
+            int[] indices = findIndicesOf(hGrid, coords, transect.getCoordinateReferenceSystem());
+            for (int i = 0; i < indices.length; i += 2) {
+                if (indices[i] >= 0) {
+                    gridCoords.add(new GridCoordinates2D(indices[i], indices[i + 1]));
                 }
             }
 
@@ -35,9 +35,19 @@ import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
-import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.DirectColorModel;
 import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.util.CurvilinearCoords.Cell;
@@ -56,16 +66,25 @@ public final class LookUpTable {
      * lon-lat point in the LUT. These are flattened from a 2D to a 1D array. We
      * store these as shorts to save disk space. The LUT would need to be
      * extremely large before we would have to worry about overflows. Each array
-     * has the size nLon * nLat
+     * has the size nLon * nLat.
+     * 
+     * These are either held on the heap, or memory-mapped from a file if the
+     * LUT was read using readFrom(File)
      */
-    private DataBuffer iIndices;
-    private DataBuffer jIndices;
+    private ShortBuffer iIndices;
+    private ShortBuffer jIndices;
 
     private final int nLon;
     private final int nLat;
 
     // Converts from lat-lon coordinates to index space in the LUT.
-    private final AffineTransform transform = new AffineTransform();
+    private final AffineTransform transform;
+
+    /** Identifies files written by writeTo(File) */
+    private static final int FILE_MAGIC = 0x4c555431;
+
+    /** The size of the header of files written by writeTo(File) */
+    private static final int FILE_HEADER_SIZE = 3 * 4 + 6 * 8;
 
     /**
      * A {@link DirectColorModel} that holds data as unsigned shorts, ignoring
@@ -114,6 +133,7 @@ public final class LookUpTable {
         double latStride = latDiff / (nLat - 1);
 
         /* Create the transform. We scale by the inverse of the stride length */
+        transform = new AffineTransform();
         transform.scale(1.0 / lonStride, 1.0 / latStride);
         /* Then we translate by the minimum coordinate values */
         transform.translate(-bbox.getMinX(), -bbox.getMinY());
@@ -122,6 +142,85 @@ public final class LookUpTable {
         makeLuts(curvCoords);
     }
 
+    private LookUpTable(int nLon, int nLat, AffineTransform transform, ShortBuffer iIndices,
+            ShortBuffer jIndices) {
+        this.nLon = nLon;
+        this.nLat = nLat;
+        this.transform = transform;
+        this.iIndices = iIndices;
+        this.jIndices = jIndices;
+    }
+
+    /**
+     * Reads a look-up table which was previously written with
+     * {@link #writeTo(File)}. The indices are memory-mapped rather than read
+     * onto the heap, so are only loaded from disk as they are needed.
+     * 
+     * @param file
+     *            The file to read
+     * @return The {@link LookUpTable}
+     * @throws IOException
+     *             If the file cannot be read or is not a look-up table
+     */
+    public static LookUpTable readFrom(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, FILE_HEADER_SIZE);
+            if (header.getInt() != FILE_MAGIC) {
+                throw new IOException(file + " is not a look-up table");
+            }
+            int nLon = header.getInt();
+            int nLat = header.getInt();
+            double[] matrix = new double[6];
+            for (int i = 0; i < 6; i++) {
+                matrix[i] = header.getDouble();
+            }
+            long indicesSize = 2L * nLon * nLat;
+            if (nLon <= 0 || nLat <= 0
+                    || channel.size() != FILE_HEADER_SIZE + 2 * indicesSize) {
+                throw new IOException(file + " is not a complete look-up table");
+            }
+            /*
+             * The mappings remain valid once the file has been closed
+             */
+            ShortBuffer iIndices = channel.map(MapMode.READ_ONLY, FILE_HEADER_SIZE, indicesSize)
+                    .asShortBuffer();
+            ShortBuffer jIndices = channel.map(MapMode.READ_ONLY,
+                    FILE_HEADER_SIZE + indicesSize, indicesSize).asShortBuffer();
+            return new LookUpTable(nLon, nLat, new AffineTransform(matrix), iIndices, jIndices);
+        }
+    }
+
+    /**
+     * Writes this look-up table to a file, so that it can be read with
+     * {@link #readFrom(File)} rather than being regenerated
+     * 
+     * @param file
+     *            The file to write to
+     * @throws IOException
+     *             If there is a problem writing the file
+     */
+    public void writeTo(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(nLon);
+            out.writeInt(nLat);
+            double[] matrix = new double[6];
+            transform.getMatrix(matrix);
+            for (double element : matrix) {
+                out.writeDouble(element);
+            }
+            int size = nLon * nLat;
+            for (int i = 0; i < size; i++) {
+                out.writeShort(iIndices.get(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeShort(jIndices.get(i));
+            }
+        }
+    }
+
     /**
      * Generates the data for the look-up tables
      */
@@ -172,9 +271,11 @@ public final class LookUpTable {
             jg2d.fill(path);
         }
 
-        /* We only need to store the data buffers, not the whole BufferedImages */
-        iIndices = iIm.getRaster().getDataBuffer();
-        jIndices = jIm.getRaster().getDataBuffer();
+        /* We only need to store the data, not the whole BufferedImages */
+        iIndices = ShortBuffer.wrap(((DataBufferUShort) iIm.getRaster().getDataBuffer())
+                .getData());
+        jIndices = ShortBuffer.wrap(((DataBufferUShort) jIm.getRaster().getDataBuffer())
+                .getData());
     }
 
     /**
@@ -221,8 +322,8 @@ public final class LookUpTable {
         /* Find the index within the LUT */
         int index = iLon + (iLat * nLon);
         /* Extract the i and j indices of the nearest grid point */
-        int iIndex = iIndices.getElem(index);
-        int jIndex = jIndices.getElem(index);
+        int iIndex = iIndices.get(index) & 0xffff;
+        int jIndex = jIndices.get(index) & 0xffff;
 
         /* Check for missing values */
         if (iIndex == MISSING_VALUE || jIndex == MISSING_VALUE) {
@@ -249,8 +350,10 @@ public final class LookUpTable {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((iIndices == null) ? 0 : iIndices.hashCode());
-        result = prime * result + ((jIndices == null) ? 0 : jIndices.hashCode());
+        /*
+         * The indices are not included, since they can be very large. Equal
+         * objects will still have equal hash codes.
+         */
         result = prime * result + nLat;
         result = prime * result + nLon;
         result = prime * result + ((transform == null) ? 0 : transform.hashCode());
@@ -269,22 +372,14 @@ public final class LookUpTable {
         if (iIndices == null) {
             if (other.iIndices != null)
                 return false;
-        } else {
-            for (int i = 0; i < iIndices.getSize(); i++) {
-                if (iIndices.getElem(i) != other.iIndices.getElem(i)) {
-                    return false;
-                }
-            }
+        } else if (!iIndices.equals(other.iIndices)) {
+            return false;
         }
         if (jIndices == null) {
             if (other.jIndices != null)
                 return false;
-        } else {
-            for (int i = 0; i < jIndices.getSize(); i++) {
-                if (jIndices.getElem(i) != other.jIndices.getElem(i)) {
-                    return false;
-                }
-            }
+        } else if (!jIndices.equals(other.jIndices)) {
+            return false;
         }
         if (nLat != other.nLat)
             return false;
@@ -150,6 +150,29 @@ public abstract class RArray {
         this.size++;
     }
 
+    /**
+     * Sets the <i>i</i>th element of the array
+     * 
+     * @param i
+     *            The index of the element to set
+     * @param value
+     *            The value to set
+     * @throws ArrayIndexOutOfBoundsException
+     *             if {@code i >= size()}
+     * @throws ArithmeticException
+     *             if {@code value} is too large or small to be stored in the
+     *             underlying storage array
+     */
+    public final void set(int i, long value) {
+        if (i >= this.size) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        if (value < this.getMinValue() || value > this.getMaxValue()) {
+            throw new ArithmeticException(value + " cannot be stored in this array");
+        }
+        this.setElement(i, value);
+    }
+
     public final int size() {
         return this.size;
     }
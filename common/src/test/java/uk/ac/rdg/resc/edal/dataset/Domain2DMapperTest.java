@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.*;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import uk.ac.rdg.resc.edal.dataset.DomainMapper.DomainMapperEntry;
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.grid.GridCell2D;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.GISUtils;
+import uk.ac.rdg.resc.edal.util.GridCoordinates2D;
+
+/**
+ * Test class for {@link Domain2DMapper}
+ */
+public class Domain2DMapperTest {
+    /**
+     * Tests that a mapper for a reprojected target grid large enough to be
+     * constructed and sorted in parallel contains the same mappings as
+     * looking up each target point individually, in the correct order
+     */
+    @Test
+    public void testReprojectedMapping() throws EdalException {
+        HorizontalGrid sourceGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 720, 360);
+        CoordinateReferenceSystem mercator = GISUtils.getCrs("EPSG:3857");
+        HorizontalGrid targetGrid = new RegularGridImpl(-2e7, -1.5e7, 2e7, 1.5e7, mercator, 400,
+                300);
+
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, targetGrid);
+
+        Array<GridCell2D> targetCells = targetGrid.getDomainObjects();
+        int[] expectedI = new int[400 * 300];
+        int[] expectedJ = new int[400 * 300];
+        for (int j = 0; j < 300; j++) {
+            for (int i = 0; i < 400; i++) {
+                GridCoordinates2D coords = sourceGrid.findIndexOf(targetCells.get(j, i)
+                        .getCentre());
+                expectedI[j * 400 + i] = coords == null ? -1 : coords.getX();
+                expectedJ[j * 400 + i] = coords == null ? -1 : coords.getY();
+            }
+        }
+
+        boolean[] found = new boolean[400 * 300];
+        long lastSourceIndex = -1;
+        for (DomainMapperEntry<int[]> entry : mapper) {
+            long sourceIndex = (long) entry.getSourceGridJIndex() * 720
+                    + entry.getSourceGridIIndex();
+            assertTrue(sourceIndex > lastSourceIndex);
+            lastSourceIndex = sourceIndex;
+
+            int lastTargetIndex = -1;
+            for (int[] target : entry.getTargetIndices()) {
+                int targetIndex = target[1] * 400 + target[0];
+                assertTrue(targetIndex > lastTargetIndex);
+                lastTargetIndex = targetIndex;
+
+                assertEquals(expectedI[targetIndex], entry.getSourceGridIIndex());
+                assertEquals(expectedJ[targetIndex], entry.getSourceGridJIndex());
+                found[targetIndex] = true;
+            }
+        }
+        for (int i = 0; i < found.length; i++) {
+            assertEquals(expectedI[i] >= 0, found[i]);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.domain.PointCollectionDomain;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.feature.PointCollectionFeature;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
+import uk.ac.rdg.resc.edal.util.Array1D;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * Test class for {@link GriddedDataset}
+ */
+public class GriddedDatasetTest {
+    private static final int X_SIZE = 200;
+    private static final int Y_SIZE = 100;
+
+    private RecordingDataSource dataSource;
+    private GriddedDataset dataset;
+
+    @Before
+    public void setUp() {
+        dataSource = new RecordingDataSource();
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(new GridVariableMetadata(new Parameter("var", "Test variable", "A variable",
+                "m", null), new RegularGridImpl(0, 0, X_SIZE, Y_SIZE, DefaultGeographicCRS.WGS84,
+                X_SIZE, Y_SIZE), null, null, true));
+        dataset = new GriddedDataset("test", vars) {
+            @Override
+            protected GridDataSource openGridDataSource() throws IOException {
+                return dataSource;
+            }
+
+            @Override
+            protected DataReadingStrategy getDataReadingStrategy() {
+                return DataReadingStrategy.BOUNDING_BOX;
+            }
+        };
+    }
+
+    @Test
+    public void testReadSampledValueRange() throws Exception {
+        Extent<Float> range = dataset.readSampledValueRange("var", 10 * X_SIZE);
+        /*
+         * We should have read 10 complete rows, in the middle of each tenth of
+         * the grid
+         */
+        assertEquals(10, dataSource.rowsRead.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(10 * i + 5), dataSource.rowsRead.get(i));
+        }
+        assertEquals(value(5, 0), range.getLow(), 1e-6);
+        assertEquals(value(95, X_SIZE - 1), range.getHigh(), 1e-6);
+    }
+
+    @Test
+    public void testReadSampledValueRangeReadsAtLeast10Rows() throws Exception {
+        dataset.readSampledValueRange("var", 1);
+        assertEquals(10, dataSource.rowsRead.size());
+        dataSource.rowsRead.clear();
+        dataset.readSampledValueRange("var", 1000 * X_SIZE);
+        assertEquals(Y_SIZE, dataSource.rowsRead.size());
+    }
+
+    @Test
+    public void testExtractPointCollectionBatchesReads() throws Exception {
+        List<HorizontalPosition> positions = new ArrayList<>();
+        for (int i = 0; i < X_SIZE; i++) {
+            positions.add(new HorizontalPosition(i + 0.5, i / 2 + 0.5, DefaultGeographicCRS.WGS84));
+        }
+        positions.add(new HorizontalPosition(-10.0, 50.0, DefaultGeographicCRS.WGS84));
+        PointCollectionFeature feature = dataset.extractPointCollection(
+                Collections.singleton("var"), new PointCollectionDomain(positions, null, null));
+        /*
+         * All of the points lie in the same 2D slab, so should be read in a
+         * single operation
+         */
+        assertEquals(1, dataSource.reads);
+        Array1D<Number> values = feature.getValues("var");
+        for (int i = 0; i < X_SIZE; i++) {
+            assertEquals(value(i / 2, i), values.get(i).floatValue(), 1e-6);
+        }
+        assertNull(values.get(X_SIZE));
+    }
+
+    private static float value(int j, int i) {
+        return j * 1000 + i;
+    }
+
+    private static class RecordingDataSource implements GridDataSource {
+        private final List<Integer> rowsRead = new ArrayList<>();
+        private int reads = 0;
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            reads++;
+            for (int j = ymin; j <= ymax; j++) {
+                rowsRead.add(j);
+            }
+            FloatArray4D data = new FloatArray4D(1, 1, ymax - ymin + 1, xmax - xmin + 1);
+            for (int j = ymin; j <= ymax; j++) {
+                for (int i = xmin; i <= xmax; i++) {
+                    data.setFloat(value(j, i), 0, 0, j - ymin, i - xmin);
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.grid.HorizontalGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * Test class for {@link MapReadCoalescer}
+ */
+public class MapReadCoalescerTest {
+    private static final int SIZE = 100;
+
+    private HorizontalGrid sourceGrid;
+    private CountingDataSource dataSource;
+    private MapReadCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        sourceGrid = new RegularGridImpl(0, 0, SIZE, SIZE, DefaultGeographicCRS.WGS84, SIZE, SIZE);
+        dataSource = new CountingDataSource();
+        coalescer = new MapReadCoalescer();
+        /*
+         * Long enough that all of the concurrent reads will join the batch
+         */
+        MapReadCoalescer.setCoalescingWindow(200);
+    }
+
+    @After
+    public void tearDown() {
+        MapReadCoalescer.setCoalescingWindow(5);
+    }
+
+    @Test
+    public void testIsolatedReadIsNotDelayed() throws Exception {
+        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, tile(0, 0));
+        long batchesOpened = MapReadCoalescer.getNumBatchesOpened();
+        FloatArray2D data = coalescer.readMapData(DataReadingStrategy.BOUNDING_BOX, dataSource,
+                "var", 0, 0, mapper);
+        checkTile(data, 0, 0);
+        assertEquals(1, dataSource.numReads.get());
+        /*
+         * Reads in consecutive requests don't wait for others either
+         */
+        data = coalescer.readMapData(DataReadingStrategy.BOUNDING_BOX, dataSource, "var", 0, 0,
+                mapper);
+        checkTile(data, 0, 0);
+        assertEquals(2, dataSource.numReads.get());
+        assertEquals(batchesOpened, MapReadCoalescer.getNumBatchesOpened());
+    }
+
+    @Test
+    public void testConcurrentTilesAreCoalesced() throws Exception {
+        final int[][] tileOrigins = new int[][] { { 0, 0 }, { 50, 0 }, { 0, 50 }, { 50, 50 } };
+        final CyclicBarrier barrier = new CyclicBarrier(tileOrigins.length);
+        ExecutorService executor = Executors.newFixedThreadPool(tileOrigins.length + 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            /*
+             * A read of another time is in progress throughout, as would be
+             * the case in a burst of tile requests
+             */
+            Future<FloatArray2D> otherRead = executor.submit(new Callable<FloatArray2D>() {
+                @Override
+                public FloatArray2D call() throws Exception {
+                    return coalescer.readMapData(DataReadingStrategy.BOUNDING_BOX,
+                            new BlockingDataSource(release), "var", 1, 0,
+                            Domain2DMapper.forGrid(sourceGrid, tile(0, 0)));
+                }
+            });
+            while (!otherReadStarted) {
+                Thread.sleep(1);
+            }
+
+            List<Future<FloatArray2D>> results = new ArrayList<>();
+            for (final int[] origin : tileOrigins) {
+                results.add(executor.submit(new Callable<FloatArray2D>() {
+                    @Override
+                    public FloatArray2D call() throws Exception {
+                        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid,
+                                tile(origin[0], origin[1]));
+                        barrier.await();
+                        return coalescer.readMapData(DataReadingStrategy.BOUNDING_BOX,
+                                dataSource, "var", 0, 0, mapper);
+                    }
+                }));
+            }
+            for (int i = 0; i < tileOrigins.length; i++) {
+                checkTile(results.get(i).get(), tileOrigins[i][0], tileOrigins[i][1]);
+            }
+            release.countDown();
+            checkTile(otherRead.get(), 0, 0);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        assertEquals(1, dataSource.numReads.get());
+    }
+
+    @Test
+    public void testScanlineReadsAreNotCoalesced() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<FloatArray2D>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(executor.submit(new Callable<FloatArray2D>() {
+                    @Override
+                    public FloatArray2D call() throws Exception {
+                        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, tile(0, 0));
+                        barrier.await();
+                        return coalescer.readMapData(DataReadingStrategy.SCANLINE, dataSource,
+                                "var", 0, 0, mapper);
+                    }
+                }));
+            }
+            for (Future<FloatArray2D> result : results) {
+                checkTile(result.get(), 0, 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        /*
+         * One read per row of each tile
+         */
+        assertEquals(SIZE, dataSource.numReads.get());
+    }
+
+    @Test
+    public void testDifferentTimesAreNotCoalesced() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<FloatArray2D>> results = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                final int tIndex = t;
+                results.add(executor.submit(new Callable<FloatArray2D>() {
+                    @Override
+                    public FloatArray2D call() throws Exception {
+                        Domain2DMapper mapper = Domain2DMapper.forGrid(sourceGrid, tile(0, 0));
+                        barrier.await();
+                        return coalescer.readMapData(DataReadingStrategy.BOUNDING_BOX,
+                                dataSource, "var", tIndex, 0, mapper);
+                    }
+                }));
+            }
+            for (Future<FloatArray2D> result : results) {
+                checkTile(result.get(), 0, 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, dataSource.numReads.get());
+    }
+
+    private static HorizontalGrid tile(int xOrigin, int yOrigin) {
+        return new RegularGridImpl(xOrigin, yOrigin, xOrigin + SIZE / 2, yOrigin + SIZE / 2,
+                DefaultGeographicCRS.WGS84, SIZE / 2, SIZE / 2);
+    }
+
+    private static void checkTile(FloatArray2D data, int xOrigin, int yOrigin) {
+        for (int j = 0; j < SIZE / 2; j++) {
+            for (int i = 0; i < SIZE / 2; i++) {
+                assertEquals(value(yOrigin + j, xOrigin + i), data.getFloat(j, i), 1e-6);
+            }
+        }
+    }
+
+    private static float value(int j, int i) {
+        return j * 1000 + i;
+    }
+
+    private volatile boolean otherReadStarted = false;
+
+    /*
+     * A data source whose reads block until released
+     */
+    private class BlockingDataSource extends CountingDataSource {
+        private final CountDownLatch release;
+
+        private BlockingDataSource(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            otherReadStarted = true;
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return super.read(variableId, tmin, tmax, zmin, zmax, ymin, ymax, xmin, xmax);
+        }
+    }
+
+    private static class CountingDataSource implements GridDataSource {
+        private final AtomicInteger numReads = new AtomicInteger(0);
+
+        @Override
+        public Array4D<Number> read(String variableId, int tmin, int tmax, int zmin, int zmax,
+                int ymin, int ymax, int xmin, int xmax) throws IOException, DataReadingException {
+            numReads.incrementAndGet();
+            FloatArray4D data = new FloatArray4D(1, 1, ymax - ymin + 1, xmax - xmin + 1);
+            for (int j = ymin; j <= ymax; j++) {
+                for (int i = xmin; i <= xmax; i++) {
+                    data.setFloat(value(j, i), 0, 0, j - ymin, i - xmin);
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+
+package uk.ac.rdg.resc.edal.dataset;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
+import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
+import uk.ac.rdg.resc.edal.metadata.GridVariableMetadata;
+import uk.ac.rdg.resc.edal.metadata.Parameter;
+import uk.ac.rdg.resc.edal.util.Array4D;
+import uk.ac.rdg.resc.edal.util.FloatArray4D;
+
+/**
+ * Test class for {@link TimeSeriesStore}
+ */
+public class TimeSeriesStoreTest {
+    private static final int X_SIZE = 4;
+    private static final int Y_SIZE = 3;
+    private static final int T_SIZE = 5;
+
+    private File workingDir;
+    private GridVariableMetadata metadata;
+    private GriddedDataset dataset;
+    private volatile int offset = 0;
+    private volatile int reads = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        workingDir = Files.createTempDirectory("edal-timeseries").toFile();
+        DatasetFactory.setWorkingDirectory(workingDir);
+        TimeSeriesStore.setMaxStoreSize(1024L * 1024L);
+        TimeSeriesStore.setMinTimesteps(1);
+        TimeSeriesStore.setVersionCheckInterval(0L);
+
+        List<DateTime> times = new ArrayList<>();
+        for (int t = 0; t < T_SIZE; t++) {
+            times.add(new DateTime(2000, 1, t + 1, 0, 0, DateTimeZone.UTC));
+        }
+        metadata = new GridVariableMetadata(new Parameter("var", "Test variable", "A variable",
+                "m", null), new RegularGridImpl(0, 0, X_SIZE, Y_SIZE,
+                DefaultGeographicCRS.WGS84, X_SIZE, Y_SIZE), null, new TimeAxisImpl("time",
+                times), true);
+        List<GridVariableMetadata> vars = new ArrayList<>();
+        vars.add(metadata);
+        dataset = new GriddedDataset("timeseries-test", vars) {
+            @Override
+            protected GridDataSource openGridDataSource() throws IOException {
+                return new GridDataSource() {
+                    @Override
+                    public Array4D<Number> read(String variableId, int tmin, int tmax,
+                            int zmin, int zmax, int ymin, int ymax, int xmin, int xmax)
+                            throws IOException, DataReadingException {
+                        reads++;
+                        FloatArray4D data = new FloatArray4D(tmax - tmin + 1, 1, ymax - ymin
+                                + 1, xmax - xmin + 1);
+                        for (int t = tmin; t <= tmax; t++) {
+                            for (int j = ymin; j <= ymax; j++) {
+                                for (int i = xmin; i <= xmax; i++) {
+                                    data.setFloat(value(t, j, i), t - tmin, 0, j - ymin, i
+                                            - xmin);
+                                }
+                            }
+                        }
+                        return data;
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                    }
+                };
+            }
+
+            @Override
+            public String getDataVersion() {
+                return "version-" + offset;
+            }
+
+            @Override
+            protected DataReadingStrategy getDataReadingStrategy() {
+                return DataReadingStrategy.BOUNDING_BOX;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        DatasetFactory.setWorkingDirectory(null);
+        TimeSeriesStore.setMaxStoreSize(0L);
+        TimeSeriesStore.setMinTimesteps(100);
+        TimeSeriesStore.setVersionCheckInterval(10000L);
+        delete(workingDir);
+    }
+
+    @Test
+    public void testBuildAndRebuild() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(dataset);
+        /*
+         * The first read starts the build in the background
+         */
+        assertNull(store.read(metadata, 0, T_SIZE - 1, 0, 1, 2));
+        checkSeries(readWhenReady(store, 1, 2), 0, 1, 2);
+        checkSeries(store.read(metadata, 0, T_SIZE - 1, 0, Y_SIZE - 1, 0), 0, Y_SIZE - 1, 0);
+
+        /*
+         * Once the data change, the old store is no longer used, and a new one
+         * is built to replace it
+         */
+        offset = 10000;
+        checkSeries(readWhenReady(store, 2, 3), 0, 2, 3);
+        checkSeries(store.read(metadata, 1, 3, 0, 0, 0), 1, 0, 0);
+
+        File dir = new File(new File(workingDir, "timeseries"), "timeseries-test");
+        assertArrayEquals(new String[] { "var.data", "var.properties" }, sortedNames(dir));
+
+        /*
+         * A new store picks up the existing data without reading the dataset
+         */
+        int readsBefore = reads;
+        store = new TimeSeriesStore(dataset);
+        checkSeries(store.read(metadata, 0, T_SIZE - 1, 0, 1, 1), 0, 1, 1);
+        assertEquals(readsBefore, reads);
+    }
+
+    private FloatArray4D readWhenReady(TimeSeriesStore store, int y, int x)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000L;
+        while (System.currentTimeMillis() < end) {
+            FloatArray4D data = store.read(metadata, 0, T_SIZE - 1, 0, y, x);
+            if (data != null) {
+                return data;
+            }
+            Thread.sleep(10);
+        }
+        fail("Timeseries store was not built");
+        return null;
+    }
+
+    private void checkSeries(FloatArray4D data, int tmin, int y, int x) {
+        assertNotNull(data);
+        for (int t = 0; t < data.getTSize(); t++) {
+            assertEquals(value(t + tmin, y, x), data.getFloat(t, 0, 0, 0), 1e-6);
+        }
+    }
+
+    private float value(int t, int y, int x) {
+        return offset + t * 100 + y * 10 + x;
+    }
+
+    private static String[] sortedNames(File dir) {
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -29,6 +29,7 @@
 package uk.ac.rdg.resc.edal.feature;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -150,6 +151,21 @@ public class GridFeatureTest {
 
     }
 
+    @Test
+    public void testSizeInBytes() throws DataReadingException {
+        RegularGrid smallGrid = new RegularGridImpl(0, 0, 10, 10, null, 10, 10);
+        RegularGrid largeGrid = new RegularGridImpl(0, 0, 10, 10, null, 100, 100);
+        DateTime time = tAxis.getCoordinateValue(0);
+        long smallSize = feature.extractMapFeature(null, smallGrid, 0.0, time).getSizeInBytes();
+        long largeSize = feature.extractMapFeature(null, largeGrid, 0.0, time).getSizeInBytes();
+        /*
+         * Values need at least 4 bytes each, and the fixed overhead of a map
+         * feature does not depend on its size
+         */
+        assertTrue(largeSize - smallSize >= (100 * 100 - 10 * 10) * 4);
+        assertTrue(largeSize < 100 * 100 * 24 + 4096);
+    }
+
     private static Number numberFromCoords(int t, int z, int y, int x) {
         return x + 1e3 * y + 1e6 * z + 1e9 * t;
     }
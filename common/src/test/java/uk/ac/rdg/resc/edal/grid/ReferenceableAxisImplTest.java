@@ -157,11 +157,6 @@ public class ReferenceableAxisImplTest {
                 Extents.newExtent(longValues[2] + spaceHead / 2.0, longValues[3] + spaceTail / 2.0),
                 longAxis.getCoordinateBounds(3));
 
-        double pos1 = 55.8;
-        double pos2 = 65.9;
-
-        assertEquals((pos1 + pos2) / 2.0, latAxis.getMidpoint(pos1, pos2), delta);
-        assertEquals(Double.NaN, latAxis.difference(25.0, Double.NaN), delta);
         assertEquals(latValues[latValues.length - 1], latAxis.getMaximumValue(), delta);
         assertEquals(longValues[0], longAxis.getMinimumValue(), delta);
 
@@ -206,4 +201,29 @@ public class ReferenceableAxisImplTest {
         ReferenceableAxisImpl lAxis = new ReferenceableAxisImpl("latitude", lValues, false);
         assertFalse(lAxis.isAscending());
     }
+
+    /**
+     * Test that the primitive and boxed versions of
+     * {@link ReferenceableAxisImpl#findIndexOf} agree, and that axes created
+     * from arrays and lists are equal.
+     */
+    @Test
+    public void testPrimitiveFindIndexOf() {
+        double[] values = { 20.0, 19.8, 18.8, 15.6 };
+        ReferenceableAxisImpl listAxis = new ReferenceableAxisImpl("latitude",
+                CollectionUtils.listFromDoubleArray(values), false);
+        ReferenceableAxisImpl arrayAxis = new ReferenceableAxisImpl("latitude", values, false);
+        assertEquals(listAxis, arrayAxis);
+        assertEquals(listAxis.hashCode(), arrayAxis.hashCode());
+
+        for (double pos = 10.0; pos < 95.0; pos += 0.05) {
+            assertEquals(arrayAxis.findIndexOf(Double.valueOf(pos)), arrayAxis.findIndexOf(pos));
+            assertEquals(latAxis.findIndexOf(Double.valueOf(pos)), latAxis.findIndexOf(pos));
+            assertEquals(longAxis.findIndexOf(Double.valueOf(pos)), longAxis.findIndexOf(pos));
+        }
+        assertEquals(0, arrayAxis.findIndexOf(20.05));
+        assertEquals(3, arrayAxis.findIndexOf(15.0));
+        assertEquals(-1, arrayAxis.findIndexOf(13.9));
+        assertEquals(7, longAxis.findIndexOf(80.4 - 360.0));
+    }
 }
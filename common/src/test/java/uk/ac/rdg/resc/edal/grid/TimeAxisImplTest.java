@@ -159,4 +159,28 @@ public class TimeAxisImplTest {
     public void testSize() {
         assertEquals(numberOfDate + 1, tAxis.size());
     }
+
+    /**
+     * Test that a {@link TimeAxisImpl} created from milliseconds is equivalent
+     * to one created from {@link DateTime}s
+     */
+    @Test
+    public void testMillisAxis() {
+        long[] millis = new long[datetimes.size()];
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = datetimes.get(i).getMillis();
+        }
+        TimeAxisImpl millisAxis = new TimeAxisImpl(tAxisName, millis, chronology);
+        assertEquals(tAxis, millisAxis);
+        assertEquals(tAxis.hashCode(), millisAxis.hashCode());
+        assertEquals(datetimes, millisAxis.getCoordinateValues());
+
+        for (int hours = -30; hours < 24 * (numberOfDate + 2); hours++) {
+            DateTime time = start.plusHours(hours);
+            assertEquals(tAxis.findIndexOf(time), millisAxis.findIndexOf(time.getMillis()));
+        }
+        assertEquals(3, millisAxis.findIndexOf(start.plusDays(3).plusHours(11).getMillis()));
+        assertEquals(4, millisAxis.findIndexOf(start.plusDays(3).plusHours(13).getMillis()));
+        assertEquals(-1, millisAxis.findIndexOf(start.minusHours(1).getMillis()));
+    }
 }
\ No newline at end of file
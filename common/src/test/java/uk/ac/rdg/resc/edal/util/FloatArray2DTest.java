@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2014 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link FloatArray2D}.
+ */
+public class FloatArray2DTest {
+
+    private FloatArray2D data;
+
+    private static final int XSIZE = 5;
+    private static final int YSIZE = 7;
+
+    @Before
+    public void setUp() {
+        data = new FloatArray2D(YSIZE, XSIZE);
+        for (int i = 0; i < YSIZE; i++) {
+            for (int j = 0; j < XSIZE; j++) {
+                data.setFloat(10 * i + j, i, j);
+            }
+        }
+    }
+
+    /**
+     * Test that the bulk accessor has the same ordering as the iterator
+     */
+    @Test
+    public void testGetFloats() {
+        float[] floats = data.getFloats();
+        assertEquals(XSIZE * YSIZE, floats.length);
+        Iterator<Number> iterator = data.iterator();
+        int index = 0;
+        while (iterator.hasNext()) {
+            assertEquals(iterator.next().floatValue(), floats[index++], 1e-6);
+        }
+
+        float[] row = new float[XSIZE + 1];
+        data.getFloats(3, row, 1);
+        for (int j = 0; j < XSIZE; j++) {
+            assertEquals(30 + j, row[j + 1], 1e-6);
+        }
+    }
+
+    /**
+     * Test that missing values are represented as NaN / null
+     */
+    @Test
+    public void testMissingValues() {
+        FloatArray2D empty = new FloatArray2D(2, 2);
+        assertNull(empty.get(1, 1));
+        assertTrue(Float.isNaN(empty.getFloat(1, 1)));
+
+        data.set(null, 2, 3);
+        assertNull(data.get(2, 3));
+        assertTrue(Float.isNaN(data.getFloat(2, 3)));
+
+        data.set(12.5, 2, 3);
+        assertEquals(12.5f, data.get(2, 3));
+        assertEquals(12.5f, data.getFloat(2, 3), 1e-6);
+    }
+
+    /**
+     * Test conversion from a generic {@link Array2D}
+     */
+    @Test
+    public void testFromArray() {
+        assertSame(data, FloatArray2D.fromArray(data));
+
+        ValuesArray2D values = new ValuesArray2D(YSIZE, XSIZE);
+        values.set(4, 1, 2);
+        FloatArray2D converted = FloatArray2D.fromArray(values);
+        assertEquals(4f, converted.getFloat(1, 2), 1e-6);
+        assertNull(converted.get(0, 0));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        data.getFloat(0, XSIZE);
+    }
+}
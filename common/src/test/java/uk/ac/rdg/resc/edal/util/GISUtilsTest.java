@@ -38,13 +38,18 @@ import java.util.List;
 import org.geotoolkit.referencing.crs.DefaultGeographicCRS;
 import org.joda.time.DateTime;
 import org.junit.Test;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.geometry.BoundingBox;
 import uk.ac.rdg.resc.edal.geometry.BoundingBoxImpl;
+import uk.ac.rdg.resc.edal.grid.GridCell2D;
+import uk.ac.rdg.resc.edal.grid.RegularGrid;
+import uk.ac.rdg.resc.edal.grid.RegularGridImpl;
 import uk.ac.rdg.resc.edal.grid.TimeAxis;
 import uk.ac.rdg.resc.edal.grid.TimeAxisImpl;
 import uk.ac.rdg.resc.edal.grid.VerticalAxisImpl;
+import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.position.VerticalCrs;
 import uk.ac.rdg.resc.edal.position.VerticalCrsImpl;
 
@@ -235,4 +240,41 @@ public class GISUtilsTest {
         verticalAxis = new VerticalAxisImpl("z-axis", values, vCrs);
         assertEquals(-5.0, GISUtils.getClosestElevationToSurface(verticalAxis), 1e-8);
     }
+
+    @Test
+    public void testFindIndicesOf() throws EdalException {
+        CoordinateReferenceSystem mercator = GISUtils.getCrs("EPSG:3857");
+        RegularGrid targetGrid = new RegularGridImpl(-2e7, -1.5e7, 2e7, 1.5e7, mercator, 40, 30);
+        RegularGrid sourceGrid = new RegularGridImpl(-180, -90, 180, 90,
+                DefaultGeographicCRS.WGS84, 36, 18);
+
+        double[] coords = GISUtils.getGridCentres(targetGrid);
+        double[] transformed = coords.clone();
+        GISUtils.transformCoordinates(transformed, mercator, DefaultGeographicCRS.WGS84);
+        int[] indices = GISUtils.findIndicesOf(sourceGrid, coords, mercator);
+
+        Array<GridCell2D> cells = targetGrid.getDomainObjects();
+        for (int j = 0; j < targetGrid.getYSize(); j++) {
+            for (int i = 0; i < targetGrid.getXSize(); i++) {
+                int index = 2 * (j * targetGrid.getXSize() + i);
+                HorizontalPosition centre = cells.get(j, i).getCentre();
+                assertEquals(centre.getX(), coords[index], 1e-6);
+                assertEquals(centre.getY(), coords[index + 1], 1e-6);
+
+                HorizontalPosition expected = GISUtils.transformPosition(centre,
+                        DefaultGeographicCRS.WGS84);
+                assertEquals(expected.getX(), transformed[index], 1e-8);
+                assertEquals(expected.getY(), transformed[index + 1], 1e-8);
+
+                GridCoordinates2D expectedIndex = sourceGrid.findIndexOf(centre);
+                if (expectedIndex == null) {
+                    assertEquals(-1, indices[index]);
+                    assertEquals(-1, indices[index + 1]);
+                } else {
+                    assertEquals(expectedIndex.getX(), indices[index]);
+                    assertEquals(expectedIndex.getY(), indices[index + 1]);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link LookUpTable}
+ */
+public class LookUpTableTest {
+    /**
+     * Tests that a {@link LookUpTable} which has been written to disk and read
+     * back gives the same results as the original
+     */
+    @Test
+    public void testWriteAndRead() throws IOException {
+        /*
+         * A grid rotated by 30 degrees
+         */
+        int ni = 50;
+        int nj = 40;
+        Array2D<Number> lons = new ValuesArray2D(nj, ni);
+        Array2D<Number> lats = new ValuesArray2D(nj, ni);
+        double angle = Math.toRadians(30);
+        for (int j = 0; j < nj; j++) {
+            for (int i = 0; i < ni; i++) {
+                lons.set(10.0 + 0.5 * (i * Math.cos(angle) - j * Math.sin(angle)), j, i);
+                lats.set(20.0 + 0.5 * (i * Math.sin(angle) + j * Math.cos(angle)), j, i);
+            }
+        }
+        CurvilinearCoords coords = new CurvilinearCoords(lons, lats);
+        LookUpTable lut = new LookUpTable(coords, 0.1);
+
+        File file = File.createTempFile("edal-lut", ".lut");
+        try {
+            lut.writeTo(file);
+            LookUpTable read = LookUpTable.readFrom(file);
+
+            assertEquals(lut, read);
+            assertEquals(lut.hashCode(), read.hashCode());
+            assertEquals(lut.getNumLonPoints(), read.getNumLonPoints());
+            assertEquals(lut.getNumLatPoints(), read.getNumLatPoints());
+
+            int numFound = 0;
+            for (double lon = -10; lon < 40; lon += 0.23) {
+                for (double lat = 10; lat < 50; lat += 0.17) {
+                    int[] expected = lut.getGridCoordinates(lon, lat);
+                    int[] actual = read.getGridCoordinates(lon, lat);
+                    if (expected == null) {
+                        assertNull(actual);
+                    } else {
+                        assertArrayEquals(expected, actual);
+                        numFound++;
+                    }
+                }
+            }
+            assertTrue(numFound > 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a file which is not a look-up table is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testReadInvalid() throws IOException {
+        File file = File.createTempFile("edal-lut", ".lut");
+        try {
+            LookUpTable.readFrom(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
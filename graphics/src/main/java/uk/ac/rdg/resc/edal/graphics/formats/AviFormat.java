@@ -31,6 +31,7 @@ package uk.ac.rdg.resc.edal.graphics.formats;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.imageio.stream.MemoryCacheImageOutputStream;
@@ -41,6 +42,8 @@ import org.monte.media.VideoFormatKeys;
 import org.monte.media.avi.AVIWriter;
 import org.monte.media.math.Rational;
 
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+
 /**
  * "Image" format for outputting to AVI.  Uses the
  * <a href="http://www.randelshofer.ch/monte/">Monte Media Library</a>
@@ -56,9 +59,22 @@ public class AviFormat extends SimpleFormat {
         if (frames == null || frames.size() == 0) {
             throw new IllegalArgumentException("Cannot create an animation with no images");
         }
+        writeImage(frames.iterator(), out, frameRate);
+    }
+
+    /**
+     * Writes each frame to the AVI as soon as it is available.
+     */
+    @Override
+    public void writeImage(Iterator<BufferedImage> frames, OutputStream out, Integer frameRate)
+            throws IOException {
+        if (!frames.hasNext()) {
+            throw new IllegalArgumentException("Cannot create an animation with no images");
+        }
         try{
-        int width = frames.get(0).getWidth();
-        int height = frames.get(0).getHeight();
+        BufferedImage frame = frames.next();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
         Format format = new Format(VideoFormatKeys.EncodingKey, VideoFormatKeys.ENCODING_AVI_DIB,
                 VideoFormatKeys.DepthKey, 24, VideoFormatKeys.MediaTypeKey, MediaType.VIDEO,
                 VideoFormatKeys.FrameRateKey, new Rational(frameRate), VideoFormatKeys.WidthKey, width,
@@ -66,14 +82,21 @@ public class AviFormat extends SimpleFormat {
 
         AVIWriter writer = new AVIWriter(new MemoryCacheImageOutputStream(out));
         writer.addTrack(format);
-        writer.setPalette(0, frames.get(0).getColorModel());
+        writer.setPalette(0, frame.getColorModel());
         
-        for(BufferedImage frame : frames){
+        writer.write(0, frame, 1);
+        while (frames.hasNext()) {
+            frame = frames.next();
             writer.write(0, frame, 1);
         }
-        writer.write(0, frames.get(frames.size()-1), 1);
+        writer.write(0, frame, 1);
         writer.close();
         
+        } catch (EdalException e) {
+            /*
+             * A frame could not be rendered - let the caller handle this
+             */
+            throw e;
         } catch(Exception e){
             e.printStackTrace();
         }
@@ -34,6 +34,7 @@ import java.awt.image.IndexColorModel;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -52,9 +53,25 @@ public class GifFormat extends SimpleFormat {
     @Override
     public void writeImage(List<BufferedImage> frames, OutputStream out, Integer frameRate)
             throws IOException {
+        writeImage(frames.iterator(), out, frameRate);
+    }
+
+    /**
+     * Writes each frame as soon as it is available. Each frame has its own
+     * colour table, so frames do not need to be examined before they are
+     * written.
+     */
+    @Override
+    public void writeImage(Iterator<BufferedImage> frames, OutputStream out, Integer frameRate)
+            throws IOException {
+        /*
+         * Get the first frame before writing anything, so that if it cannot be
+         * generated nothing has been written to the output stream
+         */
+        BufferedImage frame = frames.hasNext() ? frames.next() : null;
         AnimatedGifEncoder e = new AnimatedGifEncoder();
         e.start(out);
-        if (frames.size() > 1) {
+        if (frame != null && frames.hasNext()) {
             // this is an animated GIF. Set to loop infinitely.
             e.setRepeat(0);
             if (frameRate != null) {
@@ -64,9 +81,9 @@ public class GifFormat extends SimpleFormat {
             }
         }
         boolean sizeSet = false;
-        IndexColorModel icm = getBestColorModel(frames);
-        byte[] rgbPalette = getRGBPalette(icm);
-        for (BufferedImage frame : frames) {
+        while (frame != null) {
+            IndexColorModel icm = getBestColorModel(frame);
+            byte[] rgbPalette = getRGBPalette(icm);
             BufferedImage gifFrame = new BufferedImage(frame.getWidth(), frame.getHeight(),
                     BufferedImage.TYPE_BYTE_INDEXED, icm);
             /*
@@ -89,18 +106,22 @@ public class GifFormat extends SimpleFormat {
             // the image.
             byte[] indices = ((DataBufferByte) gifFrame.getRaster().getDataBuffer()).getData();
             e.addFrame(rgbPalette, indices, icm.getTransparentPixel());
+            /*
+             * Flush so that the client receives each frame as soon as it has
+             * been encoded
+             */
+            out.flush();
+            frame = frames.hasNext() ? frames.next() : null;
         }
         e.finish();
     }
 
-    private static IndexColorModel getBestColorModel(List<BufferedImage> frames) {
+    private static IndexColorModel getBestColorModel(BufferedImage frame) {
         Set<Integer> rgbs = new HashSet<>();
-        for (BufferedImage frame : frames) {
-            for (int i = 0; i < frame.getWidth(); i++) {
-                for (int j = 0; j < frame.getHeight(); j++) {
-                    int rgb = frame.getRGB(i, j);
-                    rgbs.add(rgb);
-                }
+        for (int i = 0; i < frame.getWidth(); i++) {
+            for (int j = 0; j < frame.getHeight(); j++) {
+                int rgb = frame.getRGB(i, j);
+                rgbs.add(rgb);
             }
         }
         if (rgbs.size() < 254) {
@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.graphics.formats;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes {@link BufferedImage}s as PNG images. This is faster than going
+ * through ImageIO, and produces smaller output for the typical case of a map
+ * image with few distinct colours.
+ * 
+ * Images with 256 or fewer distinct colours are written as indexed (palette)
+ * PNGs, with transparency stored in a tRNS chunk. Other images are written as
+ * 8-bit RGB or RGBA, depending on whether they contain any transparency. If
+ * 32-bit output is requested, images are always written as 8-bit RGBA.
+ * 
+ * This class holds no state, so it can be used from multiple threads at once.
+ */
+final class PngEncoder {
+    private static final byte[] PNG_SIGNATURE = new byte[] { (byte) 137, 80, 78, 71, 13, 10, 26,
+            10 };
+
+    private static final byte COLOUR_TYPE_RGB = 2;
+    private static final byte COLOUR_TYPE_INDEXED = 3;
+    private static final byte COLOUR_TYPE_RGBA = 6;
+
+    private static final byte FILTER_NONE = 0;
+    private static final byte FILTER_SUB = 1;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    private PngEncoder() {
+    }
+
+    /**
+     * Writes an image as a PNG
+     * 
+     * @param image
+     *            The image to write
+     * @param out
+     *            The {@link OutputStream} to write to. This is not closed
+     * @param compressionLevel
+     *            The deflate compression level, from 0 (none) to 9 (best), or
+     *            {@link Deflater#DEFAULT_COMPRESSION}
+     * @param force32Bit
+     *            <code>true</code> to always write a 32-bit RGBA image,
+     *            <code>false</code> to choose the most compact colour type
+     * @throws IOException
+     *             If there is a problem writing to the {@link OutputStream}
+     */
+    static void write(BufferedImage image, OutputStream out, int compressionLevel,
+            boolean force32Bit) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+
+        /*
+         * All fully-transparent pixels look the same, so we treat them as the
+         * same colour. This keeps the palette small and compresses better.
+         */
+        boolean hasAlpha = false;
+        for (int i = 0; i < argb.length; i++) {
+            int alpha = argb[i] >>> 24;
+            if (alpha == 0) {
+                argb[i] = 0;
+            }
+            if (alpha != 0xff) {
+                hasAlpha = true;
+            }
+        }
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.write(PNG_SIGNATURE);
+
+        int[] palette = force32Bit ? null : buildPalette(argb);
+        byte[] rawData;
+        byte colourType;
+        if (palette != null) {
+            colourType = COLOUR_TYPE_INDEXED;
+            rawData = getIndexedData(argb, width, height, palette);
+        } else if (hasAlpha || force32Bit) {
+            colourType = COLOUR_TYPE_RGBA;
+            rawData = getTrueColourData(argb, width, height, true);
+        } else {
+            colourType = COLOUR_TYPE_RGB;
+            rawData = getTrueColourData(argb, width, height, false);
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        /* Bit depth */
+        headerOut.writeByte(8);
+        headerOut.writeByte(colourType);
+        /* Compression, filter and interlace methods */
+        headerOut.writeByte(0);
+        headerOut.writeByte(0);
+        headerOut.writeByte(0);
+        writeChunk(dataOut, "IHDR", header.toByteArray());
+
+        if (palette != null) {
+            byte[] plte = new byte[palette.length * 3];
+            byte[] trns = new byte[palette.length];
+            int numTransparent = 0;
+            for (int i = 0; i < palette.length; i++) {
+                plte[3 * i] = (byte) (palette[i] >> 16);
+                plte[3 * i + 1] = (byte) (palette[i] >> 8);
+                plte[3 * i + 2] = (byte) palette[i];
+                trns[i] = (byte) (palette[i] >>> 24);
+                if ((palette[i] >>> 24) != 0xff) {
+                    numTransparent = i + 1;
+                }
+            }
+            writeChunk(dataOut, "PLTE", plte);
+            if (numTransparent > 0) {
+                /*
+                 * Entries after the last transparent one default to opaque, so
+                 * they can be omitted
+                 */
+                writeChunk(dataOut, "tRNS", Arrays.copyOf(trns, numTransparent));
+            }
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawData.length / 4 + 64);
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(compressed, deflater,
+                    8192);
+            deflaterOut.write(rawData);
+            deflaterOut.finish();
+            writeChunk(dataOut, "IDAT", compressed.toByteArray());
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(dataOut, "IEND", new byte[0]);
+        dataOut.flush();
+    }
+
+    /**
+     * Finds the distinct colours in an image
+     * 
+     * @return The distinct colours, sorted so that transparent colours come
+     *         first, or <code>null</code> if there are more than
+     *         {@link #MAX_PALETTE_SIZE}
+     */
+    private static int[] buildPalette(int[] argb) {
+        ColourIndex index = new ColourIndex();
+        int lastColour = 0;
+        boolean first = true;
+        for (int colour : argb) {
+            if (first || colour != lastColour) {
+                if (index.add(colour) && index.size > MAX_PALETTE_SIZE) {
+                    return null;
+                }
+                lastColour = colour;
+                first = false;
+            }
+        }
+        int[] palette = Arrays.copyOf(index.colours, index.size);
+        /*
+         * Put transparent entries first, so that the tRNS chunk is as short as
+         * possible
+         */
+        int[] sorted = new int[palette.length];
+        int n = 0;
+        for (int colour : palette) {
+            if ((colour >>> 24) != 0xff) {
+                sorted[n++] = colour;
+            }
+        }
+        for (int colour : palette) {
+            if ((colour >>> 24) == 0xff) {
+                sorted[n++] = colour;
+            }
+        }
+        return sorted;
+    }
+
+    private static byte[] getIndexedData(int[] argb, int width, int height, int[] palette) {
+        ColourIndex index = new ColourIndex();
+        for (int colour : palette) {
+            index.add(colour);
+        }
+        byte[] data = new byte[height * (width + 1)];
+        int pos = 0;
+        int lastColour = 0;
+        int lastIndex = -1;
+        for (int j = 0; j < height; j++) {
+            data[pos++] = FILTER_NONE;
+            int rowStart = j * width;
+            for (int i = 0; i < width; i++) {
+                int colour = argb[rowStart + i];
+                if (lastIndex < 0 || colour != lastColour) {
+                    lastIndex = index.indexOf(colour);
+                    lastColour = colour;
+                }
+                data[pos++] = (byte) lastIndex;
+            }
+        }
+        return data;
+    }
+
+    private static byte[] getTrueColourData(int[] argb, int width, int height, boolean withAlpha) {
+        int bytesPerPixel = withAlpha ? 4 : 3;
+        int rowLength = width * bytesPerPixel + 1;
+        byte[] data = new byte[height * rowLength];
+        for (int j = 0; j < height; j++) {
+            int rowPos = j * rowLength;
+            /*
+             * We use the "sub" filter, which stores the difference from the
+             * previous pixel. This is cheap and works well for map images,
+             * which have large areas of similar colours.
+             */
+            data[rowPos] = FILTER_SUB;
+            int prev = 0;
+            int pos = rowPos + 1;
+            int rowStart = j * width;
+            for (int i = 0; i < width; i++) {
+                int colour = argb[rowStart + i];
+                data[pos++] = (byte) ((colour >> 16) - (prev >> 16));
+                data[pos++] = (byte) ((colour >> 8) - (prev >> 8));
+                data[pos++] = (byte) (colour - prev);
+                if (withAlpha) {
+                    data[pos++] = (byte) ((colour >>> 24) - (prev >>> 24));
+                }
+                prev = colour;
+            }
+        }
+        return data;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data)
+            throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * A simple open-addressing hash map from ARGB colours to their index in
+     * the order they were added
+     */
+    private static final class ColourIndex {
+        private static final int TABLE_SIZE = 1024;
+        private final int[] keys = new int[TABLE_SIZE];
+        private final short[] values = new short[TABLE_SIZE];
+        private final int[] colours = new int[MAX_PALETTE_SIZE + 1];
+        private int size = 0;
+
+        private ColourIndex() {
+            Arrays.fill(values, (short) -1);
+        }
+
+        /**
+         * @return <code>true</code> if the colour was not already present
+         */
+        private boolean add(int colour) {
+            int slot = findSlot(colour);
+            if (values[slot] >= 0) {
+                return false;
+            }
+            keys[slot] = colour;
+            values[slot] = (short) size;
+            colours[size++] = colour;
+            return true;
+        }
+
+        private int indexOf(int colour) {
+            return values[findSlot(colour)];
+        }
+
+        private int findSlot(int colour) {
+            int slot = (colour * 0x9E3779B9) >>> 22;
+            while (values[slot] >= 0 && keys[slot] != colour) {
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            return slot;
+        }
+    }
+}
@@ -31,17 +31,19 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
-
-import javax.imageio.ImageIO;
+import java.util.zip.Deflater;
 
 /**
- * Writes PNG images using the ImageIO class. Only one instance of this class
- * will ever be created, so this class contains no member variables to ensure
- * thread safety.
+ * Writes PNG images using a {@link PngEncoder}. Images with 256 or fewer
+ * colours are written as indexed PNGs. Only one instance of this class will
+ * ever be created, so this class contains no member variables to ensure thread
+ * safety.
  * 
  * @author Jon Blower
  */
 public class PngFormat extends SimpleFormat {
+    private static volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
     /**
      * Protected default constructor to prevent direct instantiation.
      */
@@ -69,12 +71,35 @@ public class PngFormat extends SimpleFormat {
     }
 
     @Override
-    public synchronized void writeImage(List<BufferedImage> frames, OutputStream out, Integer frameRate) throws IOException {
+    public void writeImage(List<BufferedImage> frames, OutputStream out, Integer frameRate) throws IOException {
         if (frames.size() > 1) {
             throw new IllegalArgumentException("Cannot render animations in PNG format");
         }
         if(frames.size() > 0){
-            ImageIO.write(frames.get(0), "png", out);
+            PngEncoder.write(frames.get(0), out, compressionLevel, writeAs32Bit());
+        }
+    }
+
+    /**
+     * @return <code>true</code> if images should always be written as 32-bit
+     *         (RGBA) PNGs, <code>false</code> to allow indexed PNGs
+     */
+    protected boolean writeAs32Bit() {
+        return false;
+    }
+
+    /**
+     * Sets the deflate compression level used for all PNG images. Lower levels
+     * are faster to encode but produce larger images.
+     * 
+     * @param level
+     *            The compression level, from 0 (no compression) to 9 (best
+     *            compression), or -1 for the default level
+     */
+    public static void setCompressionLevel(int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("PNG compression level must be between 0 and 9");
         }
+        compressionLevel = level;
     }
 }
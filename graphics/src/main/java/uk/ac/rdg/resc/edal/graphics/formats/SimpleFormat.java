@@ -30,6 +30,8 @@ package uk.ac.rdg.resc.edal.graphics.formats;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -81,4 +83,38 @@ public abstract class SimpleFormat extends ImageFormat {
      */
     public abstract void writeImage(List<BufferedImage> frames, OutputStream out, Integer frameRate)
             throws IOException;
+
+    /**
+     * Writes a sequence of {@link java.awt.BufferedImage}s to the given
+     * OutputStream. This is used for animations, where the frames may be
+     * rendered as they are requested from the {@link Iterator}.
+     * 
+     * This default implementation collects all of the frames into a
+     * {@link List} and calls
+     * {@link SimpleFormat#writeImage(List, OutputStream, Integer)}. Formats
+     * which support animations should override this to write each frame as
+     * soon as it is available, so that the whole animation is never held in
+     * memory.
+     * 
+     * @param frames
+     *            An {@link Iterator} over the BufferedImages to render into an
+     *            image
+     * @param out
+     *            The OutputStream to which the image will be written
+     * @param frameRate
+     *            The frame rate to use if this is an animation.
+     * @throws IOException
+     *             if there was an error writing to the output stream
+     * @throws IllegalArgumentException
+     *             if this ImageFormat cannot render all of the given
+     *             BufferedImages.
+     */
+    public void writeImage(Iterator<BufferedImage> frames, OutputStream out, Integer frameRate)
+            throws IOException {
+        List<BufferedImage> frameList = new ArrayList<>();
+        while (frames.hasNext()) {
+            frameList.add(frames.next());
+        }
+        writeImage(frameList, out, frameRate);
+    }
 }
@@ -102,20 +102,24 @@ public abstract class ColourScheme {
         float newLow = getScaleMin() - range * fracOutOfRangeLow;
         float newHigh = getScaleMax() + range * fracOutOfRangeHigh;
         range = newHigh - newLow;
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                float frac;
-                if (vertical) {
-                    frac = ((float) j) / height;
-                } else {
-                    frac = ((float) i) / width;
-                }
-
-                frac = newLow + frac * range;
+        /*
+         * The colour only varies along one axis, so we calculate the colours
+         * along that axis and then copy them into the image
+         */
+        float[] values = new float[componentSize];
+        for (int k = 0; k < componentSize; k++) {
+            values[k] = newLow + (((float) k) / componentSize) * range;
+        }
+        int[] colours = new int[componentSize];
+        getArgbColours(values, colours);
 
-                scaleBar.setRGB(i, height - j - 1, getColor(frac).getRGB());
+        int[] pixels = new int[width * height];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                pixels[(height - j - 1) * width + i] = vertical ? colours[j] : colours[i];
             }
         }
+        scaleBar.setRGB(0, 0, width, height, pixels, 0, width);
 
         BufferedImage finalImage;
         if (legendLabels == null) {
@@ -156,6 +160,41 @@ public abstract class ColourScheme {
      */
     public abstract Color getColor(Number value);
 
+    /**
+     * Returns the colour associated with the given primitive value. Subclasses
+     * should override this to avoid boxing the value when plotting large
+     * numbers of values.
+     * 
+     * @param value
+     *            The value to get a colour for. {@link Float#NaN} represents
+     *            missing data
+     * @return The {@link Color} according to this {@link ColourScheme}
+     */
+    public Color getColor(float value) {
+        return getColor(Float.isNaN(value) ? null : Float.valueOf(value));
+    }
+
+    /**
+     * Converts an array of values into colours, packed as ARGB integers (as
+     * returned by {@link Color#getRGB()}). The result is suitable for passing
+     * directly to {@link BufferedImage#setRGB(int, int, int, int, int[], int, int)}.
+     * 
+     * Subclasses should override this with an implementation which does not
+     * create any objects, since it is called for every pixel of every image.
+     * 
+     * @param values
+     *            The values to get colours for. {@link Float#NaN} represents
+     *            missing data
+     * @param argb
+     *            The array to write the colours into. This must be at least as
+     *            long as <code>values</code>
+     */
+    public void getArgbColours(float[] values, int[] argb) {
+        for (int i = 0; i < values.length; i++) {
+            argb[i] = getColor(values[i]).getRGB();
+        }
+    }
+
     /**
      * @return The minimum value of this colour scale
      */
@@ -34,7 +34,43 @@ public abstract class ColourScheme2D {
     protected ColourScheme2D() { }
     
     public abstract Color getColor(Number xValue, Number yValue);
+
+    /**
+     * Returns the colour associated with the given primitive values.
+     * Subclasses should override this to avoid boxing the values when plotting
+     * large numbers of values.
+     * 
+     * @param xValue
+     *            The x-value. {@link Float#NaN} represents missing data
+     * @param yValue
+     *            The y-value. {@link Float#NaN} represents missing data
+     * @return The {@link Color} associated with the values
+     */
+    public Color getColor(float xValue, float yValue) {
+        return getColor(Float.isNaN(xValue) ? null : Float.valueOf(xValue),
+                Float.isNaN(yValue) ? null : Float.valueOf(yValue));
+    }
     
+    /**
+     * Converts arrays of x- and y-values into colours, packed as ARGB integers
+     * (as returned by {@link Color#getRGB()}). Subclasses should override this
+     * with an implementation which does not create any objects.
+     * 
+     * @param xValues
+     *            The x-values. {@link Float#NaN} represents missing data
+     * @param yValues
+     *            The y-values, the same length as <code>xValues</code>.
+     *            {@link Float#NaN} represents missing data
+     * @param argb
+     *            The array to write the colours into. This must be at least as
+     *            long as <code>xValues</code>
+     */
+    public void getArgbColours(float[] xValues, float[] yValues, int[] argb) {
+        for (int i = 0; i < xValues.length; i++) {
+            argb[i] = getColor(xValues[i], yValues[i]).getRGB();
+        }
+    }
+
     public abstract Float getScaleMin(int dimension);
     
     public abstract Float getScaleMax(int dimension);
@@ -47,6 +47,7 @@ import uk.ac.rdg.resc.edal.grid.GridCell2D;
 import uk.ac.rdg.resc.edal.position.HorizontalPosition;
 import uk.ac.rdg.resc.edal.util.Array;
 import uk.ac.rdg.resc.edal.util.Array2D;
+import uk.ac.rdg.resc.edal.util.FloatArray2D;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
 /**
@@ -131,6 +132,36 @@ public abstract class GriddedImageLayer extends ImageLayer {
             };
         };
 
+        /**
+         * Gets the data for a layer as an array of primitive values, in the
+         * same order as the pixels of a {@link BufferedImage} (i.e. with the
+         * x-dimension varying fastest and the y-axis increasing downwards).
+         * This avoids boxing every value, so should be used in preference to
+         * {@link #getDataForLayerName(String)} when every value is needed.
+         * 
+         * @param layerId
+         *            The ID of the layer to read data for
+         * @return The values of the layer, with {@link Float#NaN} representing
+         *         missing data
+         * @throws EdalException
+         *             If there is a problem reading the data
+         */
+        public float[] getFloatDataForLayerName(String layerId) throws EdalException {
+            MapFeature mapFeature = getFeature(layerId);
+            FloatArray2D values = mapFeature.getFloatValues(getVariableName(layerId));
+            int xSize = values.getXSize();
+            int ySize = values.getYSize();
+            float[] ret = new float[xSize * ySize];
+            /*
+             * Since BufferedImages have the y-axis increasing downwards, copy
+             * the rows in reverse order
+             */
+            for (int j = 0; j < ySize; j++) {
+                values.getFloats(params.getHeight() - j - 1, ret, j * xSize);
+            }
+            return ret;
+        }
+
         public Array2D<HorizontalPosition> getMapDomainObjects(String layerId) throws EdalException {
             MapFeature mapFeature = getFeature(layerId);
             final Array<GridCell2D> domainObjects = mapFeature.getDomain().getDomainObjects();
@@ -38,39 +38,146 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.graphics.style.util.FeatureCatalogue;
 import uk.ac.rdg.resc.edal.graphics.style.util.LegendDataGenerator;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
 public class MapImage extends Drawable {
+    private static final Logger log = LoggerFactory.getLogger(MapImage.class);
+
+    /*
+     * Extracting data for a layer is generally I/O bound, so we allow more
+     * threads than there are processors
+     */
+    private static final int NUM_LAYER_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService layerRenderingPool = Executors.newFixedThreadPool(
+            NUM_LAYER_THREADS, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "layer-renderer-"
+                            + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    /*
+     * Set on threads which are rendering a layer, so that any nested MapImages
+     * are rendered sequentially rather than waiting on the (bounded) pool
+     * which they are running in
+     */
+    private static final ThreadLocal<Boolean> renderingLayer = new ThreadLocal<Boolean>();
+    private static volatile boolean parallelLayerRendering = true;
+
+    private static final ConcurrentMap<String, LayerTiming> layerTimings = new ConcurrentHashMap<>();
+
     private List<Drawable> layers = new ArrayList<Drawable>();
 
     public List<Drawable> getLayers() {
         return layers;
     }
 
+    /**
+     * Sets whether the layers of a {@link MapImage} should be rendered
+     * concurrently. If so, each layer is extracted and drawn on a shared
+     * thread pool, and the results are composited in order once they are all
+     * complete.
+     * 
+     * @param parallel
+     *            <code>true</code> to render layers concurrently
+     */
+    public static void setParallelLayerRendering(boolean parallel) {
+        parallelLayerRendering = parallel;
+    }
+
+    /**
+     * @return The time taken to render each type of layer, keyed by the name
+     *         of the {@link Drawable} class, in alphabetical order
+     */
+    public static Map<String, LayerTiming> getLayerTimings() {
+        return Collections.unmodifiableMap(new TreeMap<>(layerTimings));
+    }
+
     @Override
-    public BufferedImage drawImage(PlottingDomainParams params, FeatureCatalogue catalogue)
-            throws EdalException {
+    public BufferedImage drawImage(final PlottingDomainParams params,
+            final FeatureCatalogue catalogue) throws EdalException {
         BufferedImage finalImage = new BufferedImage(params.getWidth(), params.getHeight(),
                 BufferedImage.TYPE_INT_ARGB);
         Graphics2D graphics = finalImage.createGraphics();
 
+        List<Drawable> toDraw = new ArrayList<>();
         for (Drawable drawable : layers) {
             if (drawable != null) {
-                BufferedImage drawnImage = drawable.drawImage(params, catalogue);
-                OpacityTransform opacityTransform = drawable.getOpacityTransform();
-                if (opacityTransform != null) {
-                    opacityTransform.drawIntoImage(drawnImage, params, catalogue);
+                toDraw.add(drawable);
+            }
+        }
+
+        if (!parallelLayerRendering || toDraw.size() < 2
+                || Boolean.TRUE.equals(renderingLayer.get())) {
+            for (Drawable drawable : toDraw) {
+                graphics.drawImage(drawLayer(drawable, params, catalogue), 0, 0, null);
+            }
+        } else {
+            /*
+             * Render all but the first layer on the pool, and the first on this
+             * thread. Then composite them in order.
+             */
+            List<Future<BufferedImage>> layerImages = new ArrayList<>();
+            try {
+                for (final Drawable drawable : toDraw.subList(1, toDraw.size())) {
+                    layerImages.add(layerRenderingPool.submit(new Callable<BufferedImage>() {
+                        @Override
+                        public BufferedImage call() throws Exception {
+                            renderingLayer.set(true);
+                            try {
+                                return drawLayer(drawable, params, catalogue);
+                            } finally {
+                                renderingLayer.remove();
+                            }
+                        }
+                    }));
+                }
+                graphics.drawImage(drawLayer(toDraw.get(0), params, catalogue), 0, 0, null);
+                for (Future<BufferedImage> layerImage : layerImages) {
+                    graphics.drawImage(layerImage.get(), 0, 0, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EdalException("Interrupted whilst rendering image", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof EdalException) {
+                    throw (EdalException) cause;
+                }
+                throw new EdalException("Problem rendering layer", cause);
+            } finally {
+                for (Future<BufferedImage> layerImage : layerImages) {
+                    layerImage.cancel(true);
                 }
-                graphics.drawImage(drawnImage, 0, 0, null);
             }
         }
         if (getOpacityTransform() != null) {
@@ -79,6 +186,79 @@ public class MapImage extends Drawable {
         return finalImage;
     }
 
+    /**
+     * Draws a single layer, applying its opacity transform, and records the
+     * time taken
+     */
+    private static BufferedImage drawLayer(Drawable drawable, PlottingDomainParams params,
+            FeatureCatalogue catalogue) {
+        long start = System.nanoTime();
+        BufferedImage drawnImage = drawable.drawImage(params, catalogue);
+        OpacityTransform opacityTransform = drawable.getOpacityTransform();
+        if (opacityTransform != null) {
+            opacityTransform.drawIntoImage(drawnImage, params, catalogue);
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+
+        String layerType = drawable.getClass().getSimpleName();
+        LayerTiming timing = layerTimings.get(layerType);
+        if (timing == null) {
+            layerTimings.putIfAbsent(layerType, new LayerTiming());
+            timing = layerTimings.get(layerType);
+        }
+        timing.record(millis);
+        if (log.isDebugEnabled()) {
+            log.debug("Rendered " + layerType + " in " + millis + "ms");
+        }
+        return drawnImage;
+    }
+
+    /**
+     * Accumulates the time taken to render a type of layer
+     */
+    public static class LayerTiming {
+        private final AtomicLong count = new AtomicLong(0);
+        private final AtomicLong totalMillis = new AtomicLong(0);
+        private final AtomicLong maxMillis = new AtomicLong(0);
+
+        private void record(long millis) {
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            long max;
+            while ((max = maxMillis.get()) < millis && !maxMillis.compareAndSet(max, millis)) {
+            }
+        }
+
+        /**
+         * @return The number of times this type of layer has been rendered
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return The total time spent rendering this type of layer, in ms
+         */
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        /**
+         * @return The mean time taken to render this type of layer, in ms
+         */
+        public long getMeanMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalMillis.get() / n;
+        }
+
+        /**
+         * @return The longest time taken to render this type of layer, in ms
+         */
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+    }
+
     /**
      * Generate a legend for this {@link MapImage}.
      * 
@@ -29,12 +29,10 @@
 package uk.ac.rdg.resc.edal.graphics.style;
 
 import java.awt.image.BufferedImage;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
-import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.Extents;
 
 public class Raster2DLayer extends GriddedImageLayer {
@@ -54,21 +52,14 @@ public class Raster2DLayer extends GriddedImageLayer {
         /*
          * Read fields into arrays
          */
-        Array2D<Number> xValues = dataReader.getDataForLayerName(xDataFieldName);
-        Array2D<Number> yValues = dataReader.getDataForLayerName(yDataFieldName);
+        float[] xValues = dataReader.getFloatDataForLayerName(xDataFieldName);
+        float[] yValues = dataReader.getFloatDataForLayerName(yDataFieldName);
         
-        Iterator<Number> xIterator = xValues.iterator();
-        Iterator<Number> yIterator = yValues.iterator();
-        int index = 0;
         int[] pixels = new int[image.getWidth() * image.getHeight()];
         /*
-         * Could have done check on either iterator - they should be the same size
-         * 
          * Get the colours from the 2 values and set the pixel colour
          */
-        while(xIterator.hasNext()) {
-            pixels[index++] = colourScheme.getColor(xIterator.next(), yIterator.next()).getRGB();
-        }
+        colourScheme.getArgbColours(xValues, yValues, pixels);
         image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
     }
 
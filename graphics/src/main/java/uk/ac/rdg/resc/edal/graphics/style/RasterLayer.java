@@ -33,7 +33,6 @@ import java.util.HashSet;
 import java.util.Set;
 
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
-import uk.ac.rdg.resc.edal.util.Array2D;
 import uk.ac.rdg.resc.edal.util.Extents;
 
 public class RasterLayer extends GriddedImageLayer {
@@ -66,19 +65,13 @@ public class RasterLayer extends GriddedImageLayer {
         int[] pixels = new int[image.getWidth() * image.getHeight()];
 
         /*
-         * Extract the data from the catalogue
+         * Extract the data from the catalogue. The values have the x-dimension
+         * varying fastest, which is the same convention as expected for the
+         * colour-values array in image.setRGB below
          */
-        Array2D<Number> values = dataReader.getDataForLayerName(dataFieldName);
+        float[] values = dataReader.getFloatDataForLayerName(dataFieldName);
 
-        /*
-         * The iterator iterates over the x-dimension first, which is the same
-         * convention as expected for the colour-values array in image.setRGB
-         * below
-         */
-        int index = 0;
-        for (Number value : values) {
-            pixels[index++] = colourScheme.getColor(value).getRGB();
-        }
+        colourScheme.getArgbColours(values, pixels);
         image.setRGB(0, 0, image.getWidth(), image.getHeight(), pixels, 0, image.getWidth());
     }
 
@@ -95,4 +95,33 @@ public class ScaleRange {
             return ((input.floatValue() - scaleMin) / (scaleMax - scaleMin));
         }
     }
+
+    /**
+     * Scales an input number to the range 0-1, without boxing. Equivalent to
+     * {@link #scaleZeroToOne(Number)}, but with {@link Float#NaN} representing
+     * missing data.
+     * 
+     * @param input
+     *            The input number
+     * @return A number from 0-1 if in range, a number outside 0-1 if
+     *         out-of-range, and {@link Float#NaN} if the input is NaN
+     */
+    public float scaleZeroToOne(float input) {
+        if (Float.isNaN(input)) {
+            return Float.NaN;
+        }
+
+        if (logarithmic) {
+            if (scaleMin <= 0.0 || scaleMax <= 0.0) {
+                throw new IllegalArgumentException("Cannot log-scale zero/negative numbers");
+            }
+            if (input <= 0.0f) {
+                return -1f;
+            }
+            return (float) ((Math.log(input) - Math.log(scaleMin)) / (Math.log(scaleMax) - Math
+                    .log(scaleMin)));
+        } else {
+            return ((input - scaleMin) / (scaleMax - scaleMin));
+        }
+    }
 }
@@ -56,6 +56,50 @@ public class SegmentColourScheme extends ColourScheme {
 
     private ColourPalette palette = null;
 
+    /*
+     * A lookup table for converting values to packed ARGB colours, created when
+     * first needed
+     */
+    private volatile ColourLookup lookup = null;
+
+    /**
+     * The colours of a {@link SegmentColourScheme} and the parameters needed
+     * to choose between them, held as primitives
+     */
+    private static final class ColourLookup {
+        private final int[] bands;
+        private final int belowMin;
+        private final int aboveMax;
+        private final int noData;
+        private final float scaleMin;
+        private final float scaleMax;
+        private final boolean logarithmic;
+        private final double logMin;
+        private final double logRange;
+
+        private ColourLookup(ColourPalette palette, ScaleRange scaleRange, Color belowMinColour,
+                Color aboveMaxColour, Color noDataColour) {
+            bands = palette.getArgbColours();
+            belowMin = belowMinColour == null ? bands[0] : belowMinColour.getRGB();
+            aboveMax = aboveMaxColour == null ? bands[bands.length - 1] : aboveMaxColour
+                    .getRGB();
+            noData = noDataColour.getRGB();
+            scaleMin = scaleRange.getScaleMin();
+            scaleMax = scaleRange.getScaleMax();
+            logarithmic = scaleRange.isLogarithmic();
+            if (logarithmic) {
+                if (scaleMin <= 0.0 || scaleMax <= 0.0) {
+                    throw new IllegalArgumentException("Cannot log-scale zero/negative numbers");
+                }
+                logMin = Math.log(scaleMin);
+                logRange = Math.log(scaleMax) - logMin;
+            } else {
+                logMin = 0.0;
+                logRange = 0.0;
+            }
+        }
+    }
+
     public SegmentColourScheme(ScaleRange scaleRange, Color belowMinColour, Color aboveMaxColour,
             Color noDataColour, Color[] palette, Integer nColourBands) {
         super();
@@ -84,14 +128,21 @@ public class SegmentColourScheme extends ColourScheme {
 
     @Override
     public Color getColor(Number value) {
-        Float zeroToOne = scaleRange.scaleZeroToOne(value);
+        if (value == null) {
+            return noDataColour;
+        }
+        return getColor(value.floatValue());
+    }
+
+    @Override
+    public Color getColor(float value) {
+        float val = scaleRange.scaleZeroToOne(value);
         if (palette == null) {
             palette = ColourPalette.fromString(paletteString, nColourBands);
         }
-        if (zeroToOne == null || Float.isNaN(zeroToOne.floatValue())) {
+        if (Float.isNaN(val)) {
             return noDataColour;
         }
-        float val = zeroToOne.floatValue();
         if (val < 0.0) {
             if (belowMinColour == null) {
                 return palette.getColor(0f);
@@ -107,6 +158,59 @@ public class SegmentColourScheme extends ColourScheme {
         return palette.getColor(val);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * This gives the same colours as {@link #getColor(float)}, but uses a
+     * precomputed lookup table and creates no objects.
+     */
+    @Override
+    public void getArgbColours(float[] values, int[] argb) {
+        ColourLookup lut = getLookup();
+        int[] bands = lut.bands;
+        int nBands = bands.length;
+        for (int i = 0; i < values.length; i++) {
+            float value = values[i];
+            if (Float.isNaN(value)) {
+                argb[i] = lut.noData;
+                continue;
+            }
+            float frac;
+            if (lut.logarithmic) {
+                frac = value <= 0.0f ? -1f
+                        : (float) ((Math.log(value) - lut.logMin) / lut.logRange);
+            } else {
+                frac = (value - lut.scaleMin) / (lut.scaleMax - lut.scaleMin);
+            }
+            if (Float.isNaN(frac)) {
+                argb[i] = lut.noData;
+            } else if (frac < 0.0f) {
+                argb[i] = lut.belowMin;
+            } else if (frac > 1.0f) {
+                argb[i] = lut.aboveMax;
+            } else {
+                int band = (int) (frac * nBands);
+                if (band == nBands) {
+                    band--;
+                }
+                argb[i] = bands[band];
+            }
+        }
+    }
+
+    private ColourLookup getLookup() {
+        ColourLookup lut = lookup;
+        if (lut == null) {
+            if (palette == null) {
+                palette = ColourPalette.fromString(paletteString, nColourBands);
+            }
+            lut = new ColourLookup(palette, scaleRange, belowMinColour, aboveMaxColour,
+                    noDataColour);
+            lookup = lut;
+        }
+        return lut;
+    }
+
     @Override
     public Float getScaleMin() {
         return scaleRange.getScaleMin();
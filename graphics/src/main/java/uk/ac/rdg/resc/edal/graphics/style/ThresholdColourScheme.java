@@ -44,6 +44,13 @@ public class ThresholdColourScheme extends ColourScheme {
     private List<Color> colours;
     
     private Color noDataColour = new Color(0f, 0f, 0f, 0f);
+
+    /*
+     * The thresholds and colours (in the same order as the lists), for
+     * converting values to packed ARGB colours without creating objects
+     */
+    private final float[] thresholdValues;
+    private final int[] argbColours;
     
     public ThresholdColourScheme(List<Float> thresholds, List<Color> colours, Color noDataColour) {
         super();
@@ -51,11 +58,28 @@ public class ThresholdColourScheme extends ColourScheme {
         this.thresholds = thresholds;
         this.colours = colours;
         initialiseColours();
+
+        thresholdValues = new float[thresholds.size()];
+        for (int i = 0; i < thresholdValues.length; i++) {
+            thresholdValues[i] = thresholds.get(i);
+        }
+        argbColours = new int[colours.size()];
+        for (int i = 0; i < argbColours.length; i++) {
+            argbColours[i] = colours.get(i).getRGB();
+        }
     }
 
     @Override
     public Color getColor(Number value) {
-        if(value == null || Float.isNaN(value.floatValue())) {
+        if(value == null) {
+            return noDataColour;
+        }
+        return getColor(value.floatValue());
+    }
+
+    @Override
+    public Color getColor(float value) {
+        if(Float.isNaN(value)) {
             return noDataColour;
         }
         /*
@@ -64,7 +88,7 @@ public class ThresholdColourScheme extends ColourScheme {
         Iterator<Color> colourIterator = colours.iterator();
 		Color colour = colourIterator.next();
         for(Float band : thresholds) {
-            if(value.floatValue() > band) {
+            if(value > band) {
                 return colour;
             }
             colour = colourIterator.next();
@@ -72,6 +96,26 @@ public class ThresholdColourScheme extends ColourScheme {
         return colour;
     }
     
+    @Override
+    public void getArgbColours(float[] values, int[] argb) {
+        int noData = noDataColour.getRGB();
+        for (int i = 0; i < values.length; i++) {
+            float value = values[i];
+            if (Float.isNaN(value)) {
+                argb[i] = noData;
+                continue;
+            }
+            /*
+             * As in getColor(), the thresholds are in descending order
+             */
+            int band = 0;
+            while (band < thresholdValues.length && !(value > thresholdValues[band])) {
+                band++;
+            }
+            argb[i] = argbColours[band];
+        }
+    }
+
     private void initialiseColours() {
         if(thresholds == null || thresholds.size() < 1) {
             throw new IllegalArgumentException("Threshold values must not be null and must have at least one value");
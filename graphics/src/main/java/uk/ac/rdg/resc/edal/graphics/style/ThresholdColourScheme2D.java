@@ -44,6 +44,14 @@ public class ThresholdColourScheme2D extends ColourScheme2D {
     private List<Float> yThresholds;
     private List<Color> colours;
 
+    /*
+     * The thresholds and colours (in the same order as the lists), for
+     * converting values to packed ARGB colours without creating objects
+     */
+    private final float[] xThresholdValues;
+    private final float[] yThresholdValues;
+    private final int[] argbColours;
+
     public ThresholdColourScheme2D(List<Float> xThresholds, List<Float> yThresholds,
     		List<Color> colours, Color noDataColour) {
         super();
@@ -52,12 +60,34 @@ public class ThresholdColourScheme2D extends ColourScheme2D {
         this.yThresholds = yThresholds;
         this.colours = colours;
         initialiseColours();
+
+        xThresholdValues = toFloatArray(xThresholds);
+        yThresholdValues = toFloatArray(yThresholds);
+        argbColours = new int[colours.size()];
+        for (int i = 0; i < argbColours.length; i++) {
+            argbColours[i] = colours.get(i).getRGB();
+        }
+    }
+
+    private static float[] toFloatArray(List<Float> values) {
+        float[] ret = new float[values.size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = values.get(i);
+        }
+        return ret;
     }
     
 	@Override
 	public Color getColor(Number xValue, Number yValue) {
-		if(xValue == null || Float.isNaN(xValue.floatValue())
-				|| yValue == null || Float.isNaN(yValue.floatValue())) {
+		if(xValue == null || yValue == null) {
+            return noDataColour;
+        }
+		return getColor(xValue.floatValue(), yValue.floatValue());
+	}
+
+	@Override
+	public Color getColor(float xValue, float yValue) {
+		if(Float.isNaN(xValue) || Float.isNaN(yValue)) {
             return noDataColour;
         }
         /*
@@ -67,18 +97,18 @@ public class ThresholdColourScheme2D extends ColourScheme2D {
 		Color colour = colourIterator.next();
         for(Float yBand: yThresholds) {
         	for(Float xBand: xThresholds) {
-        		if(yValue.floatValue() > yBand && xValue.floatValue() > xBand) {
+        		if(yValue > yBand && xValue > xBand) {
         			return colour;
         		}
         		colour = colourIterator.next();
         	}
-        	if(yValue.floatValue() > yBand) {
+        	if(yValue > yBand) {
     			return colour;
         	}
         	colour = colourIterator.next();
         }
         for(Float xBand: xThresholds) {
-    		if(xValue.floatValue() > xBand) {
+    		if(xValue > xBand) {
     			return colour;
     		}
     		colour = colourIterator.next();
@@ -86,6 +116,43 @@ public class ThresholdColourScheme2D extends ColourScheme2D {
         return colour;
 	}
 
+    @Override
+    public void getArgbColours(float[] xValues, float[] yValues, int[] argb) {
+        int noData = noDataColour.getRGB();
+        for (int i = 0; i < xValues.length; i++) {
+            argb[i] = getArgbColour(xValues[i], yValues[i], noData);
+        }
+    }
+
+    /*
+     * Equivalent to getColor(float, float), using the primitive arrays
+     */
+    private int getArgbColour(float xValue, float yValue, int noData) {
+        if (Float.isNaN(xValue) || Float.isNaN(yValue)) {
+            return noData;
+        }
+        int colour = 0;
+        for (float yBand : yThresholdValues) {
+            for (float xBand : xThresholdValues) {
+                if (yValue > yBand && xValue > xBand) {
+                    return argbColours[colour];
+                }
+                colour++;
+            }
+            if (yValue > yBand) {
+                return argbColours[colour];
+            }
+            colour++;
+        }
+        for (float xBand : xThresholdValues) {
+            if (xValue > xBand) {
+                return argbColours[colour];
+            }
+            colour++;
+        }
+        return argbColours[colour];
+    }
+
     private void initialiseColours() {
         if(xThresholds == null || xThresholds.size() < 1) {
             throw new IllegalArgumentException("X threshold values must not be null and must have at least one value");
@@ -8,7 +8,9 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -57,6 +59,21 @@ public class StyleSLDParser {
 
     private static Map<String, Class<? extends SLDSymbolizer>> symbolizerList = new HashMap<String, Class<? extends SLDSymbolizer>>();
 
+    private static final int IMAGE_CACHE_SIZE = 200;
+    /**
+     * A LRU cache of {@link MapImage}s which have been parsed from XML strings,
+     * keyed on the XML
+     */
+    private static Map<String, MapImage> imageCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, MapImage>(IMAGE_CACHE_SIZE + 1, 1.0f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MapImage> eldest) {
+                    return size() > IMAGE_CACHE_SIZE;
+                }
+            });
+
     static {
         registerSymbolizer("RasterSymbolizer", SLDRasterSymbolizer.class);
         registerSymbolizer("Raster2DSymbolizer", SLDRaster2DSymbolizer.class);
@@ -106,6 +123,28 @@ public class StyleSLDParser {
         }
     }
 
+    /**
+     * Gets an image given an XML string containing an SLD document, using a
+     * cache of previously-parsed documents. This avoids parsing the same
+     * document repeatedly (e.g. when an SLD_BODY is supplied with every
+     * request for map tiles).
+     * 
+     * The returned {@link MapImage} may be shared between callers, and so
+     * must not be modified.
+     * 
+     * @param xmlString
+     * @return Image
+     * @throws SLDException
+     */
+    public static MapImage getCachedImage(String xmlString) throws SLDException {
+        MapImage image = imageCache.get(xmlString);
+        if (image == null) {
+            image = createImage(xmlString);
+            imageCache.put(xmlString, image);
+        }
+        return image;
+    }
+
     /**
      * Register a new symbolizer class on a map of symbolizers.
      * 
@@ -125,6 +164,10 @@ public class StyleSLDParser {
             throw new IllegalArgumentException("The symbolizer class cannot be null");
         }
         symbolizerList.put(symbolizerTag, symbolizerClass);
+        /*
+         * Previously parsed images may have been parsed differently
+         */
+        imageCache.clear();
     }
 
     /*
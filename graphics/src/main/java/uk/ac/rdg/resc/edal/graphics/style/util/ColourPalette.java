@@ -287,6 +287,18 @@ public class ColourPalette {
         return this.colours[i];
     }
 
+    /**
+     * @return The colours of this palette, in order, packed as ARGB integers
+     *         (as returned by {@link Color#getRGB()})
+     */
+    public int[] getArgbColours() {
+        int[] argb = new int[colours.length];
+        for (int i = 0; i < colours.length; i++) {
+            argb[i] = colours[i].getRGB();
+        }
+        return argb;
+    }
+
     public static ColourPalette fromString(String paletteString, int nColourBands) {
         if (paletteString == null || "".equals(paletteString)) {
             paletteString = DEFAULT_PALETTE_NAME;
@@ -29,11 +29,13 @@
 package uk.ac.rdg.resc.edal.graphics.style.util;
 
 import java.awt.Color;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.bind.annotation.adapters.XmlAdapter;
 
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,12 +44,8 @@ import uk.ac.rdg.resc.edal.domain.Extent;
 import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
 import uk.ac.rdg.resc.edal.exceptions.EdalParseException;
 import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
-import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
-import uk.ac.rdg.resc.edal.util.Array;
-import uk.ac.rdg.resc.edal.util.CollectionUtils;
 import uk.ac.rdg.resc.edal.util.Extents;
-import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
 /**
  * Class containing static utility methods for dealing with graphics
@@ -57,6 +55,16 @@ import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 public class GraphicsUtils {
     private static final Logger log = LoggerFactory.getLogger(GraphicsUtils.class);
 
+    private static ValueRangeEstimator valueRangeEstimator = new SampledValueRangeEstimator();
+
+    /*
+     * Estimated ranges, so that repeated requests for a variable without a
+     * configured range don't each read data. Datasets are replaced when they
+     * are reloaded, so the keys are weak and entries go with the old dataset.
+     */
+    private static final Map<Dataset, Map<String, Extent<Float>>> estimatedRanges = Collections
+            .synchronizedMap(new WeakHashMap<Dataset, Map<String, Extent<Float>>>());
+
     /**
      * Parses a string to obtain a {@link Color}.
      * 
@@ -130,10 +138,34 @@ public class GraphicsUtils {
     }
 
     /**
-     * Estimate the range of values in this layer by reading a sample of data
-     * from the default time and elevation.
+     * Sets the {@link ValueRangeEstimator} used by
+     * {@link GraphicsUtils#estimateValueRange(Dataset, String)}. By default a
+     * {@link SampledValueRangeEstimator} is used.
+     * 
+     * @param valueRangeEstimator
+     *            The {@link ValueRangeEstimator} to use. Must not be
+     *            <code>null</code>
+     */
+    public static void setValueRangeEstimator(ValueRangeEstimator valueRangeEstimator) {
+        if (valueRangeEstimator == null) {
+            throw new IllegalArgumentException("ValueRangeEstimator must not be null");
+        }
+        GraphicsUtils.valueRangeEstimator = valueRangeEstimator;
+        estimatedRanges.clear();
+    }
+
+    /**
+     * Estimate the range of values in this layer.
      * 
-     * If the given variable is found, a default range of 0-100 is returned
+     * If the metadata of the variable declares a range of values, that is
+     * used. Otherwise a sample of data is read using the current
+     * {@link ValueRangeEstimator} (see
+     * {@link GraphicsUtils#setValueRangeEstimator(ValueRangeEstimator)}), and
+     * the range is widened slightly and rounded. The result is remembered for
+     * the given {@link Dataset}, so subsequent calls don't read data again.
+     * 
+     * If the given variable is not found, or is not scalar, a default range of
+     * 0-100 is returned
      * 
      * @param dataset
      *            The dataset containing the variable to estimate
@@ -142,6 +174,23 @@ public class GraphicsUtils {
      * @return An approximate value range
      */
     public static Extent<Float> estimateValueRange(Dataset dataset, String varId) {
+        Map<String, Extent<Float>> datasetRanges;
+        synchronized (estimatedRanges) {
+            datasetRanges = estimatedRanges.get(dataset);
+            if (datasetRanges == null) {
+                datasetRanges = new ConcurrentHashMap<String, Extent<Float>>();
+                estimatedRanges.put(dataset, datasetRanges);
+            }
+        }
+        Extent<Float> range = datasetRanges.get(varId);
+        if (range == null) {
+            range = doEstimateValueRange(dataset, varId);
+            datasetRanges.put(varId, range);
+        }
+        return range;
+    }
+
+    private static Extent<Float> doEstimateValueRange(Dataset dataset, String varId) {
         VariableMetadata variableMetadata;
         try {
             variableMetadata = dataset.getVariableMetadata(varId);
@@ -170,41 +219,21 @@ public class GraphicsUtils {
 //            }
         }
 
-        Double zPos = null;
-        Extent<Double> zExtent = null;
         /*
-         * TODO SLOW! This will be problematic if we are using
-         * AbstractContinuousDomainDatasets, because we will end up extracting
-         * every single feature. On the plus side, the value range returned will
-         * be absolutely accurate...
+         * A range declared by the data source is used as-is
          */
-        if (variableMetadata.getVerticalDomain() != null) {
-            zPos = variableMetadata.getVerticalDomain().getExtent().getLow();
-            zExtent = variableMetadata.getVerticalDomain().getExtent();
+        Extent<Float> declaredRange = variableMetadata.getParameter().getValueRange();
+        if (declaredRange != null) {
+            return declaredRange;
         }
-        DateTime time = null;
-        Extent<DateTime> tExtent = null;
-        if (variableMetadata.getTemporalDomain() != null) {
-            time = variableMetadata.getTemporalDomain().getExtent().getHigh();
-            tExtent = variableMetadata.getTemporalDomain().getExtent();
-        }
-        PlottingDomainParams params = new PlottingDomainParams(100, 100, variableMetadata
-                .getHorizontalDomain().getBoundingBox(), zExtent, tExtent, null, zPos, time);
+
         float min = Float.MAX_VALUE;
         float max = -Float.MAX_VALUE;
         try {
-            Collection<? extends DiscreteFeature<?, ?>> mapFeatures = dataset.extractMapFeatures(
-                    CollectionUtils.setOf(varId), params);
-            for (DiscreteFeature<?, ?> feature : mapFeatures) {
-                Array<Number> values = feature.getValues(varId);
-                if (values != null) {
-                    for (Number value : values) {
-                        if (value != null && !Double.isNaN(value.doubleValue())) {
-                            min = (float) Math.min(value.doubleValue(), min);
-                            max = (float) Math.max(value.doubleValue(), max);
-                        }
-                    }
-                }
+            Extent<Float> dataRange = valueRangeEstimator.estimateDataRange(dataset, varId);
+            if (dataRange != null) {
+                min = dataRange.getLow();
+                max = dataRange.getHigh();
             }
         } catch (DataReadingException | VariableNotFoundException e) {
             log.error(
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.graphics.style.util;
+
+import java.util.Collection;
+
+import org.joda.time.DateTime;
+
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
+import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.Array;
+import uk.ac.rdg.resc.edal.util.CollectionUtils;
+import uk.ac.rdg.resc.edal.util.Extents;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * A {@link ValueRangeEstimator} which extracts a 100x100 map of the entire
+ * domain of a variable, at its lowest elevation and latest time, and finds the
+ * range of its values.
+ * 
+ * This works for any {@link Dataset}, but may read a large amount of data (for
+ * datasets with a continuous domain, every single feature will be read), so
+ * {@link SampledValueRangeEstimator} should generally be preferred.
+ */
+public class MapValueRangeEstimator implements ValueRangeEstimator {
+    @Override
+    public Extent<Float> estimateDataRange(Dataset dataset, String varId)
+            throws DataReadingException, VariableNotFoundException {
+        VariableMetadata variableMetadata = dataset.getVariableMetadata(varId);
+
+        Double zPos = null;
+        Extent<Double> zExtent = null;
+        if (variableMetadata.getVerticalDomain() != null) {
+            zPos = variableMetadata.getVerticalDomain().getExtent().getLow();
+            zExtent = variableMetadata.getVerticalDomain().getExtent();
+        }
+        DateTime time = null;
+        Extent<DateTime> tExtent = null;
+        if (variableMetadata.getTemporalDomain() != null) {
+            time = variableMetadata.getTemporalDomain().getExtent().getHigh();
+            tExtent = variableMetadata.getTemporalDomain().getExtent();
+        }
+        PlottingDomainParams params = new PlottingDomainParams(100, 100, variableMetadata
+                .getHorizontalDomain().getBoundingBox(), zExtent, tExtent, null, zPos, time);
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        Collection<? extends DiscreteFeature<?, ?>> mapFeatures = dataset.extractMapFeatures(
+                CollectionUtils.setOf(varId), params);
+        for (DiscreteFeature<?, ?> feature : mapFeatures) {
+            Array<Number> values = feature.getValues(varId);
+            if (values != null) {
+                for (Number value : values) {
+                    if (value != null && !Double.isNaN(value.doubleValue())) {
+                        min = (float) Math.min(value.doubleValue(), min);
+                        max = (float) Math.max(value.doubleValue(), max);
+                    }
+                }
+            }
+        }
+        if (min > max) {
+            return null;
+        }
+        return Extents.newExtent(min, max);
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.graphics.style.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+import uk.ac.rdg.resc.edal.util.Extents;
+
+/**
+ * A {@link ValueRangeEstimator} which stores the ranges found by another
+ * {@link ValueRangeEstimator} in a file, so that they are not recalculated
+ * when the same variable is estimated again (including after a restart).
+ * 
+ * Ranges are keyed on the dataset and variable IDs. For
+ * {@link GriddedDataset}s, the version of the underlying data is stored with
+ * each range, and the range is recalculated if this changes. Deleting the file
+ * will cause all ranges to be recalculated.
+ */
+public class PersistentValueRangeEstimator implements ValueRangeEstimator {
+    private static final Logger log = LoggerFactory.getLogger(PersistentValueRangeEstimator.class);
+
+    private final ValueRangeEstimator estimator;
+    private final File file;
+    private final Properties ranges = new Properties();
+
+    /**
+     * @param estimator
+     *            The {@link ValueRangeEstimator} used to calculate ranges
+     *            which have not been stored
+     * @param file
+     *            The file in which to store ranges
+     */
+    public PersistentValueRangeEstimator(ValueRangeEstimator estimator, File file) {
+        this.estimator = estimator;
+        this.file = file;
+        if (file.exists()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                ranges.load(in);
+            } catch (IOException e) {
+                log.warn("Could not read stored value ranges from " + file
+                        + ".  They will be recalculated", e);
+            }
+        }
+    }
+
+    @Override
+    public Extent<Float> estimateDataRange(Dataset dataset, String varId)
+            throws DataReadingException, VariableNotFoundException {
+        String key = dataset.getId() + "/" + varId;
+        String version = null;
+        if (dataset instanceof GriddedDataset) {
+            version = ((GriddedDataset) dataset).getDataVersion();
+        }
+        String stored = ranges.getProperty(key);
+        if (stored != null) {
+            /*
+             * Stored as min,max[,version]
+             */
+            String[] parts = stored.split(",", 3);
+            String storedVersion = parts.length > 2 ? parts[2] : null;
+            if (version == null ? storedVersion == null : version.equals(storedVersion)) {
+                try {
+                    return Extents.newExtent(Float.parseFloat(parts[0]),
+                            Float.parseFloat(parts[1]));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    log.warn("Invalid stored value range for " + key + ".  Recalculating");
+                }
+            }
+        }
+
+        Extent<Float> range = estimator.estimateDataRange(dataset, varId);
+        if (range != null) {
+            store(key, range.getLow() + "," + range.getHigh()
+                    + (version == null ? "" : "," + version));
+        }
+        return range;
+    }
+
+    private synchronized void store(String key, String range) {
+        ranges.setProperty(key, range);
+        File parentDir = file.getAbsoluteFile().getParentFile();
+        if (!parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ranges.store(out, "Estimated data ranges of variables");
+        } catch (IOException e) {
+            log.warn("Could not store value ranges in " + file, e);
+        }
+    }
+}
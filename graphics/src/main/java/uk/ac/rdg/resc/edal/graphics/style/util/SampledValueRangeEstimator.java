@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.graphics.style.util;
+
+import uk.ac.rdg.resc.edal.dataset.AbstractContinuousDomainDataset;
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.GriddedDataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+
+/**
+ * A {@link ValueRangeEstimator} which reads a bounded sample of the data.
+ * 
+ * For {@link GriddedDataset}s, evenly-spaced rows of the source grid are read
+ * (see {@link GriddedDataset#readSampledValueRange(String, int)}), and for
+ * {@link AbstractContinuousDomainDataset}s an evenly-spaced selection of
+ * features is read (see
+ * {@link AbstractContinuousDomainDataset#readSampledValueRange(String, int)}).
+ * Other datasets, and variables which cannot be sampled in this way (e.g.
+ * derived variables) fall back to a {@link MapValueRangeEstimator}.
+ */
+public class SampledValueRangeEstimator implements ValueRangeEstimator {
+    private final int maxPoints;
+    private final int maxFeatures;
+    private final ValueRangeEstimator fallback = new MapValueRangeEstimator();
+
+    /**
+     * Creates a {@link SampledValueRangeEstimator} which reads approximately
+     * 100,000 grid points, or 1,000 features
+     */
+    public SampledValueRangeEstimator() {
+        this(100_000, 1000);
+    }
+
+    /**
+     * @param maxPoints
+     *            The approximate maximum number of points to read from gridded
+     *            datasets
+     * @param maxFeatures
+     *            The maximum number of features to read from datasets with a
+     *            continuous domain
+     */
+    public SampledValueRangeEstimator(int maxPoints, int maxFeatures) {
+        this.maxPoints = maxPoints;
+        this.maxFeatures = maxFeatures;
+    }
+
+    @Override
+    public Extent<Float> estimateDataRange(Dataset dataset, String varId)
+            throws DataReadingException, VariableNotFoundException {
+        if (dataset instanceof GriddedDataset) {
+            Extent<Float> range = ((GriddedDataset) dataset).readSampledValueRange(varId,
+                    maxPoints);
+            if (range != null) {
+                return range;
+            }
+        } else if (dataset instanceof AbstractContinuousDomainDataset) {
+            return ((AbstractContinuousDomainDataset) dataset).readSampledValueRange(varId,
+                    maxFeatures);
+        }
+        return fallback.estimateDataRange(dataset, varId);
+    }
+}
@@ -38,9 +38,11 @@ import java.net.URL;
 import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -98,6 +100,23 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
     /* Velocity templating engine used for reading fixed styles */
     private VelocityEngine velocityEngine;
 
+    private static final int IMAGE_CACHE_SIZE = 500;
+    /*
+     * A LRU cache of the MapImages generated from style templates, keyed on
+     * the template and the values substituted into it. This means that for
+     * repeated requests (e.g. for map tiles) we neither process the template
+     * nor parse the resulting XML.
+     */
+    private Map<String, MapImage> imageCache = Collections
+            .synchronizedMap(new LinkedHashMap<String, MapImage>(IMAGE_CACHE_SIZE + 1, 1.0f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MapImage> eldest) {
+                    return size() > IMAGE_CACHE_SIZE;
+                }
+            });
+
     private SortedMap<String, StyleDef> styleDefs = new TreeMap<String, StyleDef>(
             new Comparator<String>() {
                 /*
@@ -258,24 +277,25 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
         if (!velocityEngine.resourceExists(resourceName)) {
             resourceName = styleName.toLowerCase() + ".xml";
         }
-        Template template = velocityEngine.getTemplate(resourceName);
 
         /*
          * Set all of the variables for replacing in the template
          */
-        VelocityContext context = new VelocityContext();
-        context.put("paletteName", templateProperties.getPalette());
+        Map<String, Object> templateValues = new LinkedHashMap<>();
+        templateValues.put("paletteName", templateProperties.getPalette());
         Extent<Float> colourScaleRange = templateProperties.getColorScaleRange();
-        context.put("scaleMin", colourScaleRange.getLow());
-        context.put("scaleMax", colourScaleRange.getHigh());
-        context.put("logarithmic", templateProperties.isLogScaling() ? "logarithmic" : "linear");
-        context.put("numColorBands", templateProperties.getNumColorBands());
-        context.put("bgColor", GraphicsUtils.colourToString(templateProperties.getNoDataColour()));
-        context.put("belowMinColor",
+        templateValues.put("scaleMin", colourScaleRange.getLow());
+        templateValues.put("scaleMax", colourScaleRange.getHigh());
+        templateValues.put("logarithmic", templateProperties.isLogScaling() ? "logarithmic"
+                : "linear");
+        templateValues.put("numColorBands", templateProperties.getNumColorBands());
+        templateValues.put("bgColor",
+                GraphicsUtils.colourToString(templateProperties.getNoDataColour()));
+        templateValues.put("belowMinColor",
                 GraphicsUtils.colourToString(templateProperties.getBelowMinColour()));
-        context.put("aboveMaxColor",
+        templateValues.put("aboveMaxColor",
                 GraphicsUtils.colourToString(templateProperties.getAboveMaxColour()));
-        context.put("opacity", templateProperties.getOpacity());
+        templateValues.put("opacity", templateProperties.getOpacity());
 
         /*
          * Now deal with the layer names
@@ -283,8 +303,26 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
         Map<String, VariableMetadata> layerKeysToLayerNames = getStyleTemplateLayerNames(metadata,
                 styleName);
         for (Entry<String, VariableMetadata> keyToLayerName : layerKeysToLayerNames.entrySet()) {
-            context.put(keyToLayerName.getKey(), layerNameMapper.getLayerName(keyToLayerName
-                    .getValue().getDataset().getId(), keyToLayerName.getValue().getId()));
+            templateValues.put(keyToLayerName.getKey(), layerNameMapper.getLayerName(
+                    keyToLayerName.getValue().getDataset().getId(), keyToLayerName.getValue()
+                            .getId()));
+        }
+
+        /*
+         * The template values completely determine the resulting image, so if
+         * we have already generated an image with the same values we can
+         * return it rather than processing the template again
+         */
+        String cacheKey = resourceName + templateValues.toString();
+        MapImage mapImage = imageCache.get(cacheKey);
+        if (mapImage != null) {
+            return mapImage;
+        }
+
+        Template template = velocityEngine.getTemplate(resourceName);
+        VelocityContext context = new VelocityContext();
+        for (Entry<String, Object> templateValue : templateValues.entrySet()) {
+            context.put(templateValue.getKey(), templateValue.getValue());
         }
 
         /*
@@ -298,7 +336,7 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
              * We now have an XML description of the style for this request.
              * Parse it into a MapImage and return the result.
              */
-            return StyleSLDParser.createImage(xmlStringWriter.toString());
+            mapImage = StyleSLDParser.createImage(xmlStringWriter.toString());
         } catch (SLDException e) {
             e.printStackTrace();
             /*
@@ -306,6 +344,8 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
              */
             throw new EdalException("Problem parsing XML template for style " + styleName);
         }
+        imageCache.put(cacheKey, mapImage);
+        return mapImage;
     }
 
     /**
@@ -336,6 +376,10 @@ public class SldTemplateStyleCatalogue implements StyleCatalogue {
             }
             velocityEngine.addProperty(RuntimeConstants.FILE_RESOURCE_LOADER_PATH,
                     stylesDir.getAbsolutePath());
+            /*
+             * The new styles may replace existing ones
+             */
+            imageCache.clear();
         } else {
             log.error("User tried to add a styles directory which was not a directory: "
                     + stylesDir.getAbsolutePath());
@@ -89,7 +89,8 @@ public interface StyleCatalogue {
      *            The associated {@link LayerNameMapper}. This is used to turn
      *            {@link VariableMetadata} objects into concrete layer names for
      *            the style template
-     * @return A {@link MapImage}, ready to generate images
+     * @return A {@link MapImage}, ready to generate images. This may be shared
+     *         between callers, and so should not be modified
      */
     public MapImage getMapImageFromStyle(String styleName,
             PlottingStyleParameters templateableProperties, VariableMetadata metadata,
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.graphics.style.util;
+
+import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.domain.Extent;
+import uk.ac.rdg.resc.edal.exceptions.DataReadingException;
+import uk.ac.rdg.resc.edal.exceptions.VariableNotFoundException;
+
+/**
+ * Estimates the range of the data values of a variable. This is used by
+ * {@link GraphicsUtils#estimateValueRange(Dataset, String)} to choose default
+ * colour scale ranges, and can be changed with
+ * {@link GraphicsUtils#setValueRangeEstimator(ValueRangeEstimator)}
+ */
+public interface ValueRangeEstimator {
+    /**
+     * Estimates the range of the data values of a scalar variable
+     * 
+     * @param dataset
+     *            The {@link Dataset} containing the variable
+     * @param varId
+     *            The ID of the variable
+     * @return The (approximate) minimum and maximum values of the variable, or
+     *         <code>null</code> if no data could be found
+     * @throws DataReadingException
+     *             If there is a problem reading data
+     * @throws VariableNotFoundException
+     *             If the variable is not present in the {@link Dataset}
+     */
+    public Extent<Float> estimateDataRange(Dataset dataset, String varId)
+            throws DataReadingException, VariableNotFoundException;
+}
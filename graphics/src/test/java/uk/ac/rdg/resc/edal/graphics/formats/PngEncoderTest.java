@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+
+package uk.ac.rdg.resc.edal.graphics.formats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link PngEncoder}. Images are encoded, decoded again with
+ * {@link ImageIO}, and the pixels compared.
+ */
+public class PngEncoderTest {
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 43;
+
+    @Test
+    public void testIndexed() throws IOException {
+        /*
+         * A few colours, including fully and partially transparent ones
+         */
+        int[] colours = new int[] { 0x00000000, 0x80ff0000, 0xff00ff00, 0xff0000ff, 0x40123456,
+                0xffffffff };
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(1234L);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                image.setRGB(i, j, colours[random.nextInt(colours.length)]);
+            }
+        }
+        checkRoundTrip(image, false);
+        checkRoundTrip(image, true);
+    }
+
+    @Test
+    public void testArgb() throws IOException {
+        /*
+         * Too many colours for a palette, with varying transparency
+         */
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(5678L);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                image.setRGB(i, j, random.nextInt());
+            }
+        }
+        checkRoundTrip(image, false);
+        checkRoundTrip(image, true);
+    }
+
+    @Test
+    public void testOpaqueRgb() throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(9012L);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                image.setRGB(i, j, 0xff000000 | random.nextInt());
+            }
+        }
+        checkRoundTrip(image, false);
+    }
+
+    private static void checkRoundTrip(BufferedImage image, boolean force32Bit)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PngEncoder.write(image, out, Deflater.DEFAULT_COMPRESSION, force32Bit);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(image.getWidth(), decoded.getWidth());
+        assertEquals(image.getHeight(), decoded.getHeight());
+        for (int j = 0; j < image.getHeight(); j++) {
+            for (int i = 0; i < image.getWidth(); i++) {
+                int expected = image.getRGB(i, j);
+                int actual = decoded.getRGB(i, j);
+                if ((expected >>> 24) == 0) {
+                    /*
+                     * The colour of fully transparent pixels is not retained
+                     */
+                    assertEquals(0, actual >>> 24);
+                } else {
+                    assertEquals(expected, actual);
+                }
+            }
+        }
+    }
+}
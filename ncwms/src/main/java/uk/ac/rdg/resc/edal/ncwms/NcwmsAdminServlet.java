@@ -53,8 +53,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CacheInfo;
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.VariableConfig;
+import uk.ac.rdg.resc.edal.dataset.MapReadCoalescer;
+import uk.ac.rdg.resc.edal.dataset.cdm.CdmGridDatasetFactory;
+import uk.ac.rdg.resc.edal.graphics.style.MapImage;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsContact;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsDynamicService;
@@ -149,6 +153,10 @@ public class NcwmsAdminServlet extends HttpServlet {
         context.put("catalogue", catalogue);
         context.put("config", catalogue.getConfig());
         context.put("TimeUtils", TimeUtils.class);
+        context.put("CdmGridDatasetFactory", CdmGridDatasetFactory.class);
+        context.put("layerTimings", MapImage.getLayerTimings());
+        context.put("MapReadCoalescer", MapReadCoalescer.class);
+        context.put("CatalogueConfig", CatalogueConfig.class);
         try {
             template.merge(context, response.getWriter());
         } catch (Exception e) {
@@ -270,7 +278,13 @@ public class NcwmsAdminServlet extends HttpServlet {
             if (request.getParameter("dataset." + ds.getId() + ".remove") != null) {
                 datasetsToRemove.add(ds);
             } else {
-                ds.setTitle(request.getParameter("dataset." + ds.getId() + ".title"));
+                String newTitle = request.getParameter("dataset." + ds.getId() + ".title");
+                boolean titleChanged = newTitle != null && !newTitle.equals(ds.getTitle());
+                ds.setTitle(newTitle);
+                if (titleChanged) {
+                    /* Datasets are sorted by title */
+                    catalogue.datasetTitleChanged(ds.getId());
+                }
                 String newLocation = request.getParameter("dataset." + ds.getId() + ".location");
                 if (!newLocation.trim().equals(ds.getLocation().trim())) {
                     refreshDataset = true;
@@ -461,6 +475,11 @@ public class NcwmsAdminServlet extends HttpServlet {
         } catch (IOException e) {
             log.error("Problem writing config", e);
         }
+        /*
+         * Drop any dynamic dataset caches which no longer match their
+         * services
+         */
+        catalogue.dynamicServicesChanged();
 
         /*
          * This causes a client-side redirect, meaning that the user can safely
@@ -499,15 +518,21 @@ public class NcwmsAdminServlet extends HttpServlet {
             for (String variableId : variableIds) {
                 String newTitle = request.getParameter(variableId + ".title").trim();
                 /* Find the min and max colour scale range for this variable */
-                float min = Float.parseFloat(request.getParameter(variableId + ".scaleMin").trim());
-                float max = Float.parseFloat(request.getParameter(variableId + ".scaleMax").trim());
+                String scaleMin = request.getParameter(variableId + ".scaleMin").trim();
+                String scaleMax = request.getParameter(variableId + ".scaleMax").trim();
 
                 /*
                  * Get the NcwmsVariable for this layer, and save the changes
                  */
                 VariableConfig var = dataset.getVariableById(variableId);
                 var.setTitle(newTitle);
-                var.setColorScaleRange(Extents.newExtent(min, max));
+                /*
+                 * The range may be empty if it has not yet been estimated
+                 */
+                if (!scaleMin.isEmpty() && !scaleMax.isEmpty()) {
+                    var.setColorScaleRange(Extents.newExtent(Float.parseFloat(scaleMin),
+                            Float.parseFloat(scaleMax)));
+                }
                 var.setPaletteName(request.getParameter(variableId + ".palette"));
                 var.setNumColorBands(Integer.parseInt(request.getParameter(variableId
                         + ".numColorBands")));
@@ -51,10 +51,19 @@ import org.apache.velocity.runtime.RuntimeConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.rdg.resc.edal.catalogue.DatasetFileWatcher;
+import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
+import uk.ac.rdg.resc.edal.dataset.MapReadCoalescer;
+import uk.ac.rdg.resc.edal.dataset.TimeSeriesStore;
 import uk.ac.rdg.resc.edal.dataset.cdm.CdmGridDatasetFactory;
 import uk.ac.rdg.resc.edal.graphics.formats.ImageFormat;
+import uk.ac.rdg.resc.edal.graphics.formats.PngFormat;
+import uk.ac.rdg.resc.edal.graphics.style.MapImage;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
+import uk.ac.rdg.resc.edal.graphics.style.util.GraphicsUtils;
+import uk.ac.rdg.resc.edal.graphics.style.util.PersistentValueRangeEstimator;
+import uk.ac.rdg.resc.edal.graphics.style.util.SampledValueRangeEstimator;
 import uk.ac.rdg.resc.edal.graphics.style.util.SldTemplateStyleCatalogue;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsConfig;
 import uk.ac.rdg.resc.edal.util.GISUtils;
@@ -153,6 +162,98 @@ public class NcwmsApplicationServlet extends HttpServlet {
                     }
                 }
             }
+
+            /*
+             * Set the limits on the cache of open NetCDF datasets
+             */
+            try {
+                int maxDatasets = Integer.parseInt(appProperties.getProperty(
+                        "datasetCacheMaxDatasets", "10").trim());
+                int maxOpenFiles = Integer.parseInt(appProperties.getProperty(
+                        "datasetCacheMaxOpenFiles", "500").trim());
+                int idleMinutes = Integer.parseInt(appProperties.getProperty(
+                        "datasetCacheIdleMinutes", "30").trim());
+                CdmGridDatasetFactory.setDatasetCacheLimits(maxDatasets, maxOpenFiles,
+                        idleMinutes);
+            } catch (NumberFormatException e) {
+                log.warn("Invalid dataset cache settings in config.properties - using defaults");
+            }
+
+            /*
+             * Set the size of the cache of source data chunks
+             */
+            String chunkCacheMegabytes = appProperties.getProperty("chunkCacheMegabytes");
+            if (chunkCacheMegabytes != null) {
+                try {
+                    CdmGridDatasetFactory.setChunkCacheSize(Long.parseLong(chunkCacheMegabytes
+                            .trim()) * 1024L * 1024L);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid chunkCacheMegabytes in config.properties - using default");
+                }
+            }
+
+            /*
+             * Set the maximum size of the stores used for timeseries
+             * extraction
+             */
+            String timeseriesStoreMaxMegabytes = appProperties
+                    .getProperty("timeseriesStoreMaxMegabytes");
+            if (timeseriesStoreMaxMegabytes != null) {
+                try {
+                    TimeSeriesStore.setMaxStoreSize(Long.parseLong(timeseriesStoreMaxMegabytes
+                            .trim()) * 1024L * 1024L);
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid timeseriesStoreMaxMegabytes in config.properties - timeseries stores disabled");
+                }
+            }
+
+            /*
+             * Set the number of datasets which are loaded concurrently
+             */
+            String datasetLoaderThreads = appProperties.getProperty("datasetLoaderThreads");
+            if (datasetLoaderThreads != null) {
+                try {
+                    CatalogueConfig.setLoaderThreads(Integer.parseInt(datasetLoaderThreads.trim()));
+                } catch (IllegalArgumentException e) {
+                    /* Also catches NumberFormatException */
+                    log.warn("Invalid datasetLoaderThreads in config.properties - using default");
+                }
+            }
+
+            /*
+             * Set the compression level for PNG images
+             */
+            String pngCompressionLevel = appProperties.getProperty("pngCompressionLevel");
+            if (pngCompressionLevel != null) {
+                try {
+                    PngFormat.setCompressionLevel(Integer.parseInt(pngCompressionLevel.trim()));
+                } catch (IllegalArgumentException e) {
+                    /* Also catches NumberFormatException */
+                    log.warn("Invalid pngCompressionLevel in config.properties - using default");
+                }
+            }
+
+            /*
+             * Set whether the layers of an image are rendered concurrently
+             */
+            String parallelLayerRendering = appProperties.getProperty("parallelLayerRendering");
+            if (parallelLayerRendering != null) {
+                MapImage.setParallelLayerRendering(Boolean.parseBoolean(parallelLayerRendering
+                        .trim()));
+            }
+
+            /*
+             * Set how long map reads wait for concurrent reads of neighbouring
+             * areas to combine with
+             */
+            String coalescingWindow = appProperties.getProperty("mapReadCoalescingMillis");
+            if (coalescingWindow != null) {
+                try {
+                    MapReadCoalescer.setCoalescingWindow(Long.parseLong(coalescingWindow.trim()));
+                } catch (IllegalArgumentException e) {
+                    log.warn("Invalid mapReadCoalescingMillis in config.properties - using default");
+                }
+            }
         }
 
         /*
@@ -173,6 +274,37 @@ public class NcwmsApplicationServlet extends HttpServlet {
 
         DatasetFactory.setWorkingDirectory(configDirFile);
 
+        /*
+         * If required, store the estimated value ranges of variables so that
+         * they are not estimated again after a restart
+         */
+        if (appProperties != null
+                && Boolean.parseBoolean(appProperties.getProperty("persistValueRanges", "false")
+                        .trim())) {
+            GraphicsUtils.setValueRangeEstimator(new PersistentValueRangeEstimator(
+                    new SampledValueRangeEstimator(), new File(configDirFile,
+                            "valueRanges.properties")));
+        }
+
+        /*
+         * If required, reload datasets as soon as their files change
+         */
+        if (appProperties != null
+                && Boolean.parseBoolean(appProperties.getProperty("watchDatasetFiles", "false")
+                        .trim())) {
+            DatasetFileWatcher.setEnabled(true);
+        }
+
+        /*
+         * If required, store the metadata of gridded datasets on disk so that
+         * they can be recreated without analysing their files again
+         */
+        if (appProperties != null
+                && Boolean.parseBoolean(appProperties.getProperty("persistDatasetMetadata",
+                        "false").trim())) {
+            CdmGridDatasetFactory.setMetadataStoreEnabled(true);
+        }
+
         /*
          * If necessary, create a directory for logs.
          */
@@ -29,6 +29,14 @@
 package uk.ac.rdg.resc.edal.ncwms;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
@@ -37,13 +45,16 @@ import net.sf.ehcache.config.CacheConfiguration.TransactionalMode;
 import net.sf.ehcache.config.PersistenceConfiguration;
 import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import uk.ac.rdg.resc.edal.catalogue.DataCatalogue;
 import uk.ac.rdg.resc.edal.catalogue.SimpleLayerNameMapper;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.VariableConfig;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
 import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
-import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.graphics.exceptions.EdalLayerNotFoundException;
 import uk.ac.rdg.resc.edal.graphics.style.util.ColourPalette;
 import uk.ac.rdg.resc.edal.graphics.style.util.EnhancedVariableMetadata;
@@ -65,36 +76,137 @@ import uk.ac.rdg.resc.edal.wms.util.ServerInfo;
  * @author Guy Griffiths
  */
 public class NcwmsCatalogue extends DataCatalogue implements WmsCatalogue {
+    private static final Logger log = LoggerFactory.getLogger(NcwmsCatalogue.class);
     private static final String DYNAMIC_DATASET_CACHE_NAME = "dynamicDatasetCache";
+    /*
+     * Dynamic datasets which are currently being created
+     */
+    private final ConcurrentHashMap<String, FutureTask<Dataset>> dynamicDatasetCreations = new ConcurrentHashMap<>();
+    /*
+     * The dataset cache of each dynamic service, keyed by alias
+     */
+    private final ConcurrentHashMap<String, DynamicDatasetCache> dynamicDatasetCaches = new ConcurrentHashMap<>();
     private StyleCatalogue styleCatalogue;
 
     public NcwmsCatalogue(NcwmsConfig config) throws IOException {
         super(config, new SimpleLayerNameMapper());
         this.styleCatalogue = SldTemplateStyleCatalogue.getStyleCatalogue();
+    }
+
+    /**
+     * Gets the cache of datasets for a dynamic service, creating it if
+     * necessary. Each dynamic service has its own cache, sized according to
+     * its configuration.
+     * 
+     * This cache is primarily for dynamic EN3 datasets or other datasets which
+     * are expensive to create. For datasets where a spatial index needs to be
+     * built, or whose coordinate systems are expensive to analyse, this will
+     * save a lot of time.
+     * 
+     * Once created, the cache is used until {@link #dynamicServicesChanged()}
+     * is called. Since that removes the cache, callers must expect an
+     * {@link IllegalStateException} when using it, and fetch a new one.
+     */
+    private Cache getDynamicDatasetCache(NcwmsDynamicService dynamicService) {
+        DynamicDatasetCache dynamicDatasetCache = dynamicDatasetCaches.get(dynamicService
+                .getAlias());
+        if (dynamicDatasetCache != null) {
+            return dynamicDatasetCache.cache;
+        }
+        return createDynamicDatasetCache(dynamicService);
+    }
+
+    private synchronized Cache createDynamicDatasetCache(NcwmsDynamicService dynamicService) {
+        DynamicDatasetCache dynamicDatasetCache = dynamicDatasetCaches.get(dynamicService
+                .getAlias());
+        if (dynamicDatasetCache != null) {
+            /*
+             * Created whilst we were waiting
+             */
+            return dynamicDatasetCache.cache;
+        }
+        String cacheName = DYNAMIC_DATASET_CACHE_NAME + "-" + dynamicService.getAlias();
+        int size = getCacheSize(dynamicService);
+        long lifetimeSeconds = getCacheLifetimeSeconds(dynamicService);
+        if (cacheManager.cacheExists(cacheName)) {
+            cacheManager.removeCache(cacheName);
+        }
 
-        /*
-         * Configure cache for dynamic datasets. Keep up to 10 dynamic datasets
-         * in memory, and expire them after 10 minutes of inactivity.
-         * 
-         * This cache is primarily for dynamic EN3 datasets or other datasets
-         * which are expensive to create. For the normal gridded case datasets
-         * are cheap to create (but expensive to read) so this cache will have
-         * little effect on performance. For datasets where a spatial index
-         * needs to be built, this will save a lot of time. However it is
-         * probably only rarely (if ever) that this will be used in practice.
-         */
-        CacheConfiguration cacheConfig = new CacheConfiguration(DYNAMIC_DATASET_CACHE_NAME, 0)
-                .eternal(false).maxEntriesLocalHeap(10).timeToLiveSeconds(10 * 60)
+        CacheConfiguration cacheConfig = new CacheConfiguration(cacheName, size)
+                .eternal(lifetimeSeconds == 0).timeToLiveSeconds(lifetimeSeconds)
                 .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
                 .persistence(new PersistenceConfiguration().strategy(Strategy.NONE))
                 .transactionalMode(TransactionalMode.OFF);
+        Cache cache = new Cache(cacheConfig);
+        cacheManager.addCache(cache);
+        dynamicDatasetCaches.put(dynamicService.getAlias(), new DynamicDatasetCache(cache,
+                dynamicService));
+        return cache;
+    }
 
-        /*
-         * If we already have a cache, we can assume that the configuration has
-         * changed, so we remove and re-add it.
-         */
-        Cache dynamicDatasetCache = new Cache(cacheConfig);
-        cacheManager.addCache(dynamicDatasetCache);
+    /**
+     * Should be called when the dynamic services have been edited and saved.
+     * This removes the dataset caches of services which have been renamed or
+     * removed, and of those whose location, data reader or cache settings have
+     * changed (which will be re-created when they are next used).
+     */
+    public synchronized void dynamicServicesChanged() {
+        Map<String, NcwmsDynamicService> services = new HashMap<>();
+        for (NcwmsDynamicService dynamicService : getConfig().getDynamicServices()) {
+            services.put(dynamicService.getAlias(), dynamicService);
+        }
+        Iterator<Entry<String, DynamicDatasetCache>> iterator = dynamicDatasetCaches.entrySet()
+                .iterator();
+        while (iterator.hasNext()) {
+            DynamicDatasetCache dynamicDatasetCache = iterator.next().getValue();
+            NcwmsDynamicService dynamicService = services.get(dynamicDatasetCache.alias);
+            if (dynamicService == null || !dynamicDatasetCache.isFor(dynamicService)) {
+                /*
+                 * Remove from the map first, so that anything which finds the
+                 * old cache removed will get a new one
+                 */
+                iterator.remove();
+                cacheManager.removeCache(dynamicDatasetCache.cache.getName());
+            }
+        }
+    }
+
+    /*
+     * A dynamic service's dataset cache, along with the settings it was created
+     * for. These are copied, since the service object is edited in place.
+     */
+    private static final class DynamicDatasetCache {
+        private final Cache cache;
+        private final String alias;
+        private final String servicePath;
+        private final String dataReaderClass;
+
+        private DynamicDatasetCache(Cache cache, NcwmsDynamicService dynamicService) {
+            this.cache = cache;
+            this.alias = dynamicService.getAlias();
+            this.servicePath = dynamicService.getServicePath();
+            this.dataReaderClass = dynamicService.getDataReaderClass();
+        }
+
+        private boolean isFor(NcwmsDynamicService dynamicService) {
+            CacheConfiguration cacheConfig = cache.getCacheConfiguration();
+            return equal(servicePath, dynamicService.getServicePath())
+                    && equal(dataReaderClass, dynamicService.getDataReaderClass())
+                    && cacheConfig.getMaxEntriesLocalHeap() == getCacheSize(dynamicService)
+                    && cacheConfig.getTimeToLiveSeconds() == getCacheLifetimeSeconds(dynamicService);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static int getCacheSize(NcwmsDynamicService dynamicService) {
+        return Math.max(1, dynamicService.getDatasetCacheSize());
+    }
+
+    private static long getCacheLifetimeSeconds(NcwmsDynamicService dynamicService) {
+        return Math.max(0, dynamicService.getDatasetCacheMinutes()) * 60L;
     }
 
     /**
@@ -116,20 +228,11 @@ public class NcwmsCatalogue extends DataCatalogue implements WmsCatalogue {
     }
 
     @Override
-    public Dataset getDatasetFromId(String datasetId) {
+    public Dataset getDatasetFromId(final String datasetId) {
         Dataset dataset = super.getDatasetFromId(datasetId);
         if (dataset != null) {
             return dataset;
         } else {
-            /*
-             * We may have a dynamic dataset. First check the dynamic dataset
-             * cache.
-             */
-            Cache dynamicDatasetCache = cacheManager.getCache(DYNAMIC_DATASET_CACHE_NAME);
-            Element element = dynamicDatasetCache.get(datasetId);
-            if (element != null && element.getObjectValue() != null) {
-                return (Dataset) element.getObjectValue();
-            }
             /*
              * Check to see if we have a dynamic service defined which this
              * dataset ID can map to
@@ -138,6 +241,25 @@ public class NcwmsCatalogue extends DataCatalogue implements WmsCatalogue {
             if (dynamicService == null || dynamicService.isDisabled()) {
                 return null;
             }
+            /*
+             * We have a dynamic dataset. First check the dynamic dataset cache.
+             */
+            Cache cache = getDynamicDatasetCache(dynamicService);
+            Element element;
+            try {
+                element = cache.get(datasetId);
+            } catch (IllegalStateException e) {
+                /*
+                 * The cache was removed by dynamicServicesChanged() whilst we
+                 * were using it. Use the new one.
+                 */
+                cache = getDynamicDatasetCache(dynamicService);
+                element = cache.get(datasetId);
+            }
+            if (element != null && element.getObjectValue() != null) {
+                return (Dataset) element.getObjectValue();
+            }
+            final Cache dynamicDatasetCache = cache;
             /*
              * We do the +1 so that the datasetPath doesn't start with a /
              */
@@ -151,26 +273,64 @@ public class NcwmsCatalogue extends DataCatalogue implements WmsCatalogue {
                 return null;
             }
 
-            String datasetUrl = dynamicService.getServicePath() + "/" + datasetPath;
+            final String datasetUrl = dynamicService.getServicePath() + "/" + datasetPath;
+            final String dataReaderClass = dynamicService.getDataReaderClass();
 
-            String title = datasetId;
-            while (title.startsWith("/") && title.length() > 0)
-                title = title.substring(1);
+            /*
+             * Only one thread creates a given dynamic dataset. Any others which
+             * request it at the same time (e.g. concurrent tile requests) wait
+             * for it to be created.
+             */
+            FutureTask<Dataset> creation = new FutureTask<>(new Callable<Dataset>() {
+                @Override
+                public Dataset call() throws Exception {
+                    try {
+                        Element element = dynamicDatasetCache.get(datasetId);
+                        if (element != null && element.getObjectValue() != null) {
+                            /*
+                             * Created since we checked the cache
+                             */
+                            return (Dataset) element.getObjectValue();
+                        }
+                    } catch (IllegalStateException e) {
+                        /*
+                         * The cache has been removed since we fetched it
+                         */
+                    }
+                    DatasetFactory datasetFactory = DatasetFactory.forName(dataReaderClass);
+                    Dataset dynamicDataset = datasetFactory.createDataset(datasetId, datasetUrl);
+                    /*
+                     * Store in the cache. If it has been removed, the service
+                     * settings have changed, so this dataset shouldn't go in
+                     * the new cache.
+                     */
+                    try {
+                        dynamicDatasetCache.put(new Element(datasetId, dynamicDataset));
+                    } catch (IllegalStateException e) {
+                        log.debug("Dataset cache for " + datasetId
+                                + " removed whilst creating the dataset");
+                    }
+                    return dynamicDataset;
+                }
+            });
+            FutureTask<Dataset> inProgress = dynamicDatasetCreations.putIfAbsent(datasetId,
+                    creation);
+            if (inProgress == null) {
+                try {
+                    creation.run();
+                } finally {
+                    dynamicDatasetCreations.remove(datasetId, creation);
+                }
+                inProgress = creation;
+            }
 
             try {
-                DatasetFactory datasetFactory = DatasetFactory.forName(dynamicService
-                        .getDataReaderClass());
-                Dataset dynamicDataset = datasetFactory.createDataset(datasetId, datasetUrl);
-                /*
-                 * Store in the cache
-                 */
-                dynamicDatasetCache.put(new Element(datasetId, dynamicDataset));
-                return dynamicDataset;
-            } catch (InstantiationException | IllegalAccessException | ClassNotFoundException
-                    | IOException | EdalException e) {
-                /*
-                 * TODO log error
-                 */
+                return inProgress.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                log.error("Problem creating dynamic dataset " + datasetId, e.getCause());
                 return null;
             }
         }
@@ -239,7 +399,7 @@ public class NcwmsCatalogue extends DataCatalogue implements WmsCatalogue {
                 dynamicService = testDynamicService;
             }
         }
-        if (!dynamicService.getIdMatchPattern().matcher(layerName).matches()) {
+        if (dynamicService == null || !dynamicService.getIdMatchPattern().matcher(layerName).matches()) {
             return null;
         }
         return dynamicService;
@@ -37,6 +37,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import uk.ac.rdg.resc.edal.catalogue.DatasetFileWatcher;
 import uk.ac.rdg.resc.edal.ncwms.config.NcwmsConfig;
 import uk.ac.rdg.resc.edal.wms.RequestParams;
 import uk.ac.rdg.resc.edal.wms.WmsCatalogue;
@@ -59,6 +60,7 @@ public class NcwmsServlet extends WmsServlet implements Servlet {
     public void destroy() {
         super.destroy();
         NcwmsConfig.shutdown();
+        DatasetFileWatcher.shutdown();
     }
 
     @Override
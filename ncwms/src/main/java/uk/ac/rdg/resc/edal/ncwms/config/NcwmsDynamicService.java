@@ -62,6 +62,14 @@ public class NcwmsDynamicService {
 
     @XmlAttribute(name = "downloadable", required = false)
     private boolean downloadable;
+
+    /* The maximum number of datasets from this service to keep in memory */
+    @XmlAttribute(name = "datasetCacheSize", required = false)
+    private int datasetCacheSize = 10;
+
+    /* The number of minutes for which datasets are kept in memory */
+    @XmlAttribute(name = "datasetCacheMinutes", required = false)
+    private int datasetCacheMinutes = 10;
     
     @XmlTransient
     private Pattern idMatchPattern;
@@ -142,4 +150,20 @@ public class NcwmsDynamicService {
     public void setQueryable(boolean queryable) {
         this.queryable = queryable;
     }
+
+    public int getDatasetCacheSize() {
+        return datasetCacheSize;
+    }
+
+    public void setDatasetCacheSize(int datasetCacheSize) {
+        this.datasetCacheSize = datasetCacheSize;
+    }
+
+    public int getDatasetCacheMinutes() {
+        return datasetCacheMinutes;
+    }
+
+    public void setDatasetCacheMinutes(int datasetCacheMinutes) {
+        this.datasetCacheMinutes = datasetCacheMinutes;
+    }
 }
@@ -216,7 +216,7 @@ public class GetMapStyleParams {
     public MapImage getImageGenerator(WmsCatalogue catalogue) throws EdalException {
         if (xmlStyle != null) {
             try {
-                return StyleSLDParser.createImage(xmlStyle);
+                return StyleSLDParser.getCachedImage(xmlStyle);
             } catch (SLDException e) {
                 e.printStackTrace();
                 throw new EdalException("Problem parsing XML style.  Check logs for stack trace");
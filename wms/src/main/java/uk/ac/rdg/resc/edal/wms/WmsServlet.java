@@ -138,6 +138,7 @@ import uk.ac.rdg.resc.edal.wms.exceptions.CurrentUpdateSequence;
 import uk.ac.rdg.resc.edal.wms.exceptions.EdalUnsupportedOperationException;
 import uk.ac.rdg.resc.edal.wms.exceptions.InvalidUpdateSequence;
 import uk.ac.rdg.resc.edal.wms.exceptions.LayerNotQueryableException;
+import uk.ac.rdg.resc.edal.wms.util.AnimationFrameIterator;
 import uk.ac.rdg.resc.edal.wms.util.WmsUtils;
 
 /**
@@ -402,35 +403,42 @@ public class WmsServlet extends HttpServlet {
 
         MapImage imageGenerator = styleParameters.getImageGenerator(catalogue);
 
-        List<BufferedImage> frames;
-        if (!getMapParams.isAnimation()) {
-            frames = Arrays.asList(imageGenerator.drawImage(plottingParameters, catalogue));
-        } else {
-            frames = new ArrayList<>();
-            for (DateTime timeStep : getMapParams.getAnimationTimesteps()) {
-                PlottingDomainParams timestepParameters = new PlottingDomainParams(
-                        plottingParameters.getWidth(), plottingParameters.getHeight(),
-                        plottingParameters.getBbox(), plottingParameters.getZExtent(), null,
-                        plottingParameters.getTargetHorizontalPosition(),
-                        plottingParameters.getTargetZ(), timeStep);
-                frames.add(imageGenerator.drawImage(timestepParameters, catalogue));
-            }
-        }
-
         ImageFormat imageFormat = getMapParams.getImageFormat();
+        AnimationFrameIterator animationFrames = null;
         try {
+            List<BufferedImage> frames = null;
+            if (getMapParams.isAnimation()) {
+                /*
+                 * Frames are rendered in parallel, and written as soon as they
+                 * are available, rather than all being held in memory
+                 */
+                animationFrames = new AnimationFrameIterator(imageGenerator, plottingParameters,
+                        getMapParams.getAnimationTimesteps(), catalogue);
+            } else {
+                frames = Arrays.asList(imageGenerator.drawImage(plottingParameters, catalogue));
+            }
             ServletOutputStream outputStream = httpServletResponse.getOutputStream();
             if (imageFormat instanceof SimpleFormat) {
                 /*
                  * We have a normal image format
                  */
                 SimpleFormat simpleFormat = (SimpleFormat) getMapParams.getImageFormat();
-                simpleFormat.writeImage(frames, outputStream, null);
+                if (animationFrames != null) {
+                    simpleFormat.writeImage(animationFrames, outputStream, null);
+                } else {
+                    simpleFormat.writeImage(frames, outputStream, null);
+                }
             } else {
                 /*
                  * We have KML (or another image format which needs additional
                  * information)
                  */
+                if (animationFrames != null) {
+                    frames = new ArrayList<>();
+                    while (animationFrames.hasNext()) {
+                        frames.add(animationFrames.next());
+                    }
+                }
                 String[] layerNames = styleParameters.getLayerNames();
                 if (layerNames.length > 1) {
                     throw new EdalException("Exactly 1 layer must be requested for KML ("
@@ -466,6 +474,10 @@ public class WmsServlet extends HttpServlet {
              * This gives Broken pipe errors which can be ignored.
              */
             log.error("Problem writing output to stream", e);
+        } finally {
+            if (animationFrames != null) {
+                animationFrames.cancel();
+            }
         }
     }
 
@@ -613,6 +625,20 @@ public class WmsServlet extends HttpServlet {
             VariableMetadata metadata = WmsUtils.getVariableMetadataFromLayerName(layerName,
                     catalogue);
             Set<VariableMetadata> children = metadata.getChildren();
+            /*
+             * We only want to return a layer name if there are more than one
+             */
+            String layerNameToSave = layerNames.length < 2 ? null : layerName;
+            if (dataset instanceof GriddedDataset) {
+                /*
+                 * For gridded data we only need to read the single grid cell
+                 * containing the clicked position for each variable, rather
+                 * than extracting a feature covering the whole map
+                 */
+                featureInfos.addAll(getGriddedFeatureInfo((GriddedDataset) dataset, variableId,
+                        metadata, plottingParameters, layerNameToSave, catalogue));
+                continue;
+            }
             /*
              * Extract the map features. Because of the way
              * GetFeatureInfoParameters works, features are searched for in a
@@ -621,10 +647,6 @@ public class WmsServlet extends HttpServlet {
             Collection<? extends DiscreteFeature<?, ?>> mapFeatures = dataset.extractMapFeatures(
                     CollectionUtils.setOf(variableId), plottingParameters);
 
-            /*
-             * We only want to return a layer name if there are more than one
-             */
-            String layerNameToSave = layerNames.length < 2 ? null : layerName;
             for (DiscreteFeature<?, ?> feature : mapFeatures) {
                 if (metadata.isScalar()) {
                     /*
@@ -694,6 +716,96 @@ public class WmsServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Reads the values of a gridded layer (and any child layers) at the
+     * clicked position. Only the single source grid cell containing the
+     * position is read for each variable.
+     * 
+     * @param dataset
+     *            The {@link GriddedDataset} containing the layer
+     * @param variableId
+     *            The ID of the variable to read
+     * @param metadata
+     *            The {@link VariableMetadata} of the variable
+     * @param plottingParameters
+     *            The {@link PlottingDomainParams} defining the target position,
+     *            elevation and time
+     * @param layerName
+     *            The layer name to add to the {@link FeatureInfoPoint}s
+     * @param catalogue
+     *            The {@link WmsCatalogue} used to find the titles of child
+     *            layers
+     * @return The values which were found, as {@link FeatureInfoPoint}s
+     */
+    private List<FeatureInfoPoint> getGriddedFeatureInfo(GriddedDataset dataset,
+            String variableId, VariableMetadata metadata,
+            PlottingDomainParams plottingParameters, String layerName, WmsCatalogue catalogue)
+            throws EdalException {
+        /*
+         * Map of variable ID to the name used to identify its value. These are
+         * the same names which are used when extracting a map feature.
+         */
+        Map<String, String> names = new LinkedHashMap<>();
+        Map<String, VariableMetadata> variables = new LinkedHashMap<>();
+        if (metadata.isScalar()) {
+            names.put(variableId, "Map of " + variableId);
+            variables.put(variableId, metadata);
+        }
+        for (VariableMetadata child : metadata.getChildren()) {
+            names.put(child.getId(), catalogue.getLayerMetadata(child).getTitle());
+            variables.put(child.getId(), child);
+        }
+
+        HorizontalPosition position = plottingParameters.getTargetHorizontalPosition();
+        DateTime time = plottingParameters.getTargetT();
+        Map<String, Number> values = dataset.readSinglePoints(names.keySet(), position,
+                plottingParameters.getTargetZ(), time);
+
+        List<FeatureInfoPoint> featureInfos = new ArrayList<>();
+        for (Entry<String, String> name : names.entrySet()) {
+            Number value = values.get(name.getKey());
+            if (value != null) {
+                /*
+                 * Report the time which was actually read, as a map feature
+                 * would, rather than the requested time
+                 */
+                DateTime actualTime = getActualTime(variables.get(name.getKey()), time);
+                String timeStr = actualTime == null ? null : TimeUtils
+                        .dateTimeToISO8601(actualTime);
+                featureInfos.add(new FeatureInfoPoint(layerName, name.getValue(), position,
+                        timeStr, value, new Properties()));
+            }
+        }
+        return featureInfos;
+    }
+
+    /**
+     * Finds the time on a variable's time axis which will be read for a target
+     * time, in the same way as when reading map data
+     * 
+     * @param metadata
+     *            The {@link VariableMetadata} of the variable
+     * @param targetTime
+     *            The requested time. If this is <code>null</code>, the time
+     *            closest to the current time is used.
+     * @return The time on the variable's axis closest to the target time, or
+     *         <code>null</code> if the variable has no time axis
+     */
+    private static DateTime getActualTime(VariableMetadata metadata, DateTime targetTime) {
+        TemporalDomain temporalDomain = metadata.getTemporalDomain();
+        if (temporalDomain instanceof TimeAxis) {
+            TimeAxis timeAxis = (TimeAxis) temporalDomain;
+            if (targetTime == null) {
+                targetTime = GISUtils.getClosestToCurrentTime(timeAxis);
+            }
+            int index = GISUtils.getIndexOfClosestTimeTo(targetTime, timeAxis);
+            if (index >= 0) {
+                return timeAxis.getCoordinateValue(index);
+            }
+        }
+        return null;
+    }
+
     /**
      * Extracts the target value from a feature
      * 
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.wms.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+
+import uk.ac.rdg.resc.edal.exceptions.EdalException;
+import uk.ac.rdg.resc.edal.graphics.style.MapImage;
+import uk.ac.rdg.resc.edal.graphics.style.util.FeatureCatalogue;
+import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
+
+/**
+ * Renders the frames of an animation in parallel, and returns them in order.
+ * 
+ * Frames are rendered on a worker pool which is shared between all
+ * animations, and at most a fixed number of frames per animation are rendered
+ * ahead of the frame which is currently being consumed. This means that an
+ * image format can write each frame as soon as it is ready, and the memory
+ * required does not depend on the number of frames in the animation.
+ * 
+ * Any failure to render a frame is thrown from {@link #next()} as an
+ * {@link EdalException}. {@link #cancel()} should always be called once the
+ * animation has been written (or has failed), so that frames which have not
+ * been consumed are discarded.
+ * 
+ * Frames are rendered in parallel, but this class itself is not thread-safe:
+ * it should be consumed by a single thread.
+ */
+public class AnimationFrameIterator implements Iterator<BufferedImage> {
+    private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The maximum number of frames which can be rendered (or waiting to be
+     * consumed) at once for a single animation
+     */
+    private static final int MAX_FRAMES_IN_FLIGHT = NUM_THREADS + 1;
+
+    private static final ExecutorService renderingPool = Executors.newFixedThreadPool(
+            NUM_THREADS, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "animation-renderer-"
+                            + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final MapImage imageGenerator;
+    private final PlottingDomainParams plottingParameters;
+    private final List<DateTime> timesteps;
+    private final FeatureCatalogue catalogue;
+
+    private final Deque<Future<BufferedImage>> inFlight = new ArrayDeque<>();
+    private int nextToSubmit = 0;
+
+    /**
+     * Creates a new {@link AnimationFrameIterator}, and starts rendering the
+     * first frames.
+     * 
+     * @param imageGenerator
+     *            The {@link MapImage} used to draw each frame
+     * @param plottingParameters
+     *            The {@link PlottingDomainParams} to use for each frame. The
+     *            target time is replaced by each timestep in turn.
+     * @param timesteps
+     *            The times of each frame in the animation
+     * @param catalogue
+     *            The {@link FeatureCatalogue} to read data from
+     */
+    public AnimationFrameIterator(MapImage imageGenerator,
+            PlottingDomainParams plottingParameters, List<DateTime> timesteps,
+            FeatureCatalogue catalogue) {
+        this.imageGenerator = imageGenerator;
+        this.plottingParameters = plottingParameters;
+        this.timesteps = timesteps;
+        this.catalogue = catalogue;
+        fillPipeline();
+    }
+
+    private void fillPipeline() {
+        while (inFlight.size() < MAX_FRAMES_IN_FLIGHT && nextToSubmit < timesteps.size()) {
+            final PlottingDomainParams timestepParameters = new PlottingDomainParams(
+                    plottingParameters.getWidth(), plottingParameters.getHeight(),
+                    plottingParameters.getBbox(), plottingParameters.getZExtent(), null,
+                    plottingParameters.getTargetHorizontalPosition(),
+                    plottingParameters.getTargetZ(), timesteps.get(nextToSubmit++));
+            inFlight.add(renderingPool.submit(new Callable<BufferedImage>() {
+                @Override
+                public BufferedImage call() throws Exception {
+                    return imageGenerator.drawImage(timestepParameters, catalogue);
+                }
+            }));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !inFlight.isEmpty();
+    }
+
+    @Override
+    public BufferedImage next() {
+        Future<BufferedImage> frame = inFlight.poll();
+        if (frame == null) {
+            throw new NoSuchElementException();
+        }
+        try {
+            BufferedImage image = frame.get();
+            fillPipeline();
+            return image;
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new EdalException("Interrupted whilst rendering animation", e);
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof EdalException) {
+                throw (EdalException) cause;
+            }
+            throw new EdalException("Problem rendering animation frame", cause);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Frames cannot be removed from an animation");
+    }
+
+    /**
+     * Stops rendering any frames which have not yet been consumed. After this
+     * has been called, {@link #hasNext()} will return <code>false</code>
+     */
+    public void cancel() {
+        for (Future<BufferedImage> frame : inFlight) {
+            frame.cancel(true);
+        }
+        inFlight.clear();
+        nextToSubmit = timesteps.size();
+    }
+}
@@ -32,11 +32,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
@@ -51,6 +55,8 @@ import net.sf.ehcache.config.SizeOfPolicyConfiguration;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CacheInfo;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig;
@@ -58,6 +64,7 @@ import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.VariableConfig;
 import uk.ac.rdg.resc.edal.catalogue.jaxb.CatalogueConfig.DatasetStorage;
 import uk.ac.rdg.resc.edal.dataset.Dataset;
+import uk.ac.rdg.resc.edal.dataset.DatasetFactory;
 import uk.ac.rdg.resc.edal.exceptions.EdalException;
 import uk.ac.rdg.resc.edal.feature.DiscreteFeature;
 import uk.ac.rdg.resc.edal.graphics.exceptions.EdalLayerNotFoundException;
@@ -66,6 +73,7 @@ import uk.ac.rdg.resc.edal.graphics.style.util.EnhancedVariableMetadata;
 import uk.ac.rdg.resc.edal.graphics.style.util.FeatureCatalogue;
 import uk.ac.rdg.resc.edal.graphics.style.util.LayerNameMapper;
 import uk.ac.rdg.resc.edal.metadata.VariableMetadata;
+import uk.ac.rdg.resc.edal.util.ByteSized;
 import uk.ac.rdg.resc.edal.util.CollectionUtils;
 import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
 
@@ -81,34 +89,63 @@ import uk.ac.rdg.resc.edal.util.PlottingDomainParams;
  * @author Guy Griffiths
  */
 public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureCatalogue {
+    private static final Logger log = LoggerFactory.getLogger(DataCatalogue.class);
     private static final String CACHE_NAME = "featureCache";
 
     private boolean cachingEnabled = false;
     protected final CacheManager cacheManager;
-    private Cache featureCache = null;
+    private volatile Cache featureCache = null;
+    /*
+     * Feature extractions which are currently in progress
+     */
+    private final ConcurrentHashMap<CacheKey, FutureTask<Collection<? extends DiscreteFeature<?, ?>>>> extractions =
+            new ConcurrentHashMap<>();
+    /*
+     * Incremented for a dataset whenever its cached features are removed, so
+     * that extractions which started before then do not cache their results
+     */
+    private final ConcurrentHashMap<String, AtomicLong> featureGenerations = new ConcurrentHashMap<>();
 
     protected final CatalogueConfig config;
-    protected Map<String, Dataset> datasets;
+    /*
+     * The datasets in this catalogue. This is replaced, never modified, so
+     * that requests can read it without locking.
+     */
+    private final AtomicReference<DatasetRegistry> datasets = new AtomicReference<>(
+            DatasetRegistry.EMPTY);
     protected final Map<DatasetVariableId, EnhancedVariableMetadata> layerMetadata;
 
     protected final LayerNameMapper layerNameMapper;
 
-    private DateTime lastUpdateTime = new DateTime();
+    /*
+     * Watches the files of loaded datasets for changes. null if file watching
+     * is not enabled
+     */
+    private DatasetFileWatcher fileWatcher = null;
+
+    private volatile DateTime lastUpdateTime = new DateTime();
 
     public DataCatalogue(CatalogueConfig config, LayerNameMapper layerNameMapper)
             throws IOException {
         /*
          * Initialise the storage for datasets and layer metadata.
          */
-        datasets = new HashMap<>();
-        layerMetadata = new HashMap<>();
+        layerMetadata = new ConcurrentHashMap<>();
+
+        this.layerNameMapper = layerNameMapper;
+
+        if (DatasetFileWatcher.isEnabled()) {
+            try {
+                fileWatcher = new DatasetFileWatcher(this);
+            } catch (IOException e) {
+                log.warn("Cannot watch dataset files for changes", e);
+            }
+        }
 
         this.config = config;
         this.config.setDatasetLoadedHandler(this);
         this.config.loadDatasets();
 
-        this.layerNameMapper = layerNameMapper;
-
         /*
          * We are using an in-memory cache with a configured memory size (as
          * opposed to a configured number of items in memory). This has the
@@ -129,10 +166,11 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
          * 2) Collections of point features. A year's worth of EN3 data could
          * typically contain >15,000 features, each with a number of properties
          * 
-         * These can need to count a very large number of object references.
-         * However, this calculation is actually pretty quick. Setting the max
-         * depth to 1,000,000 seems to suppress the vast majority of warnings,
-         * and doesn't impact performance noticeably.
+         * Walking the object graphs of these would need to count a very large
+         * number of object references, so instead the features estimate their
+         * own sizes and FeatureSizeOfEngine (registered as an Ehcache service)
+         * uses those estimates. The maxDepth setting only applies to any values
+         * which cannot estimate their own sizes.
          */
         cacheManager = CacheManager.create(new Configuration().name("EDAL-WMS-CacheManager")
                 .sizeOfPolicy(new SizeOfPolicyConfiguration().maxDepth(1_000_000)));
@@ -209,8 +247,31 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
      *            The ID of the dataset to remove
      */
     public void removeDataset(String id) {
-        datasets.remove(id);
-        config.removeDataset(config.getDatasetInfo(id));
+        /*
+         * Remove from the config first. Once this has happened, a load which
+         * is in progress will no longer publish the dataset, so anything
+         * published before now is removed below.
+         */
+        DatasetConfig datasetConfig = config.getDatasetInfo(id);
+        if (datasetConfig != null) {
+            config.removeDataset(datasetConfig);
+        }
+        DatasetRegistry current;
+        do {
+            current = datasets.get();
+        } while (!datasets.compareAndSet(current, current.without(id)));
+        if (datasetConfig != null) {
+            if (fileWatcher != null) {
+                fileWatcher.unwatch(datasetConfig);
+            }
+            try {
+                DatasetFactory.forName(datasetConfig.getDataReaderClass()).datasetRemoved(
+                        datasetConfig.getLocation());
+            } catch (Exception e) {
+                log.warn("Problem notifying the data reader that dataset " + id
+                        + " has been removed", e);
+            }
+        }
     }
 
     /**
@@ -223,37 +284,60 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
      *            The new ID
      */
     public void changeDatasetId(String oldId, String newId) {
-        Dataset dataset = datasets.get(oldId);
-        datasets.remove(oldId);
-        datasets.put(newId, dataset);
-        config.changeDatasetId(config.getDatasetInfo(oldId), newId);
+        DatasetConfig datasetConfig = config.getDatasetInfo(oldId);
+        DatasetRegistry current;
+        DatasetRegistry updated;
+        do {
+            current = datasets.get();
+            RegisteredDataset registered = current.byId.get(oldId);
+            updated = current.without(oldId);
+            if (registered != null) {
+                updated = updated.with(new RegisteredDataset(newId, registered.dataset,
+                        registered.config));
+            }
+        } while (!datasets.compareAndSet(current, updated));
+        config.changeDatasetId(datasetConfig, newId);
+    }
+
+    /**
+     * Should be called when a dataset's title has been changed in its
+     * {@link DatasetConfig}, so that it is sorted correctly
+     * 
+     * @param id
+     *            The ID of the dataset
+     */
+    public void datasetTitleChanged(String id) {
+        DatasetRegistry current;
+        DatasetRegistry updated;
+        do {
+            current = datasets.get();
+            RegisteredDataset registered = current.byId.get(id);
+            if (registered == null) {
+                return;
+            }
+            updated = current.with(new RegisteredDataset(id, registered.dataset,
+                    registered.config));
+        } while (!datasets.compareAndSet(current, updated));
     }
 
     @Override
-    public synchronized void datasetLoaded(Dataset dataset, Collection<VariableConfig> variables) {
+    public void datasetLoaded(Dataset dataset, Collection<VariableConfig> variables) {
         /*
          * If we already have a dataset with this ID, it will be replaced. This
          * is exactly what we want.
+         * 
+         * The new dataset is added to a copy of the registry, which then
+         * replaces the existing one, so that requests never see it in a
+         * partially-updated state. Retry if another dataset was loaded in the
+         * meantime.
          */
-        datasets.put(dataset.getId(), dataset);
-
-        /*
-         * Re-sort the datasets map according to the titles of the datasets, so
-         * that they appear in the menu in this order.
-         */
-        List<Map.Entry<String, Dataset>> entryList = new ArrayList<Map.Entry<String, Dataset>>(
-                datasets.entrySet());
-        Collections.sort(entryList, new Comparator<Map.Entry<String, Dataset>>() {
-            public int compare(Map.Entry<String, Dataset> d1, Map.Entry<String, Dataset> d2) {
-                return config.getDatasetInfo(d1.getKey()).getTitle()
-                        .compareTo(config.getDatasetInfo(d2.getKey()).getTitle());
-            }
-        });
-
-        datasets = new LinkedHashMap<String, Dataset>();
-        for (Map.Entry<String, Dataset> entry : entryList) {
-            datasets.put(entry.getKey(), entry.getValue());
-        }
+        DatasetConfig datasetConfig = config.getDatasetInfo(dataset.getId());
+        RegisteredDataset registered = new RegisteredDataset(dataset.getId(), dataset,
+                datasetConfig);
+        DatasetRegistry current;
+        do {
+            current = datasets.get();
+        } while (!datasets.compareAndSet(current, current.with(registered)));
 
         /*
          * Now add the layer metadata to a map for future reference
@@ -266,12 +350,69 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
         lastUpdateTime = new DateTime();
 
         /*
-         * The config has changed, so we save it.
+         * Any cached features were extracted from the previous version of this
+         * dataset
+         */
+        removeCachedFeatures(dataset.getId());
+
+        if (fileWatcher != null && datasetConfig != null) {
+            fileWatcher.watch(datasetConfig);
+        }
+
+        /*
+         * The config has changed, so we save it. This is deferred so that
+         * many datasets loading at once only cause a single save.
          */
+        config.saveLater();
+    }
+
+    /**
+     * Called when the files making up a dataset have changed. Any cached data
+     * from the dataset are discarded and it is scheduled to be reloaded. The
+     * current version of the dataset remains available until the reload has
+     * completed.
+     * 
+     * @param datasetConfig
+     *            The {@link DatasetConfig} of the changed dataset
+     */
+    void datasetFilesChanged(DatasetConfig datasetConfig) {
         try {
-            config.save();
-        } catch (IOException e) {
-            e.printStackTrace();
+            DatasetFactory.forName(datasetConfig.getDataReaderClass()).dataChanged(
+                    datasetConfig.getLocation());
+        } catch (Exception e) {
+            log.warn("Problem notifying the data reader that dataset " + datasetConfig.getId()
+                    + " has changed", e);
+        }
+        removeCachedFeatures(datasetConfig.getId());
+        datasetConfig.requestRefresh();
+    }
+
+    /**
+     * Removes all cached features belonging to a dataset
+     * 
+     * @param datasetId
+     *            The ID of the dataset
+     */
+    private void removeCachedFeatures(String datasetId) {
+        getFeatureGeneration(datasetId).incrementAndGet();
+        Cache cache = featureCache;
+        if (cache == null) {
+            return;
+        }
+        for (Object key : cache.getKeys()) {
+            if (key instanceof CacheKey) {
+                try {
+                    if (datasetId.equals(layerNameMapper
+                            .getDatasetIdFromLayerName(((CacheKey) key).id))) {
+                        cache.remove(key);
+                    }
+                } catch (EdalLayerNotFoundException e) {
+                    /*
+                     * Not a layer name we recognise, so it can't belong to
+                     * this dataset
+                     */
+                }
+            }
         }
     }
 
@@ -288,10 +429,10 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
          * go)
          */
         List<Dataset> allDatasets = new ArrayList<Dataset>();
-        for (Dataset dataset : datasets.values()) {
-            DatasetConfig datasetInfo = config.getDatasetInfo(dataset.getId());
+        for (RegisteredDataset registered : datasets.get().sorted) {
+            DatasetConfig datasetInfo = registered.config;
             if (datasetInfo != null && !datasetInfo.isDisabled() && datasetInfo.isReady()) {
-                allDatasets.add(dataset);
+                allDatasets.add(registered.dataset);
             }
         }
         return allDatasets;
@@ -299,8 +440,16 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
 
     @Override
     public Dataset getDatasetFromId(String datasetId) {
-        if (datasets.containsKey(datasetId)) {
-            return datasets.get(datasetId);
+        RegisteredDataset registered = datasets.get().byId.get(datasetId);
+        if (registered != null) {
+            /*
+             * Record the access so that the most-used datasets can be loaded
+             * first on startup
+             */
+            if (registered.config != null) {
+                registered.config.recordAccess();
+            }
+            return registered.dataset;
         } else {
             return null;
         }
@@ -321,34 +470,219 @@ public class DataCatalogue implements DatasetCatalogue, DatasetStorage, FeatureC
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public FeaturesAndMemberName getFeaturesForLayer(String layerName, PlottingDomainParams params)
-            throws EdalException {
-        String variable = layerNameMapper.getVariableIdFromLayerName(layerName);
-        Collection<? extends DiscreteFeature<?, ?>> mapFeatures;
-        if (cachingEnabled) {
-            CacheKey key = new CacheKey(layerName, params);
-            Element element = featureCache.get(key);
-            if (element != null && element.getObjectValue() != null) {
-                /*
-                 * This is why we added the SuppressWarnings("unchecked").
-                 */
-                mapFeatures = (Collection<? extends DiscreteFeature<?, ?>>) element
-                        .getObjectValue();
-            } else {
-                Dataset dataset = getDatasetFromLayerName(layerName);
-                mapFeatures = dataset.extractMapFeatures(CollectionUtils.setOf(variable), params);
-                featureCache.put(new Element(key, mapFeatures));
+    public FeaturesAndMemberName getFeaturesForLayer(final String layerName,
+            final PlottingDomainParams params) throws EdalException {
+        final String variable = layerNameMapper.getVariableIdFromLayerName(layerName);
+        final Cache cache = cachingEnabled ? featureCache : null;
+        final CacheKey key = new CacheKey(layerName, params);
+        if (cache != null) {
+            Collection<? extends DiscreteFeature<?, ?>> mapFeatures = getCachedFeatures(cache,
+                    key);
+            if (mapFeatures != null) {
+                return new FeaturesAndMemberName(mapFeatures, variable);
             }
-        } else {
-            Dataset dataset = getDatasetFromLayerName(layerName);
-            mapFeatures = dataset.extractMapFeatures(CollectionUtils.setOf(variable), params);
         }
-        return new FeaturesAndMemberName(mapFeatures, variable);
+
+        /*
+         * Only one thread extracts the features for a given layer and set of
+         * parameters. Any others which request the same features (e.g. tiles
+         * requested together) wait for it to finish and share the result.
+         */
+        FutureTask<Collection<? extends DiscreteFeature<?, ?>>> extraction = new FutureTask<>(
+                new Callable<Collection<? extends DiscreteFeature<?, ?>>>() {
+                    @Override
+                    public Collection<? extends DiscreteFeature<?, ?>> call() {
+                        if (cache != null) {
+                            /*
+                             * Another extraction may have finished since we
+                             * checked the cache
+                             */
+                            Collection<? extends DiscreteFeature<?, ?>> cached = getCachedFeatures(
+                                    cache, key);
+                            if (cached != null) {
+                                return cached;
+                            }
+                        }
+                        String datasetId = layerNameMapper.getDatasetIdFromLayerName(layerName);
+                        AtomicLong generation = getFeatureGeneration(datasetId);
+                        long startGeneration = generation.get();
+                        Dataset dataset = getDatasetFromId(datasetId);
+                        List<? extends DiscreteFeature<?, ?>> mapFeatures = dataset
+                                .extractMapFeatures(CollectionUtils.setOf(variable), params);
+                        if (cache != null && generation.get() == startGeneration) {
+                            cache.put(new Element(key, new CachedFeatures(mapFeatures)));
+                            if (generation.get() != startGeneration) {
+                                /*
+                                 * The cached features were removed whilst we
+                                 * were adding these
+                                 */
+                                cache.remove(key);
+                            }
+                        }
+                        return mapFeatures;
+                    }
+                });
+        FutureTask<Collection<? extends DiscreteFeature<?, ?>>> inProgress = extractions
+                .putIfAbsent(key, extraction);
+        if (inProgress == null) {
+            try {
+                extraction.run();
+            } finally {
+                extractions.remove(key, extraction);
+            }
+            inProgress = extraction;
+        }
+
+        try {
+            return new FeaturesAndMemberName(inProgress.get(), variable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EdalException("Interrupted whilst waiting for features of layer "
+                    + layerName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new EdalException("Problem extracting features of layer " + layerName, cause);
+        }
+    }
+
+    private static Collection<? extends DiscreteFeature<?, ?>> getCachedFeatures(Cache cache,
+            CacheKey key) {
+        Element element = cache.get(key);
+        if (element != null && element.getObjectValue() instanceof CachedFeatures) {
+            return ((CachedFeatures) element.getObjectValue()).features;
+        }
+        return null;
     }
 
-    private Dataset getDatasetFromLayerName(String layerName) {
-        return getDatasetFromId(layerNameMapper.getDatasetIdFromLayerName(layerName));
+    private AtomicLong getFeatureGeneration(String datasetId) {
+        AtomicLong generation = featureGenerations.get(datasetId);
+        if (generation == null) {
+            AtomicLong newGeneration = new AtomicLong(0L);
+            generation = featureGenerations.putIfAbsent(datasetId, newGeneration);
+            if (generation == null) {
+                generation = newGeneration;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * The value stored in the feature cache. This reports its size so that the
+     * cache does not need to walk the object graph of the features (see
+     * {@link FeatureSizeOfEngine}).
+     */
+    private static class CachedFeatures implements ByteSized {
+        final Collection<? extends DiscreteFeature<?, ?>> features;
+        final long size;
+
+        public CachedFeatures(Collection<? extends DiscreteFeature<?, ?>> features) {
+            this.features = features;
+            long size = 0L;
+            for (DiscreteFeature<?, ?> feature : features) {
+                if (feature instanceof ByteSized && ((ByteSized) feature).getSizeInBytes() >= 0) {
+                    size += ((ByteSized) feature).getSizeInBytes();
+                } else {
+                    /*
+                     * We can't estimate the size, so it must be calculated by
+                     * the cache
+                     */
+                    size = -1L;
+                    break;
+                }
+            }
+            this.size = size;
+        }
+
+        @Override
+        public long getSizeInBytes() {
+            return size;
+        }
+    }
+
+    /**
+     * A dataset in the catalogue, along with its configuration. These are
+     * ordered by title.
+     */
+    private static class RegisteredDataset implements Comparable<RegisteredDataset> {
+        final String id;
+        final Dataset dataset;
+        final DatasetConfig config;
+        /*
+         * The title at the time the dataset was registered. This is used for
+         * sorting, so must not change. A dataset whose title changes is
+         * registered again.
+         */
+        final String title;
+
+        public RegisteredDataset(String id, Dataset dataset, DatasetConfig config) {
+            this.id = id;
+            this.dataset = dataset;
+            this.config = config;
+            String title = config == null ? null : config.getTitle();
+            this.title = title == null ? id : title;
+        }
+
+        @Override
+        public int compareTo(RegisteredDataset other) {
+            return title.compareTo(other.title);
+        }
+    }
+
+    /**
+     * An immutable snapshot of the datasets in the catalogue. This provides
+     * lookup by ID, and a list of datasets sorted by title, so that they
+     * appear in menus in this order.
+     */
+    private static class DatasetRegistry {
+        static final DatasetRegistry EMPTY = new DatasetRegistry(
+                new HashMap<String, RegisteredDataset>(), new ArrayList<RegisteredDataset>());
+
+        final Map<String, RegisteredDataset> byId;
+        final List<RegisteredDataset> sorted;
+
+        private DatasetRegistry(Map<String, RegisteredDataset> byId,
+                List<RegisteredDataset> sorted) {
+            this.byId = Collections.unmodifiableMap(byId);
+            this.sorted = Collections.unmodifiableList(sorted);
+        }
+
+        /**
+         * @return A copy of this registry, with the given dataset added or
+         *         replacing any existing one with the same ID
+         */
+        DatasetRegistry with(RegisteredDataset dataset) {
+            Map<String, RegisteredDataset> newById = new HashMap<>(byId);
+            List<RegisteredDataset> newSorted = new ArrayList<>(sorted);
+            RegisteredDataset previous = newById.put(dataset.id, dataset);
+            if (previous != null) {
+                newSorted.remove(previous);
+            }
+            /*
+             * The list is already sorted, so we just need to insert the new
+             * dataset in the right place
+             */
+            int index = Collections.binarySearch(newSorted, dataset);
+            newSorted.add(index < 0 ? -(index + 1) : index, dataset);
+            return new DatasetRegistry(newById, newSorted);
+        }
+
+        /**
+         * @return A copy of this registry, with the given dataset removed
+         */
+        DatasetRegistry without(String id) {
+            if (!byId.containsKey(id)) {
+                return this;
+            }
+            Map<String, RegisteredDataset> newById = new HashMap<>(byId);
+            List<RegisteredDataset> newSorted = new ArrayList<>(sorted);
+            newSorted.remove(newById.remove(id));
+            return new DatasetRegistry(newById, newSorted);
+        }
     }
 
     private static class CacheKey {
@@ -0,0 +1,466 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.catalogue;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.rdg.resc.edal.catalogue.jaxb.DatasetConfig;
+
+/**
+ * Watches the files which make up datasets, and notifies a
+ * {@link DataCatalogue} when they change, so that new data become available
+ * as soon as they are written rather than when the dataset is next refreshed.
+ * 
+ * Local dataset locations (including glob expressions) are watched using a
+ * {@link WatchService}. For glob expressions, the deepest directory which does
+ * not contain any wildcards is watched, along with all of its subdirectories
+ * if the wildcards span multiple directories. If that directory does not
+ * exist yet, its nearest existing ancestor is watched until it is created.
+ * Directories which are no longer needed by any location stop being watched.
+ * Since files are often written
+ * over a period of time, notifications are only sent once the files of a
+ * dataset have stopped changing for a short time.
+ */
+public class DatasetFileWatcher {
+    private static final Logger log = LoggerFactory.getLogger(DatasetFileWatcher.class);
+
+    /*
+     * How long (in ms) the files of a dataset must be unchanged before the
+     * catalogue is notified
+     */
+    private static final long QUIET_PERIOD = 2000L;
+
+    private static boolean enabled = false;
+    private static final List<DatasetFileWatcher> watchers = new CopyOnWriteArrayList<>();
+
+    private final DataCatalogue catalogue;
+    private final WatchService watchService;
+    private final ScheduledExecutorService notifier;
+    /* The directory which each WatchKey watches */
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    /* The locations being watched for each dataset */
+    private final Map<DatasetConfig, WatchedLocation> locations = new HashMap<>();
+    /* Notifications which are waiting for the quiet period to elapse */
+    private final Map<DatasetConfig, ScheduledFuture<?>> pending = new HashMap<>();
+
+    /**
+     * Sets whether {@link DataCatalogue}s created after this call will watch
+     * the files of their datasets for changes
+     * 
+     * @param enabled
+     *            <code>true</code> to watch dataset files
+     */
+    public static void setEnabled(boolean enabled) {
+        DatasetFileWatcher.enabled = enabled;
+    }
+
+    /**
+     * @return Whether {@link DataCatalogue}s should watch the files of their
+     *         datasets for changes
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stops all {@link DatasetFileWatcher}s
+     */
+    public static void shutdown() {
+        for (DatasetFileWatcher watcher : watchers) {
+            watcher.close();
+        }
+        watchers.clear();
+    }
+
+    /**
+     * A location which is being watched
+     */
+    private static class WatchedLocation {
+        /* The deepest directory of the location which contains no wildcards */
+        private final Path root;
+        /* Whether the wildcards span more than one directory level */
+        private final boolean recursive;
+        private final PathMatcher matcher;
+
+        private WatchedLocation(String location) {
+            Path path = Paths.get(location).toAbsolutePath().normalize();
+            Path root = path.getRoot();
+            int i = 0;
+            while (i < path.getNameCount() - 1 && !isGlob(path.getName(i).toString())) {
+                root = root.resolve(path.getName(i));
+                i++;
+            }
+            this.root = root;
+            recursive = i < path.getNameCount() - 1;
+            matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + path.toString().replace("\\", "\\\\"));
+        }
+
+        /**
+         * @return <code>true</code> if the given file or directory is (or may
+         *         contain) part of this location
+         */
+        private boolean matches(Path path, boolean isDirectory) {
+            if (isDirectory) {
+                return recursive && path.startsWith(root);
+            }
+            return matcher.matches(path);
+        }
+
+        /**
+         * @return <code>true</code> if the given directory needs to be watched
+         *         for this location: either it is part of the location, or it
+         *         is the nearest existing ancestor of a root which doesn't exist
+         */
+        private boolean needsWatch(Path dir) {
+            if (dir.startsWith(root)) {
+                return recursive || dir.equals(root);
+            }
+            if (root.startsWith(dir)) {
+                return !Files.isDirectory(dir.resolve(root.getName(dir.getNameCount())));
+            }
+            return false;
+        }
+
+        private static boolean isGlob(String pathComponent) {
+            return pathComponent.contains("*") || pathComponent.contains("?")
+                    || pathComponent.contains("[") || pathComponent.contains("{");
+        }
+    }
+
+    DatasetFileWatcher(DataCatalogue catalogue) throws IOException {
+        this.catalogue = catalogue;
+        watchService = FileSystems.getDefault().newWatchService();
+        notifier = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dataset-file-notifier");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processEvents();
+            }
+        }, "dataset-file-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        watchers.add(this);
+    }
+
+    /**
+     * Starts watching the files of a dataset, replacing any location which
+     * was previously watched for it. Remote datasets are ignored.
+     * 
+     * @param dataset
+     *            The {@link DatasetConfig} describing the dataset
+     */
+    synchronized void watch(DatasetConfig dataset) {
+        String location = dataset.getLocation();
+        if (location == null || location.startsWith("dods://") || location.startsWith("http://")
+                || location.startsWith("https://")) {
+            locations.remove(dataset);
+            cancelUnneeded();
+            return;
+        }
+        WatchedLocation watchedLocation;
+        try {
+            watchedLocation = new WatchedLocation(location);
+        } catch (RuntimeException e) {
+            /*
+             * InvalidPathException or PatternSyntaxException
+             */
+            log.warn("Cannot watch the location " + location + " for changes", e);
+            locations.remove(dataset);
+            cancelUnneeded();
+            return;
+        }
+        locations.put(dataset, watchedLocation);
+        try {
+            registerLocation(watchedLocation);
+        } catch (IOException e) {
+            log.warn("Cannot watch the location " + location + " for changes", e);
+        }
+        /*
+         * The dataset may previously have had a different location
+         */
+        cancelUnneeded();
+    }
+
+    /**
+     * Stops watching the files of a dataset
+     * 
+     * @param dataset
+     *            The {@link DatasetConfig} describing the dataset
+     */
+    synchronized void unwatch(DatasetConfig dataset) {
+        locations.remove(dataset);
+        cancelUnneeded();
+        ScheduledFuture<?> future = pending.remove(dataset);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Stops watching all files
+     */
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.error("Problem closing file watch service", e);
+        }
+        notifier.shutdownNow();
+    }
+
+    private void register(Path dir) throws IOException {
+        if (!watchedDirs.containsValue(dir) && Files.isDirectory(dir)) {
+            WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchedDirs.put(key, dir);
+        }
+    }
+
+    private void registerLocation(WatchedLocation watchedLocation) throws IOException {
+        if (Files.isDirectory(watchedLocation.root)) {
+            if (watchedLocation.recursive) {
+                registerAll(watchedLocation.root);
+            } else {
+                register(watchedLocation.root);
+            }
+        } else {
+            /*
+             * Watch the nearest directory which exists, so that we see the
+             * root being created
+             */
+            Path ancestor = watchedLocation.root.getParent();
+            while (ancestor != null && !Files.isDirectory(ancestor)) {
+                ancestor = ancestor.getParent();
+            }
+            if (ancestor != null) {
+                register(ancestor);
+            }
+        }
+    }
+
+    /**
+     * Stops watching directories which are not needed by any location
+     */
+    private void cancelUnneeded() {
+        Iterator<Map.Entry<WatchKey, Path>> iterator = watchedDirs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<WatchKey, Path> entry = iterator.next();
+            boolean needed = false;
+            for (WatchedLocation watchedLocation : locations.values()) {
+                if (watchedLocation.needsWatch(entry.getValue())) {
+                    needed = true;
+                    break;
+                }
+            }
+            if (!needed) {
+                entry.getKey().cancel();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void registerAll(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            try {
+                synchronized (this) {
+                    Path dir = watchedDirs.get(key);
+                    if (dir != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == OVERFLOW) {
+                                /*
+                                 * Events have been lost, so anything in this
+                                 * directory may have changed
+                                 */
+                                for (Map.Entry<DatasetConfig, WatchedLocation> entry : locations
+                                        .entrySet()) {
+                                    if (dir.startsWith(entry.getValue().root)) {
+                                        scheduleNotification(entry.getKey());
+                                    } else if (entry.getValue().root.startsWith(dir)) {
+                                        pathChanged(entry.getValue().root, true);
+                                    }
+                                }
+                            } else {
+                                pathChanged(dir.resolve((Path) event.context()),
+                                        event.kind() == ENTRY_CREATE);
+                            }
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("Problem processing file change events", e);
+            }
+            if (!key.reset()) {
+                synchronized (this) {
+                    Path dir = watchedDirs.remove(key);
+                    if (dir != null) {
+                        /*
+                         * The directory has been deleted. Watch the nearest
+                         * existing ancestor of any roots which were in it, so
+                         * that we see them being re-created.
+                         */
+                        for (WatchedLocation watchedLocation : locations.values()) {
+                            if (watchedLocation.root.startsWith(dir)) {
+                                try {
+                                    registerLocation(watchedLocation);
+                                } catch (IOException e) {
+                                    log.warn("Cannot watch the directory "
+                                            + watchedLocation.root + " for changes", e);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void pathChanged(Path path, boolean created) {
+        boolean isDirectory = Files.isDirectory(path);
+        List<DatasetConfig> affected = new ArrayList<>();
+        boolean rootCreated = false;
+        for (Map.Entry<DatasetConfig, WatchedLocation> entry : locations.entrySet()) {
+            WatchedLocation watchedLocation = entry.getValue();
+            if (isDirectory && created && watchedLocation.root.startsWith(path)) {
+                /*
+                 * The root of a location which didn't exist, or a directory on
+                 * the way to it, has been created
+                 */
+                try {
+                    registerLocation(watchedLocation);
+                } catch (IOException e) {
+                    log.warn("Cannot watch the directory " + path + " for changes", e);
+                }
+                rootCreated = true;
+                if (Files.isDirectory(watchedLocation.root)) {
+                    affected.add(entry.getKey());
+                }
+            } else if (watchedLocation.matches(path, isDirectory)) {
+                affected.add(entry.getKey());
+                if (isDirectory && created) {
+                    /*
+                     * A new directory which may contain files of this dataset
+                     */
+                    try {
+                        registerAll(path);
+                    } catch (IOException e) {
+                        log.warn("Cannot watch the directory " + path + " for changes", e);
+                    }
+                }
+            }
+        }
+        if (rootCreated) {
+            /*
+             * Ancestors watched whilst roots didn't exist may not be needed
+             */
+            cancelUnneeded();
+        }
+        for (DatasetConfig dataset : affected) {
+            scheduleNotification(dataset);
+        }
+    }
+
+    /**
+     * Notifies the catalogue that a dataset has changed, once its files have
+     * stopped changing
+     */
+    private void scheduleNotification(final DatasetConfig dataset) {
+        ScheduledFuture<?> future = pending.get(dataset);
+        if (future != null) {
+            future.cancel(false);
+        }
+        pending.put(dataset, notifier.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DatasetFileWatcher.this) {
+                    pending.remove(dataset);
+                }
+                log.debug("Files of dataset " + dataset.getId() + " have changed");
+                catalogue.datasetFilesChanged(dataset);
+            }
+        }, QUIET_PERIOD, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2013 The University of Reading
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the University of Reading, nor the names of the
+ *    authors or contributors may be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+
+package uk.ac.rdg.resc.edal.catalogue;
+
+import net.sf.ehcache.pool.Size;
+import net.sf.ehcache.pool.SizeOfEngine;
+import net.sf.ehcache.pool.SizeOfEngineFactory;
+import net.sf.ehcache.pool.impl.DefaultSizeOfEngine;
+import uk.ac.rdg.resc.edal.util.ByteSized;
+
+/**
+ * A {@link SizeOfEngine} which uses the size reported by cached values which
+ * implement {@link ByteSized}, rather than walking their object graphs. This
+ * makes adding large features to a cache with a memory limit cheap. All other
+ * values are sized by Ehcache's {@link DefaultSizeOfEngine}.
+ * 
+ * This is registered with Ehcache as a service (see {@link Factory}), so it is
+ * used by all caches which are limited by memory size.
+ */
+public class FeatureSizeOfEngine implements SizeOfEngine {
+    /*
+     * Estimated size of the Element which holds a cached value
+     */
+    private static final long ELEMENT_OVERHEAD_BYTES = 128L;
+
+    private final SizeOfEngine delegate;
+
+    /**
+     * Creates {@link FeatureSizeOfEngine}s for Ehcache
+     */
+    public static class Factory implements SizeOfEngineFactory {
+        @Override
+        public SizeOfEngine createSizeOfEngine(int maxObjectCount, boolean abort, boolean silent) {
+            return new FeatureSizeOfEngine(new DefaultSizeOfEngine(maxObjectCount, abort, silent));
+        }
+    }
+
+    FeatureSizeOfEngine(SizeOfEngine delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Size sizeOf(Object key, Object value, Object container) {
+        if (value instanceof ByteSized) {
+            long valueSize = ((ByteSized) value).getSizeInBytes();
+            if (valueSize >= 0) {
+                /*
+                 * The container holds a reference to the value, so we cannot
+                 * ask the delegate to size it. Keys are small.
+                 */
+                Size keySize = delegate.sizeOf(key, null, null);
+                return new Size(keySize.getCalculated() + valueSize + ELEMENT_OVERHEAD_BYTES,
+                        false);
+            }
+        }
+        return delegate.sizeOf(key, value, container);
+    }
+
+    @Override
+    public SizeOfEngine copyWith(int maxDepth, boolean abortWhenMaxDepthExceeded) {
+        return new FeatureSizeOfEngine(delegate.copyWith(maxDepth, abortWhenMaxDepthExceeded));
+    }
+}
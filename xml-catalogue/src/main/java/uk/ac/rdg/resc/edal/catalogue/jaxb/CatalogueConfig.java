@@ -38,13 +38,23 @@ import java.io.Reader;
 import java.io.Writer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -87,13 +97,62 @@ public class CatalogueConfig {
     @XmlTransient
     private File configBackup;
 
-    /** The scheduler that will handle the background (re)loading of datasets */
-    private static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    @XmlTransient
+    private ScheduledFuture<?> refreshPoller = null;
+    /*
+     * The DatasetConfigs which are currently queued for (or in the process of)
+     * loading, so that they are not queued more than once
+     */
+    @XmlTransient
+    private final Set<DatasetConfig> queuedDatasets = Collections
+            .synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<DatasetConfig, Boolean>()));
+
+    /*
+     * The access counts which were last written to disk, so that they are only
+     * rewritten when they have changed
+     */
+    @XmlTransient
+    private Properties writtenAccessCounts = null;
+
+    /*
+     * Whether a call to saveLater() is waiting to be carried out
+     */
+    @XmlTransient
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+
+    /** The default number of datasets which are loaded concurrently */
+    private static final int DEFAULT_LOADER_THREADS = 4;
+    /** The time to wait after a call to saveLater() before saving */
+    private static final long SAVE_DELAY_SECONDS = 5L;
+    /** How often dataset access counts are written to disk */
+    private static final long ACCESS_COUNT_WRITE_MINUTES = 5L;
+    /*
+     * Configs with pending saves, so that they can be saved at shutdown
+     */
+    private static final Set<CatalogueConfig> pendingSaves = Collections
+            .newSetFromMap(new ConcurrentHashMap<CatalogueConfig, Boolean>());
     /**
-     * Contains handles to background threads that can be used to cancel
-     * reloading of datasets. Maps dataset IDs to Future objects
+     * The scheduler which periodically checks whether datasets need to be
+     * (re)loaded
      */
-    private static Map<String, ScheduledFuture<?>> futures = new HashMap<String, ScheduledFuture<?>>();
+    private static ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor(new LoaderThreadFactory("dataset-refresh-poller",
+                    Thread.NORM_PRIORITY));
+    /**
+     * The pool which performs the (re)loading of datasets. Datasets are taken
+     * from the queue in order of priority - see {@link LoadTask}
+     */
+    private static ThreadPoolExecutor loader = new ThreadPoolExecutor(DEFAULT_LOADER_THREADS,
+            DEFAULT_LOADER_THREADS, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+            new LoaderThreadFactory("dataset-loader", Thread.NORM_PRIORITY));
+    /**
+     * Estimates default colour scale ranges for newly-loaded datasets. This
+     * is done at a lower priority than loading, so that datasets become
+     * available as quickly as possible.
+     */
+    private static ExecutorService scaleRangeEstimator = Executors
+            .newSingleThreadExecutor(new LoaderThreadFactory("scale-range-estimator",
+                    Thread.MIN_PRIORITY));
 
     /*
      * Used for JAX-B
@@ -123,44 +182,186 @@ public class CatalogueConfig {
         this.datasetStorage = datasetStorage;
     }
 
-    public void loadDatasets() {
+    /**
+     * Sets the number of datasets which may be loaded concurrently. This
+     * applies to all {@link CatalogueConfig}s.
+     * 
+     * @param loaderThreads
+     *            The number of datasets to load concurrently. Must be positive.
+     */
+    public static void setLoaderThreads(int loaderThreads) {
+        if (loaderThreads < 1) {
+            throw new IllegalArgumentException("Number of loader threads must be positive");
+        }
         /*
-         * Loop through all DatasetConfigs and load Datasets from each.
-         * 
-         * Do this in a manner which means that they are "reloaded" every second
-         * (and checked as to whether they need to actually have anything done
-         * to them)
-         * 
-         * Also during the load, return EnhancedVariableMetadata (these are just
-         * the VariableConfigs...)
+         * The core pool size may not exceed the maximum, so the order of these
+         * calls depends on whether we are growing or shrinking
          */
-        for (final DatasetConfig dataset : datasets.values()) {
-            scheduleReload(dataset);
+        if (loaderThreads > loader.getMaximumPoolSize()) {
+            loader.setMaximumPoolSize(loaderThreads);
+            loader.setCorePoolSize(loaderThreads);
+        } else {
+            loader.setCorePoolSize(loaderThreads);
+            loader.setMaximumPoolSize(loaderThreads);
         }
     }
 
-    private void scheduleReload(final DatasetConfig dataset) {
+    /**
+     * @return The number of datasets which are waiting to be loaded
+     */
+    public static int getNumQueuedLoads() {
+        return loader.getQueue().size();
+    }
+
+    /**
+     * @return The number of datasets which are currently being loaded
+     */
+    public static int getNumActiveLoads() {
+        return loader.getActiveCount();
+    }
+
+    public synchronized void loadDatasets() {
         if (datasetStorage == null) {
             throw new IllegalStateException(
                     "You need to set something to handle loaded datasets before loading them.");
         }
-        Runnable reloader = new Runnable() {
+        if (refreshPoller != null) {
+            return;
+        }
+        readAccessCounts();
+        /*
+         * Check all DatasetConfigs immediately and then every second to see
+         * whether they need to be (re)loaded. Those which do are queued on the
+         * loader pool.
+         * 
+         * Also during the load, return EnhancedVariableMetadata (these are just
+         * the VariableConfigs...)
+         */
+        refreshPoller = scheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
+                try {
+                    queueRefreshes();
+                } catch (Exception e) {
+                    /*
+                     * An exception here would stop any further scheduling, so
+                     * we just log it
+                     */
+                    log.error("Problem checking datasets for refresh", e);
+                }
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+        /*
+         * Access counts change all the time, but the config is only saved
+         * when it is edited, so write them out regularly as well
+         */
+        if (configFile != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (CatalogueConfig.this) {
+                        writeAccessCounts();
+                    }
+                }
+            }, ACCESS_COUNT_WRITE_MINUTES, ACCESS_COUNT_WRITE_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Queues a load for each dataset which needs refreshing and is not
+     * already queued
+     */
+    private void queueRefreshes() {
+        DatasetConfig[] toCheck;
+        synchronized (this) {
+            toCheck = getDatasets();
+        }
+        for (int i = 0; i < toCheck.length; i++) {
+            DatasetConfig dataset = toCheck[i];
+            if (dataset.needsRefresh() && queuedDatasets.add(dataset)) {
+                loader.execute(new LoadTask(dataset, dataset.getAccessCount(), i));
+            }
+        }
+    }
+
+    /**
+     * Loads a single dataset. These are ordered so that the most frequently
+     * accessed datasets are loaded first, with datasets which have not been
+     * accessed being loaded in the order in which they appear in the config.
+     */
+    private class LoadTask implements Runnable, Comparable<LoadTask> {
+        private final DatasetConfig dataset;
+        /*
+         * These are fixed on construction, since the order of items in the
+         * queue must not change whilst they are in it
+         */
+        private final long accessCount;
+        private final int configIndex;
+
+        public LoadTask(DatasetConfig dataset, long accessCount, int configIndex) {
+            this.dataset = dataset;
+            this.accessCount = accessCount;
+            this.configIndex = configIndex;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized (CatalogueConfig.this) {
+                    if (datasets.get(dataset.getId()) != dataset) {
+                        /*
+                         * The dataset has been removed whilst it was queued
+                         */
+                        return;
+                    }
+                }
                 /*
                  * This will check to see if the metadata need reloading, then
                  * go ahead if so.
+                 *
+                 * The dataset may be removed whilst it is loading, so check
+                 * again before publishing it. This is done whilst holding the
+                 * lock, so that removeDataset() can't run in between.
                  */
-                dataset.refresh(datasetStorage);
+                dataset.refresh(new DatasetStorage() {
+                    @Override
+                    public void datasetLoaded(Dataset loaded, Collection<VariableConfig> variables) {
+                        synchronized (CatalogueConfig.this) {
+                            if (datasets.get(dataset.getId()) != dataset) {
+                                log.debug("Dataset " + dataset.getId()
+                                        + " was removed whilst loading");
+                                return;
+                            }
+                            datasetStorage.datasetLoaded(loaded, variables);
+                        }
+                    }
+                });
+                if (dataset.needsScaleRanges()) {
+                    scaleRangeEstimator.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            dataset.estimateScaleRanges();
+                            try {
+                                save();
+                            } catch (Exception e) {
+                                log.error("Problem saving config after estimating scale ranges",
+                                        e);
+                            }
+                        }
+                    });
+                }
+            } finally {
+                queuedDatasets.remove(dataset);
             }
-        };
-        /*
-         * Run the task immediately, and then redo it every 1s
-         */
-        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(reloader, 0, 1,
-                TimeUnit.SECONDS);
-        /* We need to keep a handle to the Future object so we can cancel it */
-        futures.put(dataset.getId(), future);
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            if (accessCount != other.accessCount) {
+                return accessCount > other.accessCount ? -1 : 1;
+            }
+            return Integer.compare(configIndex, other.configIndex);
+        }
     }
 
     public CacheInfo getCacheSettings() {
@@ -189,30 +390,34 @@ public class CatalogueConfig {
         }
     }
 
+    /*
+     * Datasets which are added will be loaded on the next check for datasets
+     * needing a refresh, and removed datasets will no longer be checked.
+     */
+
     public synchronized void addDataset(DatasetConfig dataset) {
         datasets.put(dataset.getId(), dataset);
-        scheduleReload(dataset);
     }
 
     public synchronized void removeDataset(DatasetConfig dataset) {
         datasets.remove(dataset.getId());
-        futures.get(dataset.getId()).cancel(true);
-        futures.remove(dataset.getId());
     }
 
     public synchronized void changeDatasetId(DatasetConfig dataset, String newId) {
         datasets.remove(dataset.getId());
-        ScheduledFuture<?> removedScheduler = futures.remove(dataset.getId());
         dataset.setId(newId);
-
         datasets.put(newId, dataset);
-        futures.put(dataset.getId(), removedScheduler);
     }
 
     public synchronized void save() throws IOException {
         if (configFile == null) {
             throw new IllegalStateException("No location set for config file");
         }
+        /*
+         * This save covers any which are pending
+         */
+        savePending.set(false);
+        pendingSaves.remove(this);
         File parentDir = configFile.getParentFile();
         if (!parentDir.exists()) {
             parentDir.mkdirs();
@@ -235,10 +440,97 @@ public class CatalogueConfig {
         } catch (JAXBException e) {
             throw new IOException("Could not save file due to JAXB error", e);
         }
+
+        writeAccessCounts();
+    }
+
+    /**
+     * Saves the config after a short delay, off the calling thread. Any
+     * further calls before the save happens are covered by the same save, so
+     * this can be called frequently (e.g. every time a dataset is loaded)
+     * without repeatedly rewriting the config file. If no location has been
+     * set for the config file, this does nothing.
+     */
+    public void saveLater() {
+        if (configFile != null && savePending.compareAndSet(false, true)) {
+            pendingSaves.add(this);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    savePending();
+                }
+            }, SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void savePending() {
+        if (savePending.get()) {
+            try {
+                save();
+            } catch (IOException e) {
+                log.error("Problem saving config", e);
+            }
+        }
+    }
+
+    /*
+     * Access counts are stored separately to the main config, since they are
+     * not configuration, and change frequently.
+     */
+
+    private File getAccessCountsFile() {
+        return new File(configFile.getAbsolutePath() + ".access");
+    }
+
+    private void readAccessCounts() {
+        if (configFile == null || !getAccessCountsFile().exists()) {
+            return;
+        }
+        Properties accessCounts = new Properties();
+        try (FileInputStream in = new FileInputStream(getAccessCountsFile())) {
+            accessCounts.load(in);
+        } catch (IOException e) {
+            log.warn("Could not read dataset access counts.  Datasets will be loaded in order", e);
+            return;
+        }
+        for (DatasetConfig dataset : datasets.values()) {
+            String count = accessCounts.getProperty(dataset.getId());
+            if (count != null) {
+                try {
+                    dataset.setAccessCount(Long.parseLong(count.trim()));
+                } catch (NumberFormatException e) {
+                    log.warn("Invalid access count for dataset " + dataset.getId());
+                }
+            }
+        }
+    }
+
+    private void writeAccessCounts() {
+        Properties accessCounts = new Properties();
+        for (DatasetConfig dataset : datasets.values()) {
+            accessCounts.setProperty(dataset.getId(), Long.toString(dataset.getAccessCount()));
+        }
+        if (accessCounts.equals(writtenAccessCounts)) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(getAccessCountsFile())) {
+            accessCounts.store(out, "Number of accesses to each dataset");
+            writtenAccessCounts = accessCounts;
+        } catch (IOException e) {
+            log.warn("Could not save dataset access counts", e);
+        }
     }
 
     public static void shutdown() {
+        /*
+         * Don't lose any changes which are waiting to be saved
+         */
+        for (CatalogueConfig config : pendingSaves.toArray(new CatalogueConfig[0])) {
+            config.savePending();
+        }
         scheduler.shutdownNow();
+        loader.shutdownNow();
+        scaleRangeEstimator.shutdownNow();
     }
 
     @Override
@@ -326,6 +618,28 @@ public class CatalogueConfig {
         }
     }
 
+    /**
+     * Creates named daemon threads of a given priority for loading datasets
+     */
+    private static class LoaderThreadFactory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public LoaderThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        }
+    }
+
     /**
      * Defines an entry point for what to do once a {@link Dataset} has been
      * loaded (i.e. had all of its metadata read and processed)
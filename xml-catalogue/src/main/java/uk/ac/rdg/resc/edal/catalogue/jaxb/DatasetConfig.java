@@ -36,6 +36,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -120,6 +122,13 @@ public class DatasetConfig {
     @XmlAttribute(name = "updateInterval")
     private int updateInterval = -1;
 
+    /*
+     * The maximum number of reads which may take place on the underlying data
+     * at once. 1 means that reads on the same location are serialised
+     */
+    @XmlAttribute(name = "maxConcurrentReads")
+    private int maxConcurrentReads = 1;
+
     @XmlAttribute(name = "metadataUrl")
     private String metadataUrl = null;
 
@@ -146,7 +155,7 @@ public class DatasetConfig {
      * State of this dataset.
      */
     @XmlTransient
-    private DatasetState state = DatasetState.NEEDS_REFRESH;
+    private volatile DatasetState state = DatasetState.NEEDS_REFRESH;
     /* Set if there is an error loading the dataset */
     @XmlTransient
     private Exception err;
@@ -161,7 +170,36 @@ public class DatasetConfig {
      * line at a time
      */
     @XmlTransient
-    private List<String> loadingProgress = new ArrayList<String>();
+    private List<String> loadingProgress = new CopyOnWriteArrayList<String>();
+    /* The time at which the current (or most recent) load started */
+    @XmlTransient
+    private long loadStartTime = 0L;
+    /*
+     * The time taken (in ms) for the most recent successful load, or -1 if
+     * the dataset has not yet been loaded
+     */
+    @XmlTransient
+    private long lastLoadMillis = -1L;
+    /*
+     * The number of times this dataset has been accessed. This is used to
+     * prioritise the loading of datasets
+     */
+    @XmlTransient
+    private final AtomicLong accessCount = new AtomicLong(0L);
+    /*
+     * Newly-created variables whose default colour scale ranges have yet to be
+     * estimated, and the Dataset to estimate them from
+     */
+    @XmlTransient
+    private List<VariableConfig> unscaledVariables = new ArrayList<VariableConfig>();
+    @XmlTransient
+    private Dataset unscaledDataset = null;
+    /*
+     * Whether variables read from the config have been checked for missing
+     * colour scale ranges
+     */
+    @XmlTransient
+    private boolean scaleRangesChecked = false;
     /*
      * The time at which this dataset's stored Layers were last successfully
      * updated, or null if the Layers have not yet been loaded
@@ -174,6 +212,12 @@ public class DatasetConfig {
      */
     @XmlTransient
     private DateTime lastFailedUpdateTime = null;
+    /*
+     * Set when a refresh has been requested (e.g. because the underlying data
+     * have changed) without making the dataset unavailable in the meantime
+     */
+    @XmlTransient
+    private volatile boolean refreshRequested = false;
 
     public DatasetConfig() {
     }
@@ -194,7 +238,9 @@ public class DatasetConfig {
         if (!needsRefresh()) {
             return;
         }
-        loadingProgress = new ArrayList<String>();
+        refreshRequested = false;
+        loadingProgress = new CopyOnWriteArrayList<String>();
+        loadStartTime = System.currentTimeMillis();
         /*
          * Include the id of the dataset in the thread for debugging purposes
          * Comment this out to use the default thread names (e.g.
@@ -220,6 +266,7 @@ public class DatasetConfig {
             numErrorsInARow = 0;
             state = DatasetState.READY;
             lastSuccessfulUpdateTime = new DateTime();
+            lastLoadMillis = System.currentTimeMillis() - loadStartTime;
         } catch (Exception e) {
             state = DatasetState.ERROR;
             numErrorsInARow++;
@@ -238,22 +285,22 @@ public class DatasetConfig {
 
     public void createDataset(DatasetStorage datasetStorage) throws InstantiationException,
             IllegalAccessException, ClassNotFoundException, IOException, EdalException {
-        loadingProgress.add("Starting loading");
+        addProgress("Starting loading");
 
         /*
          * Get the appropriate DatasetFactory
          */
         DatasetFactory factory = DatasetFactory.forName(dataReaderClass);
 
-        loadingProgress.add("Using dataset factory: " + factory.getClass());
+        addProgress("Using dataset factory: " + factory.getClass());
 
         /*
          * TODO In the old version, we dealt with OPeNDAP credentials here...
          */
 
-        Dataset dataset = factory.createDataset(id, location);
+        Dataset dataset = factory.createDataset(id, location, maxConcurrentReads);
 
-        loadingProgress.add("Dataset created");
+        addProgress("Dataset created");
         /*
          * Loop through existing variables and check that they are still there,
          * removing them if not
@@ -271,33 +318,99 @@ public class DatasetConfig {
         /*
          * Now create any new variable objects which are needed.
          */
+        List<VariableConfig> newVariables = new ArrayList<VariableConfig>();
         for (String varId : variableIds) {
             if (!variables.containsKey(varId)) {
-                loadingProgress.add("Creating default metadata for variable: " + varId);
+                addProgress("Creating default metadata for variable: " + varId);
                 /*
                  * Create a new variable object with default values.
+                 * 
+                 * The colour scale range is the one declared by the data
+                 * source, if any. Otherwise it is left unset here (which means
+                 * "auto-scale" when plotting) - estimating it requires reading
+                 * data, so it is done later by estimateScaleRanges() to avoid
+                 * holding up the availability of the dataset.
                  */
-                Extent<Float> colorScaleRange = GraphicsUtils.estimateValueRange(dataset, varId);
                 VariableMetadata variableMetadata = dataset.getVariableMetadata(varId);
+                Extent<Float> declaredRange = variableMetadata.getParameter().getValueRange();
                 VariableConfig variable = new VariableConfig(varId, varId, variableMetadata
-                        .getParameter().getDescription(), colorScaleRange,
+                        .getParameter().getDescription(), declaredRange,
                         ColourPalette.DEFAULT_PALETTE_NAME, Color.black, Color.black, new Color(0,
                                 true), "linear", ColourPalette.MAX_NUM_COLOURS);
                 variable.setParentDataset(this);
                 variables.put(varId, variable);
+                if (declaredRange == null) {
+                    newVariables.add(variable);
+                }
+            }
+        }
+        if (!scaleRangesChecked) {
+            /*
+             * Variables read from the config may not have had their colour
+             * scale ranges estimated yet, if the server was stopped before
+             * estimation finished
+             */
+            for (VariableConfig variable : variables.values()) {
+                if (!variable.hasColorScaleRange() && !newVariables.contains(variable)) {
+                    newVariables.add(variable);
+                }
+            }
+            scaleRangesChecked = true;
+        }
+        if (!newVariables.isEmpty()) {
+            synchronized (this) {
+                unscaledVariables.addAll(newVariables);
+                unscaledDataset = dataset;
             }
         }
 
-        loadingProgress.add("Making this dataset available through the WMS catalogue");
+        addProgress("Making this dataset available through the WMS catalogue");
         datasetStorage.datasetLoaded(dataset, variables.values());
 
-        loadingProgress.add("Finished loading dataset metadata");
+        addProgress("Finished loading dataset metadata");
     }
 
-    private boolean needsRefresh() {
+    /**
+     * @return <code>true</code> if there are variables in this dataset whose
+     *         default colour scale ranges need to be estimated with
+     *         {@link DatasetConfig#estimateScaleRanges()}
+     */
+    public synchronized boolean needsScaleRanges() {
+        return !unscaledVariables.isEmpty();
+    }
+
+    /**
+     * Estimates the default colour scale ranges of any variables which were
+     * created in the most recent load of this dataset. This reads data, and so
+     * may take some time.
+     */
+    public void estimateScaleRanges() {
+        List<VariableConfig> toEstimate;
+        Dataset dataset;
+        synchronized (this) {
+            toEstimate = unscaledVariables;
+            dataset = unscaledDataset;
+            unscaledVariables = new ArrayList<VariableConfig>();
+            unscaledDataset = null;
+        }
+        for (VariableConfig variable : toEstimate) {
+            long start = System.currentTimeMillis();
+            variable.setColorScaleRange(GraphicsUtils.estimateValueRange(dataset,
+                    variable.getId()));
+            loadingProgress.add("Estimated colour scale range for variable: " + variable.getId()
+                    + " (" + (System.currentTimeMillis() - start) + " ms)");
+        }
+    }
+
+    private void addProgress(String message) {
+        loadingProgress.add(message + " (" + (System.currentTimeMillis() - loadStartTime)
+                + " ms)");
+    }
+
+    boolean needsRefresh() {
         if (disabled || state == DatasetState.LOADING || state == DatasetState.UPDATING) {
             return false;
-        } else if (state == DatasetState.NEEDS_REFRESH) {
+        } else if (state == DatasetState.NEEDS_REFRESH || refreshRequested) {
             return true;
         } else if (state == DatasetState.ERROR) {
             /*
@@ -323,6 +436,15 @@ public class DatasetConfig {
         }
     }
 
+    /**
+     * Requests that this dataset is refreshed the next time it has an
+     * opportunity. Unlike {@link DatasetConfig#forceRefresh()}, the dataset
+     * remains available until the refresh has completed.
+     */
+    public void requestRefresh() {
+        refreshRequested = true;
+    }
+
     /**
      * Forces this dataset to be refreshed the next time it has an opportunity
      */
@@ -331,6 +453,26 @@ public class DatasetConfig {
         this.state = DatasetState.NEEDS_REFRESH;
     }
 
+    /**
+     * Records an access to this dataset
+     */
+    public void recordAccess() {
+        accessCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of times this dataset has been accessed. This
+     *         includes accesses from previous runs if the counts have been
+     *         persisted
+     */
+    public long getAccessCount() {
+        return accessCount.get();
+    }
+
+    void setAccessCount(long accessCount) {
+        this.accessCount.set(accessCount);
+    }
+
     /*
      * Bean methods
      */
@@ -385,6 +527,14 @@ public class DatasetConfig {
         return updateInterval;
     }
 
+    /**
+     * @return The maximum number of reads which the {@link Dataset} may perform
+     *         concurrently on its underlying data
+     */
+    public int getMaxConcurrentReads() {
+        return maxConcurrentReads;
+    }
+
     /**
      * @return The class used to convert the location given in
      *         {@link DatasetConfig#getLocation()} to a {@link Dataset}
@@ -471,6 +621,14 @@ public class DatasetConfig {
         return loadingProgress;
     }
 
+    /**
+     * @return The time taken (in milliseconds) for the most recent successful
+     *         load of this dataset, or -1 if it has not yet been loaded
+     */
+    public long getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
     /**
      * @return <code>true</code> if this dataset is ready for use
      */
@@ -562,6 +720,10 @@ public class DatasetConfig {
         this.updateInterval = updateInterval;
     }
 
+    public void setMaxConcurrentReads(int maxConcurrentReads) {
+        this.maxConcurrentReads = maxConcurrentReads;
+    }
+
     public void setMetadataUrl(String metadataUrl) {
         this.metadataUrl = metadataUrl;
     }
@@ -213,6 +213,14 @@ public class VariableConfig implements EnhancedVariableMetadata {
         return colorScaleRange;
     }
 
+    /**
+     * @return Whether a default colour scale range has been set for this
+     *         variable
+     */
+    boolean hasColorScaleRange() {
+        return colorScaleRange != null;
+    }
+
     public void setPaletteName(String paletteName) {
         this.paletteName = paletteName;
     }